@@ -21,6 +21,7 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.myapplication.crypto.Autotuner;
 import com.example.myapplication.crypto.CryptoListener;
 import com.example.myapplication.crypto.CryptoManager;
 import com.example.myapplication.crypto.CryptoOptions;
@@ -28,7 +29,6 @@ import com.example.myapplication.crypto.FileHeader;
 import com.example.myapplication.util.FileUtils;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
-import java.io.File;
 import java.io.FileInputStream;
 
 public class AdvancedDecryptionActivity extends AppCompatActivity implements CryptoListener {
@@ -49,15 +49,18 @@ public class AdvancedDecryptionActivity extends AppCompatActivity implements Cry
     private BottomNavigationView bottomNav;
     private View manualSettingsLayout;
     private CryptoManager cryptoManager;
+    private Autotuner autotuner;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_advanced_decryption);
         cryptoManager = new CryptoManager();
+        autotuner = ((CryptoApplication) getApplication()).getAutotuner();
         initializeViews();
         setupSpinners();
         setupSliders();
+        applyTunedDefaults();
         setupButtonListeners();
         setupCheckboxListener();
         setupBottomNavigation();
@@ -70,6 +73,19 @@ public class AdvancedDecryptionActivity extends AppCompatActivity implements Cry
 
     // ... (Menu methods are unchanged)
 
+    /**
+     * Starts the sliders at the device profile's tuned values for the default options.
+     */
+    private void applyTunedDefaults() {
+        Autotuner.Settings tuned = autotuner.getSettings(CryptoOptions.getDefault());
+        for (int progress = 0; progress <= chunkSizeSlider.getMax(); progress++) {
+            if (getChunkSizeInBytes(progress) >= tuned.getChunkSize()) {
+                chunkSizeSlider.setProgress(progress);
+                break;
+            }
+        }
+    }
+
     private void setupBottomNavigation() {
         bottomNav.setSelectedItemId(R.id.nav_decrypt);
         bottomNav.setOnItemSelectedListener(item -> {
@@ -21,13 +21,13 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.myapplication.crypto.Autotuner;
 import com.example.myapplication.crypto.CryptoListener;
 import com.example.myapplication.crypto.CryptoManager;
 import com.example.myapplication.crypto.CryptoOptions;
 import com.example.myapplication.util.FileUtils;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
-import java.io.File;
 import java.util.Arrays;
 
 public class AdvancedEncryptionActivity extends AppCompatActivity implements CryptoListener {
@@ -46,15 +46,18 @@ public class AdvancedEncryptionActivity extends AppCompatActivity implements Cry
     private LinearLayout tagLengthLayout;
     private BottomNavigationView bottomNav;
     private CryptoManager cryptoManager;
+    private Autotuner autotuner;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_advanced_encryption);
         cryptoManager = new CryptoManager();
+        autotuner = ((CryptoApplication) getApplication()).getAutotuner();
         initializeViews();
         setupSpinners();
         setupSliders();
+        applyTunedDefaults();
         setupButtonListeners();
         setupBottomNavigation();
     }
@@ -65,6 +68,20 @@ public class AdvancedEncryptionActivity extends AppCompatActivity implements Cry
 
     // ... (Menu methods are unchanged)
 
+    /**
+     * Starts the sliders at the device profile's tuned values for the default options.
+     */
+    private void applyTunedDefaults() {
+        Autotuner.Settings tuned = autotuner.getSettings(CryptoOptions.getDefault());
+        for (int progress = 0; progress <= chunkSizeSlider.getMax(); progress++) {
+            if (getChunkSizeInBytes(progress) >= tuned.getChunkSize()) {
+                chunkSizeSlider.setProgress(progress);
+                break;
+            }
+        }
+        threadCountSlider.setProgress(Math.min(threadCountSlider.getMax(), tuned.getThreadCount() - 1));
+    }
+
     private void setupBottomNavigation() {
         bottomNav.setSelectedItemId(R.id.nav_encrypt);
         bottomNav.setOnItemSelectedListener(item -> {
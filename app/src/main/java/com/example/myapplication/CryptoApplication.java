@@ -0,0 +1,68 @@
+package com.example.myapplication;
+
+import android.app.Application;
+import android.util.Log;
+
+import com.example.myapplication.crypto.Autotuner;
+import com.example.myapplication.crypto.CryptoBootstrap;
+import com.example.myapplication.crypto.CryptoListener;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Starts the crypto warm-up as soon as the process starts, so the first job does not pay for
+ * provider registration and class loading. Timings go to logcat under the "CryptoBootstrap" tag.
+ * Also owns the one Autotuner every screen shares, so they all read and write the same profile.
+ */
+public class CryptoApplication extends Application {
+
+    private static final String TAG = "CryptoBootstrap";
+    private static final String AUTOTUNER_TAG = "Autotuner";
+
+    private Autotuner autotuner;
+    private CompletableFuture<Autotuner.Settings> simpleCalibration;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        autotuner = new Autotuner(new File(getFilesDir(), "crypto_profile.properties"));
+        // Simple mode's cipher is the one most likely to be used first.
+        CryptoBootstrap.warmUp(autotuner::getSimpleDefault)
+                .whenComplete((report, error) -> {
+                    if (error != null) {
+                        Log.w(TAG, "Crypto warm-up failed", error);
+                    } else {
+                        Log.i(TAG, report.toString());
+                    }
+                });
+    }
+
+    public Autotuner getAutotuner() {
+        return autotuner;
+    }
+
+    /**
+     * Picks and calibrates the Simple mode cipher once per process, in the background. Progress goes to
+     * logcat rather than to a screen, since the calibration may well outlive the one that asked for it.
+     */
+    public synchronized void calibrateSimpleDefault() {
+        if (simpleCalibration != null) {
+            return;
+        }
+        simpleCalibration = autotuner.calibrateSimpleDefaultAsync(getCacheDir(), new LogcatListener());
+        simpleCalibration.whenComplete((settings, error) -> {
+            if (error != null) {
+                Log.w(AUTOTUNER_TAG, "Calibration skipped", error);
+            }
+        });
+    }
+
+    private static class LogcatListener implements CryptoListener {
+        @Override public void onStart(long totalBytes) { }
+        @Override public void onProgress(long currentBytes, long totalBytes) { }
+        @Override public void onSuccess(String message, String outputPath) { }
+        @Override public void onError(String message, Exception e) { Log.w(AUTOTUNER_TAG, message, e); }
+        @Override public void onLog(String message) { Log.i(AUTOTUNER_TAG, message); }
+    }
+}
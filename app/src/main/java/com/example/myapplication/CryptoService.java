@@ -0,0 +1,379 @@
+package com.example.myapplication;
+
+import android.app.Activity;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.core.app.NotificationCompat;
+
+import com.example.myapplication.crypto.CryptoJob;
+import com.example.myapplication.crypto.CryptoListener;
+import com.example.myapplication.crypto.CryptoManager;
+import com.example.myapplication.crypto.CryptoOptions;
+import com.example.myapplication.crypto.JobResult;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Foreground service that owns running crypto jobs, so they survive the activity being
+ * recreated or backgrounded. It holds a partial wake lock while work is in flight, shows
+ * progress in a notification, and lets any activity bind and re-attach a CryptoListener.
+ * Copying the result back over the user's file is done here too, since the activity that
+ * started the job may be gone by the time it finishes. It runs one job at a time: the replay
+ * state and the notification describe that job, so a second start is refused until it is done.
+ */
+public class CryptoService extends Service {
+
+    private static final String CHANNEL_ID = "crypto_jobs";
+    private static final int NOTIFICATION_ID = 1;
+    private static final long WAKE_LOCK_TIMEOUT_MS = 4 * 60 * 60 * 1000L; // Safety net for a stuck job
+    private static final long NOTIFICATION_INTERVAL_MS = 500; // The system drops faster updates anyway
+    static final String EXTRA_RETURN_TO = "com.example.myapplication.extra.RETURN_TO";
+
+    private final IBinder binder = new LocalBinder();
+    private final CryptoManager cryptoManager = new CryptoManager();
+    private final List<CryptoListener> attachedListeners = new CopyOnWriteArrayList<>();
+
+    private NotificationManager notificationManager;
+    private PowerManager.WakeLock wakeLock;
+    private int activeJobs;
+    private CryptoJob currentJob;
+    private String currentTitle;
+    // The screen the notification opens: the one that started the job, the launcher screen until known.
+    private volatile ComponentName returnTo;
+
+    // Last known state, replayed to listeners that attach mid-job or after it finished.
+    private volatile long lastTotalBytes = -1;
+    private volatile long lastCurrentBytes;
+    private long lastNotificationTime;
+    private Runnable pendingOutcome;
+
+    public class LocalBinder extends Binder {
+        public CryptoService getService() {
+            return CryptoService.this;
+        }
+    }
+
+    /**
+     * Starts the service in the foreground so that a job submitted right after keeps running unbound.
+     * Tapping the notification returns to returnTo. Check {@link #isBusy()} first: the job that is
+     * already running would otherwise take the new screen as its own.
+     */
+    public static void start(Context context, Class<? extends Activity> returnTo) {
+        Intent intent = startIntent(context, returnTo);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    static Intent startIntent(Context context, Class<? extends Activity> returnTo) {
+        return new Intent(context, CryptoService.class)
+                .putExtra(EXTRA_RETURN_TO, new ComponentName(context, returnTo));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Encryption jobs", NotificationManager.IMPORTANCE_LOW);
+            notificationManager.createNotificationChannel(channel);
+        }
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "MyApplication:CryptoJob");
+        wakeLock.setReferenceCounted(false);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        synchronized (this) {
+            ComponentName target = intent != null ? intent.getParcelableExtra(EXTRA_RETURN_TO) : null;
+            if (target != null) {
+                returnTo = target;
+            }
+            // Must be called promptly after startForegroundService, even before any job is submitted.
+            Notification notification = buildNotification(currentTitle != null ? currentTitle : "Preparing...", 0, 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+            } else {
+                startForeground(NOTIFICATION_ID, notification);
+            }
+            // start() is followed straight away by a job, so nothing in flight means that job has
+            // already finished, before this command was delivered. Nobody else will stop us then.
+            if (activeJobs == 0) {
+                stopIdle();
+            }
+        }
+        // Jobs hold passwords only in memory, so there is nothing to restart after the process dies.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Encrypts in the service. If overwriteUri is set, the result replaces that document on success.
+     * Every path in tempFiles is deleted once the job has finished, whatever the outcome.
+     */
+    public CryptoJob startEncrypt(String sourcePath, String destPath, char[] password, CryptoOptions options,
+                                  int chunkSize, int threadCount, Uri overwriteUri, String... tempFiles) {
+        JobListener listener = beginJob("Encrypting");
+        CryptoJob job = cryptoManager.submitEncrypt(sourcePath, destPath, password, options, chunkSize, threadCount, listener);
+        track(job, listener, overwriteUri, tempFiles);
+        return job;
+    }
+
+    public CryptoJob startDecrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions,
+                                  int chunkSize, int threadCount, Uri overwriteUri, String... tempFiles) {
+        JobListener listener = beginJob("Decrypting");
+        CryptoJob job = cryptoManager.submitDecrypt(sourcePath, destPath, password, manualOptions, chunkSize, threadCount, listener);
+        track(job, listener, overwriteUri, tempFiles);
+        return job;
+    }
+
+    public CryptoJob getCurrentJob() {
+        return currentJob;
+    }
+
+    /**
+     * Whether a job is still in flight, including writing its result back; a new one would be refused.
+     */
+    public synchronized boolean isBusy() {
+        return activeJobs > 0;
+    }
+
+    /**
+     * Attaches a listener and brings it up to date: progress of a running job, or the outcome of a
+     * job that finished while nobody was attached.
+     */
+    public void attach(CryptoListener listener) {
+        attachedListeners.add(listener);
+        Runnable outcome;
+        synchronized (this) {
+            outcome = pendingOutcome;
+            pendingOutcome = null;
+        }
+        if (currentJob != null && !currentJob.getStatus().isFinished() && lastTotalBytes >= 0) {
+            listener.onStart(lastTotalBytes);
+            listener.onProgress(lastCurrentBytes, lastTotalBytes);
+        }
+        if (outcome != null) {
+            outcome.run();
+        }
+    }
+
+    public void detach(CryptoListener listener) {
+        attachedListeners.remove(listener);
+    }
+
+    /**
+     * Resets the replay state and takes the wake lock before the job is queued, so no early event is lost.
+     *
+     * @throws IllegalStateException if another job has not finished yet.
+     */
+    private synchronized JobListener beginJob(String title) {
+        if (activeJobs > 0) {
+            throw new IllegalStateException("Another job is still running.");
+        }
+        activeJobs++;
+        currentTitle = title;
+        lastTotalBytes = -1;
+        lastCurrentBytes = 0;
+        pendingOutcome = null;
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+        notificationManager.notify(NOTIFICATION_ID, buildNotification(title, 0, 0));
+        return new JobListener(title);
+    }
+
+    private synchronized void track(CryptoJob job, JobListener listener, Uri overwriteUri, String[] tempFiles) {
+        currentJob = job;
+        job.getResult().whenComplete((result, error) -> {
+            Runnable outcome;
+            if (error == null) {
+                outcome = finishSuccessfully(result, overwriteUri);
+            } else {
+                Exception cause = error instanceof Exception ? (Exception) error : new Exception(error);
+                String message = listener.errorMessage != null ? listener.errorMessage : "Job failed.";
+                outcome = () -> dispatchError(message, cause);
+            }
+            for (String path : tempFiles) {
+                if (path != null) new File(path).delete();
+            }
+            onJobFinished(outcome);
+        });
+    }
+
+    private Runnable finishSuccessfully(JobResult result, Uri overwriteUri) {
+        if (overwriteUri != null) {
+            try {
+                overwrite(overwriteUri, result.getOutputPath());
+            } catch (Exception e) {
+                return () -> dispatchError("Failed to overwrite original file", e);
+            } finally {
+                new File(result.getOutputPath()).delete();
+            }
+        }
+        return () -> {
+            for (CryptoListener listener : attachedListeners) {
+                listener.onLog(result.getMetrics().toString());
+                listener.onSuccess(result.getMessage(), result.getOutputPath());
+            }
+        };
+    }
+
+    private void dispatchError(String message, Exception e) {
+        for (CryptoListener listener : attachedListeners) {
+            listener.onError(message, e);
+        }
+    }
+
+    private void onJobFinished(Runnable outcome) {
+        boolean deliverNow;
+        synchronized (this) {
+            deliverNow = !attachedListeners.isEmpty();
+            if (!deliverNow) {
+                pendingOutcome = outcome;
+            }
+            // Idle before the outcome goes out, so a listener can start the next job straight from it.
+            activeJobs--;
+            if (activeJobs == 0) {
+                stopIdle();
+            }
+        }
+        if (deliverNow) {
+            outcome.run();
+        }
+    }
+
+    /**
+     * Releases the wake lock and leaves the foreground. Runs from whichever comes last, the job
+     * completing or onStartCommand, so the notification never outlives the work. The notification
+     * is cancelled explicitly too, as beginJob() may have posted it before the service was in the
+     * foreground, and stopForeground() only removes it once it is.
+     */
+    private void stopIdle() {
+        if (wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        stopForeground(true);
+        notificationManager.cancel(NOTIFICATION_ID);
+        stopSelf();
+    }
+
+    private void overwrite(Uri uri, String resultPath) throws IOException {
+        try (InputStream in = new FileInputStream(resultPath);
+             OutputStream out = getContentResolver().openOutputStream(uri, "wt")) { // 'wt' for write and truncate
+            if (out == null) {
+                throw new IOException("Failed to open output stream for URI: " + uri);
+            }
+            byte[] buffer = new byte[8192];
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+            }
+        }
+    }
+
+    private Notification buildNotification(String title, long current, long total) {
+        Intent openApp = returnTo != null ? new Intent().setComponent(returnTo) : new Intent(this, SimpleEncryptionActivity.class);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, openApp, PendingIntent.FLAG_IMMUTABLE);
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_lock_outline)
+                .setContentTitle(title)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true);
+        if (total > 0) {
+            int percent = (int) (current * 100 / total);
+            builder.setProgress(100, percent, false).setContentText(percent + "%");
+        } else {
+            builder.setProgress(0, 0, true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Receives processor callbacks for one job: records progress for re-attaching listeners,
+     * updates the notification at a bounded rate and forwards events to attached listeners.
+     * Success and failure are delivered from the job's result instead, after post-processing.
+     */
+    private class JobListener implements CryptoListener {
+        private final String title;
+        private volatile String errorMessage;
+
+        JobListener(String title) {
+            this.title = title;
+        }
+
+        @Override
+        public void onStart(long totalBytes) {
+            lastTotalBytes = totalBytes;
+            lastCurrentBytes = 0;
+            for (CryptoListener listener : attachedListeners) {
+                listener.onStart(totalBytes);
+            }
+        }
+
+        @Override
+        public void onProgress(long currentBytes, long totalBytes) {
+            lastCurrentBytes = currentBytes;
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastNotificationTime >= NOTIFICATION_INTERVAL_MS || currentBytes == totalBytes) {
+                lastNotificationTime = now;
+                notificationManager.notify(NOTIFICATION_ID, buildNotification(title, currentBytes, totalBytes));
+            }
+            for (CryptoListener listener : attachedListeners) {
+                listener.onProgress(currentBytes, totalBytes);
+            }
+        }
+
+        @Override
+        public void onSuccess(String message, String outputPath) {
+            // Delivered once the result has been written back; see track().
+        }
+
+        @Override
+        public void onError(String message, Exception e) {
+            // Delivered from the job's result; see track().
+            errorMessage = message;
+        }
+
+        @Override
+        public void onLog(String message) {
+            for (CryptoListener listener : attachedListeners) {
+                listener.onLog(message);
+            }
+        }
+    }
+}
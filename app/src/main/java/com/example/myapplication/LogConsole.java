@@ -0,0 +1,104 @@
+package com.example.myapplication;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.myapplication.crypto.LogBuffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows a {@link LogBuffer} in a RecyclerView. {@link #log} may be called from any thread and only
+ * appends to the buffer; the first line after a render schedules the next one for the coming frame,
+ * which takes everything logged in between in one batch. Only the rows on screen are ever laid out,
+ * so a long job costs the same per frame as a short one.
+ */
+public class LogConsole {
+
+    private final RecyclerView view;
+    private final LogBuffer buffer;
+    private final List<String> shown = new ArrayList<>();
+    private final Adapter adapter = new Adapter();
+    private final Runnable render = this::render;
+    private long firstShown;
+
+    public LogConsole(RecyclerView view) {
+        this(view, new LogBuffer());
+    }
+
+    public LogConsole(RecyclerView view, LogBuffer buffer) {
+        this.view = view;
+        this.buffer = buffer;
+        LinearLayoutManager layoutManager = new LinearLayoutManager(view.getContext());
+        layoutManager.setStackFromEnd(true);
+        view.setLayoutManager(layoutManager);
+        view.setAdapter(adapter);
+        view.setItemAnimator(null); // Rows arrive in bursts; animating them only costs frames
+    }
+
+    public void log(String message) {
+        if (buffer.append(message)) {
+            view.postOnAnimation(render);
+        }
+    }
+
+    public void clear() {
+        buffer.clear();
+        view.postOnAnimation(render);
+    }
+
+    private void render() {
+        // Follow the tail unless the user has scrolled up to read something.
+        boolean atBottom = !view.canScrollVertically(1);
+        int oldSize = shown.size();
+        long oldFirst = firstShown;
+        firstShown = buffer.copyTo(shown);
+
+        int removed = (int) Math.min(oldSize, firstShown - oldFirst);
+        int kept = oldSize - removed;
+        if (removed > 0) {
+            adapter.notifyItemRangeRemoved(0, removed);
+        }
+        if (shown.size() > kept) {
+            adapter.notifyItemRangeInserted(kept, shown.size() - kept);
+        }
+        if (atBottom && !shown.isEmpty()) {
+            view.scrollToPosition(shown.size() - 1);
+        }
+    }
+
+    private class Adapter extends RecyclerView.Adapter<LineHolder> {
+        @NonNull
+        @Override
+        public LineHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+            View row = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_console_line, parent, false);
+            return new LineHolder((TextView) row);
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull LineHolder holder, int position) {
+            holder.text.setText(shown.get(position));
+        }
+
+        @Override
+        public int getItemCount() {
+            return shown.size();
+        }
+    }
+
+    private static class LineHolder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        LineHolder(TextView text) {
+            super(text);
+            this.text = text;
+        }
+    }
+}
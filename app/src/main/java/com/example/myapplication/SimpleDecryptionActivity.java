@@ -1,10 +1,15 @@
 package com.example.myapplication;
 
-import android.content.ContentResolver;
+import android.Manifest;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.provider.OpenableColumns;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -15,7 +20,6 @@ import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ProgressBar;
-import android.widget.ScrollView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -23,36 +27,51 @@ import android.widget.Toast;
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 
+import com.example.myapplication.crypto.Autotuner;
+import com.example.myapplication.crypto.CryptoJob;
 import com.example.myapplication.crypto.CryptoListener;
-import com.example.myapplication.crypto.CryptoManager;
+import com.example.myapplication.crypto.CryptoOptions;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class SimpleDecryptionActivity extends AppCompatActivity implements CryptoListener {
 
     private EditText passwordInput;
     private Button fileSelectButton, decryptButton;
-    private TextView selectedFileTextView, consoleTextView, statusTextView;
+    private TextView selectedFileTextView, statusTextView;
     private ProgressBar progressBar;
-    private ScrollView consoleScrollView;
+    private LogConsole console;
     private Spinner modeSpinner;
     private BottomNavigationView bottomNav;
 
     private Uri selectedFileUri;
     private String sourcePathForTempFile; // To keep track of the temporary file
     private String selectedMode;
-    private final CryptoManager cryptoManager = new CryptoManager();
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private Autotuner autotuner;
+    private CryptoService cryptoService;
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            cryptoService = ((CryptoService.LocalBinder) binder).getService();
+            CryptoJob job = cryptoService.getCurrentJob();
+            if (job != null && !job.getStatus().isFinished()) {
+                setUiEnabled(false);
+            }
+            cryptoService.attach(SimpleDecryptionActivity.this);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            cryptoService = null;
+        }
+    };
     private ActivityResultLauncher<Intent> filePickerLauncher;
+    private ActivityResultLauncher<String> notificationPermissionLauncher;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -62,8 +81,27 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
 
         initializeViews();
         setupFilePicker();
+        setupNotificationPermission();
         setupSpinner();
         setupEventListeners();
+        setupAutotuner();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Jobs live in the service; (re-)attach to whatever is running there.
+        bindService(new Intent(this, CryptoService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (cryptoService != null) {
+            cryptoService.detach(this);
+            cryptoService = null;
+        }
+        unbindService(serviceConnection);
     }
 
     @Override
@@ -97,8 +135,8 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
         decryptButton = findViewById(R.id.decrypt_button);
         selectedFileTextView = findViewById(R.id.selected_file_textview);
         progressBar = findViewById(R.id.progress_bar);
-        consoleTextView = findViewById(R.id.console_textview);
-        consoleScrollView = findViewById(R.id.console_scrollview);
+        console = new LogConsole(findViewById(R.id.console_recyclerview));
+        console.log("Console waiting for output...");
         statusTextView = findViewById(R.id.status_textview);
         modeSpinner = findViewById(R.id.mode_spinner);
         bottomNav = findViewById(R.id.bottom_nav);
@@ -115,6 +153,28 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
                 });
     }
 
+    private void setupNotificationPermission() {
+        // Jobs run without it too; the progress notification is simply not shown.
+        notificationPermissionLauncher = registerForActivityResult(
+                new ActivityResultContracts.RequestPermission(),
+                granted -> {
+                    if (!granted) {
+                        onLog("Notifications are off; progress is only shown here.");
+                    }
+                });
+    }
+
+    /**
+     * Asks for POST_NOTIFICATIONS (Android 13+) as a job is handed to CryptoService, which reports
+     * its progress in a notification. The job does not wait for the answer.
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            notificationPermissionLauncher.launch(Manifest.permission.POST_NOTIFICATIONS);
+        }
+    }
+
     private void setupSpinner() {
         String[] modes = {"Efficiency", "Performance"};
         ArrayAdapter<String> adapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, modes);
@@ -133,6 +193,13 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
         selectedMode = modes[0]; // Default
     }
 
+    private void setupAutotuner() {
+        // Shared with the other screens; the calibration reports to logcat, so it never holds on to this one.
+        CryptoApplication app = (CryptoApplication) getApplication();
+        autotuner = app.getAutotuner();
+        app.calibrateSimpleDefault();
+    }
+
     private void setupEventListeners() {
         fileSelectButton.setOnClickListener(v -> {
             Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
@@ -175,22 +242,35 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
             sourcePathForTempFile = getPathFromUri(selectedFileUri);
             if (sourcePathForTempFile == null) return;
 
-            int threads = "Performance".equals(selectedMode) ? Math.max(2, Runtime.getRuntime().availableProcessors()) : 1;
-            int chunkSize = 1024 * 1024; // 1 MB
+            // Simple mode encrypts with this device's default options, so their profile applies here too.
+            CryptoOptions options = autotuner.getSimpleDefault();
+            Autotuner.Settings tuned = autotuner.getSettings(options);
+            int threads = "Performance".equals(selectedMode) ? tuned.getThreadCount() : 1;
+            int chunkSize = tuned.getChunkSize();
             String originalFileName = getFileName(selectedFileUri).replaceAll("\\.enc$", "");
             String destPath = getCacheDir().getAbsolutePath() + "/dec_" + originalFileName;
 
             resetUiState();
             setUiEnabled(false);
             onLog("Starting decryption...");
+            long estimate = autotuner.predictDurationMillis(options, new File(sourcePathForTempFile).length());
+            if (estimate >= 0) {
+                onLog("Estimated time: " + (estimate / 1000.0) + " s");
+            }
 
-            executor.submit(() -> {
-                try {
-                    cryptoManager.decrypt(sourcePathForTempFile, destPath, password, null, chunkSize, threads, this);
-                } catch (Exception e) {
-                    onError("Decryption failed", e);
-                }
-            });
+            if (cryptoService == null) {
+                onError("Decryption service is not ready yet, please try again.", null);
+                return;
+            }
+            if (cryptoService.isBusy()) {
+                onError("Another job is still running, please wait for it to finish.", null);
+                return;
+            }
+            requestNotificationPermission();
+            CryptoService.start(this, SimpleDecryptionActivity.class);
+            // The service writes the result back over the original file and removes both temp files.
+            cryptoService.startDecrypt(sourcePathForTempFile, destPath, password, null, chunkSize, threads, selectedFileUri, sourcePathForTempFile, destPath);
+            sourcePathForTempFile = null;
 
         } catch (Exception e) {
             onError("Failed to start decryption", e);
@@ -201,39 +281,13 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
     public void onSuccess(String message, String outputPath) {
         runOnUiThread(() -> {
             onLog("[SUCCESS] " + message);
-            onLog("Overwriting original file...");
-            try {
-                overwriteOriginalFile(outputPath);
-                onLog("File overwritten successfully.");
-                Toast.makeText(this, "Decryption Successful!", Toast.LENGTH_SHORT).show();
-                statusTextView.setText("✓ SUCCESS");
-            } catch (Exception e) {
-                onError("Failed to overwrite original file", e);
-            } finally {
-                cleanupTempFiles(outputPath);
-                setUiEnabled(true);
-                statusTextView.setVisibility(View.VISIBLE);
-            }
+            onLog("Original file overwritten.");
+            Toast.makeText(this, "Decryption Successful!", Toast.LENGTH_SHORT).show();
+            statusTextView.setText("✓ SUCCESS");
+            setUiEnabled(true);
+            statusTextView.setVisibility(View.VISIBLE);
         });
     }
-
-    private void overwriteOriginalFile(String resultPath) throws Exception {
-        if (selectedFileUri == null) {
-            throw new IllegalStateException("Original file URI is missing.");
-        }
-        ContentResolver resolver = getContentResolver();
-        try (InputStream in = new FileInputStream(resultPath); 
-             OutputStream out = resolver.openOutputStream(selectedFileUri, "wt")) { // 'wt' for write and truncate
-            if (out == null) {
-                throw new IOException("Failed to open output stream for URI: " + selectedFileUri.toString());
-            }
-            byte[] buffer = new byte[8192];
-            int len;
-            while ((len = in.read(buffer)) != -1) {
-                out.write(buffer, 0, len);
-            }
-        }
-    }
     
     private void cleanupTempFiles(String decryptedFilePath) {
         if (sourcePathForTempFile != null) {
@@ -258,7 +312,7 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
 
     private void resetUiState() {
         runOnUiThread(() -> {
-            consoleTextView.setText("");
+            console.clear();
             statusTextView.setVisibility(View.GONE);
         });
     }
@@ -328,9 +382,7 @@ public class SimpleDecryptionActivity extends AppCompatActivity implements Crypt
     }
 
     public void onLog(String message) {
-        runOnUiThread(() -> {
-            consoleTextView.append(message + "\n");
-            consoleScrollView.post(() -> consoleScrollView.fullScroll(View.FOCUS_DOWN));
-        });
+        // Safe from any thread; lines are drawn in batches at the next frame.
+        console.log(message);
     }
 }
@@ -0,0 +1,347 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.util.Pack;
+import org.bouncycastle.util.Strings;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Argon2id (RFC 9106, version 0x13) with its lanes filled in parallel. BouncyCastle's
+ * Argon2BytesGenerator computes every lane on the calling thread, so a single-lane hash is
+ * delegated to it, while for several lanes each segment of a slice runs on its own worker and
+ * the slices are joined at the sync points the algorithm defines. Both give identical output.
+ */
+final class Argon2Kdf {
+
+    private static final int BLOCK_WORDS = 128; // 1 KiB blocks
+    private static final int SYNC_POINTS = 4;
+    private static final int VERSION = Argon2Parameters.ARGON2_VERSION_13;
+    private static final int TYPE = Argon2Parameters.ARGON2_id;
+    private static final int MIN_OUTPUT_LENGTH = 4;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final CryptoOptions.Argon2Params params;
+    private final int lanes;
+    private final int segmentLength;
+    private final int laneLength;
+    private long[][] memory;
+
+    private Argon2Kdf(CryptoOptions.Argon2Params params) {
+        this.params = params;
+        this.lanes = params.getParallelism();
+        int blocks = Math.max(params.getMemoryKiB(), 2 * SYNC_POINTS * lanes);
+        this.segmentLength = blocks / (lanes * SYNC_POINTS);
+        this.laneLength = segmentLength * SYNC_POINTS;
+    }
+
+    /**
+     * Derives outputLength bytes from the password. Lanes beyond the first run on the executor.
+     */
+    static byte[] derive(char[] password, byte[] salt, CryptoOptions.Argon2Params params, int outputLength, ExecutorService executor) throws InterruptedException {
+        // Argon2 tags are at least four bytes; shorter keys are a prefix of one.
+        int tagLength = Math.max(outputLength, MIN_OUTPUT_LENGTH);
+        byte[] tag = new byte[tagLength];
+        if (params.getParallelism() == 1) {
+            Argon2BytesGenerator generator = new Argon2BytesGenerator();
+            generator.init(new Argon2Parameters.Builder(TYPE)
+                    .withVersion(VERSION)
+                    .withMemoryAsKB(params.getMemoryKiB())
+                    .withIterations(params.getIterations())
+                    .withParallelism(1)
+                    .withSalt(salt)
+                    .build());
+            generator.generateBytes(password, tag);
+        } else {
+            byte[] passwordBytes = Strings.toUTF8ByteArray(password);
+            try {
+                new Argon2Kdf(params).hash(passwordBytes, salt, EMPTY, EMPTY, tag, executor);
+            } finally {
+                Arrays.fill(passwordBytes, (byte) 0);
+            }
+        }
+        return tagLength == outputLength ? tag : Arrays.copyOf(tag, outputLength);
+    }
+
+    /**
+     * Argon2id with every input of RFC 9106, including the secret and associated data that derive()
+     * leaves empty, always computed here rather than by BouncyCastle. Used to check the lane
+     * scheduling against the RFC's test vectors.
+     */
+    static byte[] compute(byte[] password, byte[] salt, byte[] secret, byte[] associatedData, CryptoOptions.Argon2Params params,
+                          int tagLength, ExecutorService executor) throws InterruptedException {
+        if (tagLength < MIN_OUTPUT_LENGTH) {
+            throw new IllegalArgumentException("Argon2 tags are at least " + MIN_OUTPUT_LENGTH + " bytes.");
+        }
+        byte[] tag = new byte[tagLength];
+        new Argon2Kdf(params).hash(password, salt, secret, associatedData, tag, executor);
+        return tag;
+    }
+
+    private void hash(byte[] password, byte[] salt, byte[] secret, byte[] associatedData, byte[] tag, ExecutorService executor)
+            throws InterruptedException {
+        memory = new long[lanes * laneLength][]; // One array per block, so no single huge allocation is needed
+        try {
+            byte[] h0 = initialHash(password, salt, secret, associatedData, tag.length);
+            for (int lane = 0; lane < lanes; lane++) {
+                memory[lane * laneLength] = initialBlock(h0, 0, lane);
+                memory[lane * laneLength + 1] = initialBlock(h0, 1, lane);
+            }
+            for (int pass = 0; pass < params.getIterations(); pass++) {
+                for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                    fillSlice(pass, slice, executor);
+                }
+            }
+            finish(tag);
+        } finally {
+            for (long[] block : memory) {
+                if (block != null) {
+                    Arrays.fill(block, 0);
+                }
+            }
+            memory = null;
+        }
+    }
+
+    /**
+     * Fills one segment in every lane. Segments in the same slice only read blocks from earlier slices
+     * (or their own lane), so they can run concurrently; the caller's thread takes lane 0.
+     */
+    private void fillSlice(int pass, int slice, ExecutorService executor) throws InterruptedException {
+        List<Future<?>> others = new ArrayList<>();
+        for (int lane = 1; lane < lanes; lane++) {
+            final int l = lane;
+            others.add(executor.submit(() -> fillSegment(pass, l, slice)));
+        }
+        fillSegment(pass, 0, slice);
+        try {
+            for (Future<?> future : others) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Argon2 lane failed.", e.getCause());
+        } catch (InterruptedException e) {
+            for (Future<?> future : others) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+    }
+
+    private void fillSegment(int pass, int lane, int slice) {
+        long[] r = new long[BLOCK_WORDS];
+        long[] t = new long[BLOCK_WORDS];
+        boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2; // The "i" half of Argon2id
+        long[] zero = null, input = null, addresses = null;
+        if (dataIndependent) {
+            zero = new long[BLOCK_WORDS];
+            input = new long[BLOCK_WORDS];
+            addresses = new long[BLOCK_WORDS];
+            input[0] = pass;
+            input[1] = lane;
+            input[2] = slice;
+            input[3] = (long) lanes * laneLength;
+            input[4] = params.getIterations();
+            input[5] = TYPE;
+        }
+
+        int startIndex = 0;
+        if (pass == 0 && slice == 0) {
+            startIndex = 2; // The first two blocks of every lane come from H0
+            if (dataIndependent) {
+                nextAddresses(zero, input, addresses, r, t);
+            }
+        }
+        int current = lane * laneLength + slice * segmentLength + startIndex;
+        int previous = current % laneLength == 0 ? current + laneLength - 1 : current - 1;
+
+        for (int i = startIndex; i < segmentLength; i++, current++, previous++) {
+            if (current % laneLength == 1) {
+                previous = current - 1;
+            }
+            long pseudoRandom;
+            if (dataIndependent) {
+                if (i % BLOCK_WORDS == 0) {
+                    nextAddresses(zero, input, addresses, r, t);
+                }
+                pseudoRandom = addresses[i % BLOCK_WORDS];
+            } else {
+                pseudoRandom = memory[previous][0];
+            }
+            int refLane = (pass == 0 && slice == 0) ? lane : (int) ((pseudoRandom >>> 32) % lanes);
+            int refIndex = referenceIndex(pass, slice, i, pseudoRandom & 0xFFFFFFFFL, refLane == lane);
+            long[] next = memory[current];
+            boolean withXor = pass > 0; // Version 1.3 XORs over the previous pass
+            if (next == null) {
+                next = memory[current] = new long[BLOCK_WORDS];
+            }
+            fillBlock(memory[previous], memory[refLane * laneLength + refIndex], next, withXor, r, t);
+        }
+    }
+
+    private int referenceIndex(int pass, int slice, int index, long j1, boolean sameLane) {
+        long areaSize;
+        if (pass == 0) {
+            if (slice == 0) {
+                areaSize = index - 1;
+            } else if (sameLane) {
+                areaSize = (long) slice * segmentLength + index - 1;
+            } else {
+                areaSize = (long) slice * segmentLength + (index == 0 ? -1 : 0);
+            }
+        } else if (sameLane) {
+            areaSize = laneLength - segmentLength + index - 1;
+        } else {
+            areaSize = laneLength - segmentLength + (index == 0 ? -1 : 0);
+        }
+        long relative = (j1 * j1) >>> 32;
+        relative = areaSize - 1 - ((areaSize * relative) >>> 32);
+        long start = pass != 0 && slice != SYNC_POINTS - 1 ? (long) (slice + 1) * segmentLength : 0;
+        return (int) ((start + relative) % laneLength);
+    }
+
+    private static void nextAddresses(long[] zero, long[] input, long[] addresses, long[] r, long[] t) {
+        input[6]++;
+        fillBlock(zero, input, addresses, false, r, t);
+        fillBlock(zero, addresses, addresses, false, r, t);
+    }
+
+    /**
+     * The compression function G: next = P(prev ^ ref) ^ prev ^ ref, additionally XORed with the
+     * old contents of next on later passes. r and t are scratch blocks.
+     */
+    private static void fillBlock(long[] prev, long[] ref, long[] next, boolean withXor, long[] r, long[] t) {
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            r[i] = prev[i] ^ ref[i];
+            t[i] = withXor ? r[i] ^ next[i] : r[i];
+        }
+        for (int i = 0; i < 8; i++) {
+            int b = 16 * i;
+            permute(r, b, b + 1, b + 2, b + 3, b + 4, b + 5, b + 6, b + 7,
+                    b + 8, b + 9, b + 10, b + 11, b + 12, b + 13, b + 14, b + 15);
+        }
+        for (int i = 0; i < 8; i++) {
+            int b = 2 * i;
+            permute(r, b, b + 1, b + 16, b + 17, b + 32, b + 33, b + 48, b + 49,
+                    b + 64, b + 65, b + 80, b + 81, b + 96, b + 97, b + 112, b + 113);
+        }
+        for (int i = 0; i < BLOCK_WORDS; i++) {
+            next[i] = t[i] ^ r[i];
+        }
+    }
+
+    private static void permute(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                                int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        mix(v, v0, v4, v8, v12);
+        mix(v, v1, v5, v9, v13);
+        mix(v, v2, v6, v10, v14);
+        mix(v, v3, v7, v11, v15);
+        mix(v, v0, v5, v10, v15);
+        mix(v, v1, v6, v11, v12);
+        mix(v, v2, v7, v8, v13);
+        mix(v, v3, v4, v9, v14);
+    }
+
+    private static void mix(long[] v, int a, int b, int c, int d) {
+        v[a] = blaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = blaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] = blaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = blaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    private static long blaMka(long x, long y) {
+        return x + y + 2 * (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+    }
+
+    private byte[] initialHash(byte[] password, byte[] salt, byte[] secret, byte[] associatedData, int tagLength) {
+        Blake2bDigest digest = new Blake2bDigest(512);
+        int[] header = {lanes, tagLength, params.getMemoryKiB(), params.getIterations(), VERSION, TYPE};
+        for (int value : header) {
+            updateInt(digest, value);
+        }
+        updateInt(digest, password.length);
+        digest.update(password, 0, password.length);
+        updateInt(digest, salt.length);
+        digest.update(salt, 0, salt.length);
+        updateInt(digest, secret.length);
+        digest.update(secret, 0, secret.length);
+        updateInt(digest, associatedData.length);
+        digest.update(associatedData, 0, associatedData.length);
+        byte[] h0 = new byte[64];
+        digest.doFinal(h0, 0);
+        return h0;
+    }
+
+    private static long[] initialBlock(byte[] h0, int index, int lane) {
+        byte[] input = Arrays.copyOf(h0, h0.length + 8);
+        Pack.intToLittleEndian(index, input, h0.length);
+        Pack.intToLittleEndian(lane, input, h0.length + 4);
+        byte[] bytes = variableHash(input, BLOCK_WORDS * 8);
+        long[] block = new long[BLOCK_WORDS];
+        Pack.littleEndianToLong(bytes, 0, block);
+        return block;
+    }
+
+    private void finish(byte[] tag) {
+        long[] last = memory[laneLength - 1].clone();
+        for (int lane = 1; lane < lanes; lane++) {
+            long[] block = memory[lane * laneLength + laneLength - 1];
+            for (int i = 0; i < BLOCK_WORDS; i++) {
+                last[i] ^= block[i];
+            }
+        }
+        byte[] bytes = Pack.longToLittleEndian(last);
+        byte[] out = variableHash(bytes, tag.length);
+        System.arraycopy(out, 0, tag, 0, tag.length);
+        Arrays.fill(bytes, (byte) 0);
+    }
+
+    /**
+     * H' from RFC 9106 section 3.3: BLAKE2b stretched to any output length.
+     */
+    private static byte[] variableHash(byte[] input, int length) {
+        byte[] out = new byte[length];
+        if (length <= 64) {
+            Blake2bDigest digest = new Blake2bDigest(length * 8);
+            updateInt(digest, length);
+            digest.update(input, 0, input.length);
+            digest.doFinal(out, 0);
+            return out;
+        }
+        Blake2bDigest digest = new Blake2bDigest(512);
+        byte[] v = new byte[64];
+        updateInt(digest, length);
+        digest.update(input, 0, input.length);
+        digest.doFinal(v, 0);
+        System.arraycopy(v, 0, out, 0, 32);
+        int position = 32;
+        int remaining = length - 32;
+        while (remaining > 64) {
+            digest.update(v, 0, v.length);
+            digest.doFinal(v, 0);
+            System.arraycopy(v, 0, out, position, 32);
+            position += 32;
+            remaining -= 32;
+        }
+        Blake2bDigest tail = new Blake2bDigest(remaining * 8);
+        tail.update(v, 0, v.length);
+        tail.doFinal(out, position);
+        return out;
+    }
+
+    private static void updateInt(Blake2bDigest digest, int value) {
+        byte[] bytes = Pack.intToLittleEndian(value);
+        digest.update(bytes, 0, bytes.length);
+    }
+}
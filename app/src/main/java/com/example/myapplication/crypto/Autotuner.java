@@ -0,0 +1,449 @@
+package com.example.myapplication.crypto;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * Picks chunk size and thread count for a given set of CryptoOptions by timing short encryption
+ * runs on a scratch file, and persists the winners per cipher, KDF and file layout in a device profile.
+ * Only the payload phase is timed (onStart to onSuccess), so the KDF cost is measured separately
+ * and both are used to predict how long a job will take. It also decides whether Simple mode uses
+ * AES-GCM or XChaCha20-Poly1305, by timing both in memory once per device.
+ */
+public class Autotuner {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024; // 1 MB
+    private static final int SCRATCH_FILE_SIZE = 8 * 1024 * 1024;
+    private static final int[] CANDIDATE_CHUNK_SIZES = {64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+    private static final char[] CALIBRATION_PASSWORD = "calibration".toCharArray();
+    private static final int CIPHER_BENCHMARK_SIZE = 4 * 1024 * 1024;
+    private static final int CIPHER_BENCHMARK_SEGMENT = 64 * 1024;
+    private static final int CIPHER_BENCHMARK_ROUNDS = 3;
+    private static final double CHACHA_MIN_SPEEDUP = 1.1; // Switch only when ChaCha is clearly faster
+
+    private static final String KEY_SIMPLE_PROTOCOL = "simple.protocol";
+
+    private static final String KEY_CORES = "cores";
+    private static final String SUFFIX_CHUNK_SIZE = ".chunkSize";
+    private static final String SUFFIX_THREADS = ".threads";
+    private static final String SUFFIX_THROUGHPUT = ".bytesPerSecond";
+    private static final String SUFFIX_SETUP = ".setupMillis";
+
+    private final File profileFile;
+    private final Properties profile = new Properties();
+    private final CryptoManager cryptoManager = new CryptoManager();
+    private final CpuTopology topology;
+
+    public Autotuner(File profileFile) {
+        this(profileFile, CpuTopology.system());
+    }
+
+    public Autotuner(File profileFile, CpuTopology topology) {
+        this.profileFile = profileFile;
+        this.topology = topology;
+        load();
+    }
+
+    /**
+     * Returns the tuned settings for these options, or the built-in defaults if they have not been calibrated.
+     */
+    public synchronized Settings getSettings(CryptoOptions options) {
+        Settings settings = storedSettings(profileKey(options));
+        return settings != null ? settings : defaultSettings(options);
+    }
+
+    /**
+     * Returns the options Simple mode encrypts with on this device: XChaCha20-Poly1305 if it was measured
+     * to be faster than AES-GCM, otherwise (or until measured) {@link CryptoOptions#getDefault()}.
+     */
+    public synchronized CryptoOptions getSimpleDefault() {
+        String protocol = profile.getProperty(KEY_SIMPLE_PROTOCOL);
+        return CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305.name().equals(protocol)
+                ? CryptoOptions.getChaChaDefault() : CryptoOptions.getDefault();
+    }
+
+    /**
+     * Times AES-GCM and XChaCha20-Poly1305 on an in-memory buffer, the same way the processors run them,
+     * and stores the faster one as the Simple mode default. Only the first call on a device measures.
+     */
+    public CryptoOptions chooseSimpleDefault(CryptoListener listener) throws Exception {
+        synchronized (this) {
+            if (profile.containsKey(KEY_SIMPLE_PROTOCOL)) {
+                return getSimpleDefault();
+            }
+        }
+        byte[] data = new byte[CIPHER_BENCHMARK_SIZE];
+        new Random().nextBytes(data);
+        byte[] key = new byte[32];
+        new Random().nextBytes(key);
+
+        long aesNanos = Long.MAX_VALUE;
+        long chachaNanos = Long.MAX_VALUE;
+        // The first round doubles as warm-up, so keep the best of several.
+        for (int round = 0; round < CIPHER_BENCHMARK_ROUNDS; round++) {
+            aesNanos = Math.min(aesNanos, timeAesGcm(key, data));
+            chachaNanos = Math.min(chachaNanos, timeXChaCha(key, data));
+        }
+        boolean useChaCha = aesNanos >= chachaNanos * CHACHA_MIN_SPEEDUP;
+        CryptoOptions.CryptoProtocol protocol = useChaCha ? CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305 : CryptoOptions.CryptoProtocol.AES;
+        listener.onLog(String.format("Cipher benchmark: AES-GCM %.1f MB/s, XChaCha20-Poly1305 %.1f MB/s, using %s",
+                mbPerSecond(aesNanos), mbPerSecond(chachaNanos), protocol));
+        synchronized (this) {
+            profile.setProperty(KEY_SIMPLE_PROTOCOL, protocol.name());
+            save();
+        }
+        return getSimpleDefault();
+    }
+
+    /**
+     * Picks the Simple mode cipher and then calibrates it, on the shared job executor, without blocking the caller.
+     */
+    public CompletableFuture<Settings> calibrateSimpleDefaultAsync(File scratchDir, CryptoListener listener) {
+        CompletableFuture<Settings> future = new CompletableFuture<>();
+        CryptoManager.jobExecutor().execute(() -> {
+            try {
+                future.complete(calibrateIfNeeded(chooseSimpleDefault(listener), scratchDir, listener));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public synchronized boolean isCalibrated(CryptoOptions options) {
+        return storedSettings(profileKey(options)) != null;
+    }
+
+    /**
+     * Predicts the wall-clock time of a job in milliseconds: KDF/setup cost plus payload at the measured throughput.
+     * Returns -1 if these options have not been calibrated yet.
+     */
+    public long predictDurationMillis(CryptoOptions options, long fileSize) {
+        Settings settings = getSettings(options);
+        if (!settings.isCalibrated()) {
+            return -1;
+        }
+        return settings.getSetupMillis() + (long) (fileSize * 1000.0 / settings.getBytesPerSecond());
+    }
+
+    public Settings calibrateIfNeeded(CryptoOptions options, File scratchDir, CryptoListener listener) throws Exception {
+        if (isCalibrated(options)) {
+            return getSettings(options);
+        }
+        return calibrate(options, scratchDir, listener);
+    }
+
+    /**
+     * Calibrates on the shared job executor if needed, without blocking the caller.
+     */
+    public CompletableFuture<Settings> calibrateAsync(CryptoOptions options, File scratchDir, CryptoListener listener) {
+        CompletableFuture<Settings> future = new CompletableFuture<>();
+        CryptoManager.jobExecutor().execute(() -> {
+            try {
+                future.complete(calibrateIfNeeded(options, scratchDir, listener));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Times encryption of a scratch file, first across chunk sizes at the maximum thread count and then
+     * across thread counts at the best chunk size, and stores the fastest combination.
+     */
+    public Settings calibrate(CryptoOptions options, File scratchDir, CryptoListener listener) throws Exception {
+        File source = File.createTempFile("calibration_", ".tmp", scratchDir);
+        File dest = File.createTempFile("calibration_", ".enc", scratchDir);
+        try {
+            writeScratchFile(source);
+            listener.onLog("Calibrating " + options + " on " + topology + "...");
+
+            // Chunk sizes are compared with every core busy; the thread sweep then decides whether the little ones pay off.
+            int maxThreads = isParallel(options) ? topology.getCoreCount() : 1;
+            Measurement best = null;
+            for (int chunkSize : CANDIDATE_CHUNK_SIZES) {
+                best = faster(best, measure(options, source, dest, chunkSize, maxThreads));
+            }
+            for (int threads : candidateThreadCounts(maxThreads)) {
+                if (threads != maxThreads) {
+                    best = faster(best, measure(options, source, dest, best.chunkSize, threads));
+                }
+            }
+
+            Settings settings = new Settings(best.chunkSize, best.threads,
+                    SCRATCH_FILE_SIZE * 1e9 / best.payloadNanos, best.setupNanos / 1_000_000L, true);
+            store(options, settings);
+            listener.onLog("Calibration result: " + settings);
+            return settings;
+        } finally {
+            source.delete();
+            dest.delete();
+        }
+    }
+
+    private Measurement measure(CryptoOptions options, File source, File dest, int chunkSize, int threads) throws Exception {
+        TimingListener timing = new TimingListener();
+        long start = System.nanoTime();
+        cryptoManager.encrypt(source.getAbsolutePath(), dest.getAbsolutePath(), CALIBRATION_PASSWORD, options, chunkSize, threads, timing);
+        return new Measurement(chunkSize, threads, timing.startNanos - start, timing.endNanos - timing.startNanos);
+    }
+
+    private static long timeAesGcm(byte[] key, byte[] data) throws Exception {
+        byte[] iv = new byte[12];
+        new Random().nextBytes(iv);
+        byte[] out = new byte[data.length + 16];
+        long start = System.nanoTime();
+        CipherEngine cipher = CipherEngine.create(CryptoOptions.getDefault(), true, key, iv);
+        cipher.doFinal(data, 0, data.length, out, 0);
+        return System.nanoTime() - start;
+    }
+
+    private static long timeXChaCha(byte[] key, byte[] data) {
+        byte[] nonce = new byte[SegmentCipher.nonceLength(CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305)];
+        new Random().nextBytes(nonce);
+        byte[] out = new byte[CIPHER_BENCHMARK_SEGMENT + SegmentCipher.TAG_SIZE];
+        long start = System.nanoTime();
+        SegmentCipher cipher = new SegmentCipher(CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305, key, nonce, new byte[0]);
+        int segments = data.length / CIPHER_BENCHMARK_SEGMENT;
+        for (int i = 0; i < segments; i++) {
+            cipher.seal(i, i == segments - 1, data, i * CIPHER_BENCHMARK_SEGMENT, CIPHER_BENCHMARK_SEGMENT, out, 0);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static double mbPerSecond(long nanos) {
+        return CIPHER_BENCHMARK_SIZE * 1e9 / nanos / (1024 * 1024);
+    }
+
+    private static Measurement faster(Measurement a, Measurement b) {
+        return (a == null || b.payloadNanos < a.payloadNanos) ? b : a;
+    }
+
+    private List<Integer> candidateThreadCounts(int maxThreads) {
+        List<Integer> counts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            counts.add(threads);
+        }
+        // On big.LITTLE also try just the big cores, and the big cores plus any mid-speed cluster.
+        for (int threads : new int[]{topology.getBigCoreCount(), topology.getRecommendedThreads()}) {
+            if (threads < maxThreads && !counts.contains(threads)) {
+                counts.add(threads);
+            }
+        }
+        counts.add(maxThreads);
+        return counts;
+    }
+
+    private Settings defaultSettings(CryptoOptions options) {
+        int threads = isParallel(options) ? Math.max(2, topology.getRecommendedThreads()) : 1;
+        return new Settings(DEFAULT_CHUNK_SIZE, threads, 0, 0, false);
+    }
+
+    private static boolean isParallel(CryptoOptions options) {
+        // Lanes of a chained mode run side by side even though the mode itself cannot be split.
+        return options.getMode().isParallelizable() || options.usesLanes();
+    }
+
+    /**
+     * Everything that changes what a calibration measures: cipher and key length, mode, the KDF and its
+     * costs (or X25519 when the key is wrapped for recipients), and the chunk MAC and lane layouts.
+     * For example "AES-256/CBC/Argon2id-m65536-t3-p4/hmac/lanes4".
+     */
+    private static String profileKey(CryptoOptions options) {
+        StringBuilder key = new StringBuilder()
+                .append(options.getProtocol().name()).append('-').append(options.getKeyLength().getBits())
+                .append('/').append(options.getMode().name()).append('/');
+        if (options.hasRecipients()) {
+            key.append("X25519");
+        } else {
+            key.append(options.getKdf().name());
+            if (options.getKdf() == CryptoOptions.Kdf.Argon2id) {
+                CryptoOptions.Argon2Params params = options.getArgon2Params();
+                key.append("-m").append(params.getMemoryKiB()).append("-t").append(params.getIterations())
+                        .append("-p").append(params.getParallelism());
+            }
+        }
+        if (options.requiresChunkMac()) {
+            key.append("/hmac");
+        }
+        if (options.usesLanes()) {
+            key.append("/lanes").append(options.getLanes());
+        }
+        return key.toString();
+    }
+
+    private static void writeScratchFile(File file) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        Random random = new Random();
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (int written = 0; written < SCRATCH_FILE_SIZE; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer);
+            }
+        }
+    }
+
+    private synchronized void store(CryptoOptions options, Settings settings) throws IOException {
+        String prefix = profileKey(options);
+        profile.setProperty(prefix + SUFFIX_CHUNK_SIZE, Integer.toString(settings.getChunkSize()));
+        profile.setProperty(prefix + SUFFIX_THREADS, Integer.toString(settings.getThreadCount()));
+        profile.setProperty(prefix + SUFFIX_THROUGHPUT, Double.toString(settings.getBytesPerSecond()));
+        profile.setProperty(prefix + SUFFIX_SETUP, Long.toString(settings.getSetupMillis()));
+        save();
+    }
+
+    private synchronized void save() throws IOException {
+        profile.setProperty(KEY_CORES, Integer.toString(Runtime.getRuntime().availableProcessors()));
+        try (OutputStream out = new FileOutputStream(profileFile)) {
+            profile.store(out, "Crypto device profile");
+        }
+    }
+
+    private synchronized void load() {
+        if (!profileFile.exists()) {
+            return;
+        }
+        try (InputStream in = new FileInputStream(profileFile)) {
+            profile.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            profile.clear();
+        }
+        // A damaged or half-written profile is discarded whole, and everything is recalibrated.
+        if (!isUsable()) {
+            profile.clear();
+        }
+    }
+
+    private boolean isUsable() {
+        // A profile measured with a different number of cores is no longer meaningful.
+        Long cores = parseLong(profile.getProperty(KEY_CORES));
+        if (cores == null || cores != Runtime.getRuntime().availableProcessors()) {
+            return false;
+        }
+        String protocol = profile.getProperty(KEY_SIMPLE_PROTOCOL);
+        if (protocol != null && !protocol.equals(CryptoOptions.CryptoProtocol.AES.name())
+                && !protocol.equals(CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305.name())) {
+            return false;
+        }
+        for (String name : profile.stringPropertyNames()) {
+            String prefix = null;
+            for (String suffix : new String[]{SUFFIX_CHUNK_SIZE, SUFFIX_THREADS, SUFFIX_THROUGHPUT, SUFFIX_SETUP}) {
+                if (name.endsWith(suffix)) {
+                    prefix = name.substring(0, name.length() - suffix.length());
+                }
+            }
+            if (prefix != null && storedSettings(prefix) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The calibrated settings stored under prefix, or null unless all four values are present and sane.
+     */
+    private Settings storedSettings(String prefix) {
+        Long chunkSize = parseLong(profile.getProperty(prefix + SUFFIX_CHUNK_SIZE));
+        Long threads = parseLong(profile.getProperty(prefix + SUFFIX_THREADS));
+        Long setupMillis = parseLong(profile.getProperty(prefix + SUFFIX_SETUP));
+        String throughput = profile.getProperty(prefix + SUFFIX_THROUGHPUT);
+        if (chunkSize == null || threads == null || setupMillis == null || throughput == null
+                || chunkSize <= 0 || chunkSize > Integer.MAX_VALUE || threads <= 0 || threads > Integer.MAX_VALUE || setupMillis < 0) {
+            return null;
+        }
+        double bytesPerSecond;
+        try {
+            bytesPerSecond = Double.parseDouble(throughput);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        // Also rejects NaN, which would otherwise turn every prediction into 0.
+        if (!(bytesPerSecond > 0) || Double.isInfinite(bytesPerSecond)) {
+            return null;
+        }
+        return new Settings(chunkSize.intValue(), threads.intValue(), bytesPerSecond, setupMillis, true);
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public static class Settings {
+        private final int chunkSize;
+        private final int threadCount;
+        private final double bytesPerSecond;
+        private final long setupMillis;
+        private final boolean calibrated;
+
+        public Settings(int chunkSize, int threadCount, double bytesPerSecond, long setupMillis, boolean calibrated) {
+            this.chunkSize = chunkSize;
+            this.threadCount = threadCount;
+            this.bytesPerSecond = bytesPerSecond;
+            this.setupMillis = setupMillis;
+            this.calibrated = calibrated;
+        }
+
+        public int getChunkSize() { return chunkSize; }
+        public int getThreadCount() { return threadCount; }
+        public double getBytesPerSecond() { return bytesPerSecond; }
+        public long getSetupMillis() { return setupMillis; }
+        public boolean isCalibrated() { return calibrated; }
+
+        @Override
+        public String toString() {
+            return String.format("chunk %d KB, %d thread(s), %.1f MB/s, setup %d ms",
+                    chunkSize / 1024, threadCount, bytesPerSecond / (1024 * 1024), setupMillis);
+        }
+    }
+
+    private static class Measurement {
+        final int chunkSize;
+        final int threads;
+        final long setupNanos;
+        final long payloadNanos;
+
+        Measurement(int chunkSize, int threads, long setupNanos, long payloadNanos) {
+            this.chunkSize = chunkSize;
+            this.threads = threads;
+            this.setupNanos = setupNanos;
+            this.payloadNanos = payloadNanos;
+        }
+    }
+
+    /**
+     * Records when the payload phase starts and ends; everything before onStart is key derivation and header I/O.
+     */
+    private static class TimingListener implements CryptoListener {
+        long startNanos;
+        long endNanos;
+
+        @Override public void onStart(long totalBytes) { startNanos = System.nanoTime(); }
+        @Override public void onProgress(long currentBytes, long totalBytes) { }
+        @Override public void onSuccess(String message, String outputPath) { endNanos = System.nanoTime(); }
+        @Override public void onError(String message, Exception e) { }
+        @Override public void onLog(String message) { }
+    }
+}
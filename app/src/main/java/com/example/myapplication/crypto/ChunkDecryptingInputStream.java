@@ -0,0 +1,166 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decrypts a CBC, CFB, CTR or ECB payload, as one chain or as lanes, and returns the plaintext in
+ * order. Like {@link ParallelProcessor}'s decryption, every chunk only needs ciphertext that is
+ * already on disk, so up to window chunks ahead of the reader are read, checked against their
+ * Merkle leaf and decrypted on the executor, and handed out as the reader reaches them. Padding is
+ * only checked on the very last chunk, and the end of the stream is only returned after it.
+ */
+class ChunkDecryptingInputStream extends InputStream {
+
+    private static final byte[] NONE = new byte[0];
+
+    private final FileChannel source;
+    private final long offset;
+    private final long ciphertextLength;
+    private final CryptoOptions options;
+    private final byte[] key;
+    private final byte[][] laneIvs;
+    private final long laneSize;
+    private final int chunkSize;
+    private final MerkleTree leaves;
+    private final byte[] macKey;
+    private final ExecutorService executor;
+    private final int window;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private int lane;
+    private long laneOffset;
+    private boolean lastSubmitted;
+    private byte[] current = NONE;
+    private int pos;
+
+    /**
+     * @param laneIvs  One IV per lane; a single-chain payload is one lane of ciphertextLength bytes.
+     * @param chunkSize Block-aligned, and equal to the MAC chunk size when leaves are given.
+     * @param leaves   The verified Merkle leaves to check each chunk against, or null.
+     */
+    ChunkDecryptingInputStream(FileChannel source, long offset, long ciphertextLength, CryptoOptions options, byte[] key,
+                               byte[][] laneIvs, long laneSize, int chunkSize, MerkleTree leaves, byte[] macKey,
+                               ExecutorService executor, int window) {
+        this.source = source;
+        this.offset = offset;
+        this.ciphertextLength = ciphertextLength;
+        this.options = options;
+        this.key = key;
+        this.laneIvs = laneIvs;
+        this.laneSize = laneSize;
+        this.chunkSize = chunkSize;
+        this.leaves = leaves;
+        this.macKey = macKey;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (pos == current.length) {
+            fill();
+            if (pending.isEmpty()) {
+                return -1;
+            }
+            current = take();
+            pos = 0;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private void fill() {
+        while (!lastSubmitted && pending.size() < window) {
+            boolean lastLane = lane == laneIvs.length - 1;
+            long laneStart = lane * laneSize;
+            long laneLength = lastLane ? ciphertextLength - laneStart : laneSize; // Padding can make the last lane longer
+            int length = (int) Math.min(chunkSize, laneLength - laneOffset);
+            // An empty payload is still one (empty) chunk, so the cipher decides whether that is valid.
+            boolean last = lastLane && laneOffset + length == laneLength;
+            final int chunkLane = lane;
+            final long chunkOffset = laneOffset;
+            pending.add(executor.submit(() -> decrypt(chunkLane, laneStart, chunkOffset, length, last)));
+
+            lastSubmitted = last;
+            laneOffset += length;
+            if (laneOffset == laneLength && !lastLane) {
+                lane++;
+                laneOffset = 0;
+            }
+        }
+    }
+
+    private byte[] decrypt(int lane, long laneStart, long laneOffset, int length, boolean last) throws Exception {
+        CryptoOptions.CipherMode mode = options.getMode();
+        int blockSize = options.getBlockSizeBits() / 8;
+        // CBC and CFB need the ciphertext block just before the chunk as its IV.
+        boolean chained = mode == CryptoOptions.CipherMode.CBC || mode == CryptoOptions.CipherMode.CFB;
+        int prefix = chained && laneOffset > 0 ? blockSize : 0;
+        byte[] data = new byte[prefix + length];
+        MerkleTree.readFully(source, ByteBuffer.wrap(data), offset + laneStart + laneOffset - prefix);
+
+        if (leaves != null) {
+            int leafIndex = (int) ((laneStart + laneOffset) / chunkSize);
+            byte[] leaf = MerkleTree.leaf(MerkleTree.newMac(macKey), leafIndex, data, prefix, length);
+            if (!MessageDigest.isEqual(leaf, leaves.getLeaf(leafIndex))) {
+                throw new IOException("Chunk " + leafIndex + " failed authentication.");
+            }
+        }
+
+        byte[] iv;
+        if (mode == CryptoOptions.CipherMode.ECB) {
+            iv = null;
+        } else if (mode == CryptoOptions.CipherMode.CTR) {
+            iv = ParallelProcessor.counterIv(laneIvs[lane], laneOffset / blockSize);
+        } else {
+            iv = prefix > 0 ? Arrays.copyOfRange(data, 0, prefix) : laneIvs[lane];
+        }
+        // Padding only exists at the very end, so every other chunk is decrypted without it.
+        CipherEngine cipher = CipherEngine.create(options, false, key, iv,
+                last ? options.getPadding() : CryptoOptions.Padding.NoPadding);
+        byte[] plaintext = new byte[cipher.getOutputSize(length)];
+        int n = cipher.doFinal(data, prefix, length, plaintext, 0);
+        return n == plaintext.length ? plaintext : Arrays.copyOf(plaintext, n);
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (ExecutionException e) {
+            Exception cause = CpuTopology.taskFailure(e);
+            throw cause instanceof IOException ? (IOException) cause
+                    : new IOException("Decryption failed (wrong password or corrupted file).", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decrypting chunks.");
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.BufferedBlockCipher;
+import org.bouncycastle.crypto.CipherParameters;
+import org.bouncycastle.crypto.DataLengthException;
+import org.bouncycastle.crypto.DefaultBufferedBlockCipher;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.engines.ARIAEngine;
+import org.bouncycastle.crypto.engines.BlowfishEngine;
+import org.bouncycastle.crypto.engines.CAST5Engine;
+import org.bouncycastle.crypto.engines.CAST6Engine;
+import org.bouncycastle.crypto.engines.CamelliaEngine;
+import org.bouncycastle.crypto.engines.DESEngine;
+import org.bouncycastle.crypto.engines.DESedeEngine;
+import org.bouncycastle.crypto.engines.GOST28147Engine;
+import org.bouncycastle.crypto.engines.IDEAEngine;
+import org.bouncycastle.crypto.engines.NoekeonEngine;
+import org.bouncycastle.crypto.engines.RC2Engine;
+import org.bouncycastle.crypto.engines.RC532Engine;
+import org.bouncycastle.crypto.engines.RC6Engine;
+import org.bouncycastle.crypto.engines.RijndaelEngine;
+import org.bouncycastle.crypto.engines.SEEDEngine;
+import org.bouncycastle.crypto.engines.SM4Engine;
+import org.bouncycastle.crypto.engines.SerpentEngine;
+import org.bouncycastle.crypto.engines.SkipjackEngine;
+import org.bouncycastle.crypto.engines.ThreefishEngine;
+import org.bouncycastle.crypto.engines.TwofishEngine;
+import org.bouncycastle.crypto.engines.XTEAEngine;
+import org.bouncycastle.crypto.modes.AEADBlockCipher;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.modes.CCMBlockCipher;
+import org.bouncycastle.crypto.modes.CFBBlockCipher;
+import org.bouncycastle.crypto.modes.EAXBlockCipher;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.OCBBlockCipher;
+import org.bouncycastle.crypto.modes.OFBBlockCipher;
+import org.bouncycastle.crypto.modes.SICBlockCipher;
+import org.bouncycastle.crypto.paddings.ISO10126d2Padding;
+import org.bouncycastle.crypto.paddings.PKCS7Padding;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * A cipher for one {@link CryptoOptions} combination on BouncyCastle's lightweight API, which writes
+ * into buffers the caller owns and reuses. Going through JCE costs a provider lookup per instance and
+ * a fresh output array per call, which is most of the garbage a long file produces. The mode wrappers
+ * are the ones the BC provider builds for the same transformation, so the bytes are identical to
+ * {@code Cipher.getInstance(options.getTransformation(), "BC")}: ECB and CBC are buffered block
+ * ciphers, padded as configured; CTR, OFB and CFB are buffered with full-block feedback, so full
+ * blocks take the fast block path and only the final one is partial; GCM, CCM, OCB and EAX are AEAD
+ * ciphers with the configured tag length. Instances are not thread-safe.
+ */
+abstract class CipherEngine {
+
+    /**
+     * @param key The raw key; ECB ignores the IV.
+     */
+    static CipherEngine create(CryptoOptions options, boolean forEncryption, byte[] key, byte[] iv) throws GeneralSecurityException {
+        return create(options, forEncryption, key, iv, options.getPadding());
+    }
+
+    /**
+     * Like {@link #create(CryptoOptions, boolean, byte[], byte[])} with another padding, for chunks that
+     * are not the last one in the file. Padding only applies to ECB and CBC.
+     */
+    static CipherEngine create(CryptoOptions options, boolean forEncryption, byte[] key, byte[] iv, CryptoOptions.Padding padding) throws GeneralSecurityException {
+        CryptoOptions.CipherMode mode = options.getMode();
+        KeyParameter keyParameter = new KeyParameter(key);
+        try {
+            switch (mode) {
+                case ECB:
+                    return new Block(padded(newBlockCipher(options), padding), forEncryption, keyParameter);
+                case CBC:
+                    return new Block(padded(CBCBlockCipher.newInstance(newBlockCipher(options)), padding), forEncryption, new ParametersWithIV(keyParameter, iv));
+                case CTR:
+                    return new Block(new DefaultBufferedBlockCipher(SICBlockCipher.newInstance(newBlockCipher(options))), forEncryption, new ParametersWithIV(keyParameter, iv));
+                case OFB: {
+                    BlockCipher engine = newBlockCipher(options);
+                    return new Block(new DefaultBufferedBlockCipher(new OFBBlockCipher(engine, 8 * engine.getBlockSize())), forEncryption, new ParametersWithIV(keyParameter, iv));
+                }
+                case CFB: {
+                    BlockCipher engine = newBlockCipher(options);
+                    return new Block(new DefaultBufferedBlockCipher(CFBBlockCipher.newInstance(engine, 8 * engine.getBlockSize())), forEncryption, new ParametersWithIV(keyParameter, iv));
+                }
+                case GCM:
+                    return new Aead(GCMBlockCipher.newInstance(newBlockCipher(options)), forEncryption, aeadParameters(options, keyParameter, iv));
+                case CCM:
+                    return new Aead(CCMBlockCipher.newInstance(newBlockCipher(options)), forEncryption, aeadParameters(options, keyParameter, iv));
+                case OCB:
+                    return new Aead(new OCBBlockCipher(newBlockCipher(options), newBlockCipher(options)), forEncryption, aeadParameters(options, keyParameter, iv));
+                case EAX:
+                    return new Aead(new EAXBlockCipher(newBlockCipher(options)), forEncryption, aeadParameters(options, keyParameter, iv));
+                default:
+                    // WRAP is a key-wrapping primitive and XTS a disk-sector mode; neither streams a file.
+                    throw new NoSuchAlgorithmException(mode + " is not supported for file encryption.");
+            }
+        } catch (IllegalArgumentException e) {
+            // Bad key and IV sizes surface here as they would from Cipher.init.
+            throw new InvalidAlgorithmParameterException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The engine JCE uses for the protocol's name, with the block size from the options where the
+     * algorithm has a choice.
+     */
+    static BlockCipher newBlockCipher(CryptoOptions options) throws NoSuchAlgorithmException {
+        switch (options.getProtocol()) {
+            case AES: return AESEngine.newInstance();
+            case ARIA: return new ARIAEngine();
+            case BLOWFISH: return new BlowfishEngine();
+            case CAMELLIA: return new CamelliaEngine();
+            case CAST5: return new CAST5Engine();
+            case CAST6: return new CAST6Engine();
+            case DES: return new DESEngine();
+            case DESede: return new DESedeEngine();
+            case GOST28147: return new GOST28147Engine();
+            case IDEA: return new IDEAEngine();
+            case NOEKEON: return new NoekeonEngine();
+            case RC2: return new RC2Engine();
+            case RC5: return new RC532Engine();
+            case RC6: return new RC6Engine();
+            case RIJNDAEL: return new RijndaelEngine(options.getBlockSizeBits());
+            case SEED: return new SEEDEngine();
+            case SERPENT: return new SerpentEngine();
+            case SKIPJACK: return new SkipjackEngine();
+            case SM4: return new SM4Engine();
+            case THREEFISH: return new ThreefishEngine(options.getBlockSizeBits());
+            case TWOFISH: return new TwofishEngine();
+            case XTEA: return new XTEAEngine();
+            default:
+                throw new NoSuchAlgorithmException(options.getProtocol() + " has no block cipher engine.");
+        }
+    }
+
+    private static BufferedBlockCipher padded(BlockCipher cipher, CryptoOptions.Padding padding) {
+        switch (padding) {
+            case PKCS5Padding: return new PaddedBufferedBlockCipher(cipher, new PKCS7Padding());
+            case ISO10126Padding: return new PaddedBufferedBlockCipher(cipher, new ISO10126d2Padding());
+            default: return new DefaultBufferedBlockCipher(cipher);
+        }
+    }
+
+    private static AEADParameters aeadParameters(CryptoOptions options, KeyParameter key, byte[] iv) {
+        return new AEADParameters(key, options.getTagLength().getBits(), iv);
+    }
+
+    /**
+     * Starts a new message under the same key, direction and padding with another IV, so a worker
+     * can run chunk after chunk through one instance instead of building the mode and the key
+     * schedule for each. ECB takes a null IV.
+     */
+    abstract void init(byte[] iv) throws GeneralSecurityException;
+
+    /**
+     * Adds associated data; only valid for AEAD modes, before the first {@link #update}.
+     */
+    void updateAAD(byte[] aad) {
+        throw new IllegalStateException("Associated data needs an AEAD mode.");
+    }
+
+    /**
+     * Most bytes {@link #update} can write for len more input bytes.
+     */
+    abstract int getUpdateOutputSize(int len);
+
+    /**
+     * Most bytes {@link #update} of len more input bytes and {@link #doFinal} can write together.
+     */
+    abstract int getOutputSize(int len);
+
+    /**
+     * @return The number of bytes written to out, which may lag behind the input by a partial block.
+     */
+    abstract int update(byte[] in, int inOff, int len, byte[] out, int outOff) throws GeneralSecurityException;
+
+    /**
+     * Flushes buffered input, with padding or tag as the mode requires, and leaves the engine unusable
+     * until the next {@link #init}.
+     */
+    abstract int doFinal(byte[] out, int outOff) throws GeneralSecurityException;
+
+    int doFinal(byte[] in, int inOff, int len, byte[] out, int outOff) throws GeneralSecurityException {
+        int written = update(in, inOff, len, out, outOff);
+        return written + doFinal(out, outOff + written);
+    }
+
+    private static final class Block extends CipherEngine {
+        private final BufferedBlockCipher cipher;
+        private final boolean forEncryption;
+
+        Block(BufferedBlockCipher cipher, boolean forEncryption, CipherParameters parameters) {
+            this.cipher = cipher;
+            this.forEncryption = forEncryption;
+            cipher.init(forEncryption, parameters);
+        }
+
+        @Override
+        void init(byte[] iv) throws GeneralSecurityException {
+            if (iv == null) {
+                cipher.reset();
+                return;
+            }
+            try {
+                // A null key keeps the expanded key the modes already hold.
+                cipher.init(forEncryption, new ParametersWithIV(null, iv));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidAlgorithmParameterException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        int getUpdateOutputSize(int len) {
+            return cipher.getUpdateOutputSize(len);
+        }
+
+        @Override
+        int getOutputSize(int len) {
+            return cipher.getOutputSize(len);
+        }
+
+        @Override
+        int update(byte[] in, int inOff, int len, byte[] out, int outOff) throws GeneralSecurityException {
+            try {
+                return cipher.processBytes(in, inOff, len, out, outOff);
+            } catch (DataLengthException e) {
+                throw new IllegalBlockSizeException(e.getMessage());
+            }
+        }
+
+        @Override
+        int doFinal(byte[] out, int outOff) throws GeneralSecurityException {
+            try {
+                return cipher.doFinal(out, outOff);
+            } catch (InvalidCipherTextException e) {
+                throw new BadPaddingException(e.getMessage());
+            } catch (DataLengthException e) {
+                throw new IllegalBlockSizeException(e.getMessage());
+            }
+        }
+    }
+
+    private static final class Aead extends CipherEngine {
+        private final AEADBlockCipher cipher;
+        private final boolean forEncryption;
+        private final AEADParameters parameters;
+
+        Aead(AEADBlockCipher cipher, boolean forEncryption, AEADParameters parameters) {
+            this.cipher = cipher;
+            this.forEncryption = forEncryption;
+            this.parameters = parameters;
+            cipher.init(forEncryption, parameters);
+        }
+
+        @Override
+        void init(byte[] iv) throws GeneralSecurityException {
+            try {
+                cipher.init(forEncryption, new AEADParameters(parameters.getKey(), parameters.getMacSize(), iv));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidAlgorithmParameterException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        void updateAAD(byte[] aad) {
+            cipher.processAADBytes(aad, 0, aad.length);
+        }
+
+        @Override
+        int getUpdateOutputSize(int len) {
+            return cipher.getUpdateOutputSize(len);
+        }
+
+        @Override
+        int getOutputSize(int len) {
+            return cipher.getOutputSize(len);
+        }
+
+        @Override
+        int update(byte[] in, int inOff, int len, byte[] out, int outOff) throws GeneralSecurityException {
+            try {
+                return cipher.processBytes(in, inOff, len, out, outOff);
+            } catch (DataLengthException e) {
+                throw new IllegalBlockSizeException(e.getMessage());
+            }
+        }
+
+        @Override
+        int doFinal(byte[] out, int outOff) throws GeneralSecurityException {
+            try {
+                return cipher.doFinal(out, outOff);
+            } catch (InvalidCipherTextException e) {
+                throw new AEADBadTagException(e.getMessage());
+            } catch (DataLengthException e) {
+                throw new IllegalBlockSizeException(e.getMessage());
+            }
+        }
+    }
+}
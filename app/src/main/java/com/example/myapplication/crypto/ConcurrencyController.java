@@ -0,0 +1,137 @@
+package com.example.myapplication.crypto;
+
+import java.util.concurrent.Callable;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits how many chunks are processed at once and adapts the limit to measured throughput, so a
+ * phone that throttles under sustained load backs off to the concurrency it can still sustain.
+ * <p>
+ * Completed bytes are counted over windows of {@link #WINDOW_NANOS}. At the end of each window the
+ * limit is raised by one worker (additive increase) if throughput held up. It is cut to three
+ * quarters (multiplicative decrease) if throughput fell from the best seen at the current limit, and
+ * the window after a cut only sets a new reference. An increase that bought nothing is reverted, so
+ * a saturated device keeps its limit instead of drifting down on every probe. The current limit and
+ * windowed throughput are published to {@link JobMetrics}.
+ */
+final class ConcurrencyController {
+
+    static final long WINDOW_NANOS = 500_000_000L;
+    // Throughput changes smaller than this are treated as noise.
+    private static final double TOLERANCE = 0.05;
+    private static final double BACKOFF = 0.75;
+
+    private final int maxConcurrency;
+    private final JobMetrics metrics;
+    private final LongSupplier nanoClock;
+
+    private int limit;
+    private int active;
+    private boolean timing;
+    private long windowStart;
+    private long windowBytes;
+    private double reference; // Best throughput at the current limit, 0 until measured
+    private double beforeIncrease;
+    private boolean probing;
+    private boolean settling;
+
+    ConcurrencyController(int maxConcurrency, JobMetrics metrics) {
+        this(maxConcurrency, metrics, System::nanoTime);
+    }
+
+    /**
+     * @param nanoClock Source of {@link System#nanoTime()}-style readings that time the windows.
+     */
+    ConcurrencyController(int maxConcurrency, JobMetrics metrics, LongSupplier nanoClock) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        this.metrics = metrics;
+        this.nanoClock = nanoClock;
+        this.limit = this.maxConcurrency;
+        metrics.setConcurrency(limit);
+    }
+
+    /**
+     * Blocks until the current limit lets another chunk start.
+     */
+    synchronized void acquire() throws InterruptedException {
+        while (active >= limit) {
+            wait();
+        }
+        active++;
+        if (!timing) {
+            timing = true;
+            windowStart = nanoClock.getAsLong();
+        }
+    }
+
+    /**
+     * Ends a chunk started with {@link #acquire()}, crediting the bytes it processed.
+     */
+    synchronized void release(long bytes) {
+        active--;
+        windowBytes += bytes;
+        long now = nanoClock.getAsLong();
+        if (now - windowStart >= WINDOW_NANOS) {
+            adjust(windowBytes * 1e9 / (now - windowStart));
+            windowStart = now;
+            windowBytes = 0;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Wraps a chunk task so it runs between {@link #acquire()} and {@link #release(long)}.
+     */
+    <V> Callable<V> limit(long bytes, Callable<V> task) {
+        return () -> {
+            acquire();
+            try {
+                return task.call();
+            } finally {
+                release(bytes);
+            }
+        };
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    private void adjust(double throughput) {
+        metrics.setCurrentBytesPerSecond(throughput);
+        if (settling) {
+            settling = false;
+            reference = throughput;
+        } else if (probing) {
+            probing = false;
+            if (throughput < beforeIncrease * (1 + TOLERANCE)) {
+                limit--;
+                reference = beforeIncrease;
+            } else {
+                reference = throughput;
+                increase();
+            }
+        } else if (throughput < reference * (1 - TOLERANCE)) {
+            decrease();
+        } else {
+            reference = Math.max(reference, throughput);
+            increase();
+        }
+        metrics.setConcurrency(limit);
+    }
+
+    private void increase() {
+        if (limit < maxConcurrency) {
+            beforeIncrease = reference;
+            limit++;
+            probing = true;
+            reference = 0;
+        }
+    }
+
+    private void decrease() {
+        limit = Math.max(1, Math.min(limit - 1, (int) (limit * BACKOFF)));
+        settling = true;
+        reference = 0;
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.myapplication.crypto;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CPU clusters of the device, read from cpufreq in sysfs. Phones mix fast "big" cores with slow
+ * "little" ones, and {@link Runtime#availableProcessors()} counts them all the same, so equal shares of
+ * work on every core leave the little ones finishing last. Cores are grouped into clusters by their
+ * maximum frequency; where sysfs can't be read every core is assumed to be equal.
+ */
+public final class CpuTopology {
+
+    public static final File SYSFS_CPU_ROOT = new File("/sys/devices/system/cpu");
+
+    // Cores slower than this fraction of the fastest cluster cost more in stragglers than they add.
+    private static final double MIN_USEFUL_SPEED = 0.5;
+
+    private static volatile CpuTopology system;
+
+    private final List<Cluster> clusters;
+
+    private CpuTopology(List<Cluster> clusters) {
+        this.clusters = Collections.unmodifiableList(clusters);
+    }
+
+    /**
+     * The topology of this device, read once and cached.
+     */
+    public static CpuTopology system() {
+        CpuTopology topology = system;
+        if (topology == null) {
+            topology = read(SYSFS_CPU_ROOT);
+            system = topology;
+        }
+        return topology;
+    }
+
+    /**
+     * Reads cpuN/cpufreq/cpuinfo_max_freq for every core under cpuRoot (normally {@link #SYSFS_CPU_ROOT}).
+     * Cores without a readable frequency, such as ones that are offline, are left out.
+     */
+    public static CpuTopology read(File cpuRoot) {
+        Map<Long, Integer> coresByFrequency = new TreeMap<>(Collections.reverseOrder());
+        File[] cpus = cpuRoot.listFiles();
+        if (cpus != null) {
+            for (File cpu : cpus) {
+                if (!cpu.getName().matches("cpu\\d+")) {
+                    continue;
+                }
+                long maxFrequency = readLong(new File(cpu, "cpufreq/cpuinfo_max_freq"));
+                if (maxFrequency > 0) {
+                    Integer count = coresByFrequency.get(maxFrequency);
+                    coresByFrequency.put(maxFrequency, count == null ? 1 : count + 1);
+                }
+            }
+        }
+        if (coresByFrequency.isEmpty()) {
+            return uniform(Runtime.getRuntime().availableProcessors());
+        }
+        List<Cluster> clusters = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : coresByFrequency.entrySet()) {
+            clusters.add(new Cluster(entry.getKey(), entry.getValue()));
+        }
+        return new CpuTopology(clusters);
+    }
+
+    /**
+     * A topology of identical cores with no known frequency.
+     */
+    public static CpuTopology uniform(int cores) {
+        List<Cluster> clusters = new ArrayList<>();
+        clusters.add(new Cluster(0, Math.max(1, cores)));
+        return new CpuTopology(clusters);
+    }
+
+    /**
+     * Clusters from fastest to slowest.
+     */
+    public List<Cluster> getClusters() {
+        return clusters;
+    }
+
+    public int getCoreCount() {
+        int cores = 0;
+        for (Cluster cluster : clusters) {
+            cores += cluster.coreCount;
+        }
+        return cores;
+    }
+
+    /**
+     * Cores in the fastest cluster.
+     */
+    public int getBigCoreCount() {
+        return clusters.get(0).coreCount;
+    }
+
+    public boolean isHeterogeneous() {
+        return clusters.size() > 1;
+    }
+
+    /**
+     * Total compute in units of one big core, scaling every core by its maximum frequency.
+     */
+    public double getCapacity() {
+        long fastest = clusters.get(0).maxFrequencyKHz;
+        double capacity = 0;
+        for (Cluster cluster : clusters) {
+            capacity += cluster.coreCount * (fastest > 0 ? (double) cluster.maxFrequencyKHz / fastest : 1);
+        }
+        return capacity;
+    }
+
+    /**
+     * How many workers to run for CPU-bound work: every core that is at least half as fast as the
+     * big cores. The rest only win back their share if chunks are small, and lose it on the tail otherwise.
+     */
+    public int getRecommendedThreads() {
+        long fastest = clusters.get(0).maxFrequencyKHz;
+        int threads = 0;
+        for (Cluster cluster : clusters) {
+            if (cluster.maxFrequencyKHz >= fastest * MIN_USEFUL_SPEED) {
+                threads += cluster.coreCount;
+            }
+        }
+        return Math.max(1, threads);
+    }
+
+    /**
+     * Runs at most threads chunk tasks at once on the process-wide worker pool, which has one thread
+     * per core. Chunks come off one shared queue, so a core that runs faster simply takes more of them
+     * and a job ends when the queue drains, not when the slowest core gets through an equal share;
+     * and two jobs at once split the cores rather than each starting a full set of threads.
+     * Called from a worker itself, as when a folder sync encrypts a lane file, the tasks run on the
+     * caller instead, so a worker never waits on work queued behind it.
+     */
+    static ExecutorService workers(int threads) {
+        if (Thread.currentThread() instanceof WorkerThread) {
+            return new WorkerGroup(Runnable::run, Integer.MAX_VALUE);
+        }
+        return new WorkerGroup(Workers.POOL, threads);
+    }
+
+    /**
+     * The exception a task on a worker pool threw, as the caller should see it. The pool runs a
+     * Callable through an adapter that wraps checked exceptions in a plain RuntimeException, and
+     * Future.get() adds an ExecutionException or another RuntimeException on top, depending on the
+     * runtime; all of those layers are removed. Errors are rethrown as they are.
+     */
+    static Exception taskFailure(Exception e) {
+        Throwable cause = e;
+        while ((cause instanceof ExecutionException || cause.getClass() == RuntimeException.class) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return cause instanceof Exception ? (Exception) cause : e;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Cluster cluster : clusters) {
+            if (sb.length() > 0) {
+                sb.append(" + ");
+            }
+            sb.append(cluster);
+        }
+        return sb.toString();
+    }
+
+    private static long readLong(File file) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            return line != null ? Long.parseLong(line.trim()) : -1;
+        } catch (IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static final class Cluster {
+        private final long maxFrequencyKHz;
+        private final int coreCount;
+
+        Cluster(long maxFrequencyKHz, int coreCount) {
+            this.maxFrequencyKHz = maxFrequencyKHz;
+            this.coreCount = coreCount;
+        }
+
+        /**
+         * 0 when the frequency is unknown.
+         */
+        public long getMaxFrequencyKHz() {
+            return maxFrequencyKHz;
+        }
+
+        public int getCoreCount() {
+            return coreCount;
+        }
+
+        @Override
+        public String toString() {
+            return maxFrequencyKHz > 0
+                    ? String.format(Locale.US, "%d x %.2f GHz", coreCount, maxFrequencyKHz / 1e6)
+                    : coreCount + " x ?";
+        }
+    }
+
+    /**
+     * Created on first use, so merely reading the topology starts no threads.
+     */
+    private static final class Workers {
+        static final ExecutorService POOL;
+
+        static {
+            int cores = Math.max(1, system().getCoreCount());
+            AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(cores, cores, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> new WorkerThread(runnable, "crypto-worker-" + count.incrementAndGet()));
+            // Threads go away while no job runs and come back with the next one.
+            pool.allowCoreThreadTimeOut(true);
+            POOL = pool;
+        }
+    }
+
+    private static final class WorkerThread extends Thread {
+        WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+            setDaemon(true);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.example.myapplication.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A single-file archive of many entries, each encrypted on its own. One key derivation covers the
+ * whole archive and every entry is sealed with {@link SegmentCipher} under its own subkey, so any
+ * entry can be extracted or streamed without touching the rest. Entry regions are laid out from the
+ * source sizes before anything is encrypted, and all their segments are sealed in parallel straight
+ * into place.
+ * <p>
+ * After the {@link FileHeader} come the entry regions in name order, then the encrypted index. The
+ * index has two levels so a lookup never decrypts all of it: a small fence holding the first name
+ * on every page, then pages of {@link #PAGE_SIZE} bytes holding the entry records, each page sealed
+ * as one segment. Opening an archive costs the key derivation and the fence; finding an entry costs
+ * one page. The header's AAD, which every segment authenticates, includes the index location.
+ */
+public final class CryptoArchive implements Closeable {
+
+    static final int PAGE_SIZE = 16 * 1024;
+    public static final int MAX_NAME_BYTES = 4096;
+    private static final int RECORD_OVERHEAD = 2 + 4 + 8 + 8 + 8; // Name length, index, offset, size, mtime
+    private static final String ENTRY_KEY_LABEL = "archive-entry-";
+    private static final String FENCE_KEY_LABEL = "archive-fence";
+    private static final String PAGE_KEY_LABEL = "archive-index";
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final FileHeader header;
+    private final SecretKey key;
+    private final byte[] aad;
+    private final long payloadStart;
+    private final int entryCount;
+    private final String[] pageFirstNames;
+    private final SegmentCipher pageCipher;
+
+    private CryptoArchive(RandomAccessFile file, FileHeader header, SecretKey key, byte[] aad, int entryCount,
+                          String[] pageFirstNames, SegmentCipher pageCipher) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        this.header = header;
+        this.key = key;
+        this.aad = aad;
+        this.payloadStart = header.getHeaderSize();
+        this.entryCount = entryCount;
+        this.pageFirstNames = pageFirstNames;
+        this.pageCipher = pageCipher;
+    }
+
+    /**
+     * Packs the sources (entry name to file path) into a new archive at archivePath.
+     *
+     * @param chunkSize Plaintext bytes per sealed segment of an entry.
+     */
+    public static void create(String archivePath, Map<String, String> sources, char[] password, CryptoOptions options,
+                              int chunkSize, int threadCount, CryptoListener listener, CryptoJob job) throws Exception {
+        if (!options.getMode().isSegmented()) {
+            throw new IllegalArgumentException("Archives need a segmented mode such as XChaCha20-Poly1305.");
+        }
+        ExecutorService executor = CpuTopology.workers(threadCount);
+        try (RandomAccessFile raf = new RandomAccessFile(archivePath, "rw")) {
+            // Sizes are taken up front so every entry gets a fixed region before encryption starts.
+            List<Entry> entries = new ArrayList<>();
+            List<File> files = new ArrayList<>();
+            long regionOffset = 0;
+            long totalBytes = 0;
+            for (Map.Entry<String, String> source : new TreeMap<>(sources).entrySet()) {
+                File sourceFile = new File(source.getValue());
+                if (!sourceFile.isFile()) {
+                    throw new FileNotFoundException("Not a file: " + source.getValue());
+                }
+                Entry entry = new Entry(checkName(source.getKey()), entries.size(), regionOffset,
+                        sourceFile.length(), sourceFile.lastModified());
+                entries.add(entry);
+                files.add(sourceFile);
+                regionOffset += SegmentCipher.ciphertextLength(entry.size, chunkSize);
+                totalBytes += entry.size;
+            }
+            List<String> firstNames = new ArrayList<>();
+            List<byte[]> pages = buildPages(entries, firstNames);
+            byte[] fence = buildFence(entries.size(), firstNames);
+
+            byte[] salt = KeyDerivation.generateSalt();
+            SecretKey key = KeyDerivation.newFileKey(password, salt, options);
+            byte[] nonce = new byte[SegmentCipher.nonceLength(options.getProtocol())];
+            new SecureRandom().nextBytes(nonce);
+            FileHeader header = FileHeader.forArchive(options, nonce, salt, chunkSize);
+            header.setArchiveIndex(regionOffset, fence.length, pages.size());
+            header.setKey(key);
+            byte[] aad = header.getAADBytes();
+            long payloadStart = header.getHeaderSize();
+            long fenceEnd = regionOffset + SegmentCipher.ciphertextLength(fence.length, chunkSize);
+
+            raf.setLength(0);
+            raf.setLength(payloadStart + fenceEnd + (long) pages.size() * (PAGE_SIZE + SegmentCipher.TAG_SIZE));
+            header.writeTo(raf);
+            listener.onStart(totalBytes);
+
+            FileChannel dest = raf.getChannel();
+            AtomicLong totalBytesProcessed = new AtomicLong(0);
+            final long total = totalBytes;
+            List<SegmentProcessor.SegmentTask> tasks = new ArrayList<>();
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                File source = files.get(i);
+                SegmentCipher cipher = entryCipher(options, key, nonce, aad, entry.index);
+                int segmentCount = SegmentCipher.segmentCount(entry.size, chunkSize);
+                for (int s = 0; s < segmentCount; s++) {
+                    final int segment = s;
+                    final long start = (long) segment * chunkSize;
+                    final int length = (int) Math.min(chunkSize, entry.size - start);
+                    final boolean last = segment == segmentCount - 1;
+                    tasks.add(() -> {
+                        ByteBuffer plaintext = ByteBuffer.allocate(length);
+                        try (FileInputStream in = new FileInputStream(source)) {
+                            readFully(in.getChannel(), plaintext, start);
+                        }
+                        byte[] sealed = new byte[length + SegmentCipher.TAG_SIZE];
+                        cipher.seal(segment, last, plaintext.array(), 0, length, sealed, 0);
+                        writeFully(dest, ByteBuffer.wrap(sealed), payloadStart + entry.offset + (long) segment * (chunkSize + SegmentCipher.TAG_SIZE));
+                        listener.onProgress(totalBytesProcessed.addAndGet(length), total);
+                        return length;
+                    });
+                }
+            }
+            SegmentProcessor.runAll(executor, threadCount, tasks, job);
+
+            job.checkpoint();
+            writeFully(dest, ByteBuffer.wrap(sealAll(new SegmentCipher(options.getProtocol(),
+                    KeyDerivation.deriveSubkey(key, FENCE_KEY_LABEL), nonce, aad), fence, chunkSize)), payloadStart + regionOffset);
+            SegmentCipher pageCipher = new SegmentCipher(options.getProtocol(), KeyDerivation.deriveSubkey(key, PAGE_KEY_LABEL), nonce, aad);
+            byte[] sealedPage = new byte[PAGE_SIZE + SegmentCipher.TAG_SIZE];
+            for (int i = 0; i < pages.size(); i++) {
+                pageCipher.seal(i, i == pages.size() - 1, pages.get(i), 0, PAGE_SIZE, sealedPage, 0);
+                writeFully(dest, ByteBuffer.wrap(sealedPage), payloadStart + fenceEnd + (long) i * sealedPage.length);
+            }
+            listener.onSuccess("Archive created with " + entries.size() + " entries.", archivePath);
+
+        } catch (Exception e) {
+            executor.shutdownNow();
+            // Never leave a partial output behind.
+            new File(archivePath).delete();
+            listener.onError(job.isCancelled() ? "Archiving cancelled." : "Archiving failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Every regular file under dir, keyed by its path relative to dir with '/' separators.
+     */
+    public static Map<String, String> entriesOf(File dir) {
+        Map<String, String> sources = new TreeMap<>();
+        collect(dir, "", sources);
+        return sources;
+    }
+
+    /**
+     * Opens an archive for reading. Costs one key derivation and the decryption of the fence.
+     */
+    public static CryptoArchive open(String path, char[] password) throws IOException, GeneralSecurityException, InterruptedException {
+        FileHeader header;
+        try (FileInputStream fis = new FileInputStream(path)) {
+            header = FileHeader.fromStream(fis);
+        }
+        if (!header.isArchive()) {
+            throw new IOException("Not an encrypted archive.");
+        }
+        CryptoOptions options = header.getOptions();
+        SecretKey key = KeyDerivation.fileKey(password, header, options);
+        header.checkKey(key);
+        byte[] aad = header.getAADBytes();
+        int segmentSize = header.getSegmentSize();
+
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        try {
+            long payloadStart = header.getHeaderSize();
+            long fenceSealed = SegmentCipher.ciphertextLength(header.getFenceLength(), segmentSize);
+            long expected = payloadStart + header.getIndexOffset() + fenceSealed
+                    + (long) header.getPageCount() * (PAGE_SIZE + SegmentCipher.TAG_SIZE);
+            if (raf.length() != expected) {
+                throw new IOException("Archive is truncated or has trailing data.");
+            }
+
+            SegmentCipher fenceCipher = new SegmentCipher(options.getProtocol(), KeyDerivation.deriveSubkey(key, FENCE_KEY_LABEL), header.getIv(), aad);
+            byte[] fence = new byte[header.getFenceLength()];
+            ByteBuffer sealedFence = ByteBuffer.allocate((int) fenceSealed);
+            readFully(raf.getChannel(), sealedFence, payloadStart + header.getIndexOffset());
+            try {
+                openAll(fenceCipher, sealedFence.array(), fence, segmentSize);
+            } catch (IOException e) {
+                throw new IOException("Wrong password or corrupt archive index.", e);
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(fence));
+            int entryCount = in.readInt();
+            int pageCount = in.readInt();
+            if (pageCount != header.getPageCount()) {
+                throw new IOException("Archive index does not match its header.");
+            }
+            String[] firstNames = new String[pageCount];
+            for (int i = 0; i < pageCount; i++) {
+                firstNames[i] = readName(in);
+            }
+            SegmentCipher pageCipher = new SegmentCipher(options.getProtocol(), KeyDerivation.deriveSubkey(key, PAGE_KEY_LABEL), header.getIv(), aad);
+            return new CryptoArchive(raf, header, key, aad, entryCount, firstNames, pageCipher);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Every entry in name order. Decrypts the whole index.
+     */
+    public List<Entry> list() throws IOException {
+        List<Entry> entries = new ArrayList<>(entryCount);
+        for (int i = 0; i < pageFirstNames.length; i++) {
+            entries.addAll(readPage(i));
+        }
+        return entries;
+    }
+
+    /**
+     * Looks an entry up by name, decrypting only the one index page that can hold it; null if absent.
+     */
+    public Entry find(String name) throws IOException {
+        int low = 0;
+        int high = pageFirstNames.length - 1;
+        int page = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (pageFirstNames[mid].compareTo(name) <= 0) {
+                page = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (page < 0) {
+            return null;
+        }
+        for (Entry entry : readPage(page)) {
+            if (entry.name.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Streams an entry's plaintext. Each segment is authenticated before any of it is returned, so a
+     * tampered entry fails with an IOException at the damaged segment.
+     */
+    public InputStream openStream(Entry entry) throws GeneralSecurityException {
+        return new EntryInputStream(entry, entryCipher(header.getOptions(), key, header.getIv(), aad, entry.index));
+    }
+
+    /**
+     * Extracts one entry to destPath, deleting the output if the entry fails authentication.
+     */
+    public void extract(Entry entry, String destPath) throws IOException, GeneralSecurityException {
+        try (InputStream in = openStream(entry);
+             OutputStream out = new FileOutputStream(destPath)) {
+            byte[] buffer = new byte[header.getSegmentSize()];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            new File(destPath).delete();
+            throw e;
+        }
+        new File(destPath).setLastModified(entry.lastModified);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private List<Entry> readPage(int page) throws IOException {
+        long pagesStart = payloadStart + header.getIndexOffset()
+                + SegmentCipher.ciphertextLength(header.getFenceLength(), header.getSegmentSize());
+        ByteBuffer sealed = ByteBuffer.allocate(PAGE_SIZE + SegmentCipher.TAG_SIZE);
+        readFully(channel, sealed, pagesStart + (long) page * sealed.capacity());
+        byte[] plaintext = new byte[PAGE_SIZE];
+        pageCipher.open(page, page == pageFirstNames.length - 1, sealed.array(), 0, sealed.capacity(), plaintext, 0);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plaintext));
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = readName(in);
+            entries.add(new Entry(name, in.readInt(), in.readLong(), in.readLong(), in.readLong()));
+        }
+        return entries;
+    }
+
+    /**
+     * Packs entry records into zero-padded pages, never splitting a record across two.
+     */
+    private static List<byte[]> buildPages(List<Entry> entries, List<String> firstNames) throws IOException {
+        List<byte[]> pages = new ArrayList<>();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        int count = 0;
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            if (count > 0 && 4 + records.size() + RECORD_OVERHEAD + name.length > PAGE_SIZE) {
+                pages.add(page(count, records));
+                records.reset();
+                count = 0;
+            }
+            if (count == 0) {
+                firstNames.add(entry.name);
+            }
+            out.writeShort(name.length);
+            out.write(name);
+            out.writeInt(entry.index);
+            out.writeLong(entry.offset);
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+            count++;
+        }
+        if (count > 0) {
+            pages.add(page(count, records));
+        }
+        return pages;
+    }
+
+    private static byte[] page(int count, ByteArrayOutputStream records) {
+        byte[] page = new byte[PAGE_SIZE];
+        page[0] = (byte) (count >>> 24);
+        page[1] = (byte) (count >>> 16);
+        page[2] = (byte) (count >>> 8);
+        page[3] = (byte) count;
+        byte[] body = records.toByteArray();
+        System.arraycopy(body, 0, page, 4, body.length);
+        return page;
+    }
+
+    private static byte[] buildFence(int entryCount, List<String> firstNames) throws IOException {
+        ByteArrayOutputStream fence = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(fence);
+        out.writeInt(entryCount);
+        out.writeInt(firstNames.size());
+        for (String name : firstNames) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        out.flush();
+        return fence.toByteArray();
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        byte[] name = new byte[in.readUnsignedShort()];
+        in.readFully(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private static String checkName(String name) {
+        int length = name.getBytes(StandardCharsets.UTF_8).length;
+        if (length == 0 || length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Entry names must be 1 to " + MAX_NAME_BYTES + " bytes: " + name);
+        }
+        return name;
+    }
+
+    private static void collect(File dir, String prefix, Map<String, String> sources) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, prefix + child.getName() + "/", sources);
+            } else if (child.isFile()) {
+                sources.put(prefix + child.getName(), child.getPath());
+            }
+        }
+    }
+
+    /**
+     * Every entry has its own subkey, so entry regions cannot be swapped or moved between entries.
+     */
+    private static SegmentCipher entryCipher(CryptoOptions options, SecretKey key, byte[] nonce, byte[] aad, int index) throws GeneralSecurityException {
+        return new SegmentCipher(options.getProtocol(), KeyDerivation.deriveSubkey(key, ENTRY_KEY_LABEL + index), nonce, aad);
+    }
+
+    private static byte[] sealAll(SegmentCipher cipher, byte[] plaintext, int segmentSize) {
+        byte[] sealed = new byte[(int) SegmentCipher.ciphertextLength(plaintext.length, segmentSize)];
+        int segmentCount = SegmentCipher.segmentCount(plaintext.length, segmentSize);
+        for (int i = 0; i < segmentCount; i++) {
+            int start = i * segmentSize;
+            int length = Math.min(segmentSize, plaintext.length - start);
+            cipher.seal(i, i == segmentCount - 1, plaintext, start, length, sealed, start + i * SegmentCipher.TAG_SIZE);
+        }
+        return sealed;
+    }
+
+    private static void openAll(SegmentCipher cipher, byte[] sealed, byte[] plaintext, int segmentSize) throws IOException {
+        int segmentCount = SegmentCipher.segmentCount(plaintext.length, segmentSize);
+        for (int i = 0; i < segmentCount; i++) {
+            int start = i * segmentSize;
+            int length = Math.min(segmentSize, plaintext.length - start);
+            cipher.open(i, i == segmentCount - 1, sealed, start + i * SegmentCipher.TAG_SIZE, length + SegmentCipher.TAG_SIZE, plaintext, start);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * One file in an archive. Offsets are relative to the end of the header.
+     */
+    public static final class Entry {
+        private final String name;
+        private final int index;
+        private final long offset;
+        private final long size;
+        private final long lastModified;
+
+        Entry(String name, int index, long offset, long size, long lastModified) {
+            this.name = name;
+            this.index = index;
+            this.offset = offset;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public String getName() { return name; }
+        public long getSize() { return size; }
+        public long getLastModified() { return lastModified; }
+
+        @Override
+        public String toString() {
+            return name + " (" + size + " bytes)";
+        }
+    }
+
+    /**
+     * Reads an entry one sealed segment at a time with positional reads, so several entries can be
+     * streamed from the same archive at once.
+     */
+    private final class EntryInputStream extends InputStream {
+        private final Entry entry;
+        private final SegmentCipher cipher;
+        private final int segmentSize;
+        private final int segmentCount;
+        private final byte[] sealed;
+        private final byte[] plaintext;
+        private int segment;
+        private int position;
+        private int limit;
+
+        EntryInputStream(Entry entry, SegmentCipher cipher) {
+            this.entry = entry;
+            this.cipher = cipher;
+            this.segmentSize = header.getSegmentSize();
+            this.segmentCount = SegmentCipher.segmentCount(entry.size, segmentSize);
+            this.sealed = new byte[segmentSize + SegmentCipher.TAG_SIZE];
+            this.plaintext = new byte[segmentSize];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == limit && !nextSegment()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(plaintext, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean nextSegment() throws IOException {
+            if (segment == segmentCount) {
+                return false;
+            }
+            long start = (long) segment * segmentSize;
+            int length = (int) Math.min(segmentSize, entry.size - start);
+            ByteBuffer buffer = ByteBuffer.wrap(sealed, 0, length + SegmentCipher.TAG_SIZE);
+            readFully(channel, buffer, payloadStart + entry.offset + start + (long) segment * SegmentCipher.TAG_SIZE);
+            cipher.open(segment, segment == segmentCount - 1, sealed, 0, length + SegmentCipher.TAG_SIZE, plaintext, 0);
+            segment++;
+            position = 0;
+            limit = length;
+            // An empty entry still has one sealed segment, which is checked above.
+            return length > 0 || nextSegment();
+        }
+    }
+}
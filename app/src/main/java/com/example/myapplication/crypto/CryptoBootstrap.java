@@ -0,0 +1,168 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Registers the BouncyCastle provider once for the whole process and warms up the crypto stack.
+ * The first provider registration, cipher lookup, KDF lookup and SecureRandom seeding are slow on
+ * low-end devices, so {@link #warmUp} does them on a background thread at app start, before the
+ * first job pays for them, and reports how long each took.
+ */
+public final class CryptoBootstrap {
+
+    private static final char[] WARM_UP_PASSWORD = "warm-up".toCharArray();
+
+    private static boolean registered;
+    private static volatile Report lastReport;
+
+    private CryptoBootstrap() {
+    }
+
+    /**
+     * Adds the BouncyCastle provider if it is not registered yet. Cheap after the first call.
+     */
+    public static synchronized void ensureProvider() {
+        if (!registered) {
+            if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+                Security.addProvider(new BouncyCastleProvider());
+            }
+            registered = true;
+        }
+    }
+
+    public static CompletableFuture<Report> warmUp(CryptoOptions options) {
+        return warmUp(() -> options);
+    }
+
+    /**
+     * Warms up the options chosen by the supplier, which also runs in the background so that it may
+     * read settings from disk. It runs on the I/O pool rather than the job pool, so a job started at
+     * once never queues behind it; Argon2id lanes still go to the KDF pool as they would in a job.
+     */
+    public static CompletableFuture<Report> warmUp(Supplier<CryptoOptions> selection) {
+        return CompletableFuture.supplyAsync(() -> {
+            Report report = run(selection.get());
+            lastReport = report;
+            return report;
+        }, CryptoManager.ioExecutor());
+    }
+
+    /**
+     * The most recent warm-up, or null if none has finished.
+     */
+    public static Report getLastReport() {
+        return lastReport;
+    }
+
+    private static Report run(CryptoOptions options) {
+        long start = System.nanoTime();
+        ensureProvider();
+        long provider = System.nanoTime() - start;
+
+        long mark = System.nanoTime();
+        byte[] seed = new byte[32];
+        new SecureRandom().nextBytes(seed);
+        long random = System.nanoTime() - mark;
+
+        mark = System.nanoTime();
+        warmCipher(options, seed);
+        long cipher = System.nanoTime() - mark;
+
+        mark = System.nanoTime();
+        warmKdf(options, seed);
+        long kdf = System.nanoTime() - mark;
+
+        return new Report(options.getTransformation(), options.getKdf(), provider, random, cipher, kdf, System.nanoTime() - start);
+    }
+
+    /**
+     * Loads and runs the cipher once over a single block. Failures are ignored: a warm-up must never
+     * stop the app, and the real job will report the problem.
+     */
+    private static void warmCipher(CryptoOptions options, byte[] seed) {
+        try {
+            byte[] key = new byte[options.getKeyLength().getBits() / 8];
+            if (options.getMode().isSegmented()) {
+                byte[] nonce = new byte[SegmentCipher.nonceLength(options.getProtocol())];
+                byte[] out = new byte[seed.length + SegmentCipher.TAG_SIZE];
+                new SegmentCipher(options.getProtocol(), key, nonce, new byte[0]).seal(0, true, seed, 0, seed.length, out, 0);
+                return;
+            }
+            int blockBytes = Math.max(1, options.getBlockSizeBits() / 8);
+            byte[] iv = new byte[options.getMode().isAeadMode() ? 12 : blockBytes];
+            CipherEngine cipher = CipherEngine.create(options, true, key, iv);
+            byte[] out = new byte[cipher.getOutputSize(blockBytes)];
+            cipher.doFinal(new byte[blockBytes], 0, blockBytes, out, 0);
+        } catch (GeneralSecurityException | RuntimeException ignored) {
+            // Lookup and class loading, the expensive part, have happened by now in almost every case.
+        }
+    }
+
+    private static void warmKdf(CryptoOptions options, byte[] salt) {
+        try {
+            if (options.getKdf() == CryptoOptions.Kdf.Argon2id) {
+                // Smallest legal memory with the real lane count, so the parallel fill path is loaded too.
+                int lanes = options.getArgon2Params().getParallelism();
+                Argon2Kdf.derive(WARM_UP_PASSWORD, salt, new CryptoOptions.Argon2Params(8 * lanes, 1, lanes), 32, CryptoManager.kdfExecutor());
+            } else {
+                SecretKeyFactory.getInstance(options.getKdf().name())
+                        .generateSecret(new PBEKeySpec(WARM_UP_PASSWORD, salt, 1, options.getKeyLength().getBits()));
+            }
+            // Subkeys for MACs and lane tables.
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+            mac.doFinal(salt);
+        } catch (GeneralSecurityException | RuntimeException ignored) {
+            // As above: best effort only.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * How long each warm-up step took. A step that someone else had already done shows up as near zero.
+     */
+    public static final class Report {
+        private final String transformation;
+        private final CryptoOptions.Kdf kdf;
+        private final long providerNanos;
+        private final long randomNanos;
+        private final long cipherNanos;
+        private final long kdfNanos;
+        private final long totalNanos;
+
+        Report(String transformation, CryptoOptions.Kdf kdf, long providerNanos, long randomNanos, long cipherNanos, long kdfNanos, long totalNanos) {
+            this.transformation = transformation;
+            this.kdf = kdf;
+            this.providerNanos = providerNanos;
+            this.randomNanos = randomNanos;
+            this.cipherNanos = cipherNanos;
+            this.kdfNanos = kdfNanos;
+            this.totalNanos = totalNanos;
+        }
+
+        public long getProviderMillis() { return providerNanos / 1_000_000L; }
+        public long getRandomMillis() { return randomNanos / 1_000_000L; }
+        public long getCipherMillis() { return cipherNanos / 1_000_000L; }
+        public long getKdfMillis() { return kdfNanos / 1_000_000L; }
+        public long getTotalMillis() { return totalNanos / 1_000_000L; }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Crypto warm-up (%s, %s): provider %d ms, random %d ms, cipher %d ms, KDF %d ms, total %d ms",
+                    transformation, kdf, getProviderMillis(), getRandomMillis(), getCipherMillis(), getKdfMillis(), getTotalMillis());
+        }
+    }
+}
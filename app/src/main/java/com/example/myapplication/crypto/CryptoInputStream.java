@@ -0,0 +1,103 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Decrypts a segmented stream, as written by {@link CryptoOutputStream} or {@link SegmentProcessor},
+ * from a source that need not be seekable. Segments are read ahead and authenticated on the shared
+ * worker pool, at most two per thread at a time, and no plaintext is returned before its segment
+ * has been authenticated. The end of the stream is reported only after the final segment has been,
+ * so a truncated stream fails instead of ending early. Not thread-safe.
+ */
+public class CryptoInputStream extends InputStream implements ReadableByteChannel {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    // Segment buffers are allocated from the header, so cap them before trusting it.
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024; // Staging size for direct buffers
+
+    private final ExecutorService executor;
+    private final SegmentInputStream segments;
+    private boolean open = true;
+
+    /**
+     * Reads the header from in and derives the key; a wrong password fails here, before any payload is read.
+     */
+    public CryptoInputStream(InputStream in, char[] password, int threadCount)
+            throws IOException, GeneralSecurityException, InterruptedException {
+        FileHeader header = FileHeader.fromStream(in);
+        if (!header.hasSegments() || header.isArchive()) {
+            throw new IOException("Only segmented files can be read as a stream.");
+        }
+        if (header.getSegmentSize() > MAX_SEGMENT_SIZE) {
+            throw new IOException("Segment size " + header.getSegmentSize() + " is too large to stream.");
+        }
+        SecretKey key = KeyDerivation.fileKey(password, header, header.getOptions());
+        header.checkKey(key);
+
+        int threads = Math.max(1, threadCount);
+        SegmentCipher cipher = new SegmentCipher(header.getOptions().getProtocol(), key.getEncoded(), header.getIv(), header.getAADBytes());
+        this.executor = CpuTopology.workers(threads);
+        this.segments = new SegmentInputStream(in, cipher, header.getSegmentSize(), executor, 2 * threads);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return segments.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return segments.read(b, off, len);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int n;
+        if (dst.hasArray()) {
+            n = segments.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            byte[] chunk = new byte[Math.min(dst.remaining(), CHUNK_SIZE)];
+            n = segments.read(chunk, 0, chunk.length);
+            if (n > 0) {
+                dst.put(chunk, 0, n);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            segments.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.myapplication.crypto;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle to a running encryption or decryption. Processors call {@link #checkpoint()} between
+ * chunks, which blocks while the job is paused and aborts it once it has been cancelled or
+ * another chunk has already failed. Progress and log events are published through
+ * {@link #getEvents()} and the outcome through {@link #getResult()}.
+ */
+public class CryptoJob {
+
+    public enum Status {
+        PENDING, RUNNING, PAUSED, COMPLETED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == COMPLETED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    interface Task {
+        void run(CryptoJob job) throws Exception;
+    }
+
+    private final Object lock = new Object();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Status status = Status.PENDING;
+    private boolean paused;
+    private boolean cancelRequested;
+    private Exception error;
+
+    private final CryptoJob parent;
+    private final JobMetrics metrics;
+    private final JobEventPublisher events;
+    private final CompletableFuture<JobResult> result = new CompletableFuture<>();
+
+    /**
+     * @param listener Optional callback listener that receives every event as well; may be null.
+     * @param eventExecutor Executor on which event subscribers are signalled.
+     */
+    CryptoJob(CryptoListener listener, Executor eventExecutor) {
+        this.parent = null;
+        this.metrics = new JobMetrics();
+        this.events = new JobEventPublisher(listener, eventExecutor, metrics);
+        // Cancelling the future cancels the job itself.
+        result.whenComplete((r, t) -> {
+            if (t instanceof CancellationException) cancel();
+        });
+    }
+
+    private CryptoJob(CryptoJob parent) {
+        this.parent = parent;
+        this.metrics = parent.metrics;
+        this.events = parent.events;
+    }
+
+    /**
+     * A job for one part of this one, such as a single file of a folder sync, sharing its metrics.
+     * It pauses and cancels with this job, but a failure recorded on it stays on it, so the other
+     * parts carry on.
+     */
+    CryptoJob child() {
+        return new CryptoJob(this);
+    }
+
+    public JobFlow.Publisher<JobEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Completes with the job's result, or exceptionally with its error or a CancellationException.
+     */
+    public CompletableFuture<JobResult> getResult() {
+        return result;
+    }
+
+    public JobMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * The listener processors report to; it feeds the caller's listener, the metrics and the event publisher.
+     */
+    CryptoListener listener() {
+        return events;
+    }
+
+    public Status getStatus() {
+        synchronized (lock) {
+            return status;
+        }
+    }
+
+    /**
+     * The exception that ended the job, or null if it completed or has not finished yet.
+     */
+    public Exception getError() {
+        synchronized (lock) {
+            return error;
+        }
+    }
+
+    public void cancel() {
+        synchronized (lock) {
+            if (status.isFinished()) return;
+            cancelRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    public void pause() {
+        synchronized (lock) {
+            if (status.isFinished()) return;
+            paused = true;
+            if (status == Status.RUNNING) status = Status.PAUSED;
+        }
+    }
+
+    public void resume() {
+        synchronized (lock) {
+            if (status.isFinished()) return;
+            paused = false;
+            if (status == Status.PAUSED) status = Status.RUNNING;
+            lock.notifyAll();
+        }
+    }
+
+    public boolean isCancelled() {
+        synchronized (lock) {
+            if (cancelRequested) return true;
+        }
+        return parent != null && parent.isCancelled();
+    }
+
+    /**
+     * Blocks until the job has finished and returns its final status.
+     */
+    public Status awaitCompletion() throws InterruptedException {
+        finished.await();
+        return getStatus();
+    }
+
+    public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    /**
+     * Called by processors between units of work. Waits while paused and throws once the job
+     * has been cancelled or has already failed elsewhere, so remaining chunks stop at once.
+     */
+    void checkpoint() throws InterruptedException {
+        if (parent != null) {
+            parent.checkpoint();
+        }
+        synchronized (lock) {
+            while (paused && !cancelRequested && error == null) {
+                lock.wait();
+            }
+            if (cancelRequested) {
+                throw new CancellationException("Job was cancelled.");
+            }
+            if (error != null) {
+                throw new CancellationException("Job already failed: " + error.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Records the first failure so that every other worker's next checkpoint aborts.
+     */
+    void fail(Exception e) {
+        synchronized (lock) {
+            if (error == null) {
+                error = e;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    void run(Task task) throws Exception {
+        boolean cancelledEarly;
+        synchronized (lock) {
+            cancelledEarly = cancelRequested;
+            if (cancelledEarly) {
+                status = Status.CANCELLED;
+            } else {
+                status = paused ? Status.PAUSED : Status.RUNNING;
+            }
+        }
+        if (cancelledEarly) {
+            CancellationException e = new CancellationException("Job was cancelled before it started.");
+            finish(e);
+            throw e;
+        }
+        metrics.markStarted();
+        try {
+            task.run(this);
+            synchronized (lock) {
+                status = Status.COMPLETED;
+            }
+            finish(null);
+        } catch (Exception e) {
+            boolean cancelled;
+            Exception cause;
+            synchronized (lock) {
+                if (error == null) error = e;
+                cancelled = cancelRequested;
+                status = cancelled ? Status.CANCELLED : Status.FAILED;
+                // The first failure, not the "already failed" abort another chunk may have surfaced with.
+                cause = error;
+            }
+            if (cancelled) {
+                finish(e instanceof CancellationException ? e : new CancellationException("Job was cancelled."));
+                throw e;
+            }
+            finish(cause);
+            throw cause;
+        }
+    }
+
+    private void finish(Exception failure) {
+        metrics.markFinished();
+        if (failure == null) {
+            result.complete(new JobResult(events.getOutputPath(), events.getSuccessMessage(), metrics));
+        } else {
+            result.completeExceptionally(failure);
+        }
+        events.close(failure);
+        finished.countDown();
+    }
+}
@@ -1,16 +1,197 @@
 package com.example.myapplication.crypto;
 
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class CryptoManager {
 
+    // Jobs queue here rather than each taking a thread, so thousands can be pending at once.
+    private static final ExecutorService JOB_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), daemonThreads("crypto-job"));
+    private static final ExecutorService EVENT_EXECUTOR = Executors.newCachedThreadPool(daemonThreads("crypto-events"));
+    // Prefetch and write-behind threads block on disk I/O, so they get their own unbounded pool.
+    private static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(daemonThreads("crypto-io"));
+    // Argon2id lanes are pure CPU work with no waits between them, so one thread per core is enough.
+    private static final ExecutorService KDF_EXECUTOR = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), daemonThreads("crypto-kdf"));
+
+    /**
+     * Encrypts on the calling thread and returns once the job has finished.
+     */
     public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, int threadCount, CryptoListener listener) throws Exception {
-        IProcessor processor = getProcessor(threadCount);
-        processor.encrypt(sourcePath, destPath, password, options, chunkSize, listener);
+        new CryptoJob(listener, EVENT_EXECUTOR).run(encryptTask(sourcePath, destPath, password, options, chunkSize, threadCount));
     }
 
     public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, int threadCount, CryptoListener listener) throws Exception {
-        // Decryption is always sequential for now to ensure correctness
-        IProcessor processor = new SequentialProcessor(); 
-        processor.decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener);
+        new CryptoJob(listener, EVENT_EXECUTOR).run(decryptTask(sourcePath, destPath, password, manualOptions, chunkSize, threadCount));
+    }
+
+    /**
+     * Starts an encryption in the background and returns a handle that can pause, resume or cancel it.
+     * Failures are reported through the listener and {@link CryptoJob#getError()}.
+     */
+    public CryptoJob submitEncrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, int threadCount, CryptoListener listener) {
+        return submit(listener, null, encryptTask(sourcePath, destPath, password, options, chunkSize, threadCount));
+    }
+
+    public CryptoJob submitDecrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, int threadCount, CryptoListener listener) {
+        return submit(listener, null, decryptTask(sourcePath, destPath, password, manualOptions, chunkSize, threadCount));
+    }
+
+    /**
+     * Non-blocking encryption. The subscriber (may be null) is attached before the job starts, so it sees every event.
+     * Cancelling the returned future cancels the job.
+     */
+    public CompletableFuture<JobResult> encryptAsync(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, int threadCount, JobFlow.Subscriber<? super JobEvent> subscriber) {
+        return submit(null, subscriber, encryptTask(sourcePath, destPath, password, options, chunkSize, threadCount)).getResult();
+    }
+
+    public CompletableFuture<JobResult> decryptAsync(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, int threadCount, JobFlow.Subscriber<? super JobEvent> subscriber) {
+        return submit(null, subscriber, decryptTask(sourcePath, destPath, password, manualOptions, chunkSize, threadCount)).getResult();
+    }
+
+    /**
+     * Checks the authentication tags of the given encrypted files without writing any plaintext.
+     * Files, and chunks within a file where the format allows it, are verified in parallel.
+     */
+    public List<VerifyResult> verify(List<String> sourcePaths, char[] password, int chunkSize, int threadCount, CryptoListener listener) {
+        return new IntegrityVerifier(threadCount).verify(sourcePaths, password, chunkSize, listener);
+    }
+
+    /**
+     * Checks a single chunk of a file encrypted with a chunk MAC, reading only that chunk and its Merkle path.
+     */
+    public VerifyResult verifyChunk(String sourcePath, char[] password, int chunkIndex) {
+        return IntegrityVerifier.verifyChunk(sourcePath, password, chunkIndex);
+    }
+
+    /**
+     * Re-encrypts an encrypted file under new options and/or a new password in one pass, without
+     * writing the plaintext anywhere. See {@link Transcoder}.
+     */
+    public void transcode(String sourcePath, String destPath, char[] oldPassword, char[] newPassword, CryptoOptions newOptions, int chunkSize, int threadCount, CryptoListener listener) throws Exception {
+        new CryptoJob(listener, EVENT_EXECUTOR).run(transcodeTask(sourcePath, destPath, oldPassword, newPassword, newOptions, chunkSize, threadCount));
+    }
+
+    public CryptoJob submitTranscode(String sourcePath, String destPath, char[] oldPassword, char[] newPassword, CryptoOptions newOptions, int chunkSize, int threadCount, CryptoListener listener) {
+        return submit(listener, null, transcodeTask(sourcePath, destPath, oldPassword, newPassword, newOptions, chunkSize, threadCount));
+    }
+
+    /**
+     * Transcodes every encrypted file under sourceDir into the same relative path under destDir, as one job.
+     */
+    public void transcodeDirectory(File sourceDir, File destDir, char[] oldPassword, char[] newPassword, CryptoOptions newOptions, int chunkSize, int threadCount, CryptoListener listener) throws Exception {
+        new CryptoJob(listener, EVENT_EXECUTOR).run(transcodeDirectoryTask(sourceDir, destDir, oldPassword, newPassword, newOptions, chunkSize, threadCount));
+    }
+
+    public CryptoJob submitTranscodeDirectory(File sourceDir, File destDir, char[] oldPassword, char[] newPassword, CryptoOptions newOptions, int chunkSize, int threadCount, CryptoListener listener) {
+        return submit(listener, null, transcodeDirectoryTask(sourceDir, destDir, oldPassword, newPassword, newOptions, chunkSize, threadCount));
+    }
+
+    /**
+     * Brings the encrypted mirror of sourceDir in destDir up to date, encrypting only new and changed
+     * files and deleting the outputs of removed ones. See {@link FolderSync}.
+     */
+    public void syncFolder(File sourceDir, File destDir, char[] password, CryptoOptions options, int chunkSize, int threadCount, CryptoListener listener) throws Exception {
+        new CryptoJob(listener, EVENT_EXECUTOR).run(syncFolderTask(sourceDir, destDir, password, options, chunkSize, threadCount));
+    }
+
+    public CryptoJob submitSyncFolder(File sourceDir, File destDir, char[] password, CryptoOptions options, int chunkSize, int threadCount, CryptoListener listener) {
+        return submit(listener, null, syncFolderTask(sourceDir, destDir, password, options, chunkSize, threadCount));
+    }
+
+    /**
+     * Encrypts into a password-based OpenPGP message that gpg can read. Decryption recognises such
+     * messages on its own.
+     */
+    public void encryptOpenPgp(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, boolean compress, CryptoListener listener) throws Exception {
+        new CryptoJob(listener, EVENT_EXECUTOR).run(openPgpTask(sourcePath, destPath, password, options, chunkSize, compress));
+    }
+
+    public CryptoJob submitEncryptOpenPgp(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, boolean compress, CryptoListener listener) {
+        return submit(listener, null, openPgpTask(sourcePath, destPath, password, options, chunkSize, compress));
+    }
+
+    /**
+     * Packs many files (entry name to source path) into one encrypted archive with a single key derivation.
+     * See {@link CryptoArchive#entriesOf} for a whole folder.
+     */
+    public void createArchive(String archivePath, Map<String, String> sources, char[] password, CryptoOptions options, int chunkSize, int threadCount, CryptoListener listener) throws Exception {
+        new CryptoJob(listener, EVENT_EXECUTOR).run(archiveTask(archivePath, sources, password, options, chunkSize, threadCount));
+    }
+
+    public CryptoJob submitCreateArchive(String archivePath, Map<String, String> sources, char[] password, CryptoOptions options, int chunkSize, int threadCount, CryptoListener listener) {
+        return submit(listener, null, archiveTask(archivePath, sources, password, options, chunkSize, threadCount));
+    }
+
+    /**
+     * Opens an archive for listing and extracting entries; the caller closes it.
+     */
+    public CryptoArchive openArchive(String archivePath, char[] password) throws IOException, GeneralSecurityException, InterruptedException {
+        return CryptoArchive.open(archivePath, password);
+    }
+
+    static ExecutorService jobExecutor() {
+        return JOB_EXECUTOR;
+    }
+
+    static ExecutorService ioExecutor() {
+        return IO_EXECUTOR;
+    }
+
+    static ExecutorService kdfExecutor() {
+        return KDF_EXECUTOR;
+    }
+
+    private CryptoJob.Task encryptTask(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, int threadCount) {
+        return job -> getProcessor(threadCount).encrypt(sourcePath, destPath, password, options, chunkSize, job.listener(), job);
+    }
+
+    private CryptoJob.Task openPgpTask(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, boolean compress) {
+        return job -> new OpenPgpProcessor(compress).encrypt(sourcePath, destPath, password, options, chunkSize, job.listener(), job);
+    }
+
+    private CryptoJob.Task decryptTask(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, int threadCount) {
+        return job -> (OpenPgpProcessor.isOpenPgp(sourcePath) ? new OpenPgpProcessor() : getProcessor(threadCount)).decrypt(sourcePath, destPath, password, manualOptions, chunkSize, job.listener(), job);
+    }
+
+    private CryptoJob.Task transcodeTask(String sourcePath, String destPath, char[] oldPassword, char[] newPassword, CryptoOptions newOptions, int chunkSize, int threadCount) {
+        return job -> new Transcoder(threadCount).transcode(sourcePath, destPath, oldPassword, newPassword, newOptions, chunkSize, job.listener(), job);
+    }
+
+    private CryptoJob.Task transcodeDirectoryTask(File sourceDir, File destDir, char[] oldPassword, char[] newPassword, CryptoOptions newOptions, int chunkSize, int threadCount) {
+        return job -> new Transcoder(threadCount).transcodeDirectory(sourceDir, destDir, oldPassword, newPassword, newOptions, chunkSize, job.listener(), job);
+    }
+
+    private CryptoJob.Task syncFolderTask(File sourceDir, File destDir, char[] password, CryptoOptions options, int chunkSize, int threadCount) {
+        return job -> new FolderSync(threadCount).sync(sourceDir, destDir, password, options, chunkSize, job.listener(), job);
+    }
+
+    private CryptoJob.Task archiveTask(String archivePath, Map<String, String> sources, char[] password, CryptoOptions options, int chunkSize, int threadCount) {
+        return job -> CryptoArchive.create(archivePath, sources, password, options, chunkSize, threadCount, job.listener(), job);
+    }
+
+    private CryptoJob submit(CryptoListener listener, JobFlow.Subscriber<? super JobEvent> subscriber, CryptoJob.Task task) {
+        CryptoJob job = new CryptoJob(listener, EVENT_EXECUTOR);
+        if (subscriber != null) {
+            job.getEvents().subscribe(subscriber);
+        }
+        JOB_EXECUTOR.execute(() -> {
+            try {
+                job.run(task);
+            } catch (Exception ignored) {
+                // Already delivered to the listener by the processor and kept in the job.
+            }
+        });
+        return job;
     }
 
     private IProcessor getProcessor(int threadCount) {
@@ -20,4 +201,13 @@ public class CryptoManager {
             return new SequentialProcessor();
         }
     }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
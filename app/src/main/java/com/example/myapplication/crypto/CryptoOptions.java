@@ -1,10 +1,15 @@
 package com.example.myapplication.crypto;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class CryptoOptions {
 
+    // Upper bound for the lane count, so a crafted header cannot make the reader allocate a huge lane table.
+    public static final int MAX_LANES = 4096;
+
     private final CryptoProtocol protocol;
     private final KeyLength keyLength;
     private final BlockSize blockSize;
@@ -12,8 +17,20 @@ public class CryptoOptions {
     private final Padding padding;
     private final TagLength tagLength; // New field
     private final Kdf kdf;
+    private final boolean chunkMac; // Merkle-tree HMAC over the ciphertext, for modes without their own tag
+    private final int lanes; // Independent chains for CBC/CFB/OFB; 1 means a single standard stream
+    private final Argon2Params argon2Params; // Only used with Kdf.Argon2id
+    private final List<byte[]> recipients; // X25519 public keys; when set, the key is random and wrapped for them instead of derived
 
     public CryptoOptions(CryptoProtocol protocol, KeyLength keyLength, BlockSize blockSize, CipherMode mode, Padding padding, TagLength tagLength, Kdf kdf) {
+        this(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, false);
+    }
+
+    public CryptoOptions(CryptoProtocol protocol, KeyLength keyLength, BlockSize blockSize, CipherMode mode, Padding padding, TagLength tagLength, Kdf kdf, boolean chunkMac) {
+        this(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, chunkMac, 1, Argon2Params.DEFAULT, Collections.emptyList());
+    }
+
+    private CryptoOptions(CryptoProtocol protocol, KeyLength keyLength, BlockSize blockSize, CipherMode mode, Padding padding, TagLength tagLength, Kdf kdf, boolean chunkMac, int lanes, Argon2Params argon2Params, List<byte[]> recipients) {
         this.protocol = protocol;
         this.keyLength = keyLength;
         this.blockSize = blockSize;
@@ -21,15 +38,75 @@ public class CryptoOptions {
         this.padding = padding;
         this.tagLength = tagLength; // New field
         this.kdf = kdf;
+        this.chunkMac = chunkMac;
+        this.lanes = lanes;
+        this.argon2Params = argon2Params;
+        this.recipients = recipients;
+    }
+
+    /**
+     * Returns a copy that adds (or drops) the encrypt-then-MAC layer. It has no effect on AEAD modes.
+     */
+    public CryptoOptions withChunkMac(boolean chunkMac) {
+        return new CryptoOptions(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, chunkMac, lanes, argon2Params, recipients);
+    }
+
+    /**
+     * Returns a copy that splits the file into this many contiguous regions, each encrypted as its own
+     * chain with its own IV, so chaining modes can use several cores. It has no effect on other modes.
+     * At most {@link #MAX_LANES}, the most a file header may declare.
+     */
+    public CryptoOptions withLanes(int lanes) {
+        if (lanes < 1 || lanes > MAX_LANES) {
+            throw new IllegalArgumentException("Lane count must be between 1 and " + MAX_LANES + ".");
+        }
+        return new CryptoOptions(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, chunkMac, lanes, argon2Params, recipients);
+    }
+
+    /**
+     * Returns a copy with these Argon2id costs. They only apply when the KDF is {@link Kdf#Argon2id}.
+     */
+    public CryptoOptions withArgon2Params(Argon2Params argon2Params) {
+        return new CryptoOptions(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, chunkMac, lanes, argon2Params, recipients);
+    }
+
+    /**
+     * Returns a copy that encrypts to these X25519 public keys (see {@link Recipients}) instead of a
+     * password: each file gets a random key, wrapped for every recipient in the header. An empty list
+     * goes back to password-based keys.
+     */
+    public CryptoOptions withRecipients(List<byte[]> publicKeys) {
+        if (publicKeys.size() > Recipients.MAX_RECIPIENTS) {
+            throw new IllegalArgumentException("At most " + Recipients.MAX_RECIPIENTS + " recipients.");
+        }
+        List<byte[]> copies = new ArrayList<>();
+        for (byte[] publicKey : publicKeys) {
+            if (publicKey.length != Recipients.KEY_SIZE) {
+                throw new IllegalArgumentException("X25519 public keys are " + Recipients.KEY_SIZE + " bytes.");
+            }
+            copies.add(publicKey.clone());
+        }
+        return new CryptoOptions(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, chunkMac, lanes, argon2Params,
+                Collections.unmodifiableList(copies));
     }
 
     public static CryptoOptions getDefault() {
         return new CryptoOptions(CryptoProtocol.AES, KeyLength.BITS_256, BlockSize.BITS_128, CipherMode.GCM, Padding.NoPadding, TagLength.BITS_128, Kdf.PBKDF2WithHmacSHA256);
     }
 
+    /**
+     * The software-friendly alternative to {@link #getDefault()} for devices without AES instructions.
+     */
+    public static CryptoOptions getChaChaDefault() {
+        return new CryptoOptions(CryptoProtocol.XCHACHA20_POLY1305, KeyLength.BITS_256, null, CipherMode.POLY1305, Padding.NoPadding, TagLength.BITS_128, Kdf.PBKDF2WithHmacSHA256);
+    }
+
     public String getTransformation() {
-        if (mode.isStreamMode() || padding == Padding.NoPadding) {
-            return protocol.name() + "/" + mode.name();
+        // JCE requires all three parts; stream and AEAD modes never pad.
+        if (mode.isSegmented()) {
+            return protocol.toString(); // Sealed segment by segment on the lightweight engine, not through JCE
+        } else if (mode.isStreamMode()) {
+            return protocol.name() + "/" + mode.name() + "/" + Padding.NoPadding.name();
         } else {
             return protocol.name() + "/" + mode.name() + "/" + padding.name();
         }
@@ -39,6 +116,14 @@ public class CryptoOptions {
         return mode.isAeadMode();
     }
 
+    public boolean requiresChunkMac() {
+        return chunkMac && !mode.isAeadMode();
+    }
+
+    public boolean usesLanes() {
+        return lanes > 1 && mode.isChained();
+    }
+
     // Getters
     public CryptoProtocol getProtocol() { return protocol; }
     public KeyLength getKeyLength() { return keyLength; }
@@ -48,14 +133,22 @@ public class CryptoOptions {
     public Padding getPadding() { return padding; }
     public TagLength getTagLength() { return tagLength; } // New getter
     public Kdf getKdf() { return kdf; }
+    public boolean isChunkMacEnabled() { return chunkMac; }
+    public int getLanes() { return lanes; }
+    public Argon2Params getArgon2Params() { return argon2Params; }
+    public boolean hasRecipients() { return !recipients.isEmpty(); }
+    public List<byte[]> getRecipients() { return recipients; }
 
     @Override
     public String toString() {
         String format;
+        String kdfName = hasRecipients() ? "X25519, " + recipients.size() + " recipients"
+                : kdf == Kdf.Argon2id ? kdf + " " + argon2Params : kdf.toString();
         if (tagLength != null && mode.isAeadMode()) {
-            format = String.format("%s-%d/%s/%s (Tag: %d, KDF: %s)", protocol, keyLength.getBits(), mode, padding, tagLength.getBits(), kdf);
+            format = String.format("%s-%d/%s/%s (Tag: %d, KDF: %s)", protocol, keyLength.getBits(), mode, padding, tagLength.getBits(), kdfName);
         } else {
-            format = String.format("%s-%d/%s/%s (KDF: %s)", protocol, keyLength.getBits(), mode, padding, kdf);
+            format = String.format("%s-%d/%s/%s (KDF: %s%s%s)", protocol, keyLength.getBits(), mode, padding, kdfName,
+                    requiresChunkMac() ? ", HMAC" : "", usesLanes() ? ", " + lanes + " lanes" : "");
         }
         return format;
     }
@@ -105,7 +198,12 @@ public class CryptoOptions {
         TWOFISH("Twofish", Arrays.asList(KeyLength.BITS_128, KeyLength.BITS_192, KeyLength.BITS_256), Arrays.asList(BlockSize.BITS_128),
                   Arrays.asList(CipherMode.ECB, CipherMode.CBC, CipherMode.CTR, CipherMode.OFB, CipherMode.CFB, CipherMode.WRAP, CipherMode.OCB, CipherMode.XTS)),
         XTEA("XTEA", Arrays.asList(KeyLength.BITS_128), Arrays.asList(BlockSize.BITS_64),
-             Arrays.asList(CipherMode.ECB, CipherMode.CBC, CipherMode.CTR, CipherMode.OFB, CipherMode.CFB));
+             Arrays.asList(CipherMode.ECB, CipherMode.CBC, CipherMode.CTR, CipherMode.OFB, CipherMode.CFB)),
+        // Stream ciphers: no block size, and Poly1305 is their only mode.
+        CHACHA20_POLY1305("ChaCha20-Poly1305", Arrays.asList(KeyLength.BITS_256), Collections.emptyList(),
+                Arrays.asList(CipherMode.POLY1305)),
+        XCHACHA20_POLY1305("XChaCha20-Poly1305", Arrays.asList(KeyLength.BITS_256), Collections.emptyList(),
+                Arrays.asList(CipherMode.POLY1305));
 
         private final String name;
         private final List<KeyLength> supportedKeyLengths;
@@ -123,6 +221,10 @@ public class CryptoOptions {
             return this == AES || this == ARIA || this == CAMELLIA || this == CAST6 || this == NOEKEON || this == RC6 || this == RIJNDAEL || this == SEED || this == SERPENT || this == SM4 || this == TWOFISH;
         }
 
+        public boolean isChaCha() {
+            return this == CHACHA20_POLY1305 || this == XCHACHA20_POLY1305;
+        }
+
         public boolean isModeSupported(CipherMode mode) {
             return supportedModes.contains(mode);
         }
@@ -168,20 +270,38 @@ public class CryptoOptions {
     public enum CipherMode {
         ECB, CBC, CTR, OFB, CFB, WRAP, 
         GCM, CCM, OCB, EAX,          
-        XTS;                         
+        XTS,
+        POLY1305; // ChaCha20 family only
 
         public boolean isStreamMode() {
             return this == CTR || this == OFB || this == CFB || isAeadMode();
         }
         
         public boolean isAeadMode() {
-            return this == GCM || this == CCM || this == OCB || this == EAX;
+            return this == GCM || this == CCM || this == OCB || this == EAX || this == POLY1305;
+        }
+
+        public boolean isSegmented() {
+            // The payload is sealed as independently authenticated segments (see SegmentCipher).
+            return this == POLY1305;
         }
 
         public boolean isParallelizable() {
             // Modes that allow random access (seeking) to any block
-            // without depending on previous blocks.
-            return this == CTR || this == GCM || this == CCM || this == OCB || this == EAX || this == XTS;
+            // without depending on previous blocks. GCM, CCM, OCB and EAX are seekable too, but
+            // their single tag covers the whole payload, so split into chunks they do not decrypt.
+            return this == CTR || this == XTS || this == POLY1305;
+        }
+
+        public boolean isChained() {
+            // Modes where each block's encryption depends on the one before it.
+            return this == CBC || this == CFB || this == OFB;
+        }
+
+        public boolean isParallelDecryptable() {
+            // Decrypting a block only needs ciphertext that is already on disk
+            // (the previous block for CBC/CFB), so chunks can be decrypted independently.
+            return this == CBC || this == CFB || this == CTR || this == ECB;
         }
     }
     
@@ -209,6 +329,49 @@ public class CryptoOptions {
     }
 
     public enum Kdf {
-        PBKDF2WithHmacSHA1, PBKDF2WithHmacSHA256, PBKDF2WithHmacSHA512;
+        PBKDF2WithHmacSHA1, PBKDF2WithHmacSHA256, PBKDF2WithHmacSHA512,
+        Argon2id; // Memory-hard; costs are in Argon2Params and the file header
+    }
+
+    /**
+     * Costs for {@link Kdf#Argon2id} (RFC 9106). Memory is in KiB; each of the parallelism lanes
+     * fills its share of the memory on its own worker.
+     */
+    public static final class Argon2Params {
+        public static final Argon2Params DEFAULT = new Argon2Params(64 * 1024, 3, 4);
+
+        // Upper bounds for values read from a file, so a crafted header cannot exhaust memory or time.
+        // 256 MiB is what a mid-range phone can still give one app; 16 passes of it take minutes there.
+        public static final int MAX_MEMORY_KIB = 256 * 1024;
+        public static final int MAX_ITERATIONS = 16;
+        public static final int MAX_PARALLELISM = 64;
+
+        private final int memoryKiB;
+        private final int iterations;
+        private final int parallelism;
+
+        public Argon2Params(int memoryKiB, int iterations, int parallelism) {
+            if (parallelism < 1 || parallelism > MAX_PARALLELISM) {
+                throw new IllegalArgumentException("Argon2 parallelism must be between 1 and " + MAX_PARALLELISM + ".");
+            }
+            if (memoryKiB < 8 * parallelism || memoryKiB > MAX_MEMORY_KIB) {
+                throw new IllegalArgumentException("Argon2 memory must be between 8 KiB per lane and " + MAX_MEMORY_KIB + " KiB.");
+            }
+            if (iterations < 1 || iterations > MAX_ITERATIONS) {
+                throw new IllegalArgumentException("Argon2 iterations must be between 1 and " + MAX_ITERATIONS + ".");
+            }
+            this.memoryKiB = memoryKiB;
+            this.iterations = iterations;
+            this.parallelism = parallelism;
+        }
+
+        public int getMemoryKiB() { return memoryKiB; }
+        public int getIterations() { return iterations; }
+        public int getParallelism() { return parallelism; }
+
+        @Override
+        public String toString() {
+            return String.format("m=%d KiB, t=%d, p=%d", memoryKiB, iterations, parallelism);
+        }
     }
 }
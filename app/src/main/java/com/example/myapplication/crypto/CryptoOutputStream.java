@@ -0,0 +1,117 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Encrypts a stream of unknown length, such as a pipe, a socket or a recording, into the segmented
+ * file format that {@link SegmentProcessor} writes and every decrypt path reads. The header goes out
+ * first, then the input is framed into segments of segmentSize bytes that are sealed concurrently on
+ * the shared worker pool. Sealed segments pass through a reorder buffer and reach the sink strictly
+ * in order, so the sink never needs to seek. At most two segments per thread are in flight, which
+ * bounds memory whatever the length of the input.
+ * <p>
+ * Only segmented options (ChaCha20-Poly1305 and XChaCha20-Poly1305) can be streamed: the other
+ * formats need the plaintext length or a trailer patched into the header. {@link #close()} seals the
+ * final segment; a stream that is never closed reads back as truncated. Not thread-safe.
+ */
+public class CryptoOutputStream extends OutputStream implements WritableByteChannel {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    private final ExecutorService executor;
+    private final SegmentOutputStream segments;
+    private boolean open = true;
+
+    /**
+     * Derives the key and writes the header to out straight away.
+     */
+    public CryptoOutputStream(OutputStream out, char[] password, CryptoOptions options, int segmentSize, int threadCount)
+            throws IOException, GeneralSecurityException, InterruptedException {
+        if (!options.getMode().isSegmented()) {
+            throw new IllegalArgumentException(options.getMode() + " cannot be streamed; use a segmented mode such as POLY1305.");
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive.");
+        }
+        byte[] salt = KeyDerivation.generateSalt();
+        SecretKey key = KeyDerivation.newFileKey(password, salt, options);
+        byte[] nonce = new byte[SegmentCipher.nonceLength(options.getProtocol())];
+        new SecureRandom().nextBytes(nonce);
+        FileHeader header = new FileHeader(options, nonce, salt, segmentSize);
+        header.setKey(key);
+        header.writeTo(out);
+
+        int threads = Math.max(1, threadCount);
+        SegmentCipher cipher = new SegmentCipher(options.getProtocol(), key.getEncoded(), nonce, header.getAADBytes());
+        this.executor = CpuTopology.workers(threads);
+        this.segments = new SegmentOutputStream(out, cipher, segmentSize, executor, 2 * threads);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        segments.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        segments.write(b, off, len);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int length = src.remaining();
+        if (src.hasArray()) {
+            segments.write(src.array(), src.arrayOffset() + src.position(), length);
+            src.position(src.limit());
+        } else {
+            byte[] copy = new byte[length];
+            src.get(copy);
+            segments.write(copy, 0, length);
+        }
+        return length;
+    }
+
+    /**
+     * Writes every segment sealed so far. The last full segment stays buffered until more input
+     * arrives or the stream is closed, because until then it is not known whether it is the final one.
+     */
+    @Override
+    public void flush() throws IOException {
+        segments.flush();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Seals the final segment and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            segments.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -1,43 +1,228 @@
 package com.example.myapplication.crypto;
 
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.util.Arrays;
 
+import javax.crypto.SecretKey;
+
 public class FileHeader {
     private static final byte[] MAGIC_BYTES = new byte[]{(byte) 0x8A, (byte) 0xCE, (byte) 0xDA, (byte) 0xFE};
-    private static final int HEADER_VERSION = 2; // Version bump for tag length
+    private static final int HEADER_VERSION = 3; // Version bump for feature flags
+
+    // Feature flags (version 3+). Each set flag adds its own fields after the flags word.
+    static final int FLAG_CHUNK_MAC = 1;
+    static final int FLAG_LANES = 2;
+    static final int FLAG_SEGMENTS = 4;
+    static final int FLAG_KDF_PARAMS = 8;
+    static final int FLAG_ARCHIVE = 16;
+    static final int FLAG_KEY_CHECK = 32;
+    static final int FLAG_RECIPIENTS = 64;
+    private static final int KNOWN_FLAGS = FLAG_CHUNK_MAC | FLAG_LANES | FLAG_SEGMENTS | FLAG_KDF_PARAMS | FLAG_ARCHIVE
+            | FLAG_KEY_CHECK | FLAG_RECIPIENTS;
 
+    static final String KEY_CHECK_LABEL = "key-check";
+    static final int KEY_CHECK_SIZE = 8;
+
+    private final int version;
     private final CryptoOptions options;
     private final byte[] iv;
     private final byte[] salt;
+    private final int flags;
+
+    // Merkle-tree HMAC (FLAG_CHUNK_MAC). Length and root are only known after the payload has been
+    // written, so they have a fixed size and are patched into the header in place.
+    private final int macChunkSize;
+    private long ciphertextLength;
+    private byte[] merkleRoot = new byte[MerkleTree.HASH_SIZE];
+
+    // Multi-lane chaining (FLAG_LANES): plaintext bytes per lane, one IV per lane, and a tag over the
+    // lane table and total ciphertext length so lanes cannot be cut, swapped or dropped unnoticed.
+    private long laneSize;
+    private byte[][] laneIvs;
+    private byte[] laneTag = new byte[MerkleTree.HASH_SIZE];
+
+    // Segmented AEAD (FLAG_SEGMENTS): plaintext bytes per independently sealed segment.
+    private final int segmentSize;
+
+    // Multi-entry archive (FLAG_ARCHIVE, always segmented): where the encrypted index starts, relative
+    // to the end of the header, the plaintext length of its fence and the number of index pages.
+    private long indexOffset;
+    private int fenceLength;
+    private int pageCount;
+
+    // Key-check value (FLAG_KEY_CHECK): a truncated MAC of a fixed label under the derived key, so a
+    // wrong password is rejected straight after key derivation instead of after reading the payload.
+    // 64 bits only say "wrong key"; they are no substitute for the payload's own authentication.
+    private byte[] keyCheck;
+
+    // Public-key recipients (FLAG_RECIPIENTS): the file's ephemeral X25519 public key and the data key
+    // wrapped once per recipient. See Recipients.
+    private byte[] ephemeralKey;
+    private byte[][] wrappedKeys;
 
     public FileHeader(CryptoOptions options, byte[] iv, byte[] salt) {
+        this(options, iv, salt, 0);
+    }
+
+    /**
+     * @param chunkSize Ciphertext bytes per Merkle leaf if the options ask for a chunk MAC, or plaintext
+     *                  bytes per sealed segment for segmented modes; otherwise unused.
+     */
+    public FileHeader(CryptoOptions options, byte[] iv, byte[] salt, int chunkSize) {
+        this(HEADER_VERSION, options, iv, salt, flagsFor(options),
+                options.requiresChunkMac() ? chunkSize : 0, options.getMode().isSegmented() ? chunkSize : 0);
+        if ((options.requiresChunkMac() || options.getMode().isSegmented()) && chunkSize <= 0) {
+            throw new IllegalArgumentException("A chunk MAC or segmented mode needs a positive chunk size.");
+        }
+    }
+
+    /**
+     * Header of a {@link CryptoArchive}; the options must use a segmented mode.
+     */
+    static FileHeader forArchive(CryptoOptions options, byte[] iv, byte[] salt, int segmentSize) {
+        if (!options.getMode().isSegmented() || segmentSize <= 0) {
+            throw new IllegalArgumentException("Archives need a segmented mode and a positive segment size.");
+        }
+        return new FileHeader(HEADER_VERSION, options, iv, salt, flagsFor(options) | FLAG_ARCHIVE, 0, segmentSize);
+    }
+
+    private static int flagsFor(CryptoOptions options) {
+        return (options.requiresChunkMac() ? FLAG_CHUNK_MAC : 0) | (options.usesLanes() ? FLAG_LANES : 0)
+                | (options.getMode().isSegmented() ? FLAG_SEGMENTS : 0)
+                | (options.getKdf() == CryptoOptions.Kdf.Argon2id ? FLAG_KDF_PARAMS : 0)
+                | FLAG_KEY_CHECK | (options.hasRecipients() ? FLAG_RECIPIENTS : 0);
+    }
+
+    private FileHeader(int version, CryptoOptions options, byte[] iv, byte[] salt, int flags, int macChunkSize, int segmentSize) {
+        this.version = version;
         this.options = options;
         this.iv = iv;
         this.salt = salt;
+        this.flags = flags;
+        this.macChunkSize = macChunkSize;
+        this.segmentSize = segmentSize;
     }
 
     public CryptoOptions getOptions() { return options; }
     public byte[] getIv() { return iv; }
     public byte[] getSalt() { return salt; }
+    public int getVersion() { return version; }
+
+    public boolean hasChunkMac() { return (flags & FLAG_CHUNK_MAC) != 0; }
+    public int getMacChunkSize() { return macChunkSize; }
+    public long getCiphertextLength() { return ciphertextLength; }
+    public byte[] getMerkleRoot() { return merkleRoot; }
+
+    public boolean hasLanes() { return (flags & FLAG_LANES) != 0; }
+    public int getLaneCount() { return laneIvs != null ? laneIvs.length : 1; }
+    public long getLaneSize() { return laneSize; }
+    public byte[] getLaneIv(int lane) { return laneIvs[lane]; }
+    public byte[] getLaneTag() { return laneTag; }
+
+    public boolean hasSegments() { return (flags & FLAG_SEGMENTS) != 0; }
+    public int getSegmentSize() { return segmentSize; }
+
+    public boolean hasKdfParams() { return (flags & FLAG_KDF_PARAMS) != 0; }
+
+    public boolean isArchive() { return (flags & FLAG_ARCHIVE) != 0; }
+    long getIndexOffset() { return indexOffset; }
+    int getFenceLength() { return fenceLength; }
+    int getPageCount() { return pageCount; }
+
+    public boolean hasKeyCheck() { return (flags & FLAG_KEY_CHECK) != 0; }
+
+    public boolean hasRecipients() { return (flags & FLAG_RECIPIENTS) != 0; }
+    public int getRecipientCount() { return wrappedKeys != null ? wrappedKeys.length : 0; }
+
+    /**
+     * Sets the lane layout. Must be called before the header is written or its AAD is taken.
+     */
+    public void setLanes(long laneSize, byte[][] laneIvs) {
+        this.laneSize = laneSize;
+        this.laneIvs = laneIvs;
+    }
+
+    /**
+     * Sets the archive index location. Must be called before the header is written or its AAD is taken.
+     */
+    void setArchiveIndex(long indexOffset, int fenceLength, int pageCount) {
+        this.indexOffset = indexOffset;
+        this.fenceLength = fenceLength;
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * Records the key-check value for the file key, and wraps the key for each recipient when the options
+     * name any. Must be called before the header is written or its AAD is taken.
+     */
+    public void setKey(SecretKey key) throws GeneralSecurityException {
+        this.keyCheck = keyCheckFor(key);
+        if (hasRecipients()) {
+            X25519PrivateKeyParameters ephemeral = Recipients.newEphemeral();
+            this.ephemeralKey = ephemeral.generatePublicKey().getEncoded();
+            this.wrappedKeys = Recipients.wrap(key.getEncoded(), ephemeral, options.getRecipients(), salt);
+        }
+    }
+
+    /**
+     * Recovers the file key of a recipient file with one recipient's secret key.
+     */
+    byte[] unwrapKey(char[] secretKey) throws IOException {
+        return Recipients.unwrap(secretKey, salt, ephemeralKey, wrappedKeys);
+    }
+
+    /**
+     * Rejects a key that does not match the header's key-check value. Headers written before the
+     * value existed carry none and accept any key; the payload's own checks still apply to them.
+     */
+    public void checkKey(SecretKey key) throws GeneralSecurityException, IOException {
+        if (!acceptsKey(key)) {
+            throw new IOException("Wrong password (key check failed).");
+        }
+    }
+
+    boolean acceptsKey(SecretKey key) throws GeneralSecurityException {
+        return !hasKeyCheck() || MessageDigest.isEqual(keyCheckFor(key), keyCheck);
+    }
+
+    private static byte[] keyCheckFor(SecretKey key) throws GeneralSecurityException {
+        return Arrays.copyOf(KeyDerivation.deriveSubkey(key, KEY_CHECK_LABEL), KEY_CHECK_SIZE);
+    }
+
+    public void setLaneTag(byte[] laneTag) {
+        this.laneTag = laneTag;
+    }
+
+    /**
+     * Records the authenticated Merkle root once the whole payload is known. The header size does not change.
+     */
+    public void setMerkleRoot(long ciphertextLength, byte[] merkleRoot) {
+        this.ciphertextLength = ciphertextLength;
+        this.merkleRoot = merkleRoot;
+    }
 
     public byte[] getAADBytes() throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
 
-        dos.writeInt(HEADER_VERSION);
+        dos.writeInt(version);
         dos.writeUTF(options.getProtocol().name());
         dos.writeInt(options.getKeyLength().getBits());
         dos.writeInt(options.getBlockSizeBits());
         dos.writeUTF(options.getMode().name());
         dos.writeUTF(options.getPadding().name());
-        if (options.getTagLength() != null) {
+        if (options.getMode().isAeadMode()) { // Same condition as the stored header
             dos.writeInt(options.getTagLength().getBits());
         }
         dos.writeUTF(options.getKdf().name());
@@ -45,6 +230,31 @@ public class FileHeader {
         dos.write(iv);
         dos.writeInt(salt.length);
         dos.write(salt);
+        if (version >= 3) {
+            // The Merkle length and root are bound by the root tag itself, not here.
+            dos.writeInt(flags);
+            if (hasChunkMac()) {
+                dos.writeInt(macChunkSize);
+            }
+            if (hasLanes()) {
+                writeLaneTable(dos);
+            }
+            if (hasSegments()) {
+                dos.writeInt(segmentSize);
+            }
+            if (hasKdfParams()) {
+                writeKdfParams(dos);
+            }
+            if (isArchive()) {
+                writeArchiveIndex(dos);
+            }
+            if (hasKeyCheck()) {
+                writeKeyCheck(dos);
+            }
+            if (hasRecipients()) {
+                writeRecipients(dos);
+            }
+        }
         dos.flush();
 
         return baos.toByteArray();
@@ -62,7 +272,7 @@ public class FileHeader {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         DataOutputStream dos = new DataOutputStream(baos);
         dos.write(MAGIC_BYTES);
-        dos.writeInt(HEADER_VERSION);
+        dos.writeInt(version);
 
         dos.writeUTF(options.getProtocol().name());
         dos.writeInt(options.getKeyLength().getBits());
@@ -80,14 +290,92 @@ public class FileHeader {
         dos.write(iv);
         dos.writeInt(salt.length);
         dos.write(salt);
+        if (version >= 3) {
+            dos.writeInt(flags);
+            if (hasChunkMac()) {
+                dos.writeInt(macChunkSize);
+                dos.writeLong(ciphertextLength);
+                dos.write(merkleRoot);
+            }
+            if (hasLanes()) {
+                writeLaneTable(dos);
+                dos.write(laneTag);
+            }
+            if (hasSegments()) {
+                dos.writeInt(segmentSize);
+            }
+            if (hasKdfParams()) {
+                writeKdfParams(dos);
+            }
+            if (isArchive()) {
+                writeArchiveIndex(dos);
+            }
+            if (hasKeyCheck()) {
+                writeKeyCheck(dos);
+            }
+            if (hasRecipients()) {
+                writeRecipients(dos);
+            }
+        }
         dos.flush();
         return baos.toByteArray();
     }
 
+    private void writeKdfParams(DataOutputStream dos) throws IOException {
+        CryptoOptions.Argon2Params argon2 = options.getArgon2Params();
+        dos.writeInt(argon2.getMemoryKiB());
+        dos.writeInt(argon2.getIterations());
+        dos.writeInt(argon2.getParallelism());
+    }
+
+    private void writeArchiveIndex(DataOutputStream dos) throws IOException {
+        dos.writeLong(indexOffset);
+        dos.writeInt(fenceLength);
+        dos.writeInt(pageCount);
+    }
+
+    private void writeKeyCheck(DataOutputStream dos) throws IOException {
+        if (keyCheck == null) {
+            throw new IllegalStateException("Key-check value not set; call setKey before writing the header.");
+        }
+        dos.write(keyCheck);
+    }
+
+    private void writeRecipients(DataOutputStream dos) throws IOException {
+        if (wrappedKeys == null) {
+            throw new IllegalStateException("Recipient keys not wrapped; call setKey before writing the header.");
+        }
+        dos.write(ephemeralKey);
+        dos.writeInt(wrappedKeys.length);
+        for (byte[] wrapped : wrappedKeys) {
+            dos.write(wrapped);
+        }
+    }
+
+    private void writeLaneTable(DataOutputStream dos) throws IOException {
+        dos.writeInt(laneIvs.length);
+        dos.writeLong(laneSize);
+        for (byte[] laneIv : laneIvs) {
+            dos.write(laneIv);
+        }
+    }
+
     public int getHeaderSize() throws IOException {
         return getHeaderBytes().length;
     }
 
+    /**
+     * Reads only the header of a file, or returns null if it is missing or unreadable so that the
+     * caller's normal path can report the problem.
+     */
+    static FileHeader peek(String path) {
+        try (FileInputStream fis = new FileInputStream(path)) {
+            return fromStream(fis);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
     public static FileHeader fromStream(InputStream stream) throws IOException {
         DataInputStream dis = new DataInputStream(stream);
 
@@ -98,7 +386,7 @@ public class FileHeader {
         }
 
         int version = dis.readInt();
-        if (version < 1) { // Allow older versions for now
+        if (version < 1 || version > HEADER_VERSION) { // Allow older versions for now
             throw new IOException("Unsupported header version: " + version);
         }
 
@@ -120,8 +408,6 @@ public class FileHeader {
             .findFirst()
             .orElseThrow(() -> new IOException("Unsupported key length: " + keyLengthBits));
 
-        CryptoOptions options = new CryptoOptions(protocol, keyLength, blockSize, mode, padding, tagLength, kdf);
-
         int ivLength = dis.readInt();
         byte[] iv = new byte[ivLength];
         dis.readFully(iv);
@@ -130,6 +416,112 @@ public class FileHeader {
         byte[] salt = new byte[saltLength];
         dis.readFully(salt);
 
-        return new FileHeader(options, iv, salt);
+        int flags = version >= 3 ? dis.readInt() : 0;
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IOException("Unsupported header flags: 0x" + Integer.toHexString(flags));
+        }
+        boolean chunkMac = (flags & FLAG_CHUNK_MAC) != 0;
+        CryptoOptions options = new CryptoOptions(protocol, keyLength, blockSize, mode, padding, tagLength, kdf, chunkMac);
+
+        int macChunkSize = 0;
+        long ciphertextLength = 0;
+        byte[] merkleRoot = null;
+        if (chunkMac) {
+            macChunkSize = dis.readInt();
+            ciphertextLength = dis.readLong();
+            merkleRoot = new byte[MerkleTree.HASH_SIZE];
+            dis.readFully(merkleRoot);
+            if (macChunkSize <= 0 || ciphertextLength < 0) {
+                throw new IOException("Corrupt Merkle parameters in header.");
+            }
+        }
+
+        long laneSize = 0;
+        byte[][] laneIvs = null;
+        byte[] laneTag = null;
+        if ((flags & FLAG_LANES) != 0) {
+            int laneCount = dis.readInt();
+            laneSize = dis.readLong();
+            if (laneCount < 1 || laneCount > CryptoOptions.MAX_LANES || laneSize <= 0) {
+                throw new IOException("Corrupt lane parameters in header.");
+            }
+            laneIvs = new byte[laneCount][ivLength];
+            for (byte[] laneIv : laneIvs) {
+                dis.readFully(laneIv);
+            }
+            laneTag = new byte[MerkleTree.HASH_SIZE];
+            dis.readFully(laneTag);
+            options = options.withLanes(laneCount);
+        }
+
+        int segmentSize = 0;
+        if ((flags & FLAG_SEGMENTS) != 0) {
+            segmentSize = dis.readInt();
+            if (segmentSize <= 0 || !mode.isSegmented()) {
+                throw new IOException("Corrupt segment parameters in header.");
+            }
+        }
+
+        if ((flags & FLAG_KDF_PARAMS) != 0) {
+            int memoryKiB = dis.readInt();
+            int iterations = dis.readInt();
+            int parallelism = dis.readInt();
+            try {
+                options = options.withArgon2Params(new CryptoOptions.Argon2Params(memoryKiB, iterations, parallelism));
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unsupported KDF parameters in header: " + e.getMessage());
+            }
+        } else if (kdf == CryptoOptions.Kdf.Argon2id) {
+            throw new IOException("Argon2id header without KDF parameters.");
+        }
+
+        long indexOffset = 0;
+        int fenceLength = 0;
+        int pageCount = 0;
+        if ((flags & FLAG_ARCHIVE) != 0) {
+            indexOffset = dis.readLong();
+            fenceLength = dis.readInt();
+            pageCount = dis.readInt();
+            if (segmentSize == 0 || indexOffset < 0 || fenceLength < 0 || pageCount < 0) {
+                throw new IOException("Corrupt archive parameters in header.");
+            }
+        }
+
+        byte[] keyCheck = null;
+        if ((flags & FLAG_KEY_CHECK) != 0) {
+            keyCheck = new byte[KEY_CHECK_SIZE];
+            dis.readFully(keyCheck);
+        }
+
+        byte[] ephemeralKey = null;
+        byte[][] wrappedKeys = null;
+        if ((flags & FLAG_RECIPIENTS) != 0) {
+            ephemeralKey = new byte[Recipients.KEY_SIZE];
+            dis.readFully(ephemeralKey);
+            int count = dis.readInt();
+            if (count < 1 || count > Recipients.MAX_RECIPIENTS) {
+                throw new IOException("Corrupt recipient table in header.");
+            }
+            wrappedKeys = new byte[count][keyLength.getBytes() + Recipients.WRAP_OVERHEAD];
+            for (byte[] wrapped : wrappedKeys) {
+                dis.readFully(wrapped);
+            }
+        }
+
+        FileHeader header = new FileHeader(version, options, iv, salt, flags, macChunkSize, segmentSize);
+        header.keyCheck = keyCheck;
+        header.ephemeralKey = ephemeralKey;
+        header.wrappedKeys = wrappedKeys;
+        if ((flags & FLAG_ARCHIVE) != 0) {
+            header.setArchiveIndex(indexOffset, fenceLength, pageCount);
+        }
+        if (chunkMac) {
+            header.setMerkleRoot(ciphertextLength, merkleRoot);
+        }
+        if (laneIvs != null) {
+            header.setLanes(laneSize, laneIvs);
+            header.setLaneTag(laneTag);
+        }
+        return header;
     }
 }
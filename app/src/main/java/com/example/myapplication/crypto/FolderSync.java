@@ -0,0 +1,575 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Mirrors a plaintext folder into an encrypted one, re-encrypting only what changed since the last run.
+ * <p>
+ * The encrypted folder holds one output per source file under a random name, plus a manifest
+ * ({@link #MANIFEST_NAME}, itself encrypted under the password) that records for each source path
+ * its size, modification time and a BLAKE2b fingerprint, and the name and header ID (salt) of its
+ * output. A run only stats unchanged files. A file whose size or time differs is fingerprinted, and
+ * re-encrypted on the worker pool only if its content did change; the outputs of removed files are
+ * deleted. Each new output is written under a temporary name and renamed into place, and the manifest
+ * is saved every few seconds and before a replaced output is deleted, so an interrupted run loses at
+ * most the files in flight and the next run picks up where it stopped. Outputs the manifest does not
+ * know, left behind by such a run, are swept at the end.
+ * <p>
+ * With recipient options the outputs are encrypted to the recipients while the manifest still uses
+ * the password. Changing the options only affects files encrypted from then on. Two runs must not
+ * share an encrypted folder at the same time. Like the processors, an instance serves one job.
+ */
+public class FolderSync {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    public static final String MANIFEST_NAME = ".sync-manifest";
+
+    private static final int MANIFEST_VERSION = 1;
+    private static final int MANIFEST_SEGMENT_SIZE = 64 * 1024;
+    private static final String OUTPUT_SUFFIX = ".enc";
+    private static final String PART_SUFFIX = ".part";
+    private static final int OUTPUT_ID_BYTES = 16;
+    private static final int FINGERPRINT_BITS = 256;
+    private static final long SAVE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ExecutorService executor;
+    private final int numThreads;
+    private final SecureRandom random = new SecureRandom();
+
+    public FolderSync(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executor = CpuTopology.workers(this.numThreads);
+    }
+
+    public void sync(File sourceDir, File destDir, char[] password, CryptoOptions options, int chunkSize,
+                     CryptoListener listener, CryptoJob job) throws Exception {
+        Manifest manifest = null;
+        try {
+            checkDirectories(sourceDir, destDir);
+            manifest = Manifest.open(new File(destDir, MANIFEST_NAME), password, options, job.getMetrics());
+
+            // Plan: stat every source and compare with the manifest; nothing is read yet.
+            Map<String, String> sources = CryptoArchive.entriesOf(sourceDir);
+            List<Candidate> candidates = new ArrayList<>();
+            long totalBytes = 0;
+            int unchanged = 0;
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                File file = new File(source.getValue());
+                Entry previous = manifest.entries.get(source.getKey());
+                Candidate candidate = new Candidate(source.getKey(), file, file.length(), file.lastModified(), previous,
+                        previous != null && new File(destDir, previous.outputName).isFile());
+                if (candidate.isUnchanged()) {
+                    unchanged++;
+                } else {
+                    candidates.add(candidate);
+                    totalBytes += candidate.size;
+                }
+            }
+            int removed = 0;
+            for (Iterator<Entry> it = manifest.entries.values().iterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (!sources.containsKey(entry.path)) {
+                    it.remove();
+                    manifest.retire(entry.outputName);
+                    removed++;
+                }
+            }
+            listener.onStart(totalBytes);
+
+            SyncProgress progress = new SyncProgress(listener, totalBytes);
+            CompletionService<Outcome> completion = new ExecutorCompletionService<>(executor);
+            for (Candidate candidate : candidates) {
+                FileListener fileListener = new FileListener(progress, candidate.size);
+                completion.submit(() -> syncFile(candidate, destDir, password, options, chunkSize, fileListener, job.child()));
+            }
+
+            int added = 0;
+            int updated = 0;
+            int failed = 0;
+            long lastSave = System.nanoTime();
+            for (int i = 0; i < candidates.size(); i++) {
+                Outcome outcome = completion.take().get();
+                Candidate candidate = outcome.candidate;
+                outcome.listener.finish();
+                if (outcome.error != null) {
+                    if (job.isCancelled()) {
+                        throw outcome.error;
+                    }
+                    failed++;
+                    listener.onLog("Failed " + candidate.path + ": " + outcome.error.getMessage());
+                    continue;
+                }
+                manifest.put(outcome.entry);
+                if (candidate.previous == null) {
+                    added++;
+                } else if (!candidate.previous.outputName.equals(outcome.entry.outputName)) {
+                    manifest.retire(candidate.previous.outputName);
+                    updated++;
+                } else {
+                    unchanged++; // Touched, but the content is the same
+                }
+                if (System.nanoTime() - lastSave >= SAVE_INTERVAL_NANOS) {
+                    manifest.save();
+                    lastSave = System.nanoTime();
+                }
+            }
+            manifest.save();
+            sweep(destDir, manifest);
+
+            if (failed > 0) {
+                throw new IOException(failed + " of " + candidates.size() + " changed files could not be synced.");
+            }
+            listener.onSuccess(String.format("Synced: %d added, %d updated, %d removed, %d unchanged.", added, updated, removed, unchanged),
+                    destDir.getPath());
+        } catch (Exception e) {
+            executor.shutdownNow();
+            if (manifest != null) {
+                // Keep what finished, so the next run resumes from here.
+                try {
+                    manifest.save();
+                } catch (Exception saveFailure) {
+                    e.addSuppressed(saveFailure);
+                }
+            }
+            listener.onError(job.isCancelled() ? "Sync cancelled." : "Sync failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Reads the manifest of an encrypted folder, mapping each source path to its entry, so that the
+     * outputs can be found again by their source names.
+     */
+    public static Map<String, Entry> readManifest(File destDir, char[] password) throws Exception {
+        File file = new File(destDir, MANIFEST_NAME);
+        if (!file.isFile()) {
+            throw new IOException("No sync manifest in " + destDir);
+        }
+        return Collections.unmodifiableMap(Manifest.open(file, password, null, null).entries);
+    }
+
+    /**
+     * Runs on a child of the sync's job, so a file that fails only stops itself, not the files
+     * encrypting beside it; cancelling and pausing the sync still reach it.
+     */
+    private Outcome syncFile(Candidate candidate, File destDir, char[] password, CryptoOptions options, int chunkSize,
+                             FileListener listener, CryptoJob job) {
+        try {
+            job.checkpoint();
+            byte[] fingerprint = fingerprint(candidate.file, job);
+            Entry previous = candidate.previous;
+            if (candidate.outputExists && previous.size == candidate.size && Arrays.equals(previous.fingerprint, fingerprint)) {
+                return new Outcome(candidate, listener, previous.withModified(candidate.modified), null);
+            }
+            byte[] id = new byte[OUTPUT_ID_BYTES];
+            random.nextBytes(id);
+            String outputName = Hex.toHexString(id) + OUTPUT_SUFFIX;
+            File part = new File(destDir, outputName + PART_SUFFIX);
+            File output = new File(destDir, outputName);
+            // One file per worker; the pool spreads the changed files over the cores.
+            new SequentialProcessor().encrypt(candidate.file.getPath(), part.getPath(), password, options, chunkSize, listener, job);
+            if (!part.renameTo(output)) {
+                part.delete();
+                throw new IOException("Cannot rename " + part + " to " + output);
+            }
+            FileHeader header = FileHeader.peek(output.getPath());
+            if (header == null) {
+                throw new IOException("Cannot read back the header of " + output);
+            }
+            return new Outcome(candidate, listener,
+                    new Entry(candidate.path, candidate.size, candidate.modified, fingerprint, outputName, header.getSalt()), null);
+        } catch (Exception e) {
+            return new Outcome(candidate, listener, null, CpuTopology.taskFailure(e));
+        }
+    }
+
+    private static byte[] fingerprint(File file, CryptoJob job) throws IOException, InterruptedException {
+        Blake2bDigest digest = new Blake2bDigest(FINGERPRINT_BITS);
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                job.checkpoint();
+                digest.update(buffer, 0, n);
+            }
+        }
+        byte[] out = new byte[digest.getDigestSize()];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
+    private static void checkDirectories(File sourceDir, File destDir) throws IOException {
+        if (!sourceDir.isDirectory()) {
+            throw new IOException("Not a folder: " + sourceDir);
+        }
+        String source = sourceDir.getCanonicalPath() + File.separator;
+        String dest = destDir.getCanonicalPath() + File.separator;
+        if (source.startsWith(dest) || dest.startsWith(source)) {
+            throw new IllegalArgumentException("The plaintext and encrypted folders must not contain each other.");
+        }
+        if (!destDir.isDirectory() && !destDir.mkdirs()) {
+            throw new IOException("Cannot create " + destDir);
+        }
+    }
+
+    /**
+     * Deletes outputs the manifest does not reference, and temporary files, left by interrupted runs.
+     * Only names this class generates are touched.
+     */
+    private static void sweep(File destDir, Manifest manifest) {
+        Set<String> live = new HashSet<>();
+        for (Entry entry : manifest.entries.values()) {
+            live.add(entry.outputName);
+        }
+        File[] children = destDir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String name = child.getName();
+            boolean part = name.endsWith(PART_SUFFIX);
+            String outputName = part ? name.substring(0, name.length() - PART_SUFFIX.length()) : name;
+            if (child.isFile() && isOutputName(outputName) && (part || !live.contains(name))) {
+                child.delete();
+            }
+        }
+    }
+
+    private static boolean isOutputName(String name) {
+        if (name.length() != 2 * OUTPUT_ID_BYTES + OUTPUT_SUFFIX.length() || !name.endsWith(OUTPUT_SUFFIX)) {
+            return false;
+        }
+        for (int i = 0; i < 2 * OUTPUT_ID_BYTES; i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * What the manifest records about one source file and its output.
+     */
+    public static final class Entry {
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final byte[] fingerprint;
+        private final String outputName;
+        private final byte[] headerId;
+
+        Entry(String path, long size, long modified, byte[] fingerprint, String outputName, byte[] headerId) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.fingerprint = fingerprint;
+            this.outputName = outputName;
+            this.headerId = headerId;
+        }
+
+        Entry withModified(long modified) {
+            return new Entry(path, size, modified, fingerprint, outputName, headerId);
+        }
+
+        public String getPath() { return path; }
+        public long getSize() { return size; }
+        public long getModified() { return modified; }
+        public String getOutputName() { return outputName; }
+
+        /**
+         * The salt in the output's header, which tells this output apart from any other.
+         */
+        public byte[] getHeaderId() { return headerId.clone(); }
+    }
+
+    /**
+     * The decrypted manifest, its key and the outputs waiting to be deleted once it has been saved.
+     * It is small, so it is sealed and opened on the I/O pool rather than queueing behind the files
+     * on the worker pool.
+     */
+    private static final class Manifest {
+        final Map<String, Entry> entries = new TreeMap<>();
+        private final File file;
+        private final CryptoOptions options;
+        private final SecretKey key;
+        private final byte[] salt;
+        private final List<String> retired = new ArrayList<>();
+        private boolean dirty;
+
+        private Manifest(File file, CryptoOptions options, SecretKey key, byte[] salt) {
+            this.file = file;
+            this.options = options;
+            this.key = key;
+            this.salt = salt;
+        }
+
+        /**
+         * Opens the manifest, or starts an empty one when there is none yet and options are given.
+         * A new manifest is sealed with XChaCha20-Poly1305 under the options' KDF.
+         */
+        static Manifest open(File file, char[] password, CryptoOptions options, JobMetrics metrics) throws Exception {
+            if (!file.isFile()) {
+                CryptoOptions manifestOptions = new CryptoOptions(CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305, CryptoOptions.KeyLength.BITS_256,
+                        null, CryptoOptions.CipherMode.POLY1305, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128, options.getKdf())
+                        .withArgon2Params(options.getArgon2Params());
+                byte[] salt = KeyDerivation.generateSalt();
+                Manifest manifest = new Manifest(file, manifestOptions, KeyDerivation.newFileKey(password, salt, manifestOptions), salt);
+                manifest.dirty = true;
+                return manifest;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileHeader header;
+                try (FileInputStream fis = new FileInputStream(file)) {
+                    header = FileHeader.fromStream(fis);
+                }
+                if (!header.hasSegments()) {
+                    throw new IOException("Not a sync manifest: " + file);
+                }
+                SecretKey key = KeyDerivation.fileKey(password, header, header.getOptions(), metrics);
+                header.checkKey(key);
+                Manifest manifest = new Manifest(file, header.getOptions(), key, header.getSalt());
+                long headerSize = header.getHeaderSize();
+                SegmentCipher cipher = new SegmentCipher(header.getOptions().getProtocol(), key.getEncoded(), header.getIv(), header.getAADBytes());
+                try (DataInputStream in = new DataInputStream(new SegmentInputStream(
+                        new LaneProcessor.RegionInputStream(raf.getChannel(), headerSize, raf.length() - headerSize),
+                        cipher, header.getSegmentSize(), CryptoManager.ioExecutor(), 2))) {
+                    manifest.decode(in);
+                }
+                return manifest;
+            }
+        }
+
+        void put(Entry entry) {
+            entries.put(entry.path, entry);
+            dirty = true;
+        }
+
+        /**
+         * Marks an output for deletion once a manifest that no longer references it has been saved.
+         */
+        void retire(String outputName) {
+            retired.add(outputName);
+            dirty = true;
+        }
+
+        /**
+         * Seals the manifest under a fresh nonce, replaces the old one atomically, and then deletes
+         * the retired outputs.
+         */
+        void save() throws Exception {
+            if (!dirty && retired.isEmpty()) {
+                return;
+            }
+            byte[] nonce = new byte[SegmentCipher.nonceLength(options.getProtocol())];
+            new SecureRandom().nextBytes(nonce);
+            FileHeader header = new FileHeader(options, nonce, salt, MANIFEST_SEGMENT_SIZE);
+            header.setKey(key);
+            ByteArrayOutputStream sealed = new ByteArrayOutputStream();
+            SegmentCipher cipher = new SegmentCipher(options.getProtocol(), key.getEncoded(), nonce, header.getAADBytes());
+            try (DataOutputStream out = new DataOutputStream(new SegmentOutputStream(sealed, cipher, MANIFEST_SEGMENT_SIZE, CryptoManager.ioExecutor(), 2))) {
+                encode(out);
+            }
+
+            File tmp = new File(file.getPath() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                header.writeTo(fos);
+                sealed.writeTo(fos);
+                fos.getFD().sync();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Cannot replace " + file);
+            }
+            dirty = false;
+            File dir = file.getParentFile();
+            for (String outputName : retired) {
+                new File(dir, outputName).delete();
+            }
+            retired.clear();
+        }
+
+        private void encode(DataOutputStream out) throws IOException {
+            out.writeInt(MANIFEST_VERSION);
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                writeBytes(out, entry.fingerprint);
+                out.writeUTF(entry.outputName);
+                writeBytes(out, entry.headerId);
+            }
+        }
+
+        private void decode(DataInputStream in) throws IOException {
+            int version = in.readInt();
+            if (version != MANIFEST_VERSION) {
+                throw new IOException("Unsupported sync manifest version " + version);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] fingerprint = readBytes(in);
+                String outputName = in.readUTF();
+                byte[] headerId = readBytes(in);
+                entries.put(path, new Entry(path, size, modified, fingerprint, outputName, headerId));
+            }
+            if (in.read() != -1) {
+                throw new IOException("Trailing data in sync manifest.");
+            }
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readUnsignedByte()];
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private static final class Candidate {
+        final String path;
+        final File file;
+        final long size;
+        final long modified;
+        final Entry previous;
+        final boolean outputExists;
+
+        Candidate(String path, File file, long size, long modified, Entry previous, boolean outputExists) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.previous = previous;
+            this.outputExists = outputExists;
+        }
+
+        boolean isUnchanged() {
+            return outputExists && previous.size == size && previous.modified == modified;
+        }
+    }
+
+    private static final class Outcome {
+        final Candidate candidate;
+        final FileListener listener;
+        final Entry entry;
+        final Exception error;
+
+        Outcome(Candidate candidate, FileListener listener, Entry entry, Exception error) {
+            this.candidate = candidate;
+            this.listener = listener;
+            this.entry = entry;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Sums the progress of the files encrypting in parallel into one figure for the job.
+     */
+    private static final class SyncProgress {
+        private final CryptoListener listener;
+        private final long totalBytes;
+        private long doneBytes;
+
+        SyncProgress(CryptoListener listener, long totalBytes) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+        }
+
+        synchronized void advance(long bytes) {
+            doneBytes += bytes;
+            listener.onProgress(doneBytes, totalBytes);
+        }
+
+        synchronized void log(String message) {
+            listener.onLog(message);
+        }
+    }
+
+    /**
+     * One file's listener: forwards progress as increments and leaves start, success and error to
+     * the sync itself. {@link #finish()} accounts for the rest of the file however it ended.
+     */
+    private static final class FileListener implements CryptoListener {
+        private final SyncProgress progress;
+        private final long size;
+        private long reported;
+
+        FileListener(SyncProgress progress, long size) {
+            this.progress = progress;
+            this.size = size;
+        }
+
+        void finish() {
+            if (reported < size) {
+                progress.advance(size - reported);
+                reported = size;
+            }
+        }
+
+        @Override
+        public void onStart(long totalBytes) {
+        }
+
+        @Override
+        public void onProgress(long currentBytes, long totalBytes) {
+            // The file may have grown since it was listed; progress never goes past its listed size.
+            long bytes = Math.min(currentBytes, size) - reported;
+            if (bytes > 0) {
+                reported += bytes;
+                progress.advance(bytes);
+            }
+        }
+
+        @Override
+        public void onSuccess(String message, String outputPath) {
+        }
+
+        @Override
+        public void onError(String message, Exception e) {
+        }
+
+        @Override
+        public void onLog(String message) {
+            progress.log(message);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.modes.gcm.GCMMultiplier;
+import org.bouncycastle.crypto.modes.gcm.GCMUtil;
+import org.bouncycastle.crypto.modes.gcm.Tables4kGCMMultiplier;
+
+/**
+ * Utility class for low-level GCM operations required for parallel processing.
+ * GHASH is a polynomial in H, so independent segments of the ciphertext can be hashed
+ * separately and combined afterwards by multiplying each partial result by the right power of H.
+ */
+public final class GcmUtil {
+
+    private static final int BLOCK_SIZE_BYTES = 16; // GCM is only defined for 128-bit block ciphers
+
+    private GcmUtil() {}
+
+    /**
+     * Runs GHASH (Horner's rule) over a byte range, zero-padding the last partial block.
+     * @param multiplier A multiplier initialised with H; not thread-safe, use one per worker.
+     * @param state The running GHASH state, updated in place.
+     * @param data The bytes to absorb.
+     * @param offset Offset into data.
+     * @param length Number of bytes to absorb.
+     */
+    public static void ghash(GCMMultiplier multiplier, byte[] state, byte[] data, int offset, int length) {
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            int n = Math.min(BLOCK_SIZE_BYTES, end - pos);
+            for (int i = 0; i < n; i++) {
+                state[i] ^= data[pos + i];
+            }
+            multiplier.multiplyH(state);
+            pos += n;
+        }
+    }
+
+    /**
+     * Creates a table-driven multiplier for the hash subkey H.
+     */
+    public static GCMMultiplier newMultiplier(byte[] h) {
+        GCMMultiplier multiplier = new Tables4kGCMMultiplier();
+        multiplier.init(h);
+        return multiplier;
+    }
+
+    /**
+     * Calculates H^exponent in GF(2^128) by square-and-multiply.
+     * @param h The hash subkey H.
+     * @param exponent The power to raise H to (0 yields the multiplicative identity).
+     * @return H^exponent.
+     */
+    public static byte[] power(byte[] h, long exponent) {
+        byte[] result = GCMUtil.oneAsBytes();
+        byte[] base = h.clone();
+        long e = exponent;
+        while (e > 0) {
+            if ((e & 1) != 0) {
+                GCMUtil.multiply(result, base);
+            }
+            e >>>= 1;
+            if (e > 0) {
+                GCMUtil.multiply(base, base);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Folds a segment's partial GHASH into the total: total ^= partial * H^(blocksAfter).
+     * @param total The accumulated GHASH, updated in place.
+     * @param partial The GHASH of one segment computed from a zero state.
+     * @param h The hash subkey H.
+     * @param blocksAfter The number of 16-byte blocks hashed after this segment (including the length block).
+     */
+    public static void combine(byte[] total, byte[] partial, byte[] h, long blocksAfter) {
+        byte[] shifted = partial.clone();
+        GCMUtil.multiply(shifted, power(h, blocksAfter));
+        for (int i = 0; i < BLOCK_SIZE_BYTES; i++) {
+            total[i] ^= shifted[i];
+        }
+    }
+
+    /**
+     * Builds the final GHASH length block: [len(A)]64 || [len(C)]64, both in bits.
+     */
+    public static byte[] lengthBlock(long aadLength, long ciphertextLength) {
+        byte[] block = new byte[BLOCK_SIZE_BYTES];
+        long aadBits = aadLength * 8;
+        long ctBits = ciphertextLength * 8;
+        for (int i = 0; i < 8; i++) {
+            block[7 - i] = (byte) (aadBits >>> (8 * i));
+            block[15 - i] = (byte) (ctBits >>> (8 * i));
+        }
+        return block;
+    }
+
+    /**
+     * Derives the pre-counter block J0 from the IV, as defined in NIST SP 800-38D.
+     * @param multiplier A multiplier initialised with H.
+     * @param iv The nonce stored in the file header.
+     * @return J0.
+     */
+    public static byte[] preCounterBlock(GCMMultiplier multiplier, byte[] iv) {
+        byte[] j0 = new byte[BLOCK_SIZE_BYTES];
+        if (iv.length == 12) {
+            System.arraycopy(iv, 0, j0, 0, 12);
+            j0[15] = 1;
+            return j0;
+        }
+        ghash(multiplier, j0, iv, 0, iv.length);
+        byte[] lengths = lengthBlock(0, iv.length);
+        ghash(multiplier, j0, lengths, 0, BLOCK_SIZE_BYTES);
+        return j0;
+    }
+
+    /**
+     * Number of 16-byte GHASH blocks needed to absorb the given number of bytes.
+     */
+    public static long blockCount(long length) {
+        return (length + BLOCK_SIZE_BYTES - 1) / BLOCK_SIZE_BYTES;
+    }
+}
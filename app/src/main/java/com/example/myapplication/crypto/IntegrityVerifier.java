@@ -0,0 +1,608 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.modes.gcm.GCMMultiplier;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Checks the integrity of encrypted files without writing any plaintext.
+ * Files are verified in parallel. For GCM the authentication tag is recomputed directly from
+ * the ciphertext, with GHASH split into chunks that are hashed in parallel and then combined.
+ * CCM has its CTR keystream and CBC-MAC recomputed a chunk at a time. Other AEAD modes are
+ * decrypted into a scratch buffer that is discarded. Files with a
+ * Merkle-tree HMAC have every chunk checked against its leaf in parallel, and single chunks
+ * can be checked on their own with {@link #verifyChunk}. Segmented AEAD files (ChaCha20-Poly1305)
+ * have their segments opened in parallel.
+ */
+public class IntegrityVerifier {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    private static final int GCM_BLOCK_BYTES = 16;
+    private static final int CCM_BLOCK_BYTES = 16;
+
+    private final ForkJoinPool pool;
+
+    public IntegrityVerifier(int numThreads) {
+        this.pool = new ForkJoinPool(Math.max(1, numThreads));
+    }
+
+    public List<VerifyResult> verify(List<String> sourcePaths, char[] password, int chunkSize, CryptoListener listener) {
+        try {
+            long totalBytes = 0;
+            for (String path : sourcePaths) {
+                totalBytes += new java.io.File(path).length();
+            }
+            listener.onStart(totalBytes);
+
+            final long total = totalBytes;
+            AtomicLong processed = new AtomicLong(0);
+            List<FileTask> tasks = new ArrayList<>();
+            for (String path : sourcePaths) {
+                tasks.add(new FileTask(path, password, chunkSize, processed, total, listener));
+            }
+            pool.invoke(new RecursiveTask<Void>() {
+                @Override
+                protected Void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                    return null;
+                }
+            });
+
+            List<VerifyResult> results = new ArrayList<>();
+            int verified = 0, failed = 0, unverifiable = 0;
+            for (FileTask task : tasks) {
+                VerifyResult result = task.join();
+                results.add(result);
+                listener.onLog(result.toString());
+                switch (result.getStatus()) {
+                    case VERIFIED: verified++; break;
+                    case FAILED: failed++; break;
+                    default: unverifiable++; break;
+                }
+            }
+            listener.onSuccess(String.format("Verification completed: %d verified, %d failed, %d unverifiable.",
+                    verified, failed, unverifiable), null);
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Verifies one file. Any exception is turned into a FAILED result so that one bad file
+     * does not abort the rest of the sweep.
+     */
+    private static class FileTask extends RecursiveTask<VerifyResult> {
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final char[] password;
+        private final int chunkSize;
+        private final AtomicLong processed;
+        private final long totalBytes;
+        private final CryptoListener listener;
+
+        FileTask(String path, char[] password, int chunkSize, AtomicLong processed, long totalBytes, CryptoListener listener) {
+            this.path = path;
+            this.password = password;
+            this.chunkSize = chunkSize;
+            this.processed = processed;
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        @Override
+        protected VerifyResult compute() {
+            try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+                FileHeader header;
+                try (FileInputStream fis = new FileInputStream(path)) {
+                    header = FileHeader.fromStream(fis);
+                }
+                CryptoOptions options = header.getOptions();
+                if (header.isArchive()) {
+                    return VerifyResult.unverifiable(path, "Archive entries are authenticated as they are extracted.");
+                }
+                if (!options.getMode().isAeadMode() && !header.hasChunkMac()) {
+                    return VerifyResult.unverifiable(path, options.getMode() + " files carry no authentication data.");
+                }
+
+                SecretKey key = KeyDerivation.fileKey(password, header, options);
+                header.checkKey(key);
+                if (header.hasChunkMac()) {
+                    return verifyMerkle(raf.getChannel(), header, key);
+                }
+                if (header.hasSegments()) {
+                    return verifySegments(raf.getChannel(), header, key);
+                }
+                byte[] rawKey = key.getEncoded();
+
+                if (options.getMode() == CryptoOptions.CipherMode.GCM && options.getBlockSizeBits() == 128) {
+                    return verifyGcm(raf.getChannel(), header, rawKey);
+                }
+                if (options.getMode() == CryptoOptions.CipherMode.CCM) {
+                    return verifyCcm(raf.getChannel(), header, rawKey);
+                }
+                return verifyByDecryption(raf.getChannel(), header, rawKey);
+            } catch (Exception e) {
+                return VerifyResult.failed(path, "Could not verify: " + e.getMessage(), null);
+            }
+        }
+
+        private VerifyResult verifyGcm(FileChannel channel, FileHeader header, byte[] key) throws Exception {
+            CryptoOptions options = header.getOptions();
+            int tagBytes = options.getTagLength().getBits() / 8;
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = channel.size() - headerSize - tagBytes;
+            if (ciphertextLength < 0) {
+                return VerifyResult.failed(path, "File is truncated.", null);
+            }
+
+            // The GHASH key is the encryption of the zero block.
+            BlockCipher engine = CipherEngine.newBlockCipher(options);
+            engine.init(true, new KeyParameter(key));
+            byte[] h = new byte[GCM_BLOCK_BYTES];
+            engine.processBlock(new byte[GCM_BLOCK_BYTES], 0, h, 0);
+            GCMMultiplier multiplier = GcmUtil.newMultiplier(h);
+            byte[] j0 = GcmUtil.preCounterBlock(multiplier, header.getIv());
+
+            byte[] aad = header.getAADBytes();
+            long ciphertextBlocks = GcmUtil.blockCount(ciphertextLength);
+            byte[] ghash = new byte[GCM_BLOCK_BYTES];
+            byte[] aadHash = new byte[GCM_BLOCK_BYTES];
+            GcmUtil.ghash(multiplier, aadHash, aad, 0, aad.length);
+            GcmUtil.combine(ghash, aadHash, h, ciphertextBlocks + 1);
+
+            // Segments must cover whole GHASH blocks so they can be combined independently.
+            int segmentSize = Math.max(GCM_BLOCK_BYTES, chunkSize - chunkSize % GCM_BLOCK_BYTES);
+            List<GhashTask> segments = new ArrayList<>();
+            long index = 0;
+            for (long offset = 0; offset < ciphertextLength; offset += segmentSize) {
+                long length = Math.min(segmentSize, ciphertextLength - offset);
+                segments.add(new GhashTask(channel, h, index++, headerSize + offset, (int) length, processed, totalBytes, listener));
+            }
+            ForkJoinTask.invokeAll(segments);
+
+            List<VerifyResult.ChunkFailure> failures = new ArrayList<>();
+            long blocksSoFar = 0;
+            for (GhashTask segment : segments) {
+                blocksSoFar += GcmUtil.blockCount(segment.length);
+                if (segment.error != null) {
+                    failures.add(new VerifyResult.ChunkFailure(segment.index, segment.position, segment.length,
+                            "Read error: " + segment.error.getMessage()));
+                    continue;
+                }
+                GcmUtil.combine(ghash, segment.partial, h, ciphertextBlocks - blocksSoFar + 1);
+            }
+            if (!failures.isEmpty()) {
+                return VerifyResult.failed(path, "Ciphertext could not be read.", failures);
+            }
+
+            byte[] lengths = GcmUtil.lengthBlock(aad.length, ciphertextLength);
+            multiplier.multiplyH(lengths);
+            byte[] keystream = new byte[GCM_BLOCK_BYTES];
+            engine.processBlock(j0, 0, keystream, 0);
+            byte[] expectedTag = new byte[tagBytes];
+            for (int i = 0; i < tagBytes; i++) {
+                expectedTag[i] = (byte) (ghash[i] ^ lengths[i] ^ keystream[i]);
+            }
+
+            ByteBuffer storedTag = ByteBuffer.allocate(tagBytes);
+            readFully(channel, storedTag, headerSize + ciphertextLength);
+            if (!MessageDigest.isEqual(expectedTag, storedTag.array())) {
+                return VerifyResult.failed(path, "Authentication tag mismatch (corrupted file or wrong password).",
+                        Collections.singletonList(new VerifyResult.ChunkFailure(0, headerSize, ciphertextLength, "GCM tag mismatch")));
+            }
+            return VerifyResult.verified(path, options + ", " + segments.size() + " chunk(s)");
+        }
+
+        /**
+         * BouncyCastle's CCM holds the whole message until the tag is checked, so the mode is run by
+         * hand (SP 800-38C): each chunk is decrypted with the CTR keystream into a scratch buffer and
+         * fed to the CBC-MAC, and memory stays at one chunk whatever the file size.
+         */
+        private VerifyResult verifyCcm(FileChannel channel, FileHeader header, byte[] key) throws Exception {
+            CryptoOptions options = header.getOptions();
+            int tagBytes = options.getTagLength().getBits() / 8;
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = channel.size() - headerSize - tagBytes;
+            if (ciphertextLength < 0) {
+                return VerifyResult.failed(path, "File is truncated.", null);
+            }
+            BlockCipher engine = CipherEngine.newBlockCipher(options);
+            if (engine.getBlockSize() != CCM_BLOCK_BYTES) {
+                return VerifyResult.failed(path, "CCM needs a 128-bit block cipher.", null);
+            }
+            engine.init(true, new KeyParameter(key));
+            byte[] nonce = header.getIv();
+            int q = CCM_BLOCK_BYTES - 1 - nonce.length; // Bytes of the length field and of the counter
+            if (q < 2 || q > 8 || (q < 8 && ciphertextLength >>> (8 * q) != 0)) {
+                return VerifyResult.failed(path, "CCM nonce does not fit the ciphertext length.", null);
+            }
+
+            byte[] aad = header.getAADBytes();
+            byte[] mac = new byte[CCM_BLOCK_BYTES];
+            byte[] block = new byte[CCM_BLOCK_BYTES];
+            block[0] = (byte) ((aad.length > 0 ? 0x40 : 0) | ((tagBytes - 2) / 2) << 3 | (q - 1));
+            System.arraycopy(nonce, 0, block, 1, nonce.length);
+            putCounter(block, q, ciphertextLength);
+            cbcMac(engine, mac, block, 0, CCM_BLOCK_BYTES);
+            if (aad.length > 0) {
+                byte[] encoded = aad.length < 0xFF00
+                        ? ByteBuffer.allocate(2 + aad.length).putShort((short) aad.length).put(aad).array()
+                        : ByteBuffer.allocate(6 + aad.length).putShort((short) 0xFFFE).putInt(aad.length).put(aad).array();
+                cbcMac(engine, mac, encoded, 0, encoded.length);
+            }
+
+            byte[] counter = new byte[CCM_BLOCK_BYTES];
+            counter[0] = (byte) (q - 1);
+            System.arraycopy(nonce, 0, counter, 1, nonce.length);
+            byte[] s0 = new byte[CCM_BLOCK_BYTES];
+            engine.processBlock(counter, 0, s0, 0);
+
+            // Whole blocks per read, so only the last one can be partial.
+            int readSize = Math.max(CCM_BLOCK_BYTES, chunkSize - chunkSize % CCM_BLOCK_BYTES);
+            ByteBuffer buffer = ByteBuffer.allocate(readSize);
+            byte[] data = buffer.array();
+            byte[] keystream = new byte[CCM_BLOCK_BYTES];
+            long blockIndex = 1;
+            for (long offset = 0; offset < ciphertextLength; offset += readSize) {
+                int length = (int) Math.min(readSize, ciphertextLength - offset);
+                buffer.clear().limit(length);
+                readFully(channel, buffer, headerSize + offset);
+                for (int i = 0; i < length; i += CCM_BLOCK_BYTES) {
+                    putCounter(counter, q, blockIndex++);
+                    engine.processBlock(counter, 0, keystream, 0);
+                    int n = Math.min(CCM_BLOCK_BYTES, length - i);
+                    for (int j = 0; j < n; j++) {
+                        data[i + j] ^= keystream[j];
+                    }
+                }
+                cbcMac(engine, mac, data, 0, length);
+                listener.onProgress(processed.addAndGet(length), totalBytes);
+            }
+
+            byte[] expectedTag = new byte[tagBytes];
+            for (int i = 0; i < tagBytes; i++) {
+                expectedTag[i] = (byte) (mac[i] ^ s0[i]);
+            }
+            ByteBuffer storedTag = ByteBuffer.allocate(tagBytes);
+            readFully(channel, storedTag, headerSize + ciphertextLength);
+            if (!MessageDigest.isEqual(expectedTag, storedTag.array())) {
+                return VerifyResult.failed(path, "Authentication tag mismatch (corrupted file or wrong password).",
+                        Collections.singletonList(new VerifyResult.ChunkFailure(0, headerSize, ciphertextLength, "CCM tag mismatch")));
+            }
+            return VerifyResult.verified(path, options.toString());
+        }
+
+        private VerifyResult verifyMerkle(FileChannel channel, FileHeader header, SecretKey key) throws Exception {
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = header.getCiphertextLength();
+            int macChunkSize = header.getMacChunkSize();
+            int leafCount = MerkleTree.leafCount(ciphertextLength, macChunkSize);
+            if (channel.size() < headerSize + ciphertextLength + MerkleTree.trailerSize(leafCount)) {
+                return VerifyResult.failed(path, "File is truncated.", null);
+            }
+
+            byte[] macKey = MerkleTree.macKey(key);
+            MerkleTree tree = MerkleTree.readLeaves(channel, headerSize + ciphertextLength, leafCount);
+            try {
+                tree.verifyRoot(MerkleTree.newMac(macKey), header);
+            } catch (IOException e) {
+                return VerifyResult.failed(path, "Merkle root mismatch (corrupted file or wrong password).",
+                        Collections.singletonList(new VerifyResult.ChunkFailure(0, headerSize, ciphertextLength, "Root tag mismatch")));
+            }
+
+            List<LeafTask> leaves = new ArrayList<>();
+            for (int i = 0; i < leafCount; i++) {
+                long offset = (long) i * macChunkSize;
+                int length = (int) Math.min(macChunkSize, ciphertextLength - offset);
+                leaves.add(new LeafTask(channel, macKey, tree.getLeaf(i), i, headerSize + offset, length, processed, totalBytes, listener));
+            }
+            ForkJoinTask.invokeAll(leaves);
+
+            List<VerifyResult.ChunkFailure> failures = new ArrayList<>();
+            for (LeafTask leaf : leaves) {
+                if (leaf.failure != null) {
+                    failures.add(new VerifyResult.ChunkFailure(leaf.index, leaf.position, leaf.length, leaf.failure));
+                }
+            }
+            if (!failures.isEmpty()) {
+                return VerifyResult.failed(path, failures.size() + " of " + leafCount + " chunk(s) failed authentication.", failures);
+            }
+            return VerifyResult.verified(path, header.getOptions() + ", " + leafCount + " chunk(s)");
+        }
+
+        private VerifyResult verifySegments(FileChannel channel, FileHeader header, SecretKey key) throws Exception {
+            long headerSize = header.getHeaderSize();
+            int segmentSize = header.getSegmentSize();
+            long plaintextLength;
+            try {
+                plaintextLength = SegmentCipher.plaintextLength(channel.size() - headerSize, segmentSize);
+            } catch (IOException e) {
+                return VerifyResult.failed(path, "File is truncated.", null);
+            }
+            SegmentCipher cipher = new SegmentCipher(header.getOptions().getProtocol(), key.getEncoded(), header.getIv(), header.getAADBytes());
+            int segmentCount = SegmentCipher.segmentCount(plaintextLength, segmentSize);
+
+            List<SegmentTask> segments = new ArrayList<>();
+            for (int i = 0; i < segmentCount; i++) {
+                long offset = (long) i * segmentSize;
+                int length = (int) Math.min(segmentSize, plaintextLength - offset) + SegmentCipher.TAG_SIZE;
+                segments.add(new SegmentTask(channel, cipher, i, i == segmentCount - 1,
+                        headerSize + (long) i * (segmentSize + SegmentCipher.TAG_SIZE), length, processed, totalBytes, listener));
+            }
+            ForkJoinTask.invokeAll(segments);
+
+            List<VerifyResult.ChunkFailure> failures = new ArrayList<>();
+            for (SegmentTask segment : segments) {
+                if (segment.failure != null) {
+                    failures.add(new VerifyResult.ChunkFailure(segment.index, segment.position, segment.length, segment.failure));
+                }
+            }
+            if (!failures.isEmpty()) {
+                return VerifyResult.failed(path, failures.size() + " of " + segmentCount + " segment(s) failed authentication.", failures);
+            }
+            return VerifyResult.verified(path, header.getOptions() + ", " + segmentCount + " segment(s)");
+        }
+
+        private VerifyResult verifyByDecryption(FileChannel channel, FileHeader header, byte[] key) throws Exception {
+            CryptoOptions options = header.getOptions();
+            CipherEngine cipher = CipherEngine.create(options, false, key, header.getIv());
+            cipher.updateAAD(header.getAADBytes());
+
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = channel.size() - headerSize;
+            ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            byte[] scratch = new byte[cipher.getUpdateOutputSize(chunkSize)];
+            long position = headerSize;
+            while (position < channel.size()) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) break;
+                int needed = cipher.getUpdateOutputSize(read);
+                if (scratch.length < needed) {
+                    scratch = new byte[needed];
+                }
+                cipher.update(buffer.array(), 0, read, scratch, 0);
+                position += read;
+                listener.onProgress(processed.addAndGet(read), totalBytes);
+            }
+            try {
+                int needed = cipher.getOutputSize(0);
+                cipher.doFinal(scratch.length < needed ? new byte[needed] : scratch, 0);
+            } catch (AEADBadTagException e) {
+                return VerifyResult.failed(path, "Authentication tag mismatch (corrupted file or wrong password).",
+                        Collections.singletonList(new VerifyResult.ChunkFailure(0, headerSize, ciphertextLength, options.getMode() + " tag mismatch")));
+            }
+            return VerifyResult.verified(path, options.toString());
+        }
+    }
+
+    /**
+     * Computes the GHASH of one ciphertext segment starting from a zero state.
+     */
+    private static class GhashTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final byte[] h;
+        private final long index;
+        private final long position;
+        private final int length;
+        private final AtomicLong processed;
+        private final long totalBytes;
+        private final CryptoListener listener;
+        private final byte[] partial = new byte[GCM_BLOCK_BYTES];
+        private Exception error;
+
+        GhashTask(FileChannel channel, byte[] h, long index, long position, int length, AtomicLong processed, long totalBytes, CryptoListener listener) {
+            this.channel = channel;
+            this.h = h;
+            this.index = index;
+            this.position = position;
+            this.length = length;
+            this.processed = processed;
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        @Override
+        protected Void compute() {
+            try {
+                ByteBuffer data = ByteBuffer.allocate(length);
+                readFully(channel, data, position);
+                GcmUtil.ghash(GcmUtil.newMultiplier(h), partial, data.array(), 0, length);
+                listener.onProgress(processed.addAndGet(length), totalBytes);
+            } catch (Exception e) {
+                error = e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Checks one ciphertext chunk of a Merkle-authenticated file against the root in its header.
+     * Only the chunk and the log2(n) sibling hashes on its path are read.
+     */
+    public static VerifyResult verifyChunk(String path, char[] password, int chunkIndex) {
+        try (RandomAccessFile raf = new RandomAccessFile(path, "r")) {
+            FileHeader header;
+            try (FileInputStream fis = new FileInputStream(path)) {
+                header = FileHeader.fromStream(fis);
+            }
+            if (!header.hasChunkMac()) {
+                return VerifyResult.unverifiable(path, "File has no per-chunk MAC.");
+            }
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = header.getCiphertextLength();
+            int macChunkSize = header.getMacChunkSize();
+            int leafCount = MerkleTree.leafCount(ciphertextLength, macChunkSize);
+            if (chunkIndex < 0 || chunkIndex >= leafCount) {
+                throw new IllegalArgumentException("Chunk " + chunkIndex + " out of range (0.." + (leafCount - 1) + ")");
+            }
+
+            CryptoOptions options = header.getOptions();
+            SecretKey key = KeyDerivation.fileKey(password, header, options);
+            header.checkKey(key);
+            Mac mac = MerkleTree.newMac(key);
+
+            long offset = (long) chunkIndex * macChunkSize;
+            int length = (int) Math.min(macChunkSize, ciphertextLength - offset);
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(raf.getChannel(), data, headerSize + offset);
+            byte[] leaf = MerkleTree.leaf(mac, chunkIndex, data.array(), 0, length);
+            byte[] top = MerkleTree.topFromPath(mac, raf.getChannel(), headerSize + ciphertextLength, leafCount, chunkIndex, leaf);
+            byte[] rootTag = MerkleTree.rootTag(mac, header.getAADBytes(), ciphertextLength, top);
+            if (!MessageDigest.isEqual(rootTag, header.getMerkleRoot())) {
+                return VerifyResult.failed(path, "Chunk does not match the Merkle root (corrupted file or wrong password).",
+                        Collections.singletonList(new VerifyResult.ChunkFailure(chunkIndex, headerSize + offset, length, "Path mismatch")));
+            }
+            return VerifyResult.verified(path, "chunk " + chunkIndex + " of " + leafCount);
+        } catch (Exception e) {
+            return VerifyResult.failed(path, "Could not verify: " + e.getMessage(), null);
+        }
+    }
+
+    /**
+     * Recomputes one chunk's leaf and compares it with the stored (already root-verified) leaf.
+     */
+    private static class LeafTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final byte[] macKey;
+        private final byte[] expected;
+        private final int index;
+        private final long position;
+        private final int length;
+        private final AtomicLong processed;
+        private final long totalBytes;
+        private final CryptoListener listener;
+        private String failure;
+
+        LeafTask(FileChannel channel, byte[] macKey, byte[] expected, int index, long position, int length, AtomicLong processed, long totalBytes, CryptoListener listener) {
+            this.channel = channel;
+            this.macKey = macKey;
+            this.expected = expected;
+            this.index = index;
+            this.position = position;
+            this.length = length;
+            this.processed = processed;
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        @Override
+        protected Void compute() {
+            try {
+                ByteBuffer data = ByteBuffer.allocate(length);
+                readFully(channel, data, position);
+                byte[] leaf = MerkleTree.leaf(MerkleTree.newMac(macKey), index, data.array(), 0, length);
+                if (!MessageDigest.isEqual(leaf, expected)) {
+                    failure = "HMAC mismatch";
+                }
+                listener.onProgress(processed.addAndGet(length), totalBytes);
+            } catch (Exception e) {
+                failure = "Read error: " + e.getMessage();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Opens one sealed segment into a scratch buffer that is discarded.
+     */
+    private static class SegmentTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final SegmentCipher cipher;
+        private final int index;
+        private final boolean last;
+        private final long position;
+        private final int length;
+        private final AtomicLong processed;
+        private final long totalBytes;
+        private final CryptoListener listener;
+        private String failure;
+
+        SegmentTask(FileChannel channel, SegmentCipher cipher, int index, boolean last, long position, int length, AtomicLong processed, long totalBytes, CryptoListener listener) {
+            this.channel = channel;
+            this.cipher = cipher;
+            this.index = index;
+            this.last = last;
+            this.position = position;
+            this.length = length;
+            this.processed = processed;
+            this.totalBytes = totalBytes;
+            this.listener = listener;
+        }
+
+        @Override
+        protected Void compute() {
+            try {
+                ByteBuffer data = ByteBuffer.allocate(length);
+                readFully(channel, data, position);
+                cipher.open(index, last, data.array(), 0, length, new byte[length - SegmentCipher.TAG_SIZE], 0);
+                listener.onProgress(processed.addAndGet(length), totalBytes);
+            } catch (IOException e) {
+                failure = e.getCause() != null ? "Poly1305 tag mismatch" : "Read error: " + e.getMessage();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Folds len bytes into the CBC-MAC state, zero-padding a final partial block. Callers pass whole
+     * blocks except at the end of each CCM field.
+     */
+    private static void cbcMac(BlockCipher engine, byte[] mac, byte[] in, int off, int len) {
+        for (int i = 0; i < len; i += CCM_BLOCK_BYTES) {
+            int n = Math.min(CCM_BLOCK_BYTES, len - i);
+            for (int j = 0; j < n; j++) {
+                mac[j] ^= in[off + i + j];
+            }
+            engine.processBlock(mac, 0, mac, 0);
+        }
+    }
+
+    /**
+     * Writes value big-endian into the last q bytes of a CCM block.
+     */
+    private static void putCounter(byte[] block, int q, long value) {
+        for (int i = CCM_BLOCK_BYTES - 1; i >= CCM_BLOCK_BYTES - q; i--) {
+            block[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.myapplication.crypto;
+
+/**
+ * A progress or log event published by a running job.
+ */
+public class JobEvent {
+
+    public enum Type {
+        STARTED, PROGRESS, LOG
+    }
+
+    private final Type type;
+    private final long currentBytes;
+    private final long totalBytes;
+    private final String message;
+
+    private JobEvent(Type type, long currentBytes, long totalBytes, String message) {
+        this.type = type;
+        this.currentBytes = currentBytes;
+        this.totalBytes = totalBytes;
+        this.message = message;
+    }
+
+    public static JobEvent started(long totalBytes) {
+        return new JobEvent(Type.STARTED, 0, totalBytes, null);
+    }
+
+    public static JobEvent progress(long currentBytes, long totalBytes) {
+        return new JobEvent(Type.PROGRESS, currentBytes, totalBytes, null);
+    }
+
+    public static JobEvent log(String message) {
+        return new JobEvent(Type.LOG, 0, 0, message);
+    }
+
+    public Type getType() { return type; }
+    public long getCurrentBytes() { return currentBytes; }
+    public long getTotalBytes() { return totalBytes; }
+    public String getMessage() { return message; }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case LOG: return "LOG " + message;
+            case STARTED: return "STARTED " + totalBytes;
+            default: return "PROGRESS " + currentBytes + "/" + totalBytes;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.myapplication.crypto;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The listener a job hands to its processor. It forwards every callback to the caller's own
+ * listener (if any), records job metrics, and publishes start, progress and log events to
+ * subscribers. Each subscriber is drained on the executor according to its own demand, with a
+ * bounded buffer: consecutive progress events are coalesced and the oldest events are dropped
+ * on overflow, so a slow subscriber can never block the crypto workers.
+ */
+class JobEventPublisher implements CryptoListener, JobFlow.Publisher<JobEvent> {
+
+    private static final int BUFFER_CAPACITY = 256;
+
+    private final CryptoListener delegate;
+    private final Executor executor;
+    private final JobMetrics metrics;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private boolean closed;
+    private Throwable closeError;
+    private volatile String successMessage;
+    private volatile String outputPath;
+
+    JobEventPublisher(CryptoListener delegate, Executor executor, JobMetrics metrics) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.metrics = metrics;
+    }
+
+    String getSuccessMessage() { return successMessage; }
+    String getOutputPath() { return outputPath; }
+
+    @Override
+    public void subscribe(JobFlow.Subscriber<? super JobEvent> subscriber) {
+        EventSubscription subscription = new EventSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        synchronized (lock) {
+            if (closed) {
+                subscription.finish(closeError);
+                return;
+            }
+            subscriptions.add(subscription);
+        }
+    }
+
+    /**
+     * Completes every subscription once the job has finished.
+     */
+    void close(Throwable error) {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            closeError = error;
+        }
+        for (EventSubscription subscription : subscriptions) {
+            subscription.finish(error);
+        }
+    }
+
+    @Override
+    public void onStart(long totalBytes) {
+        metrics.markPayloadStarted(totalBytes);
+        if (delegate != null) delegate.onStart(totalBytes);
+        publish(JobEvent.started(totalBytes));
+    }
+
+    @Override
+    public void onProgress(long currentBytes, long totalBytes) {
+        metrics.setBytesProcessed(currentBytes);
+        if (delegate != null) delegate.onProgress(currentBytes, totalBytes);
+        publish(JobEvent.progress(currentBytes, totalBytes));
+    }
+
+    @Override
+    public void onSuccess(String message, String outputPath) {
+        this.successMessage = message;
+        this.outputPath = outputPath;
+        if (delegate != null) delegate.onSuccess(message, outputPath);
+    }
+
+    @Override
+    public void onError(String message, Exception e) {
+        if (delegate != null) delegate.onError(message, e);
+        publish(JobEvent.log("[ERROR] " + message + (e != null ? ": " + e.getMessage() : "")));
+    }
+
+    @Override
+    public void onLog(String message) {
+        if (delegate != null) delegate.onLog(message);
+        publish(JobEvent.log(message));
+    }
+
+    private void publish(JobEvent event) {
+        for (EventSubscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    private class EventSubscription implements JobFlow.Subscription, Runnable {
+        private final JobFlow.Subscriber<? super JobEvent> subscriber;
+        private final ArrayDeque<JobEvent> queue = new ArrayDeque<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private long demand;
+        private boolean cancelled;
+        private boolean done;
+        private boolean terminated;
+        private Throwable error;
+
+        EventSubscription(JobFlow.Subscriber<? super JobEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        void offer(JobEvent event) {
+            synchronized (this) {
+                if (cancelled || done) return;
+                JobEvent last = queue.peekLast();
+                if (event.getType() == JobEvent.Type.PROGRESS && last != null && last.getType() == JobEvent.Type.PROGRESS) {
+                    queue.pollLast();
+                } else if (queue.size() >= BUFFER_CAPACITY) {
+                    queue.pollFirst();
+                }
+                queue.addLast(event);
+            }
+            schedule();
+        }
+
+        void finish(Throwable error) {
+            synchronized (this) {
+                done = true;
+                this.error = error;
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    // Rule 3.9: a non-positive request is an error signalled to the subscriber.
+                    done = true;
+                    queue.clear();
+                    error = new IllegalArgumentException("Requested " + n + " events; must be positive.");
+                } else {
+                    demand = (demand + n < 0) ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                queue.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                while (true) {
+                    JobEvent next;
+                    boolean finish;
+                    Throwable failure;
+                    synchronized (this) {
+                        if (cancelled || terminated) break;
+                        next = demand > 0 ? queue.pollFirst() : null;
+                        if (next != null) demand--;
+                        finish = next == null && done && queue.isEmpty();
+                        failure = error;
+                        if (finish) terminated = true;
+                    }
+                    if (next != null) {
+                        subscriber.onNext(next);
+                    } else {
+                        if (finish) {
+                            subscriptions.remove(this);
+                            if (failure != null) {
+                                subscriber.onError(failure);
+                            } else {
+                                subscriber.onComplete();
+                            }
+                        }
+                        break;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
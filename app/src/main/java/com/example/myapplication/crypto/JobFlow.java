@@ -0,0 +1,31 @@
+package com.example.myapplication.crypto;
+
+/**
+ * Reactive-streams interfaces for job events, with the same shape and rules as
+ * java.util.concurrent.Flow. Flow itself only exists from API 30, below our minSdk,
+ * so on newer devices an adapter to it is a one-liner.
+ */
+public final class JobFlow {
+
+    private JobFlow() {}
+
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+}
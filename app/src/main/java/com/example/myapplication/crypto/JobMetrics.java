@@ -0,0 +1,95 @@
+package com.example.myapplication.crypto;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timing and volume figures collected while a job runs. Updated from worker threads.
+ */
+public class JobMetrics {
+
+    private volatile long startNanos;
+    private volatile long payloadStartNanos;
+    private volatile long endNanos;
+    private volatile long totalBytes;
+    private volatile long bytesProcessed;
+    private volatile int concurrency;
+    private volatile double currentBytesPerSecond;
+    private final AtomicInteger keyCacheHits = new AtomicInteger();
+    private final AtomicInteger keyCacheMisses = new AtomicInteger();
+
+    void markStarted() { startNanos = System.nanoTime(); }
+    void markPayloadStarted(long totalBytes) {
+        this.payloadStartNanos = System.nanoTime();
+        this.totalBytes = totalBytes;
+    }
+    void markFinished() { endNanos = System.nanoTime(); }
+    void setBytesProcessed(long bytesProcessed) { this.bytesProcessed = bytesProcessed; }
+    void setConcurrency(int concurrency) { this.concurrency = concurrency; }
+    void setCurrentBytesPerSecond(double bytesPerSecond) { this.currentBytesPerSecond = bytesPerSecond; }
+    void recordKeyCacheLookup(boolean hit) { (hit ? keyCacheHits : keyCacheMisses).incrementAndGet(); }
+
+    public long getTotalBytes() { return totalBytes; }
+    public long getBytesProcessed() { return bytesProcessed; }
+
+    /**
+     * Time from job start until the payload started flowing: key derivation and header I/O.
+     */
+    public long getSetupMillis() {
+        return payloadStartNanos == 0 ? 0 : (payloadStartNanos - startNanos) / 1_000_000L;
+    }
+
+    public long getElapsedMillis() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return startNanos == 0 ? 0 : (end - startNanos) / 1_000_000L;
+    }
+
+    /**
+     * Payload throughput in bytes per second, excluding setup.
+     */
+    public double getBytesPerSecond() {
+        if (payloadStartNanos == 0) return 0;
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        long nanos = end - payloadStartNanos;
+        return nanos <= 0 ? 0 : bytesProcessed * 1e9 / nanos;
+    }
+
+    /**
+     * Chunks the parallel engine currently lets run at once; 0 for jobs it does not run.
+     */
+    public int getConcurrency() { return concurrency; }
+
+    /**
+     * Throughput over the most recent measurement window, in bytes per second; 0 until a window has completed.
+     */
+    public double getCurrentBytesPerSecond() { return currentBytesPerSecond; }
+
+    /**
+     * Key derivations this job answered from the {@link KeyCache}, and those it had to run; both 0
+     * when no cache is installed.
+     */
+    public int getKeyCacheHits() { return keyCacheHits.get(); }
+    public int getKeyCacheMisses() { return keyCacheMisses.get(); }
+
+    /**
+     * Share of this job's key-cache lookups that hit; 0 if it made none.
+     */
+    public double getKeyCacheHitRate() {
+        int hits = keyCacheHits.get();
+        int lookups = hits + keyCacheMisses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public String toString() {
+        String summary = String.format("%d bytes in %d ms (setup %d ms, %.1f MB/s)",
+                bytesProcessed, getElapsedMillis(), getSetupMillis(), getBytesPerSecond() / (1024 * 1024));
+        if (concurrency != 0) {
+            summary += ", " + concurrency + " workers";
+        }
+        int lookups = keyCacheHits.get() + keyCacheMisses.get();
+        if (lookups != 0) {
+            summary += String.format(", key cache %d/%d hits (%.0f%%)", keyCacheHits.get(), lookups, getKeyCacheHitRate() * 100);
+        }
+        return summary;
+    }
+}
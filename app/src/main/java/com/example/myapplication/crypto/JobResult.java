@@ -0,0 +1,27 @@
+package com.example.myapplication.crypto;
+
+/**
+ * Outcome of a successfully completed job, as delivered by the asynchronous API.
+ * Failures and cancellations complete the future exceptionally instead.
+ */
+public class JobResult {
+
+    private final String outputPath;
+    private final String message;
+    private final JobMetrics metrics;
+
+    public JobResult(String outputPath, String message, JobMetrics metrics) {
+        this.outputPath = outputPath;
+        this.message = message;
+        this.metrics = metrics;
+    }
+
+    public String getOutputPath() { return outputPath; }
+    public String getMessage() { return message; }
+    public JobMetrics getMetrics() { return metrics; }
+
+    @Override
+    public String toString() {
+        return message + " -> " + outputPath + " [" + metrics + "]";
+    }
+}
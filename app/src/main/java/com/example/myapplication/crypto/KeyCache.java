@@ -0,0 +1,179 @@
+package com.example.myapplication.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * An in-memory cache of password-derived file keys, so reopening a file skips the password stretch.
+ * Opt-in: install one with {@link KeyDerivation#setCache}.
+ * <p>
+ * An entry is looked up by an HMAC, under a random secret that lives only as long as the cache, of
+ * the salt, KDF, Argon2id costs, key length and password; neither the password nor a plain hash of
+ * it is kept. Entries expire ttl after they were derived, the least recently used one is evicted
+ * beyond maxEntries, and the key bytes of an expired, evicted or cleared entry are zeroed.
+ */
+public final class KeyCache {
+
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final byte[] secret = new byte[32];
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public KeyCache(long ttl, TimeUnit unit, int maxEntries) {
+        if (ttl <= 0 || maxEntries < 1) {
+            throw new IllegalArgumentException("The TTL and the maximum size must be positive.");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxEntries = maxEntries;
+        new SecureRandom().nextBytes(secret);
+        this.entries = new LinkedHashMap<ByteBuffer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Entry> eldest) {
+                if (size() <= KeyCache.this.maxEntries) {
+                    return false;
+                }
+                eldest.getValue().wipe();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * The password-derived key of the file with this header, from the cache or freshly derived.
+     * A fresh key is cached only if the header's key check accepts it, so mistyped passwords do not
+     * push good entries out. Records the hit or miss in metrics, which may be null.
+     */
+    SecretKey fileKey(char[] password, FileHeader header, CryptoOptions options, JobMetrics metrics) throws GeneralSecurityException, InterruptedException {
+        byte[] salt = header.getSalt();
+        ByteBuffer id = ByteBuffer.wrap(lookupKey(password, salt, options));
+        String algorithm = options.getKdf().name();
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            if (entry != null && entry.expiresAt - System.nanoTime() > 0) {
+                record(true, metrics);
+                return new SecretKeySpec(entry.key, algorithm);
+            }
+            if (entry != null) {
+                entries.remove(id).wipe();
+            }
+        }
+        record(false, metrics);
+        // Derive outside the lock; two threads missing on the same key both derive it, which is harmless.
+        SecretKey key = KeyDerivation.deriveKey(password, salt, options);
+        if (!header.acceptsKey(key)) {
+            return key;
+        }
+        byte[] encoded = key.getEncoded();
+        synchronized (this) {
+            Entry previous = entries.put(id, new Entry(encoded, System.nanoTime() + ttlNanos));
+            if (previous != null) {
+                previous.wipe();
+            }
+        }
+        return new SecretKeySpec(encoded, algorithm);
+    }
+
+    /**
+     * Drops entries whose TTL has passed. Lookups skip them anyway; this only frees them sooner.
+     */
+    public synchronized void purgeExpired() {
+        long now = System.nanoTime();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.expiresAt - now <= 0) {
+                entry.wipe();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Zeroes and drops every entry.
+     */
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            entry.wipe();
+        }
+        entries.clear();
+    }
+
+    public synchronized int size() { return entries.size(); }
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    /**
+     * Hits over lookups since the cache was created; 0 before the first lookup.
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private void record(boolean hit, JobMetrics metrics) {
+        (hit ? hits : misses).incrementAndGet();
+        if (metrics != null) {
+            metrics.recordKeyCacheLookup(hit);
+        }
+    }
+
+    private byte[] lookupKey(char[] password, byte[] salt, CryptoOptions options) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+        // Length-prefix every field so no two different inputs share an encoding.
+        updateField(mac, options.getKdf().name().getBytes(StandardCharsets.UTF_8));
+        if (options.getKdf() == CryptoOptions.Kdf.Argon2id) {
+            CryptoOptions.Argon2Params params = options.getArgon2Params();
+            mac.update(ByteBuffer.allocate(12).putInt(params.getMemoryKiB()).putInt(params.getIterations())
+                    .putInt(params.getParallelism()).array());
+        }
+        mac.update(ByteBuffer.allocate(4).putInt(options.getKeyLength().getBits()).array());
+        updateField(mac, salt);
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        try {
+            updateField(mac, passwordBytes);
+        } finally {
+            Arrays.fill(passwordBytes, (byte) 0);
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+        return mac.doFinal();
+    }
+
+    private static void updateField(Mac mac, byte[] field) {
+        mac.update(ByteBuffer.allocate(4).putInt(field.length).array());
+        mac.update(field);
+    }
+
+    private static final class Entry {
+        final byte[] key;
+        final long expiresAt;
+
+        Entry(byte[] key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        void wipe() {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+}
@@ -1,24 +1,125 @@
 package com.example.myapplication.crypto;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
 
 public class KeyDerivation {
 
     private static final int ITERATION_COUNT = 65536;
 
+    private static volatile KeyCache cache;
+
+    /**
+     * Installs a cache for the keys of existing files, or turns caching off with null. The previous
+     * cache, if any, is cleared.
+     */
+    public static void setCache(KeyCache keyCache) {
+        KeyCache previous = cache;
+        cache = keyCache;
+        if (previous != null && previous != keyCache) {
+            previous.clear();
+        }
+    }
+
+    public static KeyCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Derives the cipher key with the options' KDF, including its Argon2id costs where they apply.
+     * Argon2id lanes are filled in parallel on the shared KDF pool.
+     */
+    public static SecretKey deriveKey(char[] password, byte[] salt, CryptoOptions options) throws GeneralSecurityException, InterruptedException {
+        if (options.getKdf() == CryptoOptions.Kdf.Argon2id) {
+            byte[] key = Argon2Kdf.derive(password, salt, options.getArgon2Params(), options.getKeyLength().getBytes(), CryptoManager.kdfExecutor());
+            try {
+                return new SecretKeySpec(key, CryptoOptions.Kdf.Argon2id.name());
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+        return deriveKey(password, salt, options.getKdf(), options.getKeyLength());
+    }
+
     public static SecretKey deriveKey(char[] password, byte[] salt, CryptoOptions.Kdf kdf, CryptoOptions.KeyLength keyLength) throws NoSuchAlgorithmException, InvalidKeySpecException {
+        if (kdf == CryptoOptions.Kdf.Argon2id) {
+            throw new IllegalArgumentException("Argon2id needs its cost parameters; derive the key from the full options.");
+        }
         KeySpec spec = new PBEKeySpec(password, salt, ITERATION_COUNT, keyLength.getBits());
         SecretKeyFactory factory = SecretKeyFactory.getInstance(kdf.name());
         return factory.generateSecret(spec);
     }
 
+    /**
+     * The key for a new file: a fresh random key when the options name recipients (the header wraps it
+     * for them, and the password is not used), otherwise one derived from the password and salt.
+     */
+    public static SecretKey newFileKey(char[] password, byte[] salt, CryptoOptions options) throws GeneralSecurityException, InterruptedException {
+        if (options.hasRecipients()) {
+            byte[] key = new byte[options.getKeyLength().getBytes()];
+            new SecureRandom().nextBytes(key);
+            try {
+                return new SecretKeySpec(key, options.getProtocol().name());
+            } finally {
+                Arrays.fill(key, (byte) 0);
+            }
+        }
+        return deriveKey(password, salt, options);
+    }
+
+    /**
+     * The key of an existing file. For a recipient file the password must be one recipient's secret
+     * key (see {@link Recipients}); otherwise it is stretched with the options' KDF.
+     */
+    public static SecretKey fileKey(char[] password, FileHeader header, CryptoOptions options) throws GeneralSecurityException, InterruptedException, IOException {
+        return fileKey(password, header, options, null);
+    }
+
+    /**
+     * As {@link #fileKey(char[], FileHeader, CryptoOptions)}, going through the installed
+     * {@link KeyCache} if there is one and recording its hit or miss in metrics (which may be null).
+     */
+    static SecretKey fileKey(char[] password, FileHeader header, CryptoOptions options, JobMetrics metrics) throws GeneralSecurityException, InterruptedException, IOException {
+        if (!header.hasRecipients()) {
+            KeyCache keyCache = cache;
+            return keyCache != null
+                    ? keyCache.fileKey(password, header, options, metrics)
+                    : deriveKey(password, header.getSalt(), options);
+        }
+        if (!Recipients.isSecretKey(password)) {
+            throw new IOException("This file is encrypted to public keys; give a recipient's secret key instead of a password.");
+        }
+        byte[] key = header.unwrapKey(password);
+        try {
+            return new SecretKeySpec(key, options.getProtocol().name());
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Derives an independent 256-bit subkey for a secondary purpose (e.g. MACs), so that the
+     * cipher key itself is never used with two algorithms.
+     */
+    public static byte[] deriveSubkey(SecretKey key, String label) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key.getEncoded(), "HmacSHA256"));
+        return mac.doFinal(label.getBytes(StandardCharsets.UTF_8));
+    }
+
     public static byte[] generateSalt() {
         SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
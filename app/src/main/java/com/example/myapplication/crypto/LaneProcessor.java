@@ -0,0 +1,398 @@
+package com.example.myapplication.crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+/**
+ * Multi-lane format for chaining modes (CBC, CFB, OFB). The plaintext is split into N contiguous
+ * lanes of equal, block-aligned size, and each lane is encrypted as an ordinary chain with its
+ * own IV, so lanes can be encrypted and decrypted on separate cores. Only the last lane is padded.
+ * The lane table (count, size, IVs) and the total ciphertext length are covered by an HMAC in the
+ * header, so a wrong password or a cut, swapped or dropped lane is caught before decrypting.
+ * A lane can hold far more than a chunk, so the {@link ConcurrencyController} is consulted per
+ * chunk within the lanes rather than per lane.
+ */
+public class LaneProcessor implements IProcessor {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    private static final String LANE_KEY_LABEL = "lane-table";
+
+    private final ExecutorService executor;
+    private final int numThreads;
+
+    public LaneProcessor(int numThreads) {
+        this.executor = CpuTopology.workers(numThreads);
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(sourcePath, "r");
+             RandomAccessFile destRaf = new RandomAccessFile(destPath, "rw")) {
+
+            long plaintextLength = sourceRaf.length();
+            int blockSize = options.getBlockSizeBits() / 8;
+
+            // Lanes start on block boundaries, and on leaf boundaries when a chunk MAC is added.
+            long unit = options.requiresChunkMac() ? lcm(blockSize, chunkSize) : blockSize;
+            long laneSize = Math.max(unit, roundUp(ceilDiv(plaintextLength, options.getLanes()), unit));
+            int laneCount = (int) Math.max(1, ceilDiv(plaintextLength, laneSize));
+            long lastLanePlaintext = plaintextLength - (laneCount - 1) * laneSize;
+            long ciphertextLength = (laneCount - 1) * laneSize + paddedLength(options, lastLanePlaintext);
+
+            SecureRandom random = new SecureRandom();
+            byte[][] laneIvs = new byte[laneCount][blockSize];
+            for (byte[] laneIv : laneIvs) {
+                random.nextBytes(laneIv);
+            }
+            byte[] salt = KeyDerivation.generateSalt();
+            SecretKey key = KeyDerivation.newFileKey(password, salt, options);
+            byte[] rawKey = key.getEncoded();
+
+            FileHeader header = new FileHeader(options, laneIvs[0], salt, chunkSize);
+            header.setKey(key);
+            header.setLanes(laneSize, laneIvs);
+            header.setLaneTag(laneTag(key, header, ciphertextLength));
+            destRaf.setLength(0);
+            header.writeTo(destRaf);
+            long headerSize = destRaf.getFilePointer();
+            listener.onStart(plaintextLength);
+
+            byte[] macKey = options.requiresChunkMac() ? MerkleTree.macKey(key) : null;
+            MerkleTree tree = macKey != null ? new MerkleTree(MerkleTree.leafCount(ciphertextLength, chunkSize)) : null;
+            FileChannel source = sourceRaf.getChannel();
+            FileChannel dest = destRaf.getChannel();
+            AtomicLong totalBytesProcessed = new AtomicLong(0);
+            ConcurrencyController concurrency = new ConcurrencyController(numThreads, job.getMetrics());
+
+            List<LaneTask> tasks = new ArrayList<>();
+            for (int i = 0; i < laneCount; i++) {
+                final int lane = i;
+                final long laneStart = lane * laneSize;
+                final long laneLength = Math.min(laneSize, plaintextLength - laneStart);
+                final boolean last = lane == laneCount - 1;
+
+                tasks.add(() -> {
+                    CipherEngine cipher = CipherEngine.create(options, true, rawKey, laneIvs[lane], lanePadding(options, last));
+
+                    OutputStream target = new RegionOutputStream(dest, headerSize + laneStart);
+                    MerkleTree.MacOutputStream macOut = null;
+                    if (tree != null) {
+                        macOut = new MerkleTree.MacOutputStream(target, MerkleTree.newMac(macKey), chunkSize, (int) (laneStart / chunkSize));
+                        target = macOut;
+                    }
+                    try (OutputStream out = target) {
+                        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(chunkSize, Math.max(1, laneLength)));
+                        byte[] output = new byte[cipher.getUpdateOutputSize(buffer.capacity())];
+                        long done = 0;
+                        while (done < laneLength) {
+                            job.checkpoint();
+                            buffer.clear();
+                            buffer.limit((int) Math.min(buffer.capacity(), laneLength - done));
+                            concurrency.acquire();
+                            try {
+                                readFully(source, buffer, laneStart + done);
+                                output = ensureCapacity(output, cipher.getUpdateOutputSize(buffer.limit()));
+                                out.write(output, 0, cipher.update(buffer.array(), 0, buffer.limit(), output, 0));
+                            } finally {
+                                concurrency.release(buffer.limit());
+                            }
+                            done += buffer.limit();
+                            listener.onProgress(totalBytesProcessed.addAndGet(buffer.limit()), plaintextLength);
+                        }
+                        output = ensureCapacity(output, cipher.getOutputSize(0));
+                        out.write(output, 0, cipher.doFinal(output, 0));
+                    }
+                    if (macOut != null) {
+                        macOut.copyLeavesTo(tree);
+                    }
+                });
+            }
+            runAll(tasks);
+
+            if (tree != null) {
+                Mac mac = MerkleTree.newMac(macKey);
+                header.setMerkleRoot(ciphertextLength, MerkleTree.rootTag(mac, header.getAADBytes(), ciphertextLength, tree.build(mac)));
+                destRaf.seek(headerSize + ciphertextLength);
+                destRaf.write(tree.toByteArray());
+                destRaf.seek(0);
+                header.writeTo(destRaf);
+            }
+            listener.onSuccess("Encryption completed successfully.", destPath);
+
+        } catch (Exception e) {
+            executor.shutdownNow();
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Encryption cancelled." : "Encryption failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(sourcePath, "r");
+             RandomAccessFile destRaf = new RandomAccessFile(destPath, "rw")) {
+
+            FileHeader header;
+            try (FileInputStream fis = new FileInputStream(sourcePath)) {
+                header = FileHeader.fromStream(fis);
+            }
+            if (!header.hasLanes()) {
+                throw new IOException("Not a multi-lane file.");
+            }
+            CryptoOptions options = manualOptions != null ? manualOptions : header.getOptions();
+            SecretKey key = KeyDerivation.fileKey(password, header, options, job.getMetrics());
+            header.checkKey(key);
+            byte[] rawKey = key.getEncoded();
+
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = header.hasChunkMac() ? header.getCiphertextLength() : sourceRaf.length() - headerSize;
+            long laneSize = header.getLaneSize();
+            int laneCount = header.getLaneCount();
+            if (!MessageDigest.isEqual(laneTag(key, header, ciphertextLength), header.getLaneTag())) {
+                throw new IOException("Integrity check failed (wrong password or corrupted file).");
+            }
+            if (laneCount > 1 && ciphertextLength <= (laneCount - 1) * laneSize) {
+                throw new IOException("Ciphertext is shorter than its lane table.");
+            }
+
+            FileChannel source = sourceRaf.getChannel();
+            MerkleTree tree = null;
+            byte[] macKey = null;
+            int macChunkSize = header.getMacChunkSize();
+            if (header.hasChunkMac()) {
+                if (laneSize % macChunkSize != 0) {
+                    throw new IOException("Lanes do not start on MAC chunk boundaries.");
+                }
+                macKey = MerkleTree.macKey(key);
+                tree = MerkleTree.readLeaves(source, headerSize + ciphertextLength, MerkleTree.leafCount(ciphertextLength, macChunkSize));
+                tree.verifyRoot(MerkleTree.newMac(macKey), header);
+            }
+
+            destRaf.setLength(0);
+            listener.onStart(ciphertextLength);
+            FileChannel dest = destRaf.getChannel();
+            AtomicLong totalBytesProcessed = new AtomicLong(0);
+            final long totalLength = ciphertextLength;
+            final MerkleTree leaves = tree;
+            final byte[] leafKey = macKey;
+            ConcurrencyController concurrency = new ConcurrencyController(numThreads, job.getMetrics());
+
+            List<LaneTask> tasks = new ArrayList<>();
+            for (int i = 0; i < laneCount; i++) {
+                final int lane = i;
+                final long laneStart = lane * laneSize;
+                final boolean last = lane == laneCount - 1;
+                final long laneLength = last ? ciphertextLength - laneStart : laneSize; // Padding can make the last lane longer
+
+                tasks.add(() -> {
+                    CipherEngine cipher = CipherEngine.create(options, false, rawKey, header.getLaneIv(lane), lanePadding(options, last));
+
+                    InputStream in = new RegionInputStream(source, headerSize + laneStart, laneLength);
+                    if (leaves != null) {
+                        in = new MerkleTree.VerifyingInputStream(in, leaves, MerkleTree.newMac(leafKey), macChunkSize, laneLength, (int) (laneStart / macChunkSize));
+                    }
+                    // Every lane but the last is unpadded, so plaintext offsets equal ciphertext offsets.
+                    // A bad padding block fails doFinal, so a damaged last lane is never taken as shorter.
+                    try (InputStream ciphertext = in;
+                         OutputStream out = new RegionOutputStream(dest, laneStart)) {
+                        byte[] buffer = new byte[chunkSize];
+                        byte[] output = new byte[cipher.getUpdateOutputSize(chunkSize)];
+                        while (true) {
+                            job.checkpoint();
+                            int bytesRead = -1;
+                            concurrency.acquire();
+                            try {
+                                // The read verifies MAC leaves, so it counts as work too.
+                                if ((bytesRead = ciphertext.read(buffer)) == -1) {
+                                    break;
+                                }
+                                output = ensureCapacity(output, cipher.getUpdateOutputSize(bytesRead));
+                                out.write(output, 0, cipher.update(buffer, 0, bytesRead, output, 0));
+                            } finally {
+                                concurrency.release(Math.max(0, bytesRead));
+                            }
+                        }
+                        output = ensureCapacity(output, cipher.getOutputSize(0));
+                        out.write(output, 0, cipher.doFinal(output, 0));
+                    }
+                    listener.onProgress(totalBytesProcessed.addAndGet(laneLength), totalLength);
+                });
+            }
+            runAll(tasks);
+            listener.onSuccess("Decryption completed successfully.", destPath);
+
+        } catch (Exception e) {
+            executor.shutdownNow();
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Decryption cancelled." : "Decryption failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    static byte[] laneTag(SecretKey key, FileHeader header, long ciphertextLength) throws Exception {
+        Mac mac = MerkleTree.newMac(KeyDerivation.deriveSubkey(key, LANE_KEY_LABEL));
+        mac.update(header.getAADBytes()); // Includes lane count, size and every lane IV
+        mac.update(ByteBuffer.allocate(8).putLong(ciphertextLength).array());
+        return mac.doFinal();
+    }
+
+    /**
+     * Runs every lane and waits, aborting the rest as soon as one lane fails, and rethrows that
+     * failure as thrown by the lane.
+     */
+    private void runAll(List<LaneTask> tasks) throws Exception {
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>();
+        for (LaneTask task : tasks) {
+            futures.add(completionService.submit(() -> {
+                task.run();
+                return null;
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (Exception e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw CpuTopology.taskFailure(e);
+        }
+    }
+
+    /**
+     * Only the last lane is padded; the others end on a block boundary.
+     */
+    private static CryptoOptions.Padding lanePadding(CryptoOptions options, boolean last) {
+        return last ? options.getPadding() : CryptoOptions.Padding.NoPadding;
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int size) {
+        return buffer.length >= size ? buffer : new byte[size];
+    }
+
+    private static long paddedLength(CryptoOptions options, long length) {
+        int blockSize = options.getBlockSizeBits() / 8;
+        if (options.getMode().isStreamMode() || options.getPadding() == CryptoOptions.Padding.NoPadding) {
+            return length;
+        }
+        return (length / blockSize + 1) * blockSize;
+    }
+
+    private static long ceilDiv(long a, long b) {
+        return (a + b - 1) / b;
+    }
+
+    private static long roundUp(long value, long unit) {
+        return ceilDiv(value, unit) * unit;
+    }
+
+    private static long lcm(long a, long b) {
+        long x = a, y = b;
+        while (y != 0) {
+            long t = x % y;
+            x = y;
+            y = t;
+        }
+        return a / x * b;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private interface LaneTask {
+        void run() throws Exception;
+    }
+
+    /**
+     * Writes sequentially into one region of a shared file using positional writes.
+     */
+    private static class RegionOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        RegionOutputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Reads one region of a shared file using positional reads.
+     */
+    static class RegionInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        RegionInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.myapplication.crypto;
+
+import java.util.List;
+
+/**
+ * The most recent log lines of a job, kept in a ring of fixed capacity so a job that logs per chunk
+ * costs a bounded amount of memory. Lines are appended from any thread; a renderer copies them out
+ * in batches, at most once per frame, and learns from the sequence numbers which lines are new and
+ * which have scrolled out of the ring since its last copy.
+ */
+public final class LogBuffer {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private final String[] lines;
+    private int head; // Index of the oldest line
+    private int size;
+    private long appended; // Lines ever appended; the sequence number of the next line
+    private boolean pending;
+
+    public LogBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LogBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive.");
+        }
+        this.lines = new String[capacity];
+    }
+
+    /**
+     * Adds a line, dropping the oldest one when the ring is full.
+     *
+     * @return true if this is the first line since the last {@link #copyTo}, so the caller should
+     *         schedule a render; later lines ride along with that one.
+     */
+    public synchronized boolean append(String line) {
+        lines[(head + size) % lines.length] = line;
+        if (size < lines.length) {
+            size++;
+        } else {
+            head = (head + 1) % lines.length;
+        }
+        appended++;
+        boolean first = !pending;
+        pending = true;
+        return first;
+    }
+
+    /**
+     * Replaces the contents of target, normally a list the renderer keeps and reuses, with the
+     * retained lines from oldest to newest.
+     *
+     * @return The sequence number of the oldest line copied; the newest is that plus the list size
+     *         minus one.
+     */
+    public synchronized long copyTo(List<String> target) {
+        target.clear();
+        for (int i = 0; i < size; i++) {
+            target.add(lines[(head + i) % lines.length]);
+        }
+        pending = false;
+        return appended - size;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            lines[(head + i) % lines.length] = null;
+        }
+        // Sequence numbers keep counting, so a renderer sees the old lines as dropped.
+        head = 0;
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return lines.length;
+    }
+
+    /**
+     * Lines appended since this buffer was created, including those no longer retained.
+     */
+    public synchronized long getAppendedCount() {
+        return appended;
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.myapplication.crypto;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypt-then-MAC for modes without a tag of their own (CBC, CTR, OFB, CFB, ECB).
+ * Every chunk of ciphertext gets an HMAC-SHA256 leaf bound to its index, leaves are MACed
+ * pairwise up to a single node, and that node is tagged together with the header and the
+ * ciphertext length to give the root stored in the header. All levels of the tree are appended
+ * after the ciphertext, leaves first, so one chunk can be checked against the root by reading
+ * only its log2(n) siblings. An odd node at the end of a level is carried up unchanged.
+ */
+public class MerkleTree {
+
+    public static final int HASH_SIZE = 32;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String KEY_LABEL = "merkle-mac";
+
+    // Domain separation, so a leaf can never be passed off as an inner node or the root.
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+    private static final byte ROOT = 2;
+
+    private final byte[][] leaves;
+    private List<byte[][]> levels;
+
+    public MerkleTree(int leafCount) {
+        this.leaves = new byte[leafCount][];
+    }
+
+    public int getLeafCount() { return leaves.length; }
+    public byte[] getLeaf(int index) { return leaves[index]; }
+
+    /**
+     * Leaves may be set from several threads, as long as each index is set by only one of them.
+     */
+    public void setLeaf(int index, byte[] leaf) {
+        leaves[index] = leaf;
+    }
+
+    /**
+     * Computes the inner levels once every leaf is set and returns the top node.
+     */
+    public byte[] build(Mac mac) {
+        levels = new ArrayList<>();
+        byte[][] level = leaves;
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] parent = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parent.length; i++) {
+                int left = 2 * i;
+                parent[i] = left + 1 < level.length ? node(mac, level[left], level[left + 1]) : level[left];
+            }
+            levels.add(parent);
+            level = parent;
+        }
+        return level[0];
+    }
+
+    /**
+     * Serialises every level, leaves first, as the trailer that follows the ciphertext.
+     */
+    public byte[] toByteArray() {
+        ByteBuffer buffer = ByteBuffer.allocate((int) trailerSize(leaves.length));
+        for (byte[][] level : levels) {
+            for (byte[] hash : level) {
+                buffer.put(hash);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Reads only the leaves of a stored tree; the inner levels can be recomputed from them.
+     */
+    public static MerkleTree readLeaves(FileChannel channel, long trailerOffset, int leafCount) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(leafCount * HASH_SIZE);
+        readFully(channel, buffer, trailerOffset);
+        MerkleTree tree = new MerkleTree(leafCount);
+        byte[] all = buffer.array();
+        for (int i = 0; i < leafCount; i++) {
+            byte[] leaf = new byte[HASH_SIZE];
+            System.arraycopy(all, i * HASH_SIZE, leaf, 0, HASH_SIZE);
+            tree.setLeaf(i, leaf);
+        }
+        return tree;
+    }
+
+    /**
+     * Checks the stored leaves against the header's root. A mismatch means the password is wrong
+     * or the trailer/header was altered; individual chunks are checked against the leaves later.
+     */
+    public void verifyRoot(Mac mac, FileHeader header) throws IOException {
+        byte[] expected = rootTag(mac, header.getAADBytes(), header.getCiphertextLength(), build(mac));
+        if (!MessageDigest.isEqual(expected, header.getMerkleRoot())) {
+            throw new IOException("Integrity check failed (wrong password or corrupted file).");
+        }
+    }
+
+    /**
+     * Creates an HMAC keyed with a subkey of the cipher key. Mac instances are not thread-safe,
+     * so each worker needs its own.
+     */
+    public static Mac newMac(SecretKey key) throws GeneralSecurityException {
+        return newMac(KeyDerivation.deriveSubkey(key, KEY_LABEL));
+    }
+
+    public static Mac newMac(byte[] macKey) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        mac.init(new SecretKeySpec(macKey, MAC_ALGORITHM));
+        return mac;
+    }
+
+    public static byte[] macKey(SecretKey key) throws GeneralSecurityException {
+        return KeyDerivation.deriveSubkey(key, KEY_LABEL);
+    }
+
+    public static byte[] leaf(Mac mac, long index, byte[] data, int off, int len) {
+        beginLeaf(mac, index);
+        mac.update(data, off, len);
+        return mac.doFinal();
+    }
+
+    static void beginLeaf(Mac mac, long index) {
+        mac.update(LEAF);
+        mac.update(longBytes(index));
+    }
+
+    static byte[] node(Mac mac, byte[] left, byte[] right) {
+        mac.update(NODE);
+        mac.update(left);
+        mac.update(right);
+        return mac.doFinal();
+    }
+
+    /**
+     * Binds the tree to the header and the exact payload length, so truncation or a swapped header is caught.
+     */
+    static byte[] rootTag(Mac mac, byte[] headerAad, long ciphertextLength, byte[] top) {
+        mac.update(ROOT);
+        mac.update(headerAad);
+        mac.update(longBytes(ciphertextLength));
+        mac.update(top);
+        return mac.doFinal();
+    }
+
+    /**
+     * Number of leaves for a payload; an empty payload still has one (empty) leaf.
+     */
+    public static int leafCount(long ciphertextLength, int chunkSize) throws IOException {
+        long count = Math.max(1, (ciphertextLength + chunkSize - 1) / chunkSize);
+        if (count > Integer.MAX_VALUE / HASH_SIZE) {
+            throw new IOException("Too many chunks for a Merkle tree: " + count);
+        }
+        return (int) count;
+    }
+
+    public static long trailerSize(int leafCount) {
+        long nodes = leafCount;
+        for (int size = leafCount; size > 1; ) {
+            size = (size + 1) / 2;
+            nodes += size;
+        }
+        return nodes * HASH_SIZE;
+    }
+
+    /**
+     * Recomputes the top node from one leaf and the stored siblings on its path, reading
+     * log2(n) nodes from the trailer rather than the whole tree.
+     */
+    static byte[] topFromPath(Mac mac, FileChannel channel, long trailerOffset, int leafCount, int index, byte[] leaf) throws IOException {
+        byte[] current = leaf;
+        long levelOffset = trailerOffset;
+        int size = leafCount;
+        int position = index;
+        ByteBuffer sibling = ByteBuffer.allocate(HASH_SIZE);
+        while (size > 1) {
+            int siblingIndex = position ^ 1;
+            if (siblingIndex < size) {
+                sibling.clear();
+                readFully(channel, sibling, levelOffset + (long) siblingIndex * HASH_SIZE);
+                byte[] other = sibling.array().clone();
+                current = (position & 1) == 0 ? node(mac, current, other) : node(mac, other, current);
+            }
+            levelOffset += (long) size * HASH_SIZE;
+            size = (size + 1) / 2;
+            position >>= 1;
+        }
+        return current;
+    }
+
+    private static byte[] longBytes(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+    }
+
+    /**
+     * Passes ciphertext through to the file while computing a leaf for every chunkSize bytes.
+     * Closing it finishes the last leaf but leaves the underlying stream open for the trailer.
+     */
+    static class MacOutputStream extends FilterOutputStream {
+        private final Mac mac;
+        private final int chunkSize;
+        private final int firstLeaf;
+        private final List<byte[]> leaves = new ArrayList<>();
+        private int inChunk;
+        private long count;
+        private boolean closed;
+
+        MacOutputStream(OutputStream out, Mac mac, int chunkSize) {
+            this(out, mac, chunkSize, 0);
+        }
+
+        /**
+         * @param firstLeaf Index of the first leaf, for a stream that covers a region starting on a leaf boundary.
+         */
+        MacOutputStream(OutputStream out, Mac mac, int chunkSize, int firstLeaf) {
+            super(out);
+            this.mac = mac;
+            this.chunkSize = chunkSize;
+            this.firstLeaf = firstLeaf;
+            beginLeaf(mac, firstLeaf);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+            while (len > 0) {
+                int n = Math.min(len, chunkSize - inChunk);
+                mac.update(b, off, n);
+                inChunk += n;
+                off += n;
+                len -= n;
+                if (inChunk == chunkSize) {
+                    leaves.add(mac.doFinal());
+                    beginLeaf(mac, firstLeaf + leaves.size());
+                    inChunk = 0;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (inChunk > 0 || leaves.isEmpty()) {
+                leaves.add(mac.doFinal());
+            } else {
+                mac.reset();
+            }
+            flush();
+        }
+
+        long getCount() { return count; }
+
+        MerkleTree toTree() {
+            MerkleTree tree = new MerkleTree(leaves.size());
+            copyLeavesTo(tree);
+            return tree;
+        }
+
+        void copyLeavesTo(MerkleTree tree) {
+            for (int i = 0; i < leaves.size(); i++) {
+                tree.setLeaf(firstLeaf + i, leaves.get(i));
+            }
+        }
+    }
+
+    /**
+     * Reads exactly the ciphertext (never the trailer) and releases each chunk only after its
+     * leaf has matched the verified tree, so no unauthenticated byte ever reaches the cipher.
+     */
+    static class VerifyingInputStream extends FilterInputStream {
+        private final MerkleTree tree;
+        private final Mac mac;
+        private final byte[] chunk;
+        private long remaining;
+        private int index;
+        private int pos;
+        private int limit;
+
+        VerifyingInputStream(InputStream in, MerkleTree tree, Mac mac, int chunkSize, long ciphertextLength) {
+            this(in, tree, mac, chunkSize, ciphertextLength, 0);
+        }
+
+        VerifyingInputStream(InputStream in, MerkleTree tree, Mac mac, int chunkSize, long length, int firstLeaf) {
+            super(in);
+            this.tree = tree;
+            this.mac = mac;
+            this.chunk = new byte[chunkSize];
+            this.remaining = length;
+            this.index = firstLeaf;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(chunk, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private boolean fill() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            int length = (int) Math.min(chunk.length, remaining);
+            int read = 0;
+            while (read < length) {
+                int n = in.read(chunk, read, length - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of ciphertext in chunk " + index);
+                }
+                read += n;
+            }
+            byte[] leaf = leaf(mac, index, chunk, 0, length);
+            if (!MessageDigest.isEqual(leaf, tree.getLeaf(index))) {
+                throw new IOException("Chunk " + index + " failed authentication.");
+            }
+            index++;
+            remaining -= length;
+            pos = 0;
+            limit = length;
+            return true;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.example.myapplication.crypto;
 
 import java.util.ArrayList;
-import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
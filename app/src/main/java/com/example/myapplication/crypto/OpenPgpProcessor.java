@@ -0,0 +1,349 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPCompressedDataGenerator;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPPBEEncryptedData;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBEDataDecryptorFactoryBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBEKeyEncryptionMethodGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Date;
+
+/**
+ * Reads and writes OpenPGP messages (RFC 4880) encrypted with a password, so files can be exchanged
+ * with gpg: a symmetric-key session key packet (SKESK, iterated and salted SHA-256 S2K), a symmetrically
+ * encrypted integrity-protected data packet (SEIPD with MDC), optionally a ZIP compressed data packet,
+ * and a literal data packet. Every packet body is written with partial lengths, so the message streams
+ * at constant memory and the input length never has to be known in advance.
+ * <p>
+ * Encryption uses the same prefetch and write-behind pipeline as {@link SequentialProcessor}. When
+ * compressing, compression runs on the calling thread and hands its output through another
+ * write-behind stage to the encryptor, so the two overlap. Decryption checks the MDC once the whole
+ * message has been read and deletes the output if it does not match.
+ */
+public class OpenPgpProcessor implements IProcessor {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    // Encoded S2K iteration count: (16 + 0) << (14 + 6) = 16 Mi bytes hashed.
+    private static final int S2K_COUNT = 0xE0;
+    // RFC 4880 requires the first partial body to be at least 512 bytes.
+    private static final int MIN_PARTIAL_LENGTH = 512;
+    private static final int MAX_PARTIAL_LENGTH = 1 << 30;
+
+    private final boolean compress;
+    private final int bufferCount;
+
+    public OpenPgpProcessor() {
+        this(false);
+    }
+
+    public OpenPgpProcessor(boolean compress) {
+        this.compress = compress;
+        this.bufferCount = SequentialProcessor.DEFAULT_BUFFER_COUNT;
+    }
+
+    @Override
+    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        File source = new File(sourcePath);
+        try (FileInputStream fis = new FileInputStream(source);
+             FileOutputStream fos = new FileOutputStream(destPath)) {
+            encrypt(fis, fos, source.getName(), new Date(source.lastModified()), source.length(), password, options, chunkSize, listener, job);
+            listener.onSuccess("Encryption completed successfully.", destPath);
+        } catch (Exception e) {
+            // Never leave a partial output behind.
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Encryption cancelled." : "Encryption failed.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Encrypts a stream of any length into an OpenPGP message. The source is read to its end and
+     * closed; dest is flushed but left open.
+     *
+     * @param totalBytes Reported to {@link CryptoListener#onStart}; -1 if unknown.
+     */
+    public void encrypt(InputStream source, OutputStream dest, String fileName, Date modified, long totalBytes, char[] password,
+                        CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        int algorithm = symmetricAlgorithm(options);
+        listener.onStart(totalBytes);
+
+        PGPEncryptedDataGenerator encryptor = new PGPEncryptedDataGenerator(new JcePGPDataEncryptorBuilder(algorithm)
+                .setWithIntegrityPacket(true)
+                .setSecureRandom(new SecureRandom())
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME));
+        encryptor.addMethod(new JcePBEKeyEncryptionMethodGenerator(password,
+                new JcaPGPDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build().get(HashAlgorithmTags.SHA256),
+                S2K_COUNT).setProvider(BouncyCastleProvider.PROVIDER_NAME));
+
+        OutputStream fileOut = writeBehind(new NonClosingOutputStream(dest), chunkSize);
+        OutputStream stage = null;
+        try (InputStream in = prefetch(source, chunkSize)) {
+            OutputStream encrypted = encryptor.open(fileOut, new byte[partialLength(chunkSize)]);
+            OutputStream payload = encrypted;
+            PGPCompressedDataGenerator compressor = null;
+            if (compress) {
+                stage = writeBehind(encrypted, chunkSize);
+                compressor = new PGPCompressedDataGenerator(CompressionAlgorithmTags.ZIP);
+                payload = compressor.open(stage, new byte[partialLength(chunkSize)]);
+            }
+            PGPLiteralDataGenerator literal = new PGPLiteralDataGenerator();
+            OutputStream literalOut = literal.open(payload, PGPLiteralData.BINARY, fileName, modified, new byte[partialLength(chunkSize)]);
+
+            byte[] buffer = new byte[chunkSize];
+            int bytesRead;
+            long totalBytesRead = 0;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                job.checkpoint();
+                literalOut.write(buffer, 0, bytesRead);
+                totalBytesRead += bytesRead;
+                listener.onProgress(totalBytesRead, totalBytes);
+            }
+
+            // Close from the inside out: each close writes that packet's last partial body.
+            literal.close();
+            if (compressor != null) {
+                compressor.close();
+                stage.close(); // Drains the compression stage into the encryptor and closes it, which writes the MDC
+            } else {
+                encrypted.close();
+            }
+            fileOut.close();
+        } finally {
+            // Stops the pipeline threads if anything above failed; a no-op after a clean close.
+            closeQuietly(stage);
+            closeQuietly(fileOut);
+        }
+    }
+
+    @Override
+    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try (CountingInputStream counted = new CountingInputStream(new FileInputStream(sourcePath));
+             InputStream in = PGPUtil.getDecoderStream(prefetch(counted, chunkSize))) {
+            long totalBytes = new File(sourcePath).length();
+
+            PGPPBEEncryptedData data = findPasswordPacket(new JcaPGPObjectFactory(in));
+            if (!data.isIntegrityProtected()) {
+                throw new IOException("OpenPGP message has no integrity protection.");
+            }
+            InputStream clear;
+            try {
+                clear = data.getDataStream(new JcePBEDataDecryptorFactoryBuilder(
+                        new JcaPGPDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build())
+                        .setProvider(BouncyCastleProvider.PROVIDER_NAME).build(password));
+            } catch (PGPException e) {
+                throw new IOException("Wrong password or corrupt OpenPGP message.", e);
+            }
+            listener.onStart(totalBytes);
+
+            // Decryption runs one stage ahead of decompression and parsing.
+            try (InputStream decrypted = prefetch(clear, chunkSize)) {
+                readLiteral(decrypted, destPath, chunkSize, counted, totalBytes, listener, job);
+            }
+            if (!data.verify()) {
+                throw new IOException("OpenPGP integrity check failed.");
+            }
+            listener.onSuccess("Decryption completed successfully.", destPath);
+        } catch (Exception e) {
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Decryption cancelled." : "Decryption failed.", e);
+            throw e;
+        }
+    }
+
+    private void readLiteral(InputStream decrypted, String destPath, int chunkSize, CountingInputStream counted, long totalBytes,
+                             CryptoListener listener, CryptoJob job) throws Exception {
+        JcaPGPObjectFactory factory = new JcaPGPObjectFactory(decrypted);
+        Object message = factory.nextObject();
+        if (message instanceof PGPCompressedData) {
+            factory = new JcaPGPObjectFactory(((PGPCompressedData) message).getDataStream());
+            message = factory.nextObject();
+        }
+        if (!(message instanceof PGPLiteralData)) {
+            throw new IOException("OpenPGP message holds no literal data.");
+        }
+
+        try (InputStream literal = ((PGPLiteralData) message).getInputStream();
+             OutputStream out = writeBehind(new FileOutputStream(destPath), chunkSize)) {
+            byte[] buffer = new byte[chunkSize];
+            int bytesRead;
+            while ((bytesRead = literal.read(buffer)) != -1) {
+                job.checkpoint();
+                out.write(buffer, 0, bytesRead);
+                listener.onProgress(Math.min(counted.getCount(), totalBytes), totalBytes);
+            }
+        }
+        // The MDC trails the encrypted data, so everything must be consumed before it can be checked.
+        byte[] rest = new byte[chunkSize];
+        while (decrypted.read(rest) != -1) {
+            job.checkpoint();
+        }
+    }
+
+    /**
+     * True if the file starts like a binary or ASCII-armored OpenPGP message rather than a native header.
+     */
+    public static boolean isOpenPgp(String path) {
+        if (FileHeader.peek(path) != null) {
+            return false;
+        }
+        byte[] start = new byte[27];
+        int length;
+        try (FileInputStream in = new FileInputStream(path)) {
+            length = in.read(start);
+        } catch (IOException e) {
+            return false;
+        }
+        if (length <= 0) {
+            return false;
+        }
+        if (new String(start, 0, length, StandardCharsets.US_ASCII).startsWith("-----BEGIN PGP MESSAGE")) {
+            return true;
+        }
+        int first = start[0] & 0xFF;
+        if ((first & 0x80) == 0) {
+            return false;
+        }
+        int tag = (first & 0x40) != 0 ? first & 0x3F : (first & 0x3C) >> 2;
+        return tag == 1 || tag == 3 || tag == 10; // PKESK, SKESK or a marker packet
+    }
+
+    /**
+     * OpenPGP algorithm identifier for the chosen cipher; only ciphers that OpenPGP defines are accepted.
+     */
+    static int symmetricAlgorithm(CryptoOptions options) {
+        int bits = options.getKeyLength().getBits();
+        switch (options.getProtocol()) {
+            case AES:
+                return bits == 128 ? SymmetricKeyAlgorithmTags.AES_128 : bits == 192 ? SymmetricKeyAlgorithmTags.AES_192 : SymmetricKeyAlgorithmTags.AES_256;
+            case CAMELLIA:
+                return bits == 128 ? SymmetricKeyAlgorithmTags.CAMELLIA_128 : bits == 192 ? SymmetricKeyAlgorithmTags.CAMELLIA_192 : SymmetricKeyAlgorithmTags.CAMELLIA_256;
+            case TWOFISH:
+                return SymmetricKeyAlgorithmTags.TWOFISH;
+            case BLOWFISH:
+                return SymmetricKeyAlgorithmTags.BLOWFISH;
+            case CAST5:
+                return SymmetricKeyAlgorithmTags.CAST5;
+            case IDEA:
+                return SymmetricKeyAlgorithmTags.IDEA;
+            case DESede:
+                return SymmetricKeyAlgorithmTags.TRIPLE_DES;
+            default:
+                throw new IllegalArgumentException(options.getProtocol() + " is not an OpenPGP cipher.");
+        }
+    }
+
+    private static PGPPBEEncryptedData findPasswordPacket(JcaPGPObjectFactory factory) throws IOException {
+        Object object = factory.nextObject();
+        while (object != null && !(object instanceof PGPEncryptedDataList)) {
+            object = factory.nextObject(); // Skips marker packets
+        }
+        if (object != null) {
+            for (Object encrypted : (PGPEncryptedDataList) object) {
+                if (encrypted instanceof PGPPBEEncryptedData) {
+                    return (PGPPBEEncryptedData) encrypted;
+                }
+            }
+        }
+        throw new IOException("Not a password-encrypted OpenPGP message.");
+    }
+
+    /**
+     * Partial body length for a chunk size: a power of two between 512 bytes and 1 GiB.
+     */
+    private static int partialLength(int chunkSize) {
+        return Integer.highestOneBit(Math.min(MAX_PARTIAL_LENGTH, Math.max(MIN_PARTIAL_LENGTH, chunkSize)));
+    }
+
+    private static void closeQuietly(OutputStream out) {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // The original failure is the one worth reporting.
+            }
+        }
+    }
+
+    private InputStream prefetch(InputStream in, int chunkSize) {
+        return bufferCount > 1 ? new PrefetchInputStream(in, chunkSize, bufferCount, CryptoManager.ioExecutor()) : in;
+    }
+
+    private OutputStream writeBehind(OutputStream out, int chunkSize) {
+        return bufferCount > 1 ? new WriteBehindOutputStream(out, chunkSize, bufferCount, CryptoManager.ioExecutor()) : out;
+    }
+
+    /**
+     * Leaves the caller's stream open when the pipeline is closed.
+     */
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -1,52 +1,68 @@
 package com.example.myapplication.crypto;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
-import java.security.Security;
-import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
-import javax.crypto.Cipher;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
- * Implements cryptographically sound parallel processing for seekable cipher modes (CTR, GCM, CCM).
- * For non-parallelizable modes (like CBC), it safely falls back to sequential processing.
+ * Implements cryptographically sound parallel processing for seekable cipher modes (CTR).
+ * For non-parallelizable modes (like CBC, or GCM with its single tag), it safely falls back to sequential processing.
+ * Decryption is parallel for CBC, CFB, CTR and ECB, since every block there depends only on
+ * ciphertext that is already on disk; other modes are decrypted sequentially.
+ * Multi-lane files are handed to {@link LaneProcessor} and segmented AEAD files (ChaCha20-Poly1305)
+ * to {@link SegmentProcessor}, in both directions.
  */
 public class ParallelProcessor implements IProcessor {
 
     static {
-        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
-            Security.addProvider(new BouncyCastleProvider());
-        }
+        CryptoBootstrap.ensureProvider();
     }
 
     private final ExecutorService executor;
+    private final int numThreads;
     private final IProcessor sequentialProcessor = new SequentialProcessor();
 
     public ParallelProcessor(int numThreads) {
-        this.executor = Executors.newFixedThreadPool(numThreads);
+        this.executor = CpuTopology.workers(numThreads);
+        this.numThreads = numThreads;
     }
 
     @Override
-    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener) throws Exception {
+    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        // Chained modes split into lanes are parallel by construction.
+        if (options.usesLanes()) {
+            new LaneProcessor(numThreads).encrypt(sourcePath, destPath, password, options, chunkSize, listener, job);
+            return;
+        }
+        if (options.getMode().isSegmented()) {
+            new SegmentProcessor(numThreads).encrypt(sourcePath, destPath, password, options, chunkSize, listener, job);
+            return;
+        }
+
         // Fallback to sequential for modes that are not safely parallelizable.
         if (!options.getMode().isParallelizable()) {
             listener.onLog("Warning: Selected mode is not parallelizable. Falling back to sequential processing.");
-            sequentialProcessor.encrypt(sourcePath, destPath, password, options, chunkSize, listener);
+            sequentialProcessor.encrypt(sourcePath, destPath, password, options, chunkSize, listener, job);
             return;
         }
 
@@ -54,19 +70,30 @@ public class ParallelProcessor implements IProcessor {
              RandomAccessFile destRaf = new RandomAccessFile(destPath, "rw")) {
 
             long fileLength = sourceRaf.length();
-            listener.onStart(fileLength);
 
             byte[] salt = KeyDerivation.generateSalt();
-            SecretKey key = KeyDerivation.deriveKey(password, salt, options.getKdf(), options.getKeyLength());
+            SecretKey key = KeyDerivation.newFileKey(password, salt, options);
 
             byte[] iv = generateIv(options.getMode(), options.getBlockSizeBits());
 
-            FileHeader header = new FileHeader(options, iv, salt);
+            FileHeader header = new FileHeader(options, iv, salt, chunkSize);
+            header.setKey(key);
             destRaf.setLength(0); // Clear the file before writing
             header.writeTo(destRaf);
             long headerSize = destRaf.getFilePointer();
+            listener.onStart(fileLength);
+
+            // Encrypt-then-MAC: each worker MACs the chunk it has just encrypted.
+            byte[] macKey = options.requiresChunkMac() ? MerkleTree.macKey(key) : null;
+            MerkleTree tree = macKey != null ? new MerkleTree(MerkleTree.leafCount(fileLength, chunkSize)) : null;
+            byte[] rawKey = key.getEncoded();
+            ThreadLocal<byte[]> inputs = new ThreadLocal<>();
+            ThreadLocal<byte[]> outputs = new ThreadLocal<>();
+            ThreadLocal<CipherEngine> ciphers = new ThreadLocal<>();
 
-            List<Future<?>> futures = new ArrayList<>();
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            ConcurrencyController concurrency = new ConcurrencyController(numThreads, job.getMetrics());
+            List<Future<Void>> futures = new ArrayList<>();
             AtomicLong totalBytesProcessed = new AtomicLong(0);
             final int blockSize = options.getBlockSizeBits() / 8;
 
@@ -74,83 +101,392 @@ public class ParallelProcessor implements IProcessor {
                 final long chunkStart = offset;
                 final long chunkLength = Math.min(chunkSize, fileLength - offset);
 
-                futures.add(executor.submit(() -> {
+                futures.add(completionService.submit(concurrency.limit(chunkLength, () -> {
                     try {
-                        byte[] data = new byte[(int) chunkLength];
+                        job.checkpoint();
+                        byte[] data = reusable(inputs, (int) chunkLength);
                         synchronized (sourceRaf) {
                             sourceRaf.seek(chunkStart);
-                            sourceRaf.readFully(data);
+                            sourceRaf.readFully(data, 0, (int) chunkLength);
                         }
 
                         // Calculate the starting counter for this specific chunk.
-                        BigInteger ivAsBigInt = new BigInteger(1, iv);
-                        BigInteger blockOffset = BigInteger.valueOf(chunkStart / blockSize);
-                        BigInteger newIvBigInt = ivAsBigInt.add(blockOffset);
-                        byte[] chunkIv = newIvBigInt.toByteArray();
-
-                        // Ensure the new IV has the correct length, padding if necessary.
-                        byte[] finalChunkIv = new byte[iv.length];
-                        if (chunkIv.length >= iv.length) {
-                            System.arraycopy(chunkIv, chunkIv.length - iv.length, finalChunkIv, 0, iv.length);
-                        } else {
-                            System.arraycopy(chunkIv, 0, finalChunkIv, iv.length - chunkIv.length, chunkIv.length);
-                        }
-
-                        String transformation = options.getTransformation();
-                        Cipher cipher = Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME);
-                        AlgorithmParameterSpec spec = getAlgorithmParameterSpec(options, finalChunkIv);
+                        byte[] finalChunkIv = counterIv(iv, chunkStart / blockSize);
 
-                        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key.getEncoded(), options.getProtocol().name()), spec);
+                        CipherEngine cipher = reusable(ciphers, options, true, rawKey, finalChunkIv, options.getPadding());
 
                         // For AEAD modes, AAD must be provided to each cipher instance.
                         if (options.requiresAAD()) {
                             cipher.updateAAD(header.getAADBytes());
                         }
 
-                        byte[] encryptedData = cipher.doFinal(data);
+                        byte[] encryptedData = reusable(outputs, cipher.getOutputSize((int) chunkLength));
+                        int encryptedLength = cipher.doFinal(data, 0, (int) chunkLength, encryptedData, 0);
+                        if (tree != null) {
+                            int leafIndex = (int) (chunkStart / chunkSize);
+                            tree.setLeaf(leafIndex, MerkleTree.leaf(MerkleTree.newMac(macKey), leafIndex, encryptedData, 0, encryptedLength));
+                        }
 
                         // Write the encrypted chunk to the correct position in the output file.
                         synchronized (destRaf) {
                             destRaf.seek(headerSize + chunkStart);
-                            destRaf.write(encryptedData);
+                            destRaf.write(encryptedData, 0, encryptedLength);
                         }
 
                         long processed = totalBytesProcessed.addAndGet(chunkLength);
                         listener.onProgress(processed, fileLength);
 
                     } catch (Exception e) {
+                        // Make every queued chunk abort at its first checkpoint.
+                        job.fail(e);
                         throw new RuntimeException("Error during parallel encryption of a chunk", e);
                     }
-                }));
+                    return null;
+                })));
+            }
+
+            // Take results in completion order so the first failure is seen as soon as it happens.
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    completionService.take().get();
+                }
+            } catch (Exception e) {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+                throw CpuTopology.taskFailure(e);
             }
 
-            for (Future<?> future : futures) {
-                future.get(); // Wait for all tasks to complete and check for exceptions
+            if (tree != null) {
+                if (fileLength == 0) {
+                    tree.setLeaf(0, MerkleTree.leaf(MerkleTree.newMac(macKey), 0, new byte[0], 0, 0));
+                }
+                Mac mac = MerkleTree.newMac(macKey);
+                header.setMerkleRoot(fileLength, MerkleTree.rootTag(mac, header.getAADBytes(), fileLength, tree.build(mac)));
+                destRaf.seek(headerSize + fileLength);
+                destRaf.write(tree.toByteArray());
+                // The header has a fixed size, so the root can be patched in place.
+                destRaf.seek(0);
+                header.writeTo(destRaf);
             }
             listener.onSuccess("Encryption completed successfully.", destPath);
 
         } catch (Exception e) {
-            listener.onError("Encryption failed.", e);
+            executor.shutdownNow();
+            // Never leave a partial output behind.
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Encryption cancelled." : "Encryption failed.", e);
             throw e;
         } finally {
             executor.shutdown();
         }
     }
 
+    /**
+     * Writes a complete file for the plaintext read from source, for a parallelizable mode, under a key
+     * already derived from salt. The source is read in order on a read-ahead thread, each chunk is
+     * encrypted on the workers from the counter it starts at, and chunks are written back in order,
+     * at most 2 * numThreads ahead of the writer. totalBytes is only used for progress.
+     */
+    void encrypt(InputStream source, long totalBytes, FileOutputStream fos, SecretKey key, byte[] salt, CryptoOptions options,
+                 int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        byte[] iv = generateIv(options.getMode(), options.getBlockSizeBits());
+        FileHeader header = new FileHeader(options, iv, salt, chunkSize);
+        header.setKey(key);
+        header.writeTo(fos);
+        listener.onStart(totalBytes);
+
+        byte[] macKey = options.requiresChunkMac() ? MerkleTree.macKey(key) : null;
+        List<byte[]> leaves = new ArrayList<>();
+        byte[] rawKey = key.getEncoded();
+        ThreadLocal<CipherEngine> ciphers = new ThreadLocal<>();
+        final int blockSize = options.getBlockSizeBits() / 8;
+        ConcurrencyController concurrency = new ConcurrencyController(numThreads, job.getMetrics());
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<>();
+        long total = 0;
+        try (InputStream in = new PrefetchInputStream(source, chunkSize, SequentialProcessor.DEFAULT_BUFFER_COUNT, CryptoManager.ioExecutor())) {
+            long offset = 0;
+            while (true) {
+                job.checkpoint();
+                if (pending.size() == 2 * numThreads) {
+                    total += writeNext(pending, fos, leaves);
+                    listener.onProgress(total, totalBytes);
+                }
+                byte[] data = new byte[chunkSize];
+                int length = readChunk(in, data);
+                if (length == 0) {
+                    break;
+                }
+                final long chunkStart = offset;
+                pending.add(executor.submit(concurrency.limit(length, () -> {
+                    try {
+                        job.checkpoint();
+                        CipherEngine cipher = reusable(ciphers, options, true, rawKey, counterIv(iv, chunkStart / blockSize),
+                                options.getPadding());
+                        byte[] encrypted = new byte[cipher.getOutputSize(length)];
+                        int encryptedLength = cipher.doFinal(data, 0, length, encrypted, 0);
+                        byte[] leaf = macKey == null ? null
+                                : MerkleTree.leaf(MerkleTree.newMac(macKey), chunkStart / chunkSize, encrypted, 0, encryptedLength);
+                        return new Chunk(encrypted, encryptedLength, leaf);
+                    } catch (Exception e) {
+                        job.fail(e);
+                        throw new RuntimeException("Error during parallel encryption of a chunk", e);
+                    }
+                })));
+                offset += length;
+                if (length < chunkSize) {
+                    break;
+                }
+            }
+            while (!pending.isEmpty()) {
+                total += writeNext(pending, fos, leaves);
+                listener.onProgress(total, totalBytes);
+            }
+        } catch (Exception e) {
+            for (Future<Chunk> future : pending) {
+                future.cancel(true);
+            }
+            executor.shutdownNow();
+            throw CpuTopology.taskFailure(e);
+        } finally {
+            executor.shutdown();
+        }
+
+        if (macKey != null) {
+            MerkleTree tree = new MerkleTree(MerkleTree.leafCount(total, chunkSize));
+            if (total == 0) {
+                tree.setLeaf(0, MerkleTree.leaf(MerkleTree.newMac(macKey), 0, new byte[0], 0, 0));
+            }
+            for (int i = 0; i < leaves.size(); i++) {
+                tree.setLeaf(i, leaves.get(i));
+            }
+            Mac mac = MerkleTree.newMac(macKey);
+            header.setMerkleRoot(total, MerkleTree.rootTag(mac, header.getAADBytes(), total, tree.build(mac)));
+            fos.write(tree.toByteArray());
+            // The header has a fixed size, so the root can be patched in place.
+            fos.getChannel().write(ByteBuffer.wrap(header.getHeaderBytes()), 0);
+        }
+    }
+
+    /**
+     * Waits for the oldest chunk still in flight, writes it and returns its length.
+     */
+    private static long writeNext(ArrayDeque<Future<Chunk>> pending, FileOutputStream fos, List<byte[]> leaves) throws Exception {
+        Chunk chunk = pending.poll().get();
+        fos.write(chunk.data, 0, chunk.length);
+        if (chunk.leaf != null) {
+            leaves.add(chunk.leaf);
+        }
+        return chunk.length;
+    }
+
+    /**
+     * Fills buffer from in, short only at the end of the stream, so every chunk but the last starts on a block.
+     */
+    private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total;
+    }
+
     @Override
-    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener) throws Exception {
-        // Parallel decryption is significantly more complex to implement correctly (especially with padding).
-        // For security and correctness, fallback to the robust sequential processor.
-        listener.onLog("Note: Using secure sequential mode for decryption.");
-        sequentialProcessor.decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener);
+    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        FileHeader header;
+        try (FileInputStream fis = new FileInputStream(sourcePath)) {
+            header = FileHeader.fromStream(fis);
+        } catch (IOException e) {
+            header = null; // Let the sequential path report it
+        }
+        if (header != null && header.hasLanes()) {
+            new LaneProcessor(numThreads).decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener, job);
+            return;
+        }
+        if (header != null && header.hasSegments()) {
+            new SegmentProcessor(numThreads).decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener, job);
+            return;
+        }
+        CryptoOptions options = manualOptions != null ? manualOptions : (header != null ? header.getOptions() : null);
+        int blockSize = options != null ? options.getBlockSizeBits() / 8 : 0;
+        // With a chunk MAC each worker checks exactly one leaf, which only works on block boundaries.
+        boolean leavesAligned = header == null || !header.hasChunkMac() || header.getMacChunkSize() % blockSize == 0;
+        if (options == null || !options.getMode().isParallelDecryptable() || !leavesAligned) {
+            listener.onLog("Note: Using secure sequential mode for decryption.");
+            sequentialProcessor.decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener, job);
+            return;
+        }
+
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(sourcePath, "r");
+             RandomAccessFile destRaf = new RandomAccessFile(destPath, "rw")) {
+
+            SecretKey key = KeyDerivation.fileKey(password, header, options, job.getMetrics());
+            header.checkKey(key);
+            byte[] rawKey = key.getEncoded();
+            CryptoOptions.CipherMode mode = options.getMode();
+            byte[] iv = header.getIv();
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = sourceRaf.length() - headerSize;
+
+            // Chunks start on block boundaries so each one can pick up the chain on its own.
+            int decryptChunkSize = Math.max(blockSize, chunkSize - chunkSize % blockSize);
+            MerkleTree tree = null;
+            byte[] macKey = null;
+            if (header.hasChunkMac()) {
+                ciphertextLength = header.getCiphertextLength();
+                macKey = MerkleTree.macKey(key);
+                tree = MerkleTree.readLeaves(sourceRaf.getChannel(), headerSize + ciphertextLength,
+                        MerkleTree.leafCount(ciphertextLength, header.getMacChunkSize()));
+                tree.verifyRoot(MerkleTree.newMac(macKey), header);
+                decryptChunkSize = header.getMacChunkSize();
+            }
+            if (!mode.isStreamMode() && ciphertextLength % blockSize != 0) {
+                throw new IOException("Ciphertext length is not a multiple of the block size.");
+            }
+
+            destRaf.setLength(0);
+            listener.onStart(ciphertextLength);
+
+            CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            ConcurrencyController concurrency = new ConcurrencyController(numThreads, job.getMetrics());
+            List<Future<Void>> futures = new ArrayList<>();
+            AtomicLong totalBytesProcessed = new AtomicLong(0);
+            final long totalLength = ciphertextLength;
+            final int step = decryptChunkSize;
+            final MerkleTree leaves = tree;
+            final byte[] leafKey = macKey;
+            final ThreadLocal<byte[]> inputs = new ThreadLocal<>();
+            final ThreadLocal<byte[]> outputs = new ThreadLocal<>();
+            final ThreadLocal<CipherEngine> ciphers = new ThreadLocal<>();
+
+            for (long offset = 0; offset < ciphertextLength; offset += step) {
+                final long chunkStart = offset;
+                final int chunkLength = (int) Math.min(step, ciphertextLength - offset);
+
+                futures.add(completionService.submit(concurrency.limit(chunkLength, () -> {
+                    try {
+                        job.checkpoint();
+                        // CBC and CFB need the ciphertext block just before the chunk as its IV.
+                        boolean chained = mode == CryptoOptions.CipherMode.CBC || mode == CryptoOptions.CipherMode.CFB;
+                        int prefix = chained && chunkStart > 0 ? blockSize : 0;
+                        byte[] data = reusable(inputs, prefix + chunkLength);
+                        synchronized (sourceRaf) {
+                            sourceRaf.seek(headerSize + chunkStart - prefix);
+                            sourceRaf.readFully(data, 0, prefix + chunkLength);
+                        }
+
+                        if (leaves != null) {
+                            int leafIndex = (int) (chunkStart / step);
+                            byte[] leaf = MerkleTree.leaf(MerkleTree.newMac(leafKey), leafIndex, data, prefix, chunkLength);
+                            if (!MessageDigest.isEqual(leaf, leaves.getLeaf(leafIndex))) {
+                                throw new IOException("Chunk " + leafIndex + " failed authentication.");
+                            }
+                        }
+
+                        byte[] chunkIv;
+                        if (mode == CryptoOptions.CipherMode.ECB) {
+                            chunkIv = null;
+                        } else if (mode == CryptoOptions.CipherMode.CTR) {
+                            chunkIv = counterIv(iv, chunkStart / blockSize);
+                        } else {
+                            chunkIv = prefix > 0 ? Arrays.copyOfRange(data, 0, prefix) : iv;
+                        }
+
+                        // Padding only exists at the very end, so every other chunk is decrypted without it,
+                        // and only the last one needs an engine of its own.
+                        boolean last = chunkStart + chunkLength == totalLength;
+                        CipherEngine cipher = last ? CipherEngine.create(options, false, rawKey, chunkIv, options.getPadding())
+                                : reusable(ciphers, options, false, rawKey, chunkIv, CryptoOptions.Padding.NoPadding);
+                        byte[] decryptedData = reusable(outputs, cipher.getOutputSize(chunkLength));
+                        int decryptedLength = cipher.doFinal(data, prefix, chunkLength, decryptedData, 0);
+
+                        // Only the last chunk can shrink, so every chunk lands at its ciphertext offset.
+                        synchronized (destRaf) {
+                            destRaf.seek(chunkStart);
+                            destRaf.write(decryptedData, 0, decryptedLength);
+                        }
+
+                        long processed = totalBytesProcessed.addAndGet(chunkLength);
+                        listener.onProgress(processed, totalLength);
+
+                    } catch (Exception e) {
+                        job.fail(e);
+                        throw new RuntimeException("Error during parallel decryption of a chunk", e);
+                    }
+                    return null;
+                })));
+            }
+
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    completionService.take().get();
+                }
+            } catch (Exception e) {
+                for (Future<Void> future : futures) {
+                    future.cancel(true);
+                }
+                throw CpuTopology.taskFailure(e);
+            }
+            listener.onSuccess("Decryption completed successfully.", destPath);
+
+        } catch (Exception e) {
+            executor.shutdownNow();
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Decryption cancelled." : "Decryption failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
     }
 
-    private AlgorithmParameterSpec getAlgorithmParameterSpec(CryptoOptions options, byte[] iv) {
-        if (options.getMode().isAeadMode()) {
-            return new GCMParameterSpec(options.getTagLength().getBits(), iv);
+    /**
+     * Returns the CTR counter block for a chunk that starts blockOffset blocks into the stream.
+     */
+    static byte[] counterIv(byte[] iv, long blockOffset) {
+        BigInteger counter = new BigInteger(1, iv).add(BigInteger.valueOf(blockOffset));
+        byte[] bytes = counter.toByteArray();
+
+        // Ensure the new IV has the correct length, padding if necessary.
+        byte[] result = new byte[iv.length];
+        if (bytes.length >= iv.length) {
+            System.arraycopy(bytes, bytes.length - iv.length, result, 0, iv.length);
+        } else {
+            System.arraycopy(bytes, 0, result, iv.length - bytes.length, bytes.length);
+        }
+        return result;
+    }
+
+    /**
+     * The calling worker's buffer from local, grown to at least size. Each worker keeps one input
+     * and one output buffer for the whole job instead of allocating two arrays per chunk.
+     */
+    private static byte[] reusable(ThreadLocal<byte[]> local, int size) {
+        byte[] buffer = local.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            local.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * The calling worker's cipher from local, started over with iv, so a job builds one engine per
+     * worker rather than one per chunk. The first chunk a worker takes creates it.
+     */
+    private static CipherEngine reusable(ThreadLocal<CipherEngine> local, CryptoOptions options, boolean forEncryption,
+                                         byte[] key, byte[] iv, CryptoOptions.Padding padding) throws GeneralSecurityException {
+        CipherEngine cipher = local.get();
+        if (cipher == null) {
+            cipher = CipherEngine.create(options, forEncryption, key, iv, padding);
+            local.set(cipher);
+        } else {
+            cipher.init(iv);
         }
-        // For CTR mode, IvParameterSpec is correct.
-        return new IvParameterSpec(iv);
+        return cipher;
     }
 
     private byte[] generateIv(CryptoOptions.CipherMode mode, int blockSizeBits) {
@@ -159,10 +495,24 @@ public class ParallelProcessor implements IProcessor {
             iv = new byte[12]; // 96 bits is recommended
         } else if (mode == CryptoOptions.CipherMode.CCM) {
             iv = new byte[11]; // 7 to 13 bytes allowed, 11 is a common choice
+        } else if (mode == CryptoOptions.CipherMode.OCB || mode == CryptoOptions.CipherMode.EAX) {
+            iv = new byte[12]; // OCB takes at most 15 bytes
         } else {
             iv = new byte[blockSizeBits / 8]; // e.g., 16 bytes for AES/CTR
         }
         new SecureRandom().nextBytes(iv);
         return iv;
     }
+
+    private static class Chunk {
+        final byte[] data;
+        final int length;
+        final byte[] leaf;
+
+        Chunk(byte[] data, int length, byte[] leaf) {
+            this.data = data;
+            this.length = length;
+            this.leaf = leaf;
+        }
+    }
 }
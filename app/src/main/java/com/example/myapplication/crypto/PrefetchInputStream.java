@@ -0,0 +1,141 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads ahead of the consumer on a background thread into a fixed set of recycled buffers,
+ * so the disk keeps reading the next chunks while the cipher works on the current one.
+ * With N buffers, up to N - 1 chunks are read ahead. Read errors surface on the next read(), including
+ * unchecked ones from a decrypting source, so a failure is never mistaken for the end of the stream.
+ */
+class PrefetchInputStream extends InputStream {
+
+    private static final Block END = new Block(0);
+
+    private final InputStream in;
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> filled;
+    private volatile boolean closed;
+    private volatile IOException error;
+    // Guards readerThread, so close() can only interrupt the reader while it is still ours.
+    private final Object readerLock = new Object();
+    private Thread readerThread;
+    private Block current;
+    private int pos;
+
+    PrefetchInputStream(InputStream in, int bufferSize, int bufferCount, Executor executor) {
+        this.in = in;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new Block(bufferSize));
+        }
+        executor.execute(this::readAhead);
+    }
+
+    private void readAhead() {
+        synchronized (readerLock) {
+            if (closed) {
+                filled.offer(END);
+                return;
+            }
+            readerThread = Thread.currentThread();
+        }
+        try {
+            while (!closed) {
+                Block block = free.take();
+                block.length = readFully(block.data);
+                if (block.length > 0) {
+                    filled.put(block);
+                }
+                if (block.length < block.data.length) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException(e.getMessage(), e);
+        } catch (InterruptedException e) {
+            // Closed by the consumer.
+        } finally {
+            synchronized (readerLock) {
+                readerThread = null;
+                // An interrupt from close() that arrived after the last wait must not leak into the pool's next task.
+                Thread.interrupted();
+            }
+            filled.offer(END);
+        }
+    }
+
+    private int readFully(byte[] buffer) throws IOException {
+        int total = 0;
+        while (total < buffer.length) {
+            int n = in.read(buffer, total, buffer.length - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (current == null || pos == current.length) {
+            if (current == END) return -1;
+            if (current != null) {
+                free.offer(current);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for data.", e);
+            }
+            pos = 0;
+            if (current == END) {
+                if (error != null) throw error;
+                return -1;
+            }
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.data, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current != null && current != END ? current.length - pos : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (readerLock) {
+            closed = true;
+            if (readerThread != null) {
+                readerThread.interrupt();
+            }
+        }
+        in.close();
+    }
+
+    private static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
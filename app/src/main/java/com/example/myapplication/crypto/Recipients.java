@@ -0,0 +1,166 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.agreement.X25519Agreement;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
+import org.bouncycastle.crypto.params.X25519PublicKeyParameters;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.DecoderException;
+import org.bouncycastle.util.encoders.Hex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Public-key recipients. A file for recipients is encrypted under a fresh random data key instead of
+ * a password-derived one, and the header carries that key wrapped for each recipient: one ephemeral
+ * X25519 key per file is agreed with every recipient's public key, HKDF-SHA256 turns each shared
+ * secret into a wrapping key, and ChaCha20-Poly1305 seals the data key under it. Encrypting costs a
+ * key agreement per recipient rather than a password stretch; decrypting needs a recipient's secret key.
+ * <p>
+ * Keys are exchanged as text: {@code x25519-public-<hex>} and {@code x25519-secret-<hex>}. A secret
+ * key is given in place of the password when decrypting, so every decrypt path accepts it unchanged.
+ */
+public final class Recipients {
+
+    public static final int KEY_SIZE = 32;
+    static final int WRAP_OVERHEAD = 16; // Poly1305 tag
+    static final int MAX_RECIPIENTS = 1024;
+
+    private static final String PUBLIC_PREFIX = "x25519-public-";
+    private static final String SECRET_PREFIX = "x25519-secret-";
+    private static final byte[] WRAP_LABEL = "recipient-wrap".getBytes(StandardCharsets.UTF_8);
+    // Every wrapping key is fresh (new ephemeral key per file, distinct per recipient), so a fixed nonce is safe.
+    private static final byte[] WRAP_NONCE = new byte[12];
+
+    private Recipients() {
+    }
+
+    /**
+     * A new secret key as text. Keep it secret; hand out {@link #publicKeyOf} instead.
+     */
+    public static String generateSecretKey() {
+        X25519PrivateKeyParameters secret = new X25519PrivateKeyParameters(new SecureRandom());
+        return SECRET_PREFIX + Hex.toHexString(secret.getEncoded());
+    }
+
+    public static String publicKeyOf(String secretKey) {
+        byte[] secret = parseSecretKey(secretKey.toCharArray());
+        return PUBLIC_PREFIX + Hex.toHexString(new X25519PrivateKeyParameters(secret, 0).generatePublicKey().getEncoded());
+    }
+
+    /**
+     * Parses an {@code x25519-public-} string into the raw key that {@link CryptoOptions#withRecipients} takes.
+     */
+    public static byte[] parsePublicKey(String text) {
+        return parse(text.trim().toLowerCase(Locale.US), PUBLIC_PREFIX);
+    }
+
+    static boolean isSecretKey(char[] password) {
+        return password != null && new String(password).trim().toLowerCase(Locale.US).startsWith(SECRET_PREFIX);
+    }
+
+    static byte[] parseSecretKey(char[] password) {
+        return parse(new String(password).trim().toLowerCase(Locale.US), SECRET_PREFIX);
+    }
+
+    private static byte[] parse(String text, String prefix) {
+        if (!text.startsWith(prefix)) {
+            throw new IllegalArgumentException("Expected a key starting with " + prefix);
+        }
+        try {
+            byte[] key = Hex.decode(text.substring(prefix.length()));
+            if (key.length == KEY_SIZE) {
+                return key;
+            }
+        } catch (DecoderException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Malformed " + prefix + " key.");
+    }
+
+    static X25519PrivateKeyParameters newEphemeral() {
+        return new X25519PrivateKeyParameters(new SecureRandom());
+    }
+
+    /**
+     * Wraps dataKey for each recipient; entry i is for recipients.get(i) and is dataKey.length +
+     * {@link #WRAP_OVERHEAD} bytes long.
+     */
+    static byte[][] wrap(byte[] dataKey, X25519PrivateKeyParameters ephemeral, List<byte[]> recipients, byte[] salt) {
+        byte[] ephemeralPublic = ephemeral.generatePublicKey().getEncoded();
+        byte[][] wrapped = new byte[recipients.size()][];
+        for (int i = 0; i < wrapped.length; i++) {
+            byte[] recipient = recipients.get(i);
+            byte[] kek = wrappingKey(ephemeral, new X25519PublicKeyParameters(recipient, 0), salt, ephemeralPublic, recipient);
+            try {
+                wrapped[i] = seal(true, kek, dataKey);
+            } catch (InvalidCipherTextException e) {
+                throw new IllegalStateException(e); // Never thrown when encrypting
+            } finally {
+                Arrays.fill(kek, (byte) 0);
+            }
+        }
+        return wrapped;
+    }
+
+    /**
+     * Recovers the data key with a recipient's secret key, trying each entry in turn; only one key
+     * agreement is needed however many recipients there are.
+     */
+    static byte[] unwrap(char[] secretKey, byte[] salt, byte[] ephemeralPublic, byte[][] wrapped) throws IOException {
+        byte[] secret = parseSecretKey(secretKey);
+        X25519PrivateKeyParameters own = new X25519PrivateKeyParameters(secret, 0);
+        Arrays.fill(secret, (byte) 0);
+        byte[] ownPublic = own.generatePublicKey().getEncoded();
+        byte[] kek = wrappingKey(own, new X25519PublicKeyParameters(ephemeralPublic, 0), salt, ephemeralPublic, ownPublic);
+        try {
+            for (byte[] entry : wrapped) {
+                try {
+                    return seal(false, kek, entry);
+                } catch (InvalidCipherTextException e) {
+                    // Addressed to someone else; try the next entry.
+                }
+            }
+        } finally {
+            Arrays.fill(kek, (byte) 0);
+        }
+        throw new IOException("This file is not encrypted to that secret key.");
+    }
+
+    private static byte[] wrappingKey(X25519PrivateKeyParameters secret, X25519PublicKeyParameters peer, byte[] salt,
+                                      byte[] ephemeralPublic, byte[] recipientPublic) {
+        X25519Agreement agreement = new X25519Agreement();
+        agreement.init(secret);
+        byte[] shared = new byte[agreement.getAgreementSize()];
+        try {
+            agreement.calculateAgreement(peer, shared, 0);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("Unusable X25519 public key.", e); // Low-order point
+        }
+        HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA256Digest());
+        hkdf.init(new HKDFParameters(shared, salt, Arrays.concatenate(WRAP_LABEL, ephemeralPublic, recipientPublic)));
+        byte[] kek = new byte[KEY_SIZE];
+        hkdf.generateBytes(kek, 0, kek.length);
+        Arrays.fill(shared, (byte) 0);
+        return kek;
+    }
+
+    private static byte[] seal(boolean forEncryption, byte[] kek, byte[] in) throws InvalidCipherTextException {
+        ChaCha20Poly1305 cipher = new ChaCha20Poly1305();
+        cipher.init(forEncryption, new AEADParameters(new KeyParameter(kek), WRAP_OVERHEAD * 8, WRAP_NONCE));
+        byte[] out = new byte[cipher.getOutputSize(in.length)];
+        int n = cipher.processBytes(in, 0, in.length, out, 0);
+        cipher.doFinal(out, n);
+        return out;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.myapplication.crypto;
+
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.ChaChaEngine;
+import org.bouncycastle.crypto.modes.ChaCha20Poly1305;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.util.Pack;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Seals a payload as a sequence of independently authenticated ChaCha20-Poly1305 segments
+ * (the STREAM construction), on BouncyCastle's lightweight engine. Segment i uses the file nonce
+ * with the big-endian segment index and a final-segment flag XORed into its last five bytes, so
+ * segments can be sealed and opened in any order and on any thread, while reordering, truncation
+ * and appended data are still detected. Every segment is also bound to the header through its AAD.
+ * <p>
+ * XChaCha20-Poly1305 takes a 24-byte nonce: its first 16 bytes derive a per-file subkey with
+ * HChaCha20 and the last 8 become the ChaCha20 nonce, which leaves room for a random nonce and the
+ * segment counter side by side. Instances are immutable and thread-safe.
+ */
+final class SegmentCipher {
+
+    public static final int TAG_SIZE = 16;
+    private static final int CHACHA_NONCE_SIZE = 12;
+    private static final int XCHACHA_NONCE_SIZE = 24;
+    private static final int HCHACHA_INPUT_SIZE = 16;
+    private static final long MAX_SEGMENTS = 1L << 32; // Four bytes of counter in the nonce
+
+    private final byte[] key;
+    private final byte[] nonce;
+    private final byte[] aad;
+
+    /**
+     * @param fileNonce A fresh random nonce of {@link #nonceLength} bytes for this key.
+     * @param aad       Authenticated with every segment; normally the header's AAD bytes.
+     */
+    SegmentCipher(CryptoOptions.CryptoProtocol protocol, byte[] key, byte[] fileNonce, byte[] aad) {
+        if (fileNonce.length != nonceLength(protocol)) {
+            throw new IllegalArgumentException(protocol + " needs a " + nonceLength(protocol) + "-byte nonce.");
+        }
+        if (protocol == CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305) {
+            this.key = hChaCha20(key, Arrays.copyOf(fileNonce, HCHACHA_INPUT_SIZE));
+            this.nonce = new byte[CHACHA_NONCE_SIZE];
+            System.arraycopy(fileNonce, HCHACHA_INPUT_SIZE, nonce, 4, XCHACHA_NONCE_SIZE - HCHACHA_INPUT_SIZE);
+        } else {
+            this.key = key.clone();
+            this.nonce = fileNonce.clone();
+        }
+        this.aad = aad;
+    }
+
+    static int nonceLength(CryptoOptions.CryptoProtocol protocol) {
+        return protocol == CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305 ? XCHACHA_NONCE_SIZE : CHACHA_NONCE_SIZE;
+    }
+
+    static int segmentCount(long plaintextLength, int segmentSize) {
+        return (int) Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+    }
+
+    static long ciphertextLength(long plaintextLength, int segmentSize) {
+        return plaintextLength + (long) segmentCount(plaintextLength, segmentSize) * TAG_SIZE;
+    }
+
+    /**
+     * Inverse of {@link #ciphertextLength}; throws if no plaintext length maps to this ciphertext length.
+     */
+    static long plaintextLength(long ciphertextLength, int segmentSize) throws IOException {
+        long sealedSegment = (long) segmentSize + TAG_SIZE;
+        long full = ciphertextLength / sealedSegment;
+        long rest = ciphertextLength % sealedSegment;
+        if (rest == 0 && full > 0) {
+            return full * segmentSize;
+        }
+        if (rest < TAG_SIZE || (rest == TAG_SIZE && full > 0)) {
+            throw new IOException("Ciphertext is truncated.");
+        }
+        return full * segmentSize + rest - TAG_SIZE;
+    }
+
+    /**
+     * Encrypts one segment and appends its tag; out needs len + TAG_SIZE bytes from outOff.
+     */
+    int seal(long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) {
+        ChaCha20Poly1305 cipher = init(true, index, last);
+        int n = cipher.processBytes(in, inOff, len, out, outOff);
+        try {
+            return n + cipher.doFinal(out, outOff + n);
+        } catch (InvalidCipherTextException e) {
+            throw new IllegalStateException(e); // Never thrown when encrypting
+        }
+    }
+
+    /**
+     * Decrypts and authenticates one sealed segment of len bytes (including the tag); out needs len - TAG_SIZE
+     * bytes from outOff. Nothing in out may be used if this throws.
+     */
+    int open(long index, boolean last, byte[] in, int inOff, int len, byte[] out, int outOff) throws IOException {
+        if (len < TAG_SIZE) {
+            throw new IOException("Segment " + index + " is truncated.");
+        }
+        ChaCha20Poly1305 cipher = init(false, index, last);
+        int n = cipher.processBytes(in, inOff, len, out, outOff);
+        try {
+            return n + cipher.doFinal(out, outOff + n);
+        } catch (InvalidCipherTextException e) {
+            throw new IOException("Segment " + index + " failed authentication.", e);
+        }
+    }
+
+    private ChaCha20Poly1305 init(boolean forEncryption, long index, boolean last) {
+        if (index < 0 || index >= MAX_SEGMENTS) {
+            throw new IllegalArgumentException("Segment index out of range: " + index);
+        }
+        byte[] segmentNonce = nonce.clone();
+        segmentNonce[7] ^= (byte) (index >>> 24);
+        segmentNonce[8] ^= (byte) (index >>> 16);
+        segmentNonce[9] ^= (byte) (index >>> 8);
+        segmentNonce[10] ^= (byte) index;
+        segmentNonce[11] ^= last ? 1 : 0;
+        // A fresh engine per segment: they are cheap, and BouncyCastle refuses to re-key one with a repeated nonce.
+        ChaCha20Poly1305 cipher = new ChaCha20Poly1305();
+        cipher.init(forEncryption, new AEADParameters(new KeyParameter(key), TAG_SIZE * 8, segmentNonce, aad));
+        return cipher;
+    }
+
+    /**
+     * HChaCha20 (draft-irtf-cfrg-xchacha): the ChaCha20 block function without the final addition,
+     * keeping only the first and last rows of the state as a 256-bit subkey.
+     */
+    static byte[] hChaCha20(byte[] key, byte[] input) {
+        int[] state = new int[16];
+        state[0] = 0x61707865;
+        state[1] = 0x3320646e;
+        state[2] = 0x79622d32;
+        state[3] = 0x6b206574;
+        Pack.littleEndianToInt(key, 0, state, 4, 8);
+        Pack.littleEndianToInt(input, 0, state, 12, 4);
+
+        int[] x = new int[16];
+        ChaChaEngine.chachaCore(20, state, x); // Adds the input state back in, which HChaCha20 omits
+        byte[] subkey = new byte[32];
+        for (int i = 0; i < 4; i++) {
+            Pack.intToLittleEndian(x[i] - state[i], subkey, i * 4);
+            Pack.intToLittleEndian(x[12 + i] - state[12 + i], subkey, 16 + i * 4);
+        }
+        return subkey;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Opens a stream of {@link SegmentCipher} segments, as written by {@link SegmentProcessor} or
+ * {@link SegmentOutputStream}, and returns the plaintext in order. Up to window segments are read
+ * ahead and authenticated on the executor. A segment's plaintext is returned only once it has been
+ * authenticated, and the end of the stream only once the final segment has, so a truncated stream
+ * fails instead of ending early.
+ */
+class SegmentInputStream extends InputStream {
+
+    private static final byte[] NONE = new byte[0];
+
+    private final InputStream in;
+    private final SegmentCipher cipher;
+    private final int sealedSize;
+    private final ExecutorService executor;
+    private final int window;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] next; // Read, but not yet known to be or not be the last segment
+    private long index;
+    private boolean lastRead;
+    private byte[] current = NONE;
+    private int pos;
+
+    SegmentInputStream(InputStream in, SegmentCipher cipher, int segmentSize, ExecutorService executor, int window) {
+        this.in = in;
+        this.cipher = cipher;
+        this.sealedSize = segmentSize + SegmentCipher.TAG_SIZE;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (pos == current.length) {
+            fill();
+            if (pending.isEmpty()) {
+                return -1;
+            }
+            current = take();
+            pos = 0;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        in.close();
+    }
+
+    private void fill() throws IOException {
+        while (!lastRead && pending.size() < window) {
+            byte[] sealed = next != null ? next : readSealed();
+            next = null;
+            // A short segment is the last; a full one is the last only if nothing follows it.
+            if (sealed.length == sealedSize) {
+                byte[] after = readSealed();
+                if (after.length > 0) {
+                    next = after;
+                }
+            }
+            lastRead = next == null;
+            final long segment = index++;
+            final boolean last = lastRead;
+            pending.add(executor.submit(() -> {
+                byte[] plaintext = new byte[Math.max(0, sealed.length - SegmentCipher.TAG_SIZE)];
+                cipher.open(segment, last, sealed, 0, sealed.length, plaintext, 0);
+                return plaintext;
+            }));
+        }
+    }
+
+    private byte[] take() throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (ExecutionException e) {
+            Exception cause = CpuTopology.taskFailure(e);
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Opening a segment failed.", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while opening segments.");
+        }
+    }
+
+    private byte[] readSealed() throws IOException {
+        byte[] sealed = new byte[sealedSize];
+        int total = 0;
+        while (total < sealedSize) {
+            int n = in.read(sealed, total, sealedSize - total);
+            if (n < 0) {
+                break;
+            }
+            total += n;
+        }
+        return total == sealedSize ? sealed : Arrays.copyOf(sealed, total);
+    }
+}
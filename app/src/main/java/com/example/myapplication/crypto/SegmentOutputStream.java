@@ -0,0 +1,131 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Seals a plaintext stream of unknown length into {@link SegmentCipher} segments, the same layout
+ * {@link SegmentProcessor} writes after the header. Full segments are sealed on the executor while
+ * the caller keeps writing; at most window of them are in flight, and they reach the underlying
+ * stream in order. A full segment is held back until the next byte arrives, because only then is it
+ * known not to be the last one; {@link #close()} seals the final segment.
+ */
+class SegmentOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final SegmentCipher cipher;
+    private final int segmentSize;
+    private final ExecutorService executor;
+    private final int window;
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] buffer;
+    private int count;
+    private long index;
+    private boolean failed;
+    private boolean closed;
+
+    SegmentOutputStream(OutputStream out, SegmentCipher cipher, int segmentSize, ExecutorService executor, int window) {
+        this.out = out;
+        this.cipher = cipher;
+        this.segmentSize = segmentSize;
+        this.executor = executor;
+        this.window = Math.max(1, window);
+        this.buffer = new byte[segmentSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed.");
+        }
+        while (len > 0) {
+            if (count == segmentSize) {
+                submit(false);
+            }
+            int n = Math.min(len, segmentSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes every sealed segment so far, leaving the unsealed tail buffered.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            drainOne();
+        }
+        out.flush();
+    }
+
+    /**
+     * Seals the final segment (an empty one if nothing was written) and closes the underlying stream.
+     * After a failure, the segments still in flight are abandoned instead.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (!failed) {
+                submit(true);
+                flush();
+            }
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        final byte[] plaintext = buffer;
+        final int length = count;
+        final long segment = index++;
+        pending.add(executor.submit(() -> {
+            byte[] sealed = new byte[length + SegmentCipher.TAG_SIZE];
+            cipher.seal(segment, last, plaintext, 0, length, sealed, 0);
+            return sealed;
+        }));
+        buffer = new byte[segmentSize];
+        count = 0;
+        while (pending.size() > window) {
+            drainOne();
+        }
+    }
+
+    private void drainOne() throws IOException {
+        Future<byte[]> future = pending.poll();
+        try {
+            out.write(future.get());
+        } catch (ExecutionException e) {
+            failed = true;
+            Exception cause = CpuTopology.taskFailure(e);
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Sealing a segment failed.", cause);
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sealing segments.");
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.myapplication.crypto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Encrypts and decrypts segmented AEAD files (ChaCha20-Poly1305 and XChaCha20-Poly1305). Every
+ * segment of chunkSize plaintext bytes is sealed on its own with {@link SegmentCipher}, so workers
+ * seal and open segments in parallel and write them straight to their final positions. Each
+ * segment is authenticated before any of its plaintext is written.
+ */
+public class SegmentProcessor implements IProcessor {
+
+    private final ExecutorService executor;
+    private final int numThreads;
+
+    public SegmentProcessor(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executor = CpuTopology.workers(numThreads);
+    }
+
+    @Override
+    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(sourcePath, "r");
+             RandomAccessFile destRaf = new RandomAccessFile(destPath, "rw")) {
+
+            long plaintextLength = sourceRaf.length();
+            byte[] salt = KeyDerivation.generateSalt();
+            SecretKey key = KeyDerivation.newFileKey(password, salt, options);
+            byte[] nonce = new byte[SegmentCipher.nonceLength(options.getProtocol())];
+            new SecureRandom().nextBytes(nonce);
+
+            FileHeader header = new FileHeader(options, nonce, salt, chunkSize);
+            header.setKey(key);
+            destRaf.setLength(0);
+            header.writeTo(destRaf);
+            long headerSize = destRaf.getFilePointer();
+            listener.onStart(plaintextLength);
+
+            SegmentCipher cipher = new SegmentCipher(options.getProtocol(), key.getEncoded(), nonce, header.getAADBytes());
+            int segmentCount = SegmentCipher.segmentCount(plaintextLength, chunkSize);
+            FileChannel source = sourceRaf.getChannel();
+            FileChannel dest = destRaf.getChannel();
+            AtomicLong totalBytesProcessed = new AtomicLong(0);
+
+            List<SegmentTask> tasks = new ArrayList<>();
+            for (int i = 0; i < segmentCount; i++) {
+                final int index = i;
+                final long start = (long) index * chunkSize;
+                final int length = (int) Math.min(chunkSize, plaintextLength - start);
+                final boolean last = index == segmentCount - 1;
+
+                tasks.add(() -> {
+                    ByteBuffer plaintext = ByteBuffer.allocate(length);
+                    readFully(source, plaintext, start);
+                    byte[] sealed = new byte[length + SegmentCipher.TAG_SIZE];
+                    cipher.seal(index, last, plaintext.array(), 0, length, sealed, 0);
+                    writeFully(dest, ByteBuffer.wrap(sealed), headerSize + (long) index * (chunkSize + SegmentCipher.TAG_SIZE));
+                    listener.onProgress(totalBytesProcessed.addAndGet(length), plaintextLength);
+                    return length;
+                });
+            }
+            runAll(executor, numThreads, tasks, job);
+            listener.onSuccess("Encryption completed successfully.", destPath);
+
+        } catch (Exception e) {
+            executor.shutdownNow();
+            // Never leave a partial output behind.
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Encryption cancelled." : "Encryption failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(sourcePath, "r");
+             RandomAccessFile destRaf = new RandomAccessFile(destPath, "rw")) {
+
+            FileHeader header;
+            try (FileInputStream fis = new FileInputStream(sourcePath)) {
+                header = FileHeader.fromStream(fis);
+            }
+            if (!header.hasSegments()) {
+                throw new IOException("Not a segmented file.");
+            }
+            if (header.isArchive()) {
+                throw new IOException("This is an archive; extract its entries with CryptoArchive.");
+            }
+            CryptoOptions options = manualOptions != null ? manualOptions : header.getOptions();
+            SecretKey key = KeyDerivation.fileKey(password, header, options, job.getMetrics());
+            header.checkKey(key);
+
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = sourceRaf.length() - headerSize;
+            int segmentSize = header.getSegmentSize();
+            long plaintextLength = SegmentCipher.plaintextLength(ciphertextLength, segmentSize);
+            SegmentCipher cipher = new SegmentCipher(header.getOptions().getProtocol(), key.getEncoded(), header.getIv(), header.getAADBytes());
+            int segmentCount = SegmentCipher.segmentCount(plaintextLength, segmentSize);
+
+            destRaf.setLength(0);
+            listener.onStart(ciphertextLength);
+            FileChannel source = sourceRaf.getChannel();
+            FileChannel dest = destRaf.getChannel();
+            AtomicLong totalBytesProcessed = new AtomicLong(0);
+
+            List<SegmentTask> tasks = new ArrayList<>();
+            for (int i = 0; i < segmentCount; i++) {
+                final int index = i;
+                final long start = (long) index * segmentSize;
+                final int length = (int) Math.min(segmentSize, plaintextLength - start);
+                final boolean last = index == segmentCount - 1;
+
+                tasks.add(() -> {
+                    ByteBuffer sealed = ByteBuffer.allocate(length + SegmentCipher.TAG_SIZE);
+                    readFully(source, sealed, headerSize + (long) index * (segmentSize + SegmentCipher.TAG_SIZE));
+                    byte[] plaintext = new byte[length];
+                    cipher.open(index, last, sealed.array(), 0, sealed.capacity(), plaintext, 0);
+                    writeFully(dest, ByteBuffer.wrap(plaintext), start);
+                    listener.onProgress(totalBytesProcessed.addAndGet(sealed.capacity()), ciphertextLength);
+                    return sealed.capacity();
+                });
+            }
+            runAll(executor, numThreads, tasks, job);
+            listener.onSuccess("Decryption completed successfully.", destPath);
+
+        } catch (Exception e) {
+            executor.shutdownNow();
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Decryption cancelled." : "Decryption failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs every segment and waits, aborting the rest as soon as one fails, and rethrows that
+     * failure as thrown by the segment. The job is only read, never failed: it may belong to a
+     * caller that runs several files on it, such as FolderSync or the Transcoder. The number of
+     * segments in flight follows a {@link ConcurrencyController}. {@link CryptoArchive} seals its
+     * entries through this too.
+     */
+    static void runAll(ExecutorService executor, int threads, List<SegmentTask> tasks, CryptoJob job) throws Exception {
+        CompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Void>> futures = new ArrayList<>();
+        ConcurrencyController concurrency = new ConcurrencyController(threads, job.getMetrics());
+        AtomicBoolean aborted = new AtomicBoolean();
+        for (SegmentTask task : tasks) {
+            futures.add(completionService.submit(() -> {
+                job.checkpoint();
+                if (aborted.get()) {
+                    return null; // Another segment failed; its error is the one reported.
+                }
+                concurrency.acquire();
+                long bytes = 0;
+                try {
+                    bytes = task.run();
+                } catch (Exception e) {
+                    aborted.set(true);
+                    throw e;
+                } finally {
+                    concurrency.release(bytes);
+                }
+                return null;
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (Exception e) {
+            aborted.set(true);
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            throw CpuTopology.taskFailure(e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    interface SegmentTask {
+        /** Returns the number of bytes processed. */
+        long run() throws Exception;
+    }
+}
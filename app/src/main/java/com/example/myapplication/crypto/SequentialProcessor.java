@@ -1,76 +1,137 @@
 package com.example.myapplication.crypto;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
-
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
-import java.security.Security;
-import java.security.spec.AlgorithmParameterSpec;
 
-import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 
 public class SequentialProcessor implements IProcessor {
 
     static {
-        // Ensure the Bouncy Castle provider is added only once.
-        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
-            Security.addProvider(new BouncyCastleProvider());
-        }
+        CryptoBootstrap.ensureProvider();
+    }
+
+    public static final int DEFAULT_BUFFER_COUNT = 3; // Triple buffering: one being read, one in the cipher, one being written
+
+    private final int bufferCount;
+
+    public SequentialProcessor() {
+        this(DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * @param bufferCount Chunk buffers per direction. With 2 or more, a reader thread prefetches input and a
+     *                    writer thread drains output while the calling thread only runs the cipher. With 1,
+     *                    reads, cipher and writes alternate on the calling thread. The output is identical.
+     */
+    public SequentialProcessor(int bufferCount) {
+        this.bufferCount = bufferCount;
     }
 
     @Override
-    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener) throws Exception {
+    public void encrypt(String sourcePath, String destPath, char[] password, CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        if (options.usesLanes()) {
+            // Lanes are independent chains, so a single worker just runs them one after another.
+            new LaneProcessor(1).encrypt(sourcePath, destPath, password, options, chunkSize, listener, job);
+            return;
+        }
+        if (options.getMode().isSegmented()) {
+            new SegmentProcessor(1).encrypt(sourcePath, destPath, password, options, chunkSize, listener, job);
+            return;
+        }
         try (FileInputStream fis = new FileInputStream(sourcePath);
              FileOutputStream fos = new FileOutputStream(destPath)) {
 
             byte[] salt = KeyDerivation.generateSalt();
-            SecretKey key = KeyDerivation.deriveKey(password, salt, options.getKdf(), options.getKeyLength());
+            SecretKey key = KeyDerivation.newFileKey(password, salt, options);
+            encrypt(fis, fis.getChannel().size(), fos, key, salt, options, chunkSize, listener, job);
+            listener.onSuccess("Encryption completed successfully.", destPath);
+        } catch (Exception e) {
+            // Never leave a partial output behind.
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Encryption cancelled." : "Encryption failed.", e);
+            throw e;
+        }
+    }
 
-            // Generate an IV/Nonce with the appropriate size for the selected mode.
-            byte[] iv = generateIv(options.getMode(), options.getBlockSizeBits());
+    /**
+     * Writes a complete single-chain file (header, ciphertext and any Merkle trailer) for the plaintext
+     * read from source, under a key already derived from salt. totalBytes is only used for progress.
+     */
+    void encrypt(InputStream source, long totalBytes, FileOutputStream fos, SecretKey key, byte[] salt, CryptoOptions options,
+                 int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        // Generate an IV/Nonce with the appropriate size for the selected mode.
+        byte[] iv = generateIv(options.getMode(), options.getBlockSizeBits());
+        encrypt(source, totalBytes, fos, key, salt, iv, options, chunkSize, listener, job);
+    }
 
-            FileHeader header = new FileHeader(options, iv, salt);
-            header.writeTo(fos);
+    /**
+     * As above, under a given IV, so the same inputs always give the same file.
+     */
+    void encrypt(InputStream source, long totalBytes, FileOutputStream fos, SecretKey key, byte[] salt, byte[] iv,
+                 CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        FileHeader header = new FileHeader(options, iv, salt, chunkSize);
+        header.setKey(key);
+        header.writeTo(fos);
 
-            String transformation = options.getTransformation();
-            Cipher cipher = Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME);
-            
-            AlgorithmParameterSpec spec = getAlgorithmParameterSpec(options, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key.getEncoded(), options.getProtocol().name()), spec);
+        CipherEngine cipher = CipherEngine.create(options, true, key.getEncoded(), iv);
 
-            // Add the header as Associated Authenticated Data (AAD) for AEAD ciphers.
-            if (options.requiresAAD()) {
-                cipher.updateAAD(header.getAADBytes());
-            }
-            
-            listener.onStart(fis.getChannel().size());
+        // Add the header as Associated Authenticated Data (AAD) for AEAD ciphers.
+        if (options.requiresAAD()) {
+            cipher.updateAAD(header.getAADBytes());
+        }
 
-            try (CipherOutputStream cos = new CipherOutputStream(fos, cipher)) {
-                byte[] buffer = new byte[chunkSize];
-                int bytesRead;
-                long totalBytesRead = 0;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    cos.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
-                    listener.onProgress(totalBytesRead, fis.getChannel().size());
-                }
+        listener.onStart(totalBytes);
+
+        // Encrypt-then-MAC: leaves are computed over the ciphertext on its way to the file.
+        MerkleTree.MacOutputStream macOut = options.requiresChunkMac()
+                ? new MerkleTree.MacOutputStream(fos, MerkleTree.newMac(key), chunkSize) : null;
+        OutputStream target = macOut != null ? macOut : fos;
+
+        try (InputStream in = prefetch(source, chunkSize);
+             OutputStream out = writeBehind(target, chunkSize)) {
+            byte[] buffer = new byte[chunkSize];
+            byte[] output = new byte[cipher.getUpdateOutputSize(chunkSize)];
+            int bytesRead;
+            long totalBytesRead = 0;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                job.checkpoint();
+                output = ensureCapacity(output, cipher.getUpdateOutputSize(bytesRead));
+                out.write(output, 0, cipher.update(buffer, 0, bytesRead, output, 0));
+                totalBytesRead += bytesRead;
+                listener.onProgress(totalBytesRead, totalBytes);
             }
-            listener.onSuccess("Encryption completed successfully.", destPath);
-        } catch (Exception e) {
-            listener.onError("Encryption failed.", e);
-            throw e;
+            output = ensureCapacity(output, cipher.getOutputSize(0));
+            out.write(output, 0, cipher.doFinal(output, 0));
+        }
+
+        if (macOut != null) {
+            MerkleTree tree = macOut.toTree();
+            Mac mac = MerkleTree.newMac(key);
+            header.setMerkleRoot(macOut.getCount(), MerkleTree.rootTag(mac, header.getAADBytes(), macOut.getCount(), tree.build(mac)));
+            fos.write(tree.toByteArray());
+            // The header has a fixed size, so the root can be patched in place.
+            fos.getChannel().write(ByteBuffer.wrap(header.getHeaderBytes()), 0);
         }
     }
 
     @Override
-    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener) throws Exception {
+    public void decrypt(String sourcePath, String destPath, char[] password, CryptoOptions manualOptions, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        FileHeader peeked = FileHeader.peek(sourcePath);
+        if (peeked != null && peeked.hasLanes()) {
+            new LaneProcessor(1).decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener, job);
+            return;
+        }
+        if (peeked != null && peeked.hasSegments()) {
+            new SegmentProcessor(1).decrypt(sourcePath, destPath, password, manualOptions, chunkSize, listener, job);
+            return;
+        }
         try (FileInputStream fis = new FileInputStream(sourcePath);
              FileOutputStream fos = new FileOutputStream(destPath)) {
 
@@ -82,58 +143,74 @@ public class SequentialProcessor implements IProcessor {
                 options = manualOptions;
             }
 
-            SecretKey key = KeyDerivation.deriveKey(password, header.getSalt(), options.getKdf(), options.getKeyLength());
+            SecretKey key = KeyDerivation.fileKey(password, header, options, job.getMetrics());
+            header.checkKey(key);
             byte[] iv = header.getIv();
 
-            String transformation = options.getTransformation();
-            Cipher cipher = Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME);
-            
-            AlgorithmParameterSpec spec = getAlgorithmParameterSpec(options, iv);
-            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key.getEncoded(), options.getProtocol().name()), spec);
+            CipherEngine cipher = CipherEngine.create(options, false, key.getEncoded(), iv);
 
             // The AAD must be provided for decryption exactly as it was for encryption.
             if (options.requiresAAD()) {
                 cipher.updateAAD(header.getAADBytes());
             }
 
-            long fileLength = new java.io.File(sourcePath).length();
+            long fileLength = new File(sourcePath).length();
             long headerSize = header.getHeaderSize();
             long ciphertextLength = fileLength - headerSize;
+
+            InputStream source = fis;
+            if (header.hasChunkMac()) {
+                // Check the whole tree up front, so a wrong password fails before any output is written.
+                ciphertextLength = header.getCiphertextLength();
+                Mac mac = MerkleTree.newMac(key);
+                MerkleTree tree = MerkleTree.readLeaves(fis.getChannel(), headerSize + ciphertextLength,
+                        MerkleTree.leafCount(ciphertextLength, header.getMacChunkSize()));
+                tree.verifyRoot(mac, header);
+                source = new MerkleTree.VerifyingInputStream(fis, tree, mac, header.getMacChunkSize(), ciphertextLength);
+            }
             
             listener.onStart(ciphertextLength);
 
-            try (CipherInputStream cis = new CipherInputStream(fis, cipher)) {
+            try (InputStream in = prefetch(source, chunkSize);
+                 OutputStream out = writeBehind(fos, chunkSize)) {
                 byte[] buffer = new byte[chunkSize];
+                byte[] output = new byte[cipher.getUpdateOutputSize(chunkSize)];
                 int bytesRead;
                 long totalBytesRead = 0;
-                while ((bytesRead = cis.read(buffer)) != -1) {
-                    fos.write(buffer, 0, bytesRead);
+                while ((bytesRead = in.read(buffer)) != -1) {
+                    job.checkpoint();
+                    output = ensureCapacity(output, cipher.getUpdateOutputSize(bytesRead));
+                    out.write(output, 0, cipher.update(buffer, 0, bytesRead, output, 0));
                     totalBytesRead += bytesRead;
                     listener.onProgress(totalBytesRead, ciphertextLength);
                 }
+                // Padding is checked and the tag verified here, before the last bytes are written.
+                output = ensureCapacity(output, cipher.getOutputSize(0));
+                out.write(output, 0, cipher.doFinal(output, 0));
             }
             listener.onSuccess("Decryption completed successfully.", destPath);
         } catch (Exception e) {
-            listener.onError("Decryption failed.", e);
+            // Never leave a partial output behind.
+            new File(destPath).delete();
+            listener.onError(job.isCancelled() ? "Decryption cancelled." : "Decryption failed.", e);
             throw e;
         }
     }
     
-    /**
-     * Creates the appropriate AlgorithmParameterSpec based on the cipher mode.
-     */
-    private AlgorithmParameterSpec getAlgorithmParameterSpec(CryptoOptions options, byte[] iv) {
-        CryptoOptions.CipherMode mode = options.getMode();
+    private InputStream prefetch(InputStream in, int chunkSize) {
+        return bufferCount > 1 ? new PrefetchInputStream(in, chunkSize, bufferCount, CryptoManager.ioExecutor()) : in;
+    }
 
-        if (mode.isAeadMode()) {
-            return new GCMParameterSpec(options.getTagLength().getBits(), iv);
-        }
-        
-        if (mode == CryptoOptions.CipherMode.ECB) {
-            return null;
-        }
+    private OutputStream writeBehind(OutputStream out, int chunkSize) {
+        return bufferCount > 1 ? new WriteBehindOutputStream(out, chunkSize, bufferCount, CryptoManager.ioExecutor()) : out;
+    }
 
-        return new IvParameterSpec(iv);
+    /**
+     * The output buffer is reused for every chunk; it only grows when a mode holds back more than
+     * the chunk, such as CCM, which releases everything at the end.
+     */
+    private static byte[] ensureCapacity(byte[] buffer, int size) {
+        return buffer.length >= size ? buffer : new byte[size];
     }
     
     /**
@@ -147,8 +224,11 @@ public class SequentialProcessor implements IProcessor {
         } else if (mode == CryptoOptions.CipherMode.CCM) {
             // For CCM, the nonce length must be between 7 and 13 bytes.
             iv = new byte[11];
+        } else if (mode == CryptoOptions.CipherMode.OCB || mode == CryptoOptions.CipherMode.EAX) {
+            // OCB takes at most 15 bytes; 12 is its recommended nonce, and EAX uses the same.
+            iv = new byte[12];
         } else {
-            // For other modes like CBC, CFB, OFB, CTR, EAX, and OCB,
+            // For other modes like CBC, CFB, OFB and CTR,
             // the IV size must match the cipher's block size (16 bytes for AES).
             iv = new byte[blockSizeBits / 8];
         }
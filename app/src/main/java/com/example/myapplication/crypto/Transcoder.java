@@ -0,0 +1,415 @@
+package com.example.myapplication.crypto;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Re-encrypts files under new options, a new password or both, in a single pass. The old payload is
+ * authenticated and decrypted a chunk at a time into memory and fed straight into the new encryption,
+ * so plaintext never reaches the disk and every byte is read and written once.
+ * <p>
+ * Decryption runs on a read-ahead thread while the calling thread encrypts and a write-behind thread
+ * writes. On the worker pool, segmented formats open or seal their segments, CBC, CFB, CTR and ECB
+ * sources (one chain or lanes) are decrypted a chunk at a time into a reorder buffer, and CTR
+ * targets are encrypted a chunk at a time as {@link ParallelProcessor} does. OFB sources, and chunk
+ * MACs that do not fall on block boundaries, are still decrypted as one chain after another, and
+ * other targets encrypted as one chain. Lane layouts need the plaintext length before the first byte
+ * is written, which a chained source only reveals at its end, so they can be read but not produced
+ * here. Like the processors, an instance serves one job.
+ */
+public class Transcoder {
+
+    static {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    private final ExecutorService executor;
+    private final int numThreads;
+
+    public Transcoder(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.executor = CpuTopology.workers(this.numThreads);
+    }
+
+    public void transcode(String sourcePath, String destPath, char[] oldPassword, char[] newPassword, CryptoOptions newOptions,
+                          int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try {
+            transcodeFile(sourcePath, destPath, oldPassword, newPassword, newOptions, chunkSize, listener, job);
+            listener.onSuccess("Transcoding completed successfully.", destPath);
+        } catch (Exception e) {
+            executor.shutdownNow();
+            listener.onError(job.isCancelled() ? "Transcoding cancelled." : "Transcoding failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Transcodes every encrypted file under sourceDir into the same relative path under destDir.
+     * Files that are not in this app's format, and archives, are skipped. A file that fails is
+     * logged and the rest carry on; the job fails at the end if any did.
+     */
+    public void transcodeDirectory(File sourceDir, File destDir, char[] oldPassword, char[] newPassword, CryptoOptions newOptions,
+                                   int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        try {
+            Map<String, String> sources = CryptoArchive.entriesOf(sourceDir);
+            long totalBytes = 0;
+            for (String path : sources.values()) {
+                totalBytes += new File(path).length();
+            }
+            listener.onStart(totalBytes);
+
+            BatchListener batch = new BatchListener(listener, totalBytes);
+            int transcoded = 0;
+            int failed = 0;
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                job.checkpoint();
+                String sourcePath = entry.getValue();
+                FileHeader header = FileHeader.peek(sourcePath);
+                if (header == null || header.isArchive()) {
+                    listener.onLog("Skipping " + entry.getKey() + ": " + (header == null ? "not an encrypted file." : "archive."));
+                } else {
+                    File dest = new File(destDir, entry.getKey());
+                    File parent = dest.getParentFile();
+                    if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                        throw new IOException("Cannot create " + parent);
+                    }
+                    try {
+                        transcodeFile(sourcePath, dest.getPath(), oldPassword, newPassword, newOptions, chunkSize, batch, job);
+                        transcoded++;
+                    } catch (Exception e) {
+                        if (job.isCancelled()) {
+                            throw e;
+                        }
+                        failed++;
+                        listener.onLog("Failed " + entry.getKey() + ": " + e.getMessage());
+                    }
+                }
+                batch.finishFile(new File(sourcePath).length());
+            }
+            if (failed > 0) {
+                throw new IOException(failed + " of " + (transcoded + failed) + " files could not be transcoded.");
+            }
+            listener.onSuccess("Transcoded " + transcoded + " files.", destDir.getPath());
+        } catch (Exception e) {
+            executor.shutdownNow();
+            listener.onError(job.isCancelled() ? "Transcoding cancelled." : "Transcoding failed.", e);
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void transcodeFile(String sourcePath, String destPath, char[] oldPassword, char[] newPassword, CryptoOptions newOptions,
+                               int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        if (newOptions.usesLanes()) {
+            throw new IllegalArgumentException("Lane layouts need the plaintext length up front; transcode into a single-chain or segmented mode.");
+        }
+        if (new File(sourcePath).getCanonicalFile().equals(new File(destPath).getCanonicalFile())) {
+            throw new IllegalArgumentException("Source and destination must be different files.");
+        }
+        try (RandomAccessFile sourceRaf = new RandomAccessFile(sourcePath, "r")) {
+            FileHeader header;
+            try (FileInputStream fis = new FileInputStream(sourcePath)) {
+                header = FileHeader.fromStream(fis);
+            }
+            if (header.isArchive()) {
+                throw new IOException("Archives cannot be transcoded; extract the entries or build a new archive.");
+            }
+            SecretKey oldKey = KeyDerivation.fileKey(oldPassword, header, header.getOptions(), job.getMetrics());
+            header.checkKey(oldKey);
+            long headerSize = header.getHeaderSize();
+            long ciphertextLength = header.hasChunkMac() ? header.getCiphertextLength() : sourceRaf.length() - headerSize;
+            long plaintextLength = plaintextLength(header, ciphertextLength);
+
+            // Nothing is written until the old password has been confirmed.
+            try (FileOutputStream fos = new FileOutputStream(destPath)) {
+                InputStream plaintext = openPlaintext(sourceRaf.getChannel(), header, oldKey, headerSize, ciphertextLength, chunkSize);
+                byte[] salt = KeyDerivation.generateSalt();
+                SecretKey newKey = KeyDerivation.newFileKey(newPassword, salt, newOptions);
+                if (newOptions.getMode().isSegmented()) {
+                    encryptSegments(plaintext, plaintextLength, fos, newKey, salt, newOptions, chunkSize, listener, job);
+                } else if (newOptions.getMode().isParallelizable() && numThreads > 1) {
+                    new ParallelProcessor(numThreads).encrypt(plaintext, plaintextLength, fos, newKey, salt, newOptions, chunkSize, listener, job);
+                } else {
+                    // Prefetches from the decrypting stream, so the old cipher runs on the read-ahead thread.
+                    new SequentialProcessor().encrypt(plaintext, plaintextLength, fos, newKey, salt, newOptions, chunkSize, listener, job);
+                }
+            } catch (Exception e) {
+                // Never leave a partial output behind.
+                new File(destPath).delete();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * The plaintext of a file as one stream, authenticated as it is read. Merkle trees and lane
+     * tables are checked before the first byte is returned.
+     */
+    private InputStream openPlaintext(FileChannel source, FileHeader header, SecretKey key, long headerSize, long ciphertextLength,
+                                      int chunkSize) throws Exception {
+        CryptoOptions options = header.getOptions();
+        if (header.hasSegments()) {
+            SegmentCipher cipher = new SegmentCipher(options.getProtocol(), key.getEncoded(), header.getIv(), header.getAADBytes());
+            return new SegmentInputStream(new LaneProcessor.RegionInputStream(source, headerSize, ciphertextLength),
+                    cipher, header.getSegmentSize(), executor, 2 * numThreads);
+        }
+
+        MerkleTree tree = null;
+        byte[] macKey = null;
+        int macChunkSize = header.getMacChunkSize();
+        if (header.hasChunkMac()) {
+            macKey = MerkleTree.macKey(key);
+            tree = MerkleTree.readLeaves(source, headerSize + ciphertextLength, MerkleTree.leafCount(ciphertextLength, macChunkSize));
+            tree.verifyRoot(MerkleTree.newMac(macKey), header);
+        }
+        long laneSize = header.hasLanes() ? header.getLaneSize() : ciphertextLength;
+        int laneCount = header.hasLanes() ? header.getLaneCount() : 1;
+        if (header.hasLanes()) {
+            if (!MessageDigest.isEqual(LaneProcessor.laneTag(key, header, ciphertextLength), header.getLaneTag())) {
+                throw new IOException("Integrity check failed (wrong password or corrupted file).");
+            }
+            if (laneCount > 1 && ciphertextLength <= (laneCount - 1) * laneSize) {
+                throw new IOException("Ciphertext is shorter than its lane table.");
+            }
+            if (tree != null && laneSize % macChunkSize != 0) {
+                throw new IOException("Lanes do not start on MAC chunk boundaries.");
+            }
+        }
+
+        int blockSize = options.getBlockSizeBits() / 8;
+        if (options.getMode().isParallelDecryptable() && (tree == null || macChunkSize % blockSize == 0)) {
+            if (!options.getMode().isStreamMode() && ciphertextLength % blockSize != 0) {
+                throw new IOException("Ciphertext length is not a multiple of the block size.");
+            }
+            byte[][] laneIvs = new byte[laneCount][];
+            for (int lane = 0; lane < laneCount; lane++) {
+                laneIvs[lane] = header.hasLanes() ? header.getLaneIv(lane) : header.getIv();
+            }
+            // With a chunk MAC each chunk is exactly one leaf.
+            int step = tree != null ? macChunkSize : Math.max(blockSize, chunkSize - chunkSize % blockSize);
+            return new ChunkDecryptingInputStream(source, headerSize, ciphertextLength, options, key.getEncoded(), laneIvs, laneSize,
+                    step, tree, macKey, executor, 2 * numThreads);
+        }
+        if (!header.hasLanes()) {
+            CipherEngine cipher = CipherEngine.create(options, false, key.getEncoded(), header.getIv());
+            if (options.requiresAAD()) {
+                cipher.updateAAD(header.getAADBytes());
+            }
+            InputStream in = new LaneProcessor.RegionInputStream(source, headerSize, ciphertextLength);
+            if (tree != null) {
+                in = new MerkleTree.VerifyingInputStream(in, tree, MerkleTree.newMac(macKey), macChunkSize, ciphertextLength);
+            }
+            return new DecryptingInputStream(in, cipher);
+        }
+
+        final MerkleTree leaves = tree;
+        final byte[] leafKey = macKey;
+        // OFB lanes cannot be split into chunks, so they are decrypted one after another.
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int lane;
+
+            @Override
+            public boolean hasMoreElements() {
+                return lane < laneCount;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (lane >= laneCount) {
+                    throw new NoSuchElementException();
+                }
+                long laneStart = lane * laneSize;
+                boolean last = lane == laneCount - 1;
+                long laneLength = last ? ciphertextLength - laneStart : laneSize; // Padding can make the last lane longer
+                try {
+                    CipherEngine cipher = CipherEngine.create(options, false, key.getEncoded(), header.getLaneIv(lane),
+                            last ? options.getPadding() : CryptoOptions.Padding.NoPadding);
+                    InputStream in = new LaneProcessor.RegionInputStream(source, headerSize + laneStart, laneLength);
+                    if (leaves != null) {
+                        in = new MerkleTree.VerifyingInputStream(in, leaves, MerkleTree.newMac(leafKey), macChunkSize, laneLength,
+                                (int) (laneStart / macChunkSize));
+                    }
+                    lane++;
+                    return new DecryptingInputStream(in, cipher);
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e); // Lane 0 is opened up front, so later lanes cannot fail here
+                }
+            }
+        });
+    }
+
+    private void encryptSegments(InputStream plaintext, long plaintextLength, FileOutputStream fos, SecretKey key, byte[] salt,
+                                 CryptoOptions options, int chunkSize, CryptoListener listener, CryptoJob job) throws Exception {
+        byte[] nonce = new byte[SegmentCipher.nonceLength(options.getProtocol())];
+        new SecureRandom().nextBytes(nonce);
+        FileHeader header = new FileHeader(options, nonce, salt, chunkSize);
+        header.setKey(key);
+        header.writeTo(fos);
+        listener.onStart(plaintextLength);
+
+        SegmentCipher cipher = new SegmentCipher(options.getProtocol(), key.getEncoded(), nonce, header.getAADBytes());
+        try (InputStream in = new PrefetchInputStream(plaintext, chunkSize, SequentialProcessor.DEFAULT_BUFFER_COUNT, CryptoManager.ioExecutor());
+             OutputStream out = new SegmentOutputStream(new BufferedOutputStream(fos, chunkSize), cipher, chunkSize, executor, 2 * numThreads)) {
+            byte[] buffer = new byte[chunkSize];
+            int bytesRead;
+            long total = 0;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                job.checkpoint();
+                out.write(buffer, 0, bytesRead);
+                total += bytesRead;
+                listener.onProgress(total, plaintextLength);
+            }
+        }
+    }
+
+    /**
+     * The plaintext length, exact for segmented and unpadded files and an upper bound by less than a
+     * block for padded ones. Only used for progress.
+     */
+    private static long plaintextLength(FileHeader header, long ciphertextLength) throws IOException {
+        if (header.hasSegments()) {
+            return SegmentCipher.plaintextLength(ciphertextLength, header.getSegmentSize());
+        }
+        CryptoOptions options = header.getOptions();
+        if (options.getMode().isAeadMode()) {
+            return Math.max(0, ciphertextLength - options.getTagLength().getBits() / 8);
+        }
+        return ciphertextLength;
+    }
+
+    /**
+     * Decrypts a ciphertext stream with a {@link CipherEngine}. Padding and tags are checked when the
+     * ciphertext ends; a failure there is thrown from read() as an IOException, never taken for the end.
+     */
+    private static class DecryptingInputStream extends FilterInputStream {
+        private final CipherEngine cipher;
+        private final byte[] input = new byte[8192];
+        private byte[] output = new byte[0];
+        private int pos;
+        private int limit;
+        private boolean done;
+
+        DecryptingInputStream(InputStream in, CipherEngine cipher) {
+            super(in);
+            this.cipher = cipher;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (pos == limit) {
+                if (done) {
+                    return -1;
+                }
+                fill();
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(output, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Skipping is not supported.");
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        private void fill() throws IOException {
+            pos = 0;
+            try {
+                int n = in.read(input);
+                if (n < 0) {
+                    done = true;
+                    output = ensureCapacity(output, cipher.getOutputSize(0));
+                    limit = cipher.doFinal(output, 0);
+                } else {
+                    output = ensureCapacity(output, cipher.getUpdateOutputSize(n));
+                    limit = cipher.update(input, 0, n, output, 0);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Decryption failed (wrong password or corrupted file).", e);
+            }
+        }
+
+        private static byte[] ensureCapacity(byte[] buffer, int size) {
+            return buffer.length >= size ? buffer : new byte[size];
+        }
+    }
+
+    /**
+     * Folds the per-file events of a batch into one job: progress is summed over the whole batch,
+     * and each file's start, success and error are left to the batch itself.
+     */
+    private static class BatchListener implements CryptoListener {
+        private final CryptoListener listener;
+        private final long totalBytes;
+        private long doneBytes;
+
+        BatchListener(CryptoListener listener, long totalBytes) {
+            this.listener = listener;
+            this.totalBytes = totalBytes;
+        }
+
+        void finishFile(long sourceLength) {
+            doneBytes += sourceLength;
+            listener.onProgress(doneBytes, totalBytes);
+        }
+
+        @Override
+        public void onStart(long totalBytes) {
+        }
+
+        @Override
+        public void onProgress(long currentBytes, long totalBytes) {
+            // A file's plaintext is never longer than the file itself.
+            listener.onProgress(doneBytes + currentBytes, this.totalBytes);
+        }
+
+        @Override
+        public void onSuccess(String message, String outputPath) {
+        }
+
+        @Override
+        public void onError(String message, Exception e) {
+        }
+
+        @Override
+        public void onLog(String message) {
+            listener.onLog(message);
+        }
+    }
+}
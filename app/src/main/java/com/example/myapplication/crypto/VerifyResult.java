@@ -0,0 +1,86 @@
+package com.example.myapplication.crypto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of an integrity check on a single encrypted file.
+ */
+public class VerifyResult {
+
+    public enum Status {
+        VERIFIED,     // Every tag/MAC in the file matched
+        FAILED,       // At least one tag/MAC did not match, or the file could not be read
+        UNVERIFIABLE  // The file format carries no integrity data (e.g. plain CBC or CTR)
+    }
+
+    private final String path;
+    private final Status status;
+    private final String message;
+    private final List<ChunkFailure> chunkFailures;
+
+    public VerifyResult(String path, Status status, String message, List<ChunkFailure> chunkFailures) {
+        this.path = path;
+        this.status = status;
+        this.message = message;
+        this.chunkFailures = chunkFailures != null ? new ArrayList<>(chunkFailures) : new ArrayList<>();
+    }
+
+    public static VerifyResult verified(String path, String message) {
+        return new VerifyResult(path, Status.VERIFIED, message, null);
+    }
+
+    public static VerifyResult failed(String path, String message, List<ChunkFailure> chunkFailures) {
+        return new VerifyResult(path, Status.FAILED, message, chunkFailures);
+    }
+
+    public static VerifyResult unverifiable(String path, String message) {
+        return new VerifyResult(path, Status.UNVERIFIABLE, message, null);
+    }
+
+    // Getters
+    public String getPath() { return path; }
+    public Status getStatus() { return status; }
+    public String getMessage() { return message; }
+    public List<ChunkFailure> getChunkFailures() { return Collections.unmodifiableList(chunkFailures); }
+    public boolean isVerified() { return status == Status.VERIFIED; }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(status).append(": ").append(path).append(" (").append(message).append(")");
+        for (ChunkFailure failure : chunkFailures) {
+            sb.append("\n  ").append(failure);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A failed region of the ciphertext. Formats with a single whole-file tag report one
+     * failure covering the entire payload, since the bad region cannot be narrowed down.
+     */
+    public static class ChunkFailure {
+        private final long index;
+        private final long offset;
+        private final long length;
+        private final String reason;
+
+        public ChunkFailure(long index, long offset, long length, String reason) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+            this.reason = reason;
+        }
+
+        public long getIndex() { return index; }
+        public long getOffset() { return offset; }
+        public long getLength() { return length; }
+        public String getReason() { return reason; }
+
+        @Override
+        public String toString() {
+            return String.format("chunk %d @%d+%d: %s", index, offset, length, reason);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.myapplication.crypto;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One job's share of a shared pool: at most limit of its tasks are handed to the pool at a time,
+ * and the rest wait here in order, so a job asking for two threads keeps to two even when the pool
+ * has eight. Each finished task hands the next one back to the pool rather than running it on the
+ * same thread, so jobs sharing the pool take turns. Shutting a group down only affects its own
+ * tasks; the pool itself lives as long as the process.
+ */
+final class WorkerGroup extends AbstractExecutorService {
+
+    private final Executor pool;
+    private final int limit;
+    private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+    private final Set<Thread> running = new HashSet<>();
+    private int dispatched; // Handed to the pool and not yet finished
+    private boolean shutdown;
+    private boolean stopped;
+
+    WorkerGroup(Executor pool, int limit) {
+        this.pool = pool;
+        this.limit = Math.max(1, limit);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Worker group is shut down.");
+            }
+            if (dispatched >= limit) {
+                queue.add(task);
+                return;
+            }
+            dispatched++;
+        }
+        dispatch(task);
+    }
+
+    private void dispatch(Runnable task) {
+        try {
+            pool.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            finished();
+            throw e;
+        }
+    }
+
+    private void run(Runnable task) {
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            if (stopped) {
+                finished(); // Never started, like the tasks shutdownNow() returns
+                return;
+            }
+            running.add(thread);
+        }
+        try {
+            task.run();
+        } finally {
+            Runnable next;
+            synchronized (this) {
+                running.remove(thread);
+                // Decided under the same lock as execute(), so a task queued just now is not stranded.
+                next = stopped ? null : queue.poll();
+                if (next == null) {
+                    finished();
+                }
+            }
+            if (next != null) {
+                dispatch(next);
+            }
+        }
+    }
+
+    private synchronized void finished() {
+        dispatched--;
+        if (dispatched == 0) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        if (isTerminated()) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Drops the queued tasks and interrupts the running ones. The pool clears the interrupt before
+     * its thread takes on another task.
+     */
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        stopped = true;
+        List<Runnable> dropped = new ArrayList<>(queue);
+        queue.clear();
+        for (Thread thread : running) {
+            thread.interrupt();
+        }
+        return dropped;
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && dispatched == 0 && queue.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
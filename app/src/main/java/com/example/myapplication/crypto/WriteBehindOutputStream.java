@@ -0,0 +1,163 @@
+package com.example.myapplication.crypto;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands full buffers to a background thread that writes them to the underlying stream, so the
+ * caller can keep transforming the next chunk while the previous one is being written. Writes
+ * block only when all buffers are in flight. flush() waits until everything queued has been
+ * written; close() also stops the writer and closes the underlying stream. A write error is
+ * rethrown from the next call made by the producer.
+ */
+class WriteBehindOutputStream extends OutputStream {
+
+    private static final Block END = new Block(0);
+
+    private final OutputStream out;
+    private final int bufferCount;
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> filled;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private volatile IOException error;
+    private Block current;
+    private boolean closed;
+
+    WriteBehindOutputStream(OutputStream out, int bufferSize, int bufferCount, Executor executor) {
+        this.out = out;
+        this.bufferCount = bufferCount;
+        this.free = new ArrayBlockingQueue<>(bufferCount);
+        this.filled = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            free.add(new Block(bufferSize));
+        }
+        executor.execute(this::writeBehind);
+    }
+
+    private void writeBehind() {
+        try {
+            while (true) {
+                Block block = filled.take();
+                if (block == END) break;
+                // After a failure keep recycling buffers so the producer never blocks forever.
+                if (error == null) {
+                    try {
+                        out.write(block.data, 0, block.length);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                block.length = 0;
+                free.put(block);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkError();
+        while (len > 0) {
+            if (current == null) {
+                current = take();
+            }
+            int n = Math.min(len, current.data.length - current.length);
+            System.arraycopy(b, off, current.data, current.length, n);
+            current.length += n;
+            off += n;
+            len -= n;
+            if (current.length == current.data.length) {
+                submitCurrent();
+            }
+        }
+    }
+
+    /**
+     * Waits until every buffer has come back from the writer, i.e. all data has been written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (closed) return;
+        if (current != null && current.length > 0) {
+            submitCurrent();
+        }
+        Block[] all = new Block[bufferCount];
+        int held = 0;
+        if (current != null) {
+            all[held++] = current;
+            current = null;
+        }
+        while (held < bufferCount) {
+            all[held++] = take();
+        }
+        for (Block block : all) {
+            free.add(block);
+        }
+        checkError();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            filled.offer(END);
+            try {
+                finished.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.close();
+        }
+    }
+
+    private void submitCurrent() throws IOException {
+        try {
+            filled.put(current);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a write.");
+        }
+        current = null;
+    }
+
+    private Block take() throws IOException {
+        try {
+            return free.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a buffer.");
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            this.data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.myapplication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+
+import com.example.myapplication.crypto.CryptoJob;
+import com.example.myapplication.crypto.CryptoOptions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ServiceController;
+import org.robolectric.shadows.ShadowPowerManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+@RunWith(RobolectricTestRunner.class)
+public class CryptoServiceTest {
+
+    private static final long TIMEOUT_MS = 30_000;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private ServiceController<CryptoService> controller;
+    private CryptoService service;
+    private NotificationManager notificationManager;
+
+    @Before
+    public void setUp() {
+        controller = Robolectric.buildService(CryptoService.class).create();
+        service = controller.get();
+        notificationManager = (NotificationManager) service.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void jobFinishingBeforeStartCommandLeavesNoNotification() throws Exception {
+        // The job completes before onStartCommand has put the service in the foreground.
+        CryptoJob job = startJob();
+        awaitStopped(job);
+
+        controller.startCommand(0, 1);
+
+        assertTrue(shadowOf(service).isStoppedBySelf());
+        assertTrue(shadowOf(service).isForegroundStopped());
+        assertEquals(0, shadowOf(notificationManager).size());
+        assertWakeLockReleased();
+    }
+
+    @Test
+    public void jobFinishingAfterStartCommandLeavesNoNotification() throws Exception {
+        controller.startCommand(0, 1);
+        assertFalse(shadowOf(service).isForegroundStopped());
+
+        CryptoJob job = startJob();
+        awaitStopped(job);
+
+        assertTrue(shadowOf(service).isForegroundStopped());
+        assertEquals(0, shadowOf(notificationManager).size());
+        assertWakeLockReleased();
+    }
+
+    @Test
+    public void secondStartIsRefusedWhileAJobRuns() throws Exception {
+        CryptoJob job = startLongJob();
+        assertTrue(service.isBusy());
+        try {
+            startJob();
+            fail("Started a second job over the first.");
+        } catch (IllegalStateException expected) {
+        }
+        assertSame(job, service.getCurrentJob());
+
+        job.cancel();
+        awaitStopped(job);
+        assertFalse(service.isBusy());
+    }
+
+    @Test
+    public void notificationOpensTheScreenThatStartedTheJob() throws Exception {
+        CryptoJob job = startLongJob();
+        controller.withIntent(CryptoService.startIntent(service, SimpleDecryptionActivity.class)).startCommand(0, 1);
+
+        Notification notification = shadowOf(service).getLastForegroundNotification();
+        Intent opened = shadowOf(notification.contentIntent).getSavedIntent();
+        assertEquals(SimpleDecryptionActivity.class.getName(), opened.getComponent().getClassName());
+
+        job.cancel();
+        awaitStopped(job);
+    }
+
+    /**
+     * A job that stays in flight until it is cancelled: paused before its first chunk, since the key
+     * derivation comes first.
+     */
+    private CryptoJob startLongJob() throws Exception {
+        File source = writeSource(8 * 1024 * 1024);
+        File dest = new File(temp.getRoot(), "long.enc");
+        CryptoJob job = service.startEncrypt(source.getPath(), dest.getPath(), "password".toCharArray(), CryptoOptions.getDefault(),
+                64 * 1024, 1, null);
+        job.pause();
+        return job;
+    }
+
+    private CryptoJob startJob() throws Exception {
+        File source = writeSource(16 * 1024);
+        File dest = new File(temp.getRoot(), "out.enc");
+        return service.startEncrypt(source.getPath(), dest.getPath(), "password".toCharArray(), CryptoOptions.getDefault(),
+                64 * 1024, 1, null);
+    }
+
+    private File writeSource(int size) throws Exception {
+        File source = temp.newFile();
+        try (OutputStream out = new FileOutputStream(source)) {
+            out.write(new byte[size]);
+        }
+        return source;
+    }
+
+    /**
+     * Waits for the job and for the service to react to it; completion is handled on a worker thread.
+     */
+    private void awaitStopped(CryptoJob job) throws Exception {
+        job.awaitCompletion();
+        // Not SystemClock: Robolectric's clock only moves when the looper is advanced.
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!shadowOf(service).isStoppedBySelf()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Service did not stop after the job finished.");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void assertWakeLockReleased() {
+        PowerManager.WakeLock wakeLock = ShadowPowerManager.getLatestWakeLock();
+        assertFalse(wakeLock != null && wakeLock.isHeld());
+    }
+}
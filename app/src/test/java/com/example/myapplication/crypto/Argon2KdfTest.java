@@ -0,0 +1,126 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.bouncycastle.util.Strings;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class Argon2KdfTest {
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public static void shutDown() {
+        EXECUTOR.shutdownNow();
+    }
+
+    /**
+     * RFC 9106, section 5.3.
+     */
+    @Test
+    public void matchesTheRfc9106Vector() throws Exception {
+        byte[] password = filled(32, 0x01);
+        byte[] salt = filled(16, 0x02);
+        byte[] secret = filled(8, 0x03);
+        byte[] associatedData = filled(12, 0x04);
+        byte[] expected = Hex.decode("0d640df58d78766c08c037a34a8b53c9d01ef0452d75b65eb52520e96b01e659");
+
+        byte[] tag = Argon2Kdf.compute(password, salt, secret, associatedData, new CryptoOptions.Argon2Params(32, 3, 4), 32, EXECUTOR);
+        assertArrayEquals(expected, tag);
+        assertArrayEquals(expected, bouncyCastle(password, salt, secret, associatedData, 32, 3, 4, 32));
+    }
+
+    @Test
+    public void matchesBouncyCastleAcrossShapes() throws Exception {
+        Random random = new Random(9106);
+        for (int lanes : new int[]{1, 2, 3, 4, 8}) {
+            // Memory sizes that are and are not a multiple of 4 * lanes, which is rounded down.
+            for (int memoryKiB : new int[]{8 * lanes, 8 * lanes + 5, 37 * lanes, 256}) {
+                for (int iterations = 1; iterations <= 3; iterations++) {
+                    // Tags up to 64 bytes are one BLAKE2b output; longer ones use the variable-length hash.
+                    for (int tagLength : new int[]{4, 32, 64, 65, 100}) {
+                        byte[] password = new byte[random.nextInt(40)];
+                        byte[] salt = new byte[8 + random.nextInt(24)];
+                        random.nextBytes(password);
+                        random.nextBytes(salt);
+                        String shape = "m=" + memoryKiB + " t=" + iterations + " p=" + lanes + " len=" + tagLength;
+                        byte[] tag = Argon2Kdf.compute(password, salt, new byte[0], new byte[0],
+                                new CryptoOptions.Argon2Params(memoryKiB, iterations, lanes), tagLength, EXECUTOR);
+                        assertArrayEquals(shape, bouncyCastle(password, salt, null, null, memoryKiB, iterations, lanes, tagLength), tag);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void deriveMatchesBouncyCastleForPasswords() throws Exception {
+        char[] password = "p\u00e4ssw\u00f6rd \u20ac".toCharArray();
+        byte[] salt = filled(16, 0x5a);
+        for (int lanes : new int[]{1, 4}) {
+            CryptoOptions.Argon2Params params = new CryptoOptions.Argon2Params(1024, 2, lanes);
+            byte[] expected = bouncyCastle(Strings.toUTF8ByteArray(password), salt, null, null, 1024, 2, lanes, 32);
+            assertArrayEquals(expected, Argon2Kdf.derive(password, salt, params, 32, EXECUTOR));
+            // Keys shorter than the minimum tag are a prefix of the four-byte tag.
+            byte[] fourByteTag = bouncyCastle(Strings.toUTF8ByteArray(password), salt, null, null, 1024, 2, lanes, 4);
+            assertArrayEquals(Arrays.copyOf(fourByteTag, 2), Argon2Kdf.derive(password, salt, params, 2, EXECUTOR));
+        }
+    }
+
+    @Test
+    public void rejectsCostsBeyondTheLimits() {
+        int max = CryptoOptions.Argon2Params.MAX_MEMORY_KIB;
+        new CryptoOptions.Argon2Params(max, CryptoOptions.Argon2Params.MAX_ITERATIONS, 4);
+        assertRejected(max + 1, 1, 4);
+        assertRejected(1024, CryptoOptions.Argon2Params.MAX_ITERATIONS + 1, 4);
+        assertRejected(1024, 0, 4);
+        assertRejected(31, 1, 4); // Less than 8 KiB per lane
+        assertRejected(1024, 1, CryptoOptions.Argon2Params.MAX_PARALLELISM + 1);
+    }
+
+    private static void assertRejected(int memoryKiB, int iterations, int parallelism) {
+        try {
+            new CryptoOptions.Argon2Params(memoryKiB, iterations, parallelism);
+            fail("Accepted m=" + memoryKiB + " t=" + iterations + " p=" + parallelism);
+        } catch (IllegalArgumentException expected) {
+            // Out of range.
+        }
+    }
+
+    private static byte[] bouncyCastle(byte[] password, byte[] salt, byte[] secret, byte[] associatedData,
+                                       int memoryKiB, int iterations, int lanes, int tagLength) {
+        Argon2Parameters.Builder builder = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withMemoryAsKB(memoryKiB)
+                .withIterations(iterations)
+                .withParallelism(lanes)
+                .withSalt(salt);
+        if (secret != null) {
+            builder.withSecret(secret);
+        }
+        if (associatedData != null) {
+            builder.withAdditional(associatedData);
+        }
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(builder.build());
+        byte[] tag = new byte[tagLength];
+        generator.generateBytes(password, tag);
+        return tag;
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class AutotunerTest {
+
+    private static final String CORES = "cores=" + Runtime.getRuntime().availableProcessors() + "\n";
+    private static final CryptoOptions CTR = CryptoTestSupport.aes(CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, null);
+    private static final CryptoOptions GCM = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding,
+            CryptoOptions.TagLength.BITS_128);
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void completeProfileIsLoaded() throws Exception {
+        Autotuner tuner = tuner(CORES + "AES-256/CTR/PBKDF2WithHmacSHA256.chunkSize=262144\nAES-256/CTR/PBKDF2WithHmacSHA256.threads=4\nAES-256/CTR/PBKDF2WithHmacSHA256.bytesPerSecond=1.5E8\nAES-256/CTR/PBKDF2WithHmacSHA256.setupMillis=120\n");
+        assertTrue(tuner.isCalibrated(CTR));
+        Autotuner.Settings settings = tuner.getSettings(CTR);
+        assertEquals(262144, settings.getChunkSize());
+        assertEquals(4, settings.getThreadCount());
+        assertEquals(120, settings.getSetupMillis());
+    }
+
+    @Test
+    public void partialProfileMeansNoProfile() throws Exception {
+        Autotuner tuner = tuner(CORES + "AES-256/CTR/PBKDF2WithHmacSHA256.chunkSize=262144\nAES-256/CTR/PBKDF2WithHmacSHA256.threads=4\n");
+        assertFalse(tuner.isCalibrated(CTR));
+        assertFalse(tuner.getSettings(CTR).isCalibrated());
+        assertEquals(-1, tuner.predictDurationMillis(CTR, 1 << 20));
+    }
+
+    @Test
+    public void malformedNumbersMeanNoProfile() throws Exception {
+        assertFalse(tuner("cores=eight\nAES-256/CTR/PBKDF2WithHmacSHA256.chunkSize=262144\n").isCalibrated(CTR));
+        assertFalse(tuner(CORES + "AES-256/CTR/PBKDF2WithHmacSHA256.chunkSize=256k\nAES-256/CTR/PBKDF2WithHmacSHA256.threads=4\nAES-256/CTR/PBKDF2WithHmacSHA256.bytesPerSecond=1.5E8\nAES-256/CTR/PBKDF2WithHmacSHA256.setupMillis=120\n")
+                .isCalibrated(CTR));
+        assertFalse(tuner(CORES + "AES-256/CTR/PBKDF2WithHmacSHA256.chunkSize=262144\nAES-256/CTR/PBKDF2WithHmacSHA256.threads=4\nAES-256/CTR/PBKDF2WithHmacSHA256.bytesPerSecond=NaN\nAES-256/CTR/PBKDF2WithHmacSHA256.setupMillis=120\n")
+                .isCalibrated(CTR));
+        assertFalse(tuner("\\uZZZZ=1\n").isCalibrated(CTR));
+    }
+
+    @Test
+    public void damagedEntryDiscardsTheWholeProfile() throws Exception {
+        Autotuner tuner = tuner(CORES + "simple.protocol=XCHACHA20_POLY1305\n"
+                + "AES-256/CTR/PBKDF2WithHmacSHA256.chunkSize=262144\nAES-256/CTR/PBKDF2WithHmacSHA256.threads=4\nAES-256/CTR/PBKDF2WithHmacSHA256.bytesPerSecond=1.5E8\nAES-256/CTR/PBKDF2WithHmacSHA256.setupMillis=120\n"
+                + "AES-256/GCM/PBKDF2WithHmacSHA256.chunkSize=oops\n");
+        assertFalse(tuner.isCalibrated(CTR));
+        assertEquals(CryptoOptions.CryptoProtocol.AES, tuner.getSimpleDefault().getProtocol());
+    }
+
+    @Test
+    public void settingsAreNotSharedAcrossKdfKeyLengthOrLayout() throws Exception {
+        String cbc = "AES-256/CBC/PBKDF2WithHmacSHA256";
+        Autotuner tuner = tuner(CORES + cbc + ".chunkSize=262144\n" + cbc + ".threads=1\n" + cbc + ".bytesPerSecond=1.5E8\n"
+                + cbc + ".setupMillis=120\n");
+        CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null);
+        assertTrue(tuner.isCalibrated(options));
+
+        CryptoOptions[] others = {
+                new CryptoOptions(CryptoOptions.CryptoProtocol.AES, CryptoOptions.KeyLength.BITS_128, CryptoOptions.BlockSize.BITS_128,
+                        CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null, CryptoOptions.Kdf.PBKDF2WithHmacSHA256),
+                new CryptoOptions(CryptoOptions.CryptoProtocol.AES, CryptoOptions.KeyLength.BITS_256, CryptoOptions.BlockSize.BITS_128,
+                        CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null, CryptoOptions.Kdf.Argon2id),
+                options.withChunkMac(true),
+                options.withLanes(4)};
+        for (CryptoOptions other : others) {
+            assertFalse(other.toString(), tuner.isCalibrated(other));
+        }
+
+        // Argon2id costs are part of the key too: the cheap one must not predict the expensive one.
+        CryptoOptions argon2 = others[1];
+        String cheap = "AES-256/CBC/Argon2id-m65536-t3-p4";
+        tuner = tuner(CORES + cheap + ".chunkSize=262144\n" + cheap + ".threads=1\n" + cheap + ".bytesPerSecond=1.5E8\n"
+                + cheap + ".setupMillis=120\n");
+        assertTrue(tuner.isCalibrated(argon2));
+        assertFalse(tuner.isCalibrated(argon2.withArgon2Params(new CryptoOptions.Argon2Params(256 * 1024, 3, 4))));
+    }
+
+    @Test
+    public void lanesOfAChainedModeGetMoreThanOneThread() throws Exception {
+        Autotuner tuner = new Autotuner(new File(temp.getRoot(), "profile"), CpuTopology.uniform(8));
+        CryptoOptions cbc = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null);
+        assertEquals(1, tuner.getSettings(cbc).getThreadCount());
+        assertTrue(tuner.getSettings(cbc.withLanes(4)).getThreadCount() > 1);
+    }
+
+    @Test
+    public void chunkedAeadModesStaySingleThreaded() throws Exception {
+        assertFalse(CryptoOptions.CipherMode.GCM.isParallelizable());
+        assertFalse(CryptoOptions.CipherMode.CCM.isParallelizable());
+        assertTrue(CryptoOptions.CipherMode.CTR.isParallelizable());
+        assertTrue(CryptoOptions.CipherMode.POLY1305.isParallelizable());
+
+        Autotuner tuner = new Autotuner(new File(temp.getRoot(), "profile"), CpuTopology.uniform(8));
+        assertEquals(1, tuner.getSettings(GCM).getThreadCount());
+        assertTrue(tuner.getSettings(CTR).getThreadCount() > 1);
+        assertEquals(1, tuner.calibrate(GCM, temp.getRoot(), CryptoTestSupport.QUIET).getThreadCount());
+        assertTrue(tuner.isCalibrated(GCM));
+    }
+
+    private Autotuner tuner(String profile) throws Exception {
+        File file = CryptoTestSupport.write(temp.newFile(), profile.getBytes(StandardCharsets.ISO_8859_1));
+        return new Autotuner(file, CpuTopology.uniform(4));
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class CipherEngineTest {
+
+    private static final byte[] KEY = CryptoTestSupport.randomBytes(32, 1);
+    private static final byte[] BLOCK_IV = CryptoTestSupport.randomBytes(16, 2);
+    private static final byte[] AEAD_NONCE = CryptoTestSupport.randomBytes(12, 3);
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void registerProvider() {
+        CryptoBootstrap.ensureProvider();
+    }
+
+    @Test
+    public void matchesTheJceProviderForEveryStreamingMode() throws Exception {
+        CryptoOptions.CipherMode[] modes = {
+                CryptoOptions.CipherMode.ECB, CryptoOptions.CipherMode.CBC, CryptoOptions.CipherMode.CTR,
+                CryptoOptions.CipherMode.OFB, CryptoOptions.CipherMode.CFB, CryptoOptions.CipherMode.GCM,
+                CryptoOptions.CipherMode.CCM, CryptoOptions.CipherMode.OCB, CryptoOptions.CipherMode.EAX};
+        for (CryptoOptions.CipherMode mode : modes) {
+            CryptoOptions.Padding padding = mode.isStreamMode() ? CryptoOptions.Padding.NoPadding : CryptoOptions.Padding.PKCS5Padding;
+            CryptoOptions options = CryptoTestSupport.aes(mode, padding, CryptoOptions.TagLength.BITS_128);
+            byte[] iv = options.getMode().isAeadMode() ? AEAD_NONCE : BLOCK_IV;
+            for (int size : new int[]{0, 1, 15, 16, 17, 1000}) {
+                byte[] data = CryptoTestSupport.randomBytes(size, size);
+                byte[] expected = jce(options, iv).doFinal(data);
+                byte[] actual = run(CipherEngine.create(options, true, KEY, iv), data);
+                assertArrayEquals(mode + ", size " + size, expected, actual);
+                assertArrayEquals(mode + ", size " + size, data, run(CipherEngine.create(options, false, KEY, iv), actual));
+            }
+        }
+    }
+
+    @Test
+    public void reinitialisedEngineMatchesAFreshOne() throws Exception {
+        CryptoOptions.CipherMode[] modes = {
+                CryptoOptions.CipherMode.ECB, CryptoOptions.CipherMode.CBC, CryptoOptions.CipherMode.CTR,
+                CryptoOptions.CipherMode.OFB, CryptoOptions.CipherMode.CFB, CryptoOptions.CipherMode.GCM,
+                CryptoOptions.CipherMode.CCM, CryptoOptions.CipherMode.OCB, CryptoOptions.CipherMode.EAX};
+        byte[] data = CryptoTestSupport.randomBytes(1000, 5);
+        for (CryptoOptions.CipherMode mode : modes) {
+            CryptoOptions.Padding padding = mode.isStreamMode() ? CryptoOptions.Padding.NoPadding : CryptoOptions.Padding.PKCS5Padding;
+            CryptoOptions options = CryptoTestSupport.aes(mode, padding, CryptoOptions.TagLength.BITS_128);
+            byte[] first = mode == CryptoOptions.CipherMode.ECB ? null : mode.isAeadMode() ? AEAD_NONCE : BLOCK_IV;
+            byte[] second = first == null ? null : CryptoTestSupport.randomBytes(first.length, 6);
+            byte[] expected = run(CipherEngine.create(options, true, KEY, second), data);
+
+            CipherEngine encryptor = CipherEngine.create(options, true, KEY, first);
+            run(encryptor, data);
+            encryptor.init(second);
+            assertArrayEquals(mode.toString(), expected, run(encryptor, data));
+
+            // A decryptor left halfway through a message starts over cleanly too.
+            CipherEngine decryptor = CipherEngine.create(options, false, KEY, first);
+            decryptor.update(expected, 0, 21, new byte[decryptor.getUpdateOutputSize(21)], 0);
+            decryptor.init(second);
+            assertArrayEquals(mode.toString(), data, run(decryptor, expected));
+        }
+    }
+
+    @Test
+    public void tamperedAeadInputFailsTheTagCheck() throws Exception {
+        CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_96);
+        byte[] sealed = run(CipherEngine.create(options, true, KEY, AEAD_NONCE), CryptoTestSupport.randomBytes(100, 4));
+        sealed[40] ^= 1;
+        try {
+            run(CipherEngine.create(options, false, KEY, AEAD_NONCE), sealed);
+            fail("Tampered ciphertext was accepted.");
+        } catch (AEADBadTagException expected) {
+        }
+    }
+
+    @Test
+    public void lanesRoundTripWithPaddingOnlyOnTheLastLane() throws Exception {
+        CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null).withLanes(4);
+        for (int size : new int[]{0, 5, 4096, 100_003}) {
+            byte[] data = CryptoTestSupport.randomBytes(size, size);
+            File source = CryptoTestSupport.write(new File(temp.getRoot(), "plain-" + size), data);
+            File encrypted = new File(temp.getRoot(), "lanes-" + size + ".enc");
+            File decrypted = new File(temp.getRoot(), "lanes-" + size + ".out");
+            new LaneProcessor(4).encrypt(source.getPath(), encrypted.getPath(), PASSWORD, options, 4096, QUIET, new CryptoJob(QUIET, Runnable::run));
+            new LaneProcessor(4).decrypt(encrypted.getPath(), decrypted.getPath(), PASSWORD, null, 4096, QUIET, new CryptoJob(QUIET, Runnable::run));
+            assertArrayEquals("size " + size, data, CryptoTestSupport.read(decrypted));
+        }
+    }
+
+    private static Cipher jce(CryptoOptions options, byte[] iv) throws Exception {
+        Cipher cipher = Cipher.getInstance(options.getTransformation(), BouncyCastleProvider.PROVIDER_NAME);
+        SecretKeySpec key = new SecretKeySpec(KEY, "AES");
+        if (options.getMode() == CryptoOptions.CipherMode.ECB) {
+            cipher.init(Cipher.ENCRYPT_MODE, key);
+        } else if (options.getMode().isAeadMode()) {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(options.getTagLength().getBits(), iv));
+        } else {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+        }
+        return cipher;
+    }
+
+    /** Feeds the input in uneven pieces, as the processors do, sizing the output from the engine. */
+    private static byte[] run(CipherEngine cipher, byte[] input) throws Exception {
+        byte[] out = new byte[0];
+        int written = 0;
+        for (int offset = 0; offset < input.length; offset += 7) {
+            int length = Math.min(7, input.length - offset);
+            out = Arrays.copyOf(out, written + cipher.getUpdateOutputSize(length));
+            written += cipher.update(input, offset, length, out, written);
+        }
+        out = Arrays.copyOf(out, written + cipher.getOutputSize(0));
+        written += cipher.doFinal(out, written);
+        return Arrays.copyOf(out, written);
+    }
+}
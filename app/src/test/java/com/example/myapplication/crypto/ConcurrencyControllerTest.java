@@ -0,0 +1,107 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ConcurrencyControllerTest {
+
+    // Zero is a reading a real clock may return too.
+    private long now = 0;
+    private final JobMetrics metrics = new JobMetrics();
+
+    @Test
+    public void flatThroughputRaisesTheLimit() throws Exception {
+        ConcurrencyController controller = controller(8);
+        window(controller, 1000); // Reference
+        window(controller, 500);  // Drop: 8 -> 6, making room to grow
+        window(controller, 500);  // New reference at 6
+        assertEquals(6, controller.getLimit());
+
+        window(controller, 500);
+        assertEquals(7, controller.getLimit());
+        assertEquals(7, metrics.getConcurrency());
+        // The probe paid off, so the next flat window keeps growing.
+        window(controller, 600);
+        assertEquals(8, controller.getLimit());
+        // Never past the maximum.
+        window(controller, 800);
+        window(controller, 800);
+        assertEquals(8, controller.getLimit());
+    }
+
+    @Test
+    public void aDropBacksOffToThreeQuarters() throws Exception {
+        ConcurrencyController controller = controller(8);
+        window(controller, 1000);
+        assertEquals(8, controller.getLimit());
+        window(controller, 900);
+        assertEquals(6, controller.getLimit());
+        assertEquals(6, metrics.getConcurrency());
+        assertEquals(1800.0, metrics.getCurrentBytesPerSecond(), 0.001);
+
+        // The window after a cut only measures, even if it is worse still.
+        window(controller, 400);
+        assertEquals(6, controller.getLimit());
+        window(controller, 300);
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void aProbeThatGainsNothingIsReverted() throws Exception {
+        ConcurrencyController controller = controller(8);
+        window(controller, 1000);
+        window(controller, 500); // 8 -> 6
+        window(controller, 500);
+        window(controller, 500); // Probe at 7
+        assertEquals(7, controller.getLimit());
+
+        window(controller, 510); // Within the noise of what 6 already did
+        assertEquals(6, controller.getLimit());
+        // Back at the old reference, so a flat window probes again rather than backing off.
+        window(controller, 500);
+        assertEquals(7, controller.getLimit());
+    }
+
+    @Test
+    public void theLimitNeverFallsBelowOne() throws Exception {
+        ConcurrencyController controller = controller(2);
+        window(controller, 1000);
+        window(controller, 100);
+        assertEquals(1, controller.getLimit());
+        window(controller, 100);
+        window(controller, 10);
+        assertEquals(1, controller.getLimit());
+        window(controller, 10);
+        window(controller, 1);
+        assertEquals(1, controller.getLimit());
+        assertEquals(1, metrics.getConcurrency());
+    }
+
+    @Test
+    public void windowsOnlyCloseOnTheClock() throws Exception {
+        ConcurrencyController controller = controller(4);
+        controller.acquire();
+        now += ConcurrencyController.WINDOW_NANOS - 1;
+        controller.release(1000);
+        assertEquals(0.0, metrics.getCurrentBytesPerSecond(), 0.0);
+
+        controller.acquire();
+        now += 1;
+        controller.release(1000);
+        assertEquals(4000.0, metrics.getCurrentBytesPerSecond(), 0.001);
+    }
+
+    private ConcurrencyController controller(int maxConcurrency) {
+        return new ConcurrencyController(maxConcurrency, metrics, () -> now);
+    }
+
+    /**
+     * Completes one chunk of the given size that takes exactly one window.
+     */
+    private void window(ConcurrencyController controller, long bytes) throws InterruptedException {
+        controller.acquire();
+        now += ConcurrencyController.WINDOW_NANOS;
+        controller.release(bytes);
+    }
+}
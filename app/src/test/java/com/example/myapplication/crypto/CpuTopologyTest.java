@@ -0,0 +1,115 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+public class CpuTopologyTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    /**
+     * A 1 + 3 + 4 phone: one prime core, three big ones and four little ones, laid out as sysfs does.
+     */
+    @Test
+    public void groupsCoresIntoClustersFastestFirst() throws Exception {
+        File root = sysfs();
+        core(root, 0, "1000000\n");
+        core(root, 1, "1000000\n");
+        core(root, 2, "1000000\n");
+        core(root, 3, "1000000\n");
+        core(root, 4, "2400000\n");
+        core(root, 5, "2400000\n");
+        core(root, 6, "2400000\n");
+        core(root, 7, "3000000\n");
+
+        CpuTopology topology = CpuTopology.read(root);
+        assertEquals(3, topology.getClusters().size());
+        assertEquals(3000000, topology.getClusters().get(0).getMaxFrequencyKHz());
+        assertEquals(1000000, topology.getClusters().get(2).getMaxFrequencyKHz());
+        assertEquals(8, topology.getCoreCount());
+        assertEquals(1, topology.getBigCoreCount());
+        assertTrue(topology.isHeterogeneous());
+        // The 1.0 GHz cores are under half the speed of the prime core and are left out.
+        assertEquals(4, topology.getRecommendedThreads());
+        assertEquals(1 + 3 * 0.8 + 4 / 3.0, topology.getCapacity(), 1e-9);
+    }
+
+    @Test
+    public void skipsOfflineCoresAndUnreadableFrequencies() throws Exception {
+        File root = sysfs();
+        core(root, 0, "1800000");
+        core(root, 1, "1800000");
+        core(root, 2, "2800000");
+        core(root, 3, "2800000");
+        // Offline cores keep their directory but lose cpufreq.
+        mkdirs(new File(root, "cpu4"));
+        mkdirs(new File(root, "cpu5/cpufreq"));
+        core(root, 6, "");
+        core(root, 7, "n/a");
+        core(root, 8, "-1");
+
+        CpuTopology topology = CpuTopology.read(root);
+        assertEquals(4, topology.getCoreCount());
+        assertEquals(2, topology.getClusters().size());
+        assertEquals(2, topology.getBigCoreCount());
+        assertEquals(4, topology.getRecommendedThreads());
+    }
+
+    @Test
+    public void identicalCoresFormOneCluster() throws Exception {
+        File root = sysfs();
+        for (int i = 0; i < 6; i++) {
+            core(root, i, "2000000");
+        }
+        CpuTopology topology = CpuTopology.read(root);
+        assertFalse(topology.isHeterogeneous());
+        assertEquals(6, topology.getBigCoreCount());
+        assertEquals(6, topology.getRecommendedThreads());
+        assertEquals(6.0, topology.getCapacity(), 1e-9);
+    }
+
+    @Test
+    public void fallsBackToUniformWithoutFrequencies() throws Exception {
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        File root = sysfs();
+        mkdirs(new File(root, "cpu0"));
+        mkdirs(new File(root, "cpu1"));
+        CpuTopology topology = CpuTopology.read(root);
+        assertEquals(processors, topology.getCoreCount());
+        assertEquals(0, topology.getClusters().get(0).getMaxFrequencyKHz());
+        assertEquals(processors, topology.getRecommendedThreads());
+
+        assertEquals(processors, CpuTopology.read(new File(temp.getRoot(), "missing")).getCoreCount());
+    }
+
+    /**
+     * A cpu root with the entries that are not cores, which must be ignored.
+     */
+    private File sysfs() throws Exception {
+        File root = temp.newFolder();
+        mkdirs(new File(root, "cpufreq/policy0"));
+        mkdirs(new File(root, "cpuidle"));
+        CryptoTestSupport.write(new File(root, "online"), "0-7\n".getBytes(StandardCharsets.US_ASCII));
+        CryptoTestSupport.write(new File(root, "possible"), "0-7\n".getBytes(StandardCharsets.US_ASCII));
+        CryptoTestSupport.write(new File(root, "cpufreq/policy0/cpuinfo_max_freq"), "9000000\n".getBytes(StandardCharsets.US_ASCII));
+        return root;
+    }
+
+    private static void core(File root, int index, String maxFrequency) throws Exception {
+        CryptoTestSupport.write(new File(root, "cpu" + index + "/cpufreq/cpuinfo_max_freq"), maxFrequency.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void mkdirs(File dir) {
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class CryptoArchiveTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int THREADS = 3;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoJob job = new CryptoJob(QUIET, Runnable::run);
+
+    @Test
+    public void everyEntryRoundTrips() throws Exception {
+        File dir = temp.newFolder();
+        Map<String, byte[]> contents = new TreeMap<>();
+        contents.put("empty", new byte[0]);
+        contents.put("one", CryptoTestSupport.randomBytes(1, 1));
+        contents.put("exact", CryptoTestSupport.randomBytes(SEGMENT_SIZE, 2));
+        contents.put("docs/large.bin", CryptoTestSupport.randomBytes(5 * SEGMENT_SIZE + 77, 3));
+        contents.put("docs/nested/small.txt", CryptoTestSupport.randomBytes(100, 4));
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            File file = CryptoTestSupport.write(new File(dir, entry.getKey()), entry.getValue());
+            assertTrue(file.setLastModified(1_600_000_000_000L + entry.getValue().length * 1000L));
+        }
+        File archive = create(CryptoArchive.entriesOf(dir));
+
+        try (CryptoArchive opened = CryptoArchive.open(archive.getPath(), PASSWORD)) {
+            assertEquals(contents.size(), opened.getEntryCount());
+            List<String> names = new ArrayList<>();
+            for (CryptoArchive.Entry entry : opened.list()) {
+                names.add(entry.getName());
+            }
+            assertEquals(new ArrayList<>(contents.keySet()), names);
+
+            for (Map.Entry<String, byte[]> expected : contents.entrySet()) {
+                CryptoArchive.Entry entry = opened.find(expected.getKey());
+                assertEquals(expected.getValue().length, entry.getSize());
+                assertArrayEquals(expected.getKey(), expected.getValue(), readAll(opened.openStream(entry)));
+
+                File extracted = new File(temp.getRoot(), "extracted-" + expected.getValue().length);
+                opened.extract(entry, extracted.getPath());
+                assertArrayEquals(expected.getKey(), expected.getValue(), CryptoTestSupport.read(extracted));
+                assertEquals(1_600_000_000_000L + expected.getValue().length * 1000L, extracted.lastModified());
+            }
+            assertEquals(null, opened.find("docs/missing"));
+            assertEquals(null, opened.find("a-before-every-name"));
+        }
+    }
+
+    @Test
+    public void lookupsWorkAcrossIndexPages() throws Exception {
+        Map<String, String> sources = new TreeMap<>();
+        String padding = String.join("", Collections.nCopies(200, "x"));
+        for (int i = 0; i < 600; i++) {
+            String name = String.format("entry-%04d-%s", i, padding);
+            sources.put(name, CryptoTestSupport.write(new File(temp.getRoot(), "src/" + i), new byte[]{(byte) i}).getPath());
+        }
+        File archive = create(sources);
+        assertTrue(FileHeader.peek(archive.getPath()).getPageCount() > 1);
+
+        try (CryptoArchive opened = CryptoArchive.open(archive.getPath(), PASSWORD)) {
+            assertEquals(600, opened.list().size());
+            for (int i = 0; i < 600; i += 37) {
+                CryptoArchive.Entry entry = opened.find(String.format("entry-%04d-%s", i, padding));
+                assertArrayEquals(new byte[]{(byte) i}, readAll(opened.openStream(entry)));
+            }
+            assertEquals(null, opened.find("entry-9999"));
+        }
+    }
+
+    @Test
+    public void emptyArchiveOpens() throws Exception {
+        File archive = create(Collections.emptyMap());
+        try (CryptoArchive opened = CryptoArchive.open(archive.getPath(), PASSWORD)) {
+            assertEquals(0, opened.getEntryCount());
+            assertTrue(opened.list().isEmpty());
+            assertEquals(null, opened.find("anything"));
+        }
+    }
+
+    @Test
+    public void wrongPasswordIsRejected() throws Exception {
+        File archive = create(oneEntry(CryptoTestSupport.randomBytes(100, 5)));
+        assertOpenFails(archive, WRONG_PASSWORD);
+    }
+
+    @Test
+    public void truncationAndTrailingDataAreRejected() throws Exception {
+        File truncated = create(oneEntry(CryptoTestSupport.randomBytes(3 * SEGMENT_SIZE, 6)));
+        CryptoTestSupport.truncate(truncated, 1);
+        assertOpenFails(truncated, PASSWORD);
+
+        File extended = create(oneEntry(CryptoTestSupport.randomBytes(3 * SEGMENT_SIZE, 7)));
+        CryptoTestSupport.write(extended, concat(CryptoTestSupport.read(extended), new byte[1]));
+        assertOpenFails(extended, PASSWORD);
+    }
+
+    @Test
+    public void tamperedFenceFailsToOpen() throws Exception {
+        File archive = create(oneEntry(CryptoTestSupport.randomBytes(100, 8)));
+        FileHeader header = FileHeader.peek(archive.getPath());
+        CryptoTestSupport.flipBit(archive, header.getHeaderSize() + header.getIndexOffset() + 2);
+        assertOpenFails(archive, PASSWORD);
+    }
+
+    @Test
+    public void tamperedIndexPageFailsOnlyItsLookups() throws Exception {
+        Map<String, String> sources = new TreeMap<>();
+        String padding = String.join("", Collections.nCopies(200, "y"));
+        for (int i = 0; i < 200; i++) {
+            sources.put(String.format("%04d-%s", i, padding), CryptoTestSupport.write(new File(temp.getRoot(), "src/" + i), new byte[0]).getPath());
+        }
+        File archive = create(sources);
+        FileHeader header = FileHeader.peek(archive.getPath());
+        assertTrue(header.getPageCount() > 1);
+        long pagesStart = header.getHeaderSize() + header.getIndexOffset()
+                + SegmentCipher.ciphertextLength(header.getFenceLength(), header.getSegmentSize());
+        // Damage the last page, which holds the last name; the first still serves its names.
+        CryptoTestSupport.flipBit(archive, pagesStart + (header.getPageCount() - 1L) * (CryptoArchive.PAGE_SIZE + SegmentCipher.TAG_SIZE) + 10);
+
+        try (CryptoArchive opened = CryptoArchive.open(archive.getPath(), PASSWORD)) {
+            assertEquals(0, opened.find(String.format("%04d-%s", 0, padding)).getSize());
+            try {
+                opened.find(String.format("%04d-%s", 199, padding));
+                fail("Tampered index page was accepted.");
+            } catch (IOException expected) {
+            }
+            try {
+                opened.list();
+                fail("Tampered index page was listed.");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void tamperedEntryFailsAndLeavesNoOutput() throws Exception {
+        Map<String, String> sources = new TreeMap<>();
+        byte[] first = CryptoTestSupport.randomBytes(3 * SEGMENT_SIZE, 9);
+        byte[] second = CryptoTestSupport.randomBytes(2 * SEGMENT_SIZE, 10);
+        sources.put("a", CryptoTestSupport.write(new File(temp.getRoot(), "src/a"), first).getPath());
+        sources.put("b", CryptoTestSupport.write(new File(temp.getRoot(), "src/b"), second).getPath());
+        File archive = create(sources);
+        // Entry regions start right after the header, in name order: this is inside a's second segment.
+        CryptoTestSupport.flipBit(archive, CryptoTestSupport.headerSize(archive) + SEGMENT_SIZE + SegmentCipher.TAG_SIZE + 5);
+
+        try (CryptoArchive opened = CryptoArchive.open(archive.getPath(), PASSWORD)) {
+            File dest = new File(temp.getRoot(), "a.out");
+            try {
+                opened.extract(opened.find("a"), dest.getPath());
+                fail("Tampered entry was extracted.");
+            } catch (IOException expected) {
+            }
+            assertFalse("Partial output was left behind.", dest.exists());
+            // Every entry has its own key and region, so the other one is unaffected.
+            assertArrayEquals(second, readAll(opened.openStream(opened.find("b"))));
+        }
+    }
+
+    @Test
+    public void sourceThatShrinksFailsWithItsOwnIOException() throws Exception {
+        File shrinking = CryptoTestSupport.write(new File(temp.getRoot(), "src/shrinking"), CryptoTestSupport.randomBytes(4 * SEGMENT_SIZE, 11));
+        CryptoListener truncateOnStart = new CryptoListener() {
+            @Override
+            public void onStart(long totalBytes) {
+                // Sizes have been taken by now; the entry's region no longer matches its file.
+                try {
+                    CryptoTestSupport.truncate(shrinking, 2 * SEGMENT_SIZE);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+
+            @Override
+            public void onProgress(long currentBytes, long totalBytes) {
+            }
+
+            @Override
+            public void onSuccess(String message, String outputPath) {
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+            }
+
+            @Override
+            public void onLog(String message) {
+            }
+        };
+        File archive = new File(temp.getRoot(), "shrinking.cra");
+        try {
+            CryptoArchive.create(archive.getPath(), Collections.singletonMap("shrinking", shrinking.getPath()), PASSWORD,
+                    CryptoOptions.getChaChaDefault(), SEGMENT_SIZE, THREADS, truncateOnStart, job);
+            fail("Archived a source that shrank.");
+        } catch (IOException expected) {
+            // Not wrapped in ExecutionException or RuntimeException.
+        }
+        assertFalse("Partial archive was left behind.", archive.exists());
+
+        // The job was not failed, so it can carry on with another archive.
+        try (CryptoArchive opened = CryptoArchive.open(create(oneEntry(new byte[10])).getPath(), PASSWORD)) {
+            assertEquals(1, opened.getEntryCount());
+        }
+    }
+
+    private File create(Map<String, String> sources) throws Exception {
+        File archive = new File(temp.getRoot(), "archive-" + System.nanoTime() + ".cra");
+        CryptoArchive.create(archive.getPath(), sources, PASSWORD, CryptoOptions.getChaChaDefault(), SEGMENT_SIZE, THREADS, QUIET, job);
+        return archive;
+    }
+
+    private Map<String, String> oneEntry(byte[] data) throws IOException {
+        return Collections.singletonMap("entry", CryptoTestSupport.write(temp.newFile(), data).getPath());
+    }
+
+    private static void assertOpenFails(File archive, char[] password) throws Exception {
+        try {
+            CryptoArchive.open(archive.getPath(), password).close();
+            fail("Damaged archive or wrong password was accepted.");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
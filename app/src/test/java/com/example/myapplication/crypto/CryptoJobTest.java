@@ -0,0 +1,180 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class CryptoJobTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int CHUNKS = 64;
+    private static final int THREADS = 2;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void cancellingMidJobStopsTheRemainingChunksAndDeletesTheOutput() throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), CryptoTestSupport.randomBytes(CHUNKS * CHUNK_SIZE, 1));
+        File dest = new File(temp.getRoot(), "cancelled.enc");
+        AtomicReference<CryptoJob> job = new AtomicReference<>();
+        AtomicInteger chunks = new AtomicInteger();
+        job.set(new CryptoJob(onProgress(() -> {
+            if (chunks.incrementAndGet() == 1) {
+                job.get().cancel();
+            }
+        }), Runnable::run));
+
+        CryptoOptions ctr = CryptoTestSupport.aes(CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, null);
+        try {
+            job.get().run(j -> new ParallelProcessor(THREADS).encrypt(source.getPath(), dest.getPath(), PASSWORD, ctr, CHUNK_SIZE,
+                    j.listener(), j));
+            fail("Cancelled job ran to completion.");
+        } catch (CancellationException expected) {
+        }
+
+        assertEquals(CryptoJob.Status.CANCELLED, job.get().getStatus());
+        // Only the chunks already past their checkpoint may finish.
+        assertTrue("Chunks after the cancel: " + chunks.get(), chunks.get() <= 1 + THREADS);
+        assertFalse("Partial output was left behind.", dest.exists());
+        assertTrue(job.get().getResult().isCancelled());
+    }
+
+    @Test
+    public void pauseBlocksAtTheNextCheckpointUntilResumed() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(CHUNKS * CHUNK_SIZE, 2);
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File dest = new File(temp.getRoot(), "paused.enc");
+        AtomicReference<CryptoJob> job = new AtomicReference<>();
+        AtomicInteger chunks = new AtomicInteger();
+        job.set(new CryptoJob(onProgress(() -> {
+            if (chunks.incrementAndGet() == 1) {
+                job.get().pause();
+            }
+        }), Runnable::run));
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread worker = new Thread(() -> {
+            try {
+                job.get().run(j -> new SequentialProcessor(1).encrypt(source.getPath(), dest.getPath(), PASSWORD,
+                        CryptoOptions.getDefault(), CHUNK_SIZE, j.listener(), j));
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        });
+        worker.start();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.get().getStatus() != CryptoJob.Status.PAUSED) {
+            assertTrue("Job never paused.", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+        Thread.sleep(200);
+        assertEquals(CryptoJob.Status.PAUSED, job.get().getStatus());
+        assertEquals("Chunks processed while paused.", 1, chunks.get());
+        assertTrue(worker.isAlive());
+
+        job.get().resume();
+        assertTrue(job.get().awaitCompletion(10, TimeUnit.SECONDS));
+        worker.join();
+        assertEquals(null, failure.get());
+        assertEquals(CryptoJob.Status.COMPLETED, job.get().getStatus());
+        assertEquals(CHUNKS, chunks.get());
+
+        File decrypted = new File(temp.getRoot(), "paused.out");
+        new SequentialProcessor().decrypt(dest.getPath(), decrypted.getPath(), PASSWORD, null, CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        assertArrayEquals(data, CryptoTestSupport.read(decrypted));
+    }
+
+    @Test
+    public void aFailingChunkStopsTheQueuedOnesAndFailsTheJobWithItsCause() throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), CryptoTestSupport.randomBytes(CHUNKS * CHUNK_SIZE, 3));
+        File encrypted = temp.newFile();
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, CryptoTestSupport.cbcWithMac(),
+                CHUNK_SIZE, QUIET, new CryptoJob(QUIET, Runnable::run));
+        // Inside the first chunk, which is among the first taken off the queue.
+        CryptoTestSupport.flipBit(encrypted, CryptoTestSupport.headerSize(encrypted) + 5);
+
+        File dest = new File(temp.getRoot(), "failed.out");
+        AtomicInteger chunks = new AtomicInteger();
+        CryptoJob job = new CryptoJob(onProgress(chunks::incrementAndGet), Runnable::run);
+        IOException thrown = null;
+        try {
+            job.run(j -> new ParallelProcessor(THREADS).decrypt(encrypted.getPath(), dest.getPath(), PASSWORD, null, CHUNK_SIZE,
+                    j.listener(), j));
+            fail("Tampered chunk was decrypted.");
+        } catch (IOException expected) {
+            thrown = expected;
+        }
+
+        assertEquals(CryptoJob.Status.FAILED, job.getStatus());
+        assertEquals("Chunk 0 failed authentication.", thrown.getMessage());
+        assertSame(thrown, job.getError());
+        try {
+            job.getResult().get();
+            fail("Failed job completed its result.");
+        } catch (ExecutionException expected) {
+            assertSame(thrown, expected.getCause());
+        }
+        assertTrue("Chunks after the failure: " + chunks.get(), chunks.get() < CHUNKS - 1);
+        assertFalse("Partial output was left behind.", dest.exists());
+    }
+
+    @Test
+    public void cancellingBeforeTheStartNeverRunsTheTask() throws Exception {
+        CryptoJob job = new CryptoJob(QUIET, Runnable::run);
+        job.cancel();
+        AtomicInteger runs = new AtomicInteger();
+        try {
+            job.run(j -> runs.incrementAndGet());
+            fail("Cancelled job started.");
+        } catch (CancellationException expected) {
+        }
+        assertEquals(0, runs.get());
+        assertEquals(CryptoJob.Status.CANCELLED, job.getStatus());
+        assertTrue(job.getResult().isCancelled());
+    }
+
+    private static CryptoListener onProgress(Runnable action) {
+        return new CryptoListener() {
+            @Override
+            public void onStart(long totalBytes) {
+            }
+
+            @Override
+            public void onProgress(long currentBytes, long totalBytes) {
+                action.run();
+            }
+
+            @Override
+            public void onSuccess(String message, String outputPath) {
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+            }
+
+            @Override
+            public void onLog(String message) {
+            }
+        };
+    }
+}
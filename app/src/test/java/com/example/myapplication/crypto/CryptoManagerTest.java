@@ -0,0 +1,111 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CryptoManagerTest {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoManager manager = new CryptoManager();
+
+    @Test
+    public void asyncJobsCompleteWithTheirResult() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(5 * CHUNK_SIZE + 7, 1);
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = new File(temp.getRoot(), "async.enc");
+        File decrypted = new File(temp.getRoot(), "async.out");
+
+        CryptoTestSupport.EventRecorder encryptEvents = new CryptoTestSupport.EventRecorder();
+        CompletableFuture<JobResult> encryption = manager.encryptAsync(source.getPath(), encrypted.getPath(), PASSWORD,
+                CryptoOptions.getDefault(), CHUNK_SIZE, 2, encryptEvents);
+        encryptEvents.subscription.request(Long.MAX_VALUE);
+        JobResult result = encryption.get(30, TimeUnit.SECONDS);
+        assertEquals(encrypted.getPath(), result.getOutputPath());
+        assertEquals("Encryption completed successfully.", result.getMessage());
+        assertEquals(data.length, result.getMetrics().getBytesProcessed());
+        assertTrue(encryptEvents.awaitTermination());
+        synchronized (encryptEvents) {
+            assertEquals(1, encryptEvents.completions);
+            assertEquals(0, encryptEvents.errors.size());
+            boolean started = false;
+            long lastProgress = -1;
+            for (JobEvent event : encryptEvents.events) {
+                started |= event.getType() == JobEvent.Type.STARTED;
+                if (event.getType() == JobEvent.Type.PROGRESS) {
+                    lastProgress = event.getCurrentBytes();
+                }
+            }
+            assertTrue(started);
+            assertEquals(data.length, lastProgress);
+        }
+
+        CompletableFuture<JobResult> decryption = manager.decryptAsync(encrypted.getPath(), decrypted.getPath(), PASSWORD,
+                null, CHUNK_SIZE, 2, null);
+        assertEquals(decrypted.getPath(), decryption.get(30, TimeUnit.SECONDS).getOutputPath());
+        assertArrayEquals(data, CryptoTestSupport.read(decrypted));
+    }
+
+    @Test
+    public void asyncJobsCompleteExceptionallyOnFailure() throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), CryptoTestSupport.randomBytes(3 * CHUNK_SIZE, 2));
+        File encrypted = new File(temp.getRoot(), "failing.enc");
+        manager.encrypt(source.getPath(), encrypted.getPath(), PASSWORD, CryptoOptions.getDefault(), CHUNK_SIZE, 1,
+                CryptoTestSupport.QUIET);
+
+        File decrypted = new File(temp.getRoot(), "failing.out");
+        CryptoTestSupport.EventRecorder events = new CryptoTestSupport.EventRecorder();
+        CompletableFuture<JobResult> decryption = manager.decryptAsync(encrypted.getPath(), decrypted.getPath(), WRONG_PASSWORD,
+                null, CHUNK_SIZE, 2, events);
+        events.subscription.request(Long.MAX_VALUE);
+        Throwable cause = null;
+        try {
+            decryption.get(30, TimeUnit.SECONDS);
+            fail("Decrypted with the wrong password.");
+        } catch (ExecutionException expected) {
+            cause = expected.getCause();
+        }
+        assertFalse(cause instanceof ExecutionException);
+        assertFalse("Partial output was left behind.", decrypted.exists());
+
+        // Subscribers see the same failure, once.
+        assertTrue(events.awaitTermination());
+        synchronized (events) {
+            assertEquals(1, events.errors.size());
+            assertSame(cause, events.errors.get(0));
+            assertEquals(0, events.completions);
+        }
+    }
+
+    @Test
+    public void missingSourceFailsTheFuture() throws Exception {
+        CompletableFuture<JobResult> encryption = manager.encryptAsync(new File(temp.getRoot(), "missing").getPath(),
+                new File(temp.getRoot(), "missing.enc").getPath(), PASSWORD, CryptoOptions.getDefault(), CHUNK_SIZE, 1, null);
+        try {
+            encryption.get(30, TimeUnit.SECONDS);
+            fail("Encrypted a file that does not exist.");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof FileNotFoundException);
+        }
+        assertTrue(encryption.isCompletedExceptionally());
+    }
+}
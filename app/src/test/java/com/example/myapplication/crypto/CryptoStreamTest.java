@@ -0,0 +1,166 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class CryptoStreamTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int THREADS = 3;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void roundTripsWhateverTheWriteSizes() throws Exception {
+        for (int size : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 9 * SEGMENT_SIZE + 321}) {
+            byte[] data = CryptoTestSupport.randomBytes(size, size);
+            byte[] sealed = seal(data, 1000);
+            assertArrayEquals("size " + size, data, open(sealed, 777));
+            assertArrayEquals("size " + size, data, open(seal(data, 1), 1));
+        }
+    }
+
+    @Test
+    public void channelsRoundTripThroughDirectBuffers() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(3 * SEGMENT_SIZE + 5, 1);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (CryptoOutputStream out = new CryptoOutputStream(sink, PASSWORD, CryptoOptions.getChaChaDefault(), SEGMENT_SIZE, THREADS)) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).flip();
+            assertEquals(data.length, out.write(direct));
+        }
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (CryptoInputStream in = new CryptoInputStream(new ByteArrayInputStream(sink.toByteArray()), PASSWORD, THREADS)) {
+            ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+            while (in.read(direct) != -1) {
+                direct.flip();
+                byte[] chunk = new byte[direct.remaining()];
+                direct.get(chunk);
+                plain.write(chunk);
+                direct.clear();
+            }
+        }
+        assertArrayEquals(data, plain.toByteArray());
+    }
+
+    @Test
+    public void streamsAndFilesShareOneFormat() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(5 * SEGMENT_SIZE + 17, 2);
+        File encrypted = CryptoTestSupport.write(new File(temp.getRoot(), "stream.enc"), seal(data, 4000));
+        File decrypted = new File(temp.getRoot(), "stream.out");
+        new SegmentProcessor(THREADS).decrypt(encrypted.getPath(), decrypted.getPath(), PASSWORD, null, SEGMENT_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        assertArrayEquals(data, CryptoTestSupport.read(decrypted));
+
+        File source = CryptoTestSupport.write(new File(temp.getRoot(), "plain"), data);
+        File fromFile = new File(temp.getRoot(), "file.enc");
+        new SegmentProcessor(THREADS).encrypt(source.getPath(), fromFile.getPath(), PASSWORD, CryptoOptions.getChaChaDefault(), SEGMENT_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        assertArrayEquals(data, open(CryptoTestSupport.read(fromFile), 4096));
+    }
+
+    @Test
+    public void truncatedStreamFailsInsteadOfEndingEarly() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(4 * SEGMENT_SIZE, 3);
+        byte[] sealed = seal(data, 4096);
+        int segment = SEGMENT_SIZE + SegmentCipher.TAG_SIZE;
+        // Cut at a segment boundary, so what is left is well-formed but lacks the final segment.
+        assertOpenFails(Arrays.copyOf(sealed, sealed.length - segment));
+        assertOpenFails(Arrays.copyOf(sealed, sealed.length - 1));
+    }
+
+    @Test
+    public void tamperedOrReorderedSegmentsFail() throws Exception {
+        byte[] sealed = seal(CryptoTestSupport.randomBytes(4 * SEGMENT_SIZE + 9, 4), 4096);
+        int headerSize = sealed.length - (int) SegmentCipher.ciphertextLength(4 * SEGMENT_SIZE + 9, SEGMENT_SIZE);
+        int segment = SEGMENT_SIZE + SegmentCipher.TAG_SIZE;
+
+        byte[] tampered = sealed.clone();
+        tampered[headerSize + 2 * segment + 100] ^= 1;
+        assertOpenFails(tampered);
+
+        byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, headerSize, swapped, headerSize + segment, segment);
+        System.arraycopy(sealed, headerSize + segment, swapped, headerSize, segment);
+        assertOpenFails(swapped);
+    }
+
+    @Test
+    public void wrongPasswordFailsInTheConstructor() throws Exception {
+        byte[] sealed = seal(CryptoTestSupport.randomBytes(100, 5), 100);
+        try {
+            new CryptoInputStream(new ByteArrayInputStream(sealed), WRONG_PASSWORD, THREADS).close();
+            fail("Opened with the wrong password.");
+        } catch (IOException e) {
+            assertEquals("Wrong password (key check failed).", e.getMessage());
+        }
+    }
+
+    @Test
+    public void onlySegmentedOptionsStream() throws Exception {
+        CryptoOptions gcm = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128);
+        try {
+            new CryptoOutputStream(new ByteArrayOutputStream(), PASSWORD, gcm, SEGMENT_SIZE, THREADS).close();
+            fail("Streamed a non-segmented mode.");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static byte[] seal(byte[] data, int writeSize) throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (CryptoOutputStream out = new CryptoOutputStream(sink, PASSWORD, CryptoOptions.getChaChaDefault(), SEGMENT_SIZE, THREADS)) {
+            for (int offset = 0; offset < data.length; offset += writeSize) {
+                if (writeSize == 1) {
+                    out.write(data[offset]);
+                } else {
+                    out.write(data, offset, Math.min(writeSize, data.length - offset));
+                }
+            }
+        }
+        return sink.toByteArray();
+    }
+
+    private static byte[] open(byte[] sealed, int readSize) throws Exception {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (InputStream in = new CryptoInputStream(new ByteArrayInputStream(sealed), PASSWORD, THREADS)) {
+            if (readSize == 1) {
+                int b;
+                while ((b = in.read()) != -1) {
+                    plain.write(b);
+                }
+            } else {
+                byte[] buffer = new byte[readSize];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    plain.write(buffer, 0, n);
+                }
+            }
+        }
+        return plain.toByteArray();
+    }
+
+    private static void assertOpenFails(byte[] sealed) throws Exception {
+        try {
+            open(sealed, 4096);
+            fail("Damaged stream was accepted.");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.myapplication.crypto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixtures shared by the crypto tests: a listener that ignores events, an event subscriber that
+ * records them, option sets, and helpers to write and damage files.
+ */
+final class CryptoTestSupport {
+
+    static final char[] PASSWORD = "correct horse".toCharArray();
+    static final char[] WRONG_PASSWORD = "battery staple".toCharArray();
+
+    static final CryptoListener QUIET = new CryptoListener() {
+        @Override
+        public void onStart(long totalBytes) {
+        }
+
+        @Override
+        public void onProgress(long currentBytes, long totalBytes) {
+        }
+
+        @Override
+        public void onSuccess(String message, String outputPath) {
+        }
+
+        @Override
+        public void onError(String message, Exception e) {
+        }
+
+        @Override
+        public void onLog(String message) {
+        }
+    };
+
+    private CryptoTestSupport() {
+    }
+
+    static CryptoOptions aes(CryptoOptions.CipherMode mode, CryptoOptions.Padding padding, CryptoOptions.TagLength tagLength) {
+        return new CryptoOptions(CryptoOptions.CryptoProtocol.AES, CryptoOptions.KeyLength.BITS_256, CryptoOptions.BlockSize.BITS_128,
+                mode, padding, tagLength, CryptoOptions.Kdf.PBKDF2WithHmacSHA256);
+    }
+
+    static CryptoOptions cbcWithMac() {
+        return aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null).withChunkMac(true);
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    static File write(File file, byte[] data) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Flips the lowest bit of the byte at offset, counted from the end of the file when negative.
+     */
+    static void flipBit(File file, long offset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long position = offset < 0 ? raf.length() + offset : offset;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 1);
+        }
+    }
+
+    static void truncate(File file, long bytes) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - bytes);
+        }
+    }
+
+    static long headerSize(File file) throws IOException {
+        FileHeader header = FileHeader.peek(file.getPath());
+        if (header == null) {
+            throw new IOException("Not an encrypted file: " + file);
+        }
+        return header.getHeaderSize();
+    }
+
+    /**
+     * Records every signal it receives. It requests nothing on its own; tests drive the demand.
+     */
+    static final class EventRecorder implements JobFlow.Subscriber<JobEvent> {
+        final List<JobEvent> events = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        int completions;
+        JobFlow.Subscription subscription;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onSubscribe(JobFlow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public synchronized void onNext(JobEvent item) {
+            events.add(item);
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable) {
+            errors.add(throwable);
+            terminated.countDown();
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            completions++;
+            terminated.countDown();
+        }
+
+        boolean awaitTermination() throws InterruptedException {
+            return terminated.await(10, TimeUnit.SECONDS);
+        }
+    }
+}
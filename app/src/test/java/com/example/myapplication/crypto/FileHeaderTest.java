@@ -0,0 +1,167 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+public class FileHeaderTest {
+
+    private static final byte[] IV = CryptoTestSupport.randomBytes(12, 1);
+    private static final byte[] SALT = CryptoTestSupport.randomBytes(16, 2);
+    private static final SecretKey KEY = new SecretKeySpec(CryptoTestSupport.randomBytes(32, 3), "AES");
+    private static final SecretKey OTHER_KEY = new SecretKeySpec(CryptoTestSupport.randomBytes(32, 4), "AES");
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void everyOptionalSectionSurvivesARoundTrip() throws Exception {
+        CryptoOptions merkle = CryptoTestSupport.cbcWithMac();
+        FileHeader written = new FileHeader(merkle, CryptoTestSupport.randomBytes(16, 5), SALT, 4096);
+        written.setKey(KEY);
+        written.setMerkleRoot(123_456, CryptoTestSupport.randomBytes(MerkleTree.HASH_SIZE, 6));
+        FileHeader read = roundTrip(written);
+        assertTrue(read.hasChunkMac());
+        assertEquals(4096, read.getMacChunkSize());
+        assertEquals(123_456, read.getCiphertextLength());
+        assertArrayEquals(written.getMerkleRoot(), read.getMerkleRoot());
+
+        CryptoOptions lanes = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null).withLanes(3);
+        written = new FileHeader(lanes, CryptoTestSupport.randomBytes(16, 7), SALT);
+        byte[][] laneIvs = {CryptoTestSupport.randomBytes(16, 8), CryptoTestSupport.randomBytes(16, 9), CryptoTestSupport.randomBytes(16, 10)};
+        written.setLanes(65_536, laneIvs);
+        written.setLaneTag(CryptoTestSupport.randomBytes(MerkleTree.HASH_SIZE, 11));
+        written.setKey(KEY);
+        read = roundTrip(written);
+        assertEquals(3, read.getLaneCount());
+        assertEquals(65_536, read.getLaneSize());
+        assertArrayEquals(laneIvs[2], read.getLaneIv(2));
+        assertArrayEquals(written.getLaneTag(), read.getLaneTag());
+
+        CryptoOptions argon2 = new CryptoOptions(CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305, CryptoOptions.KeyLength.BITS_256, null,
+                CryptoOptions.CipherMode.POLY1305, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128, CryptoOptions.Kdf.Argon2id)
+                .withArgon2Params(new CryptoOptions.Argon2Params(1024, 2, 2));
+        written = new FileHeader(argon2, CryptoTestSupport.randomBytes(24, 12), SALT, 8192);
+        written.setKey(KEY);
+        read = roundTrip(written);
+        assertTrue(read.hasSegments());
+        assertEquals(8192, read.getSegmentSize());
+        assertEquals(1024, read.getOptions().getArgon2Params().getMemoryKiB());
+        assertEquals(2, read.getOptions().getArgon2Params().getIterations());
+        assertEquals(2, read.getOptions().getArgon2Params().getParallelism());
+    }
+
+    @Test
+    public void headerCannotBeWrittenBeforeTheKeyIsSet() throws Exception {
+        FileHeader header = new FileHeader(gcm(), IV, SALT);
+        try {
+            header.getHeaderBytes();
+            fail("Header written without a key-check value.");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void keyCheckAcceptsOnlyTheFileKey() throws Exception {
+        FileHeader header = new FileHeader(gcm(), IV, SALT);
+        header.setKey(KEY);
+        FileHeader read = roundTrip(header);
+        assertTrue(read.hasKeyCheck());
+        read.checkKey(KEY);
+        try {
+            read.checkKey(OTHER_KEY);
+            fail("Key check accepted the wrong key.");
+        } catch (IOException e) {
+            assertEquals("Wrong password (key check failed).", e.getMessage());
+        }
+    }
+
+    @Test
+    public void versionTwoHeadersCarryNoKeyCheckAndAcceptAnyKey() throws Exception {
+        FileHeader header = new FileHeader(gcm(), IV, SALT);
+        header.setKey(KEY);
+        byte[] bytes = header.getHeaderBytes();
+        // A version 2 header ends at the salt: drop the flags and the key-check value.
+        byte[] legacy = Arrays.copyOf(bytes, bytes.length - 4 - FileHeader.KEY_CHECK_SIZE);
+        legacy[7] = 2;
+        FileHeader read = FileHeader.fromStream(new ByteArrayInputStream(legacy));
+        assertEquals(2, read.getVersion());
+        assertFalse(read.hasKeyCheck());
+        read.checkKey(OTHER_KEY);
+    }
+
+    @Test
+    public void malformedHeadersAreRejected() throws Exception {
+        FileHeader header = new FileHeader(gcm(), IV, SALT);
+        header.setKey(KEY);
+        byte[] bytes = header.getHeaderBytes();
+        int flagsOffset = bytes.length - 4 - FileHeader.KEY_CHECK_SIZE;
+
+        assertRejected("magic", with(bytes, 0, (byte) 0));
+        assertRejected("version", with(bytes, 7, (byte) 9));
+        assertRejected("flags", with(bytes, flagsOffset, (byte) 0x40));
+        assertRejected("truncated", Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void wrongPasswordFailsBeforeAnyOutputIsWritten() throws Exception {
+        File source = CryptoTestSupport.write(new File(temp.getRoot(), "plain"), CryptoTestSupport.randomBytes(10_000, 13));
+        File encrypted = new File(temp.getRoot(), "plain.enc");
+        File decrypted = new File(temp.getRoot(), "plain.out");
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, gcm(), 4096, QUIET, new CryptoJob(QUIET, Runnable::run));
+        try {
+            new SequentialProcessor().decrypt(encrypted.getPath(), decrypted.getPath(), WRONG_PASSWORD, null, 4096, QUIET, new CryptoJob(QUIET, Runnable::run));
+            fail("Decrypted with the wrong password.");
+        } catch (IOException e) {
+            assertEquals("Wrong password (key check failed).", e.getMessage());
+        }
+        assertFalse("Partial output was left behind.", decrypted.exists());
+    }
+
+    private static CryptoOptions gcm() {
+        return CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128);
+    }
+
+    private static FileHeader roundTrip(FileHeader written) throws Exception {
+        byte[] bytes = written.getHeaderBytes();
+        FileHeader read = FileHeader.fromStream(new ByteArrayInputStream(bytes));
+        assertArrayEquals("Header bytes", bytes, read.getHeaderBytes());
+        assertArrayEquals("AAD", written.getAADBytes(), read.getAADBytes());
+        assertEquals(bytes.length, read.getHeaderSize());
+        assertEquals(written.getOptions().toString(), read.getOptions().toString());
+        assertArrayEquals(written.getIv(), read.getIv());
+        assertArrayEquals(written.getSalt(), read.getSalt());
+        return read;
+    }
+
+    private static byte[] with(byte[] bytes, int offset, byte value) {
+        byte[] copy = bytes.clone();
+        copy[offset] = value;
+        return copy;
+    }
+
+    private static void assertRejected(String what, byte[] bytes) {
+        try {
+            FileHeader.fromStream(new ByteArrayInputStream(bytes));
+            fail("Accepted a header with a bad " + what + ".");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+public class FolderSyncTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128);
+
+    @Test
+    public void syncsOnlyWhatChangedAndTheManifestMapsEveryOutput() throws Exception {
+        File source = temp.newFolder("plain");
+        File dest = new File(temp.getRoot(), "encrypted");
+        CryptoTestSupport.write(new File(source, "a.bin"), CryptoTestSupport.randomBytes(10_000, 1));
+        CryptoTestSupport.write(new File(source, "sub/b.bin"), CryptoTestSupport.randomBytes(0, 2));
+        CryptoTestSupport.write(new File(source, "sub/deeper/c.bin"), CryptoTestSupport.randomBytes(3 * CHUNK_SIZE + 5, 3));
+
+        assertEquals("Synced: 3 added, 0 updated, 0 removed, 0 unchanged.", sync(source, dest));
+        assertOutputsMatch(source, dest);
+        String firstC = FolderSync.readManifest(dest, PASSWORD).get("sub/deeper/c.bin").getOutputName();
+
+        File a = new File(source, "a.bin");
+        long modified = a.lastModified();
+        CryptoTestSupport.write(a, CryptoTestSupport.randomBytes(10_000, 4));
+        a.setLastModified(modified + 2000);
+        new File(source, "sub/b.bin").delete();
+        CryptoTestSupport.write(new File(source, "d.bin"), CryptoTestSupport.randomBytes(77, 5));
+        File c = new File(source, "sub/deeper/c.bin");
+        c.setLastModified(c.lastModified() + 2000); // Touched only
+
+        assertEquals("Synced: 1 added, 1 updated, 1 removed, 1 unchanged.", sync(source, dest));
+        assertOutputsMatch(source, dest);
+        Map<String, FolderSync.Entry> manifest = FolderSync.readManifest(dest, PASSWORD);
+        assertEquals("A touched file keeps its output.", firstC, manifest.get("sub/deeper/c.bin").getOutputName());
+
+        // The outputs of removed and replaced files are gone; only the manifest and live outputs remain.
+        Set<String> expected = new HashSet<>();
+        expected.add(FolderSync.MANIFEST_NAME);
+        for (FolderSync.Entry entry : manifest.values()) {
+            expected.add(entry.getOutputName());
+        }
+        assertEquals(expected, new HashSet<>(Arrays.asList(dest.list())));
+    }
+
+    @Test
+    public void manifestRejectsTheWrongPasswordAndTampering() throws Exception {
+        File source = temp.newFolder("plain");
+        File dest = new File(temp.getRoot(), "encrypted");
+        CryptoTestSupport.write(new File(source, "a.bin"), CryptoTestSupport.randomBytes(100, 1));
+        sync(source, dest);
+
+        try {
+            FolderSync.readManifest(dest, WRONG_PASSWORD);
+            fail("Manifest opened with the wrong password.");
+        } catch (Exception expected) {
+        }
+        CryptoTestSupport.flipBit(new File(dest, FolderSync.MANIFEST_NAME), -3);
+        try {
+            FolderSync.readManifest(dest, PASSWORD);
+            fail("Tampered manifest was accepted.");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void childJobFailureStaysOnTheChild() throws Exception {
+        CryptoJob parent = new CryptoJob(QUIET, Runnable::run);
+        CryptoJob failed = parent.child();
+        CryptoJob sibling = parent.child();
+        failed.fail(new IOException("Unreadable file"));
+        try {
+            failed.checkpoint();
+            fail("A failed child kept going.");
+        } catch (CancellationException expected) {
+        }
+        parent.checkpoint();
+        sibling.checkpoint();
+        assertFalse(sibling.isCancelled());
+        assertEquals(parent.getMetrics(), sibling.getMetrics());
+    }
+
+    @Test
+    public void cancellingTheParentCancelsItsChildren() throws Exception {
+        CryptoJob parent = new CryptoJob(QUIET, Runnable::run);
+        CryptoJob child = parent.child();
+        parent.cancel();
+        assertTrue(child.isCancelled());
+        try {
+            child.checkpoint();
+            fail("A child of a cancelled job kept going.");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    private String sync(File source, File dest) throws Exception {
+        String[] message = new String[1];
+        CryptoListener listener = new CryptoListener() {
+            @Override
+            public void onStart(long totalBytes) {
+            }
+
+            @Override
+            public void onProgress(long currentBytes, long totalBytes) {
+            }
+
+            @Override
+            public void onSuccess(String m, String outputPath) {
+                message[0] = m;
+            }
+
+            @Override
+            public void onError(String m, Exception e) {
+            }
+
+            @Override
+            public void onLog(String m) {
+            }
+        };
+        new FolderSync(3).sync(source, dest, PASSWORD, options, CHUNK_SIZE, listener, new CryptoJob(QUIET, Runnable::run));
+        return message[0];
+    }
+
+    private void assertOutputsMatch(File source, File dest) throws Exception {
+        Map<String, String> sources = CryptoArchive.entriesOf(source);
+        Map<String, FolderSync.Entry> manifest = FolderSync.readManifest(dest, PASSWORD);
+        assertEquals(sources.keySet(), manifest.keySet());
+        for (FolderSync.Entry entry : manifest.values()) {
+            File output = new File(dest, entry.getOutputName());
+            assertArrayEquals(entry.getHeaderId(), FileHeader.peek(output.getPath()).getSalt());
+            File decrypted = new File(temp.getRoot(), "check.out");
+            new SequentialProcessor().decrypt(output.getPath(), decrypted.getPath(), PASSWORD, null, CHUNK_SIZE, QUIET,
+                    new CryptoJob(QUIET, Runnable::run));
+            assertArrayEquals(entry.getPath(), CryptoTestSupport.read(new File(sources.get(entry.getPath()))), CryptoTestSupport.read(decrypted));
+        }
+    }
+}
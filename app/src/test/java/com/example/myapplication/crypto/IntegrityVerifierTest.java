@@ -0,0 +1,92 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+
+public class IntegrityVerifierTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoManager manager = new CryptoManager();
+
+    @Test
+    public void ccmStreamsAcrossChunksAndMatchesTheEncryptor() throws Exception {
+        // Sizes around the chunk and block boundaries, including an empty payload.
+        for (int size : new int[]{0, 1, 15, 16, CHUNK_SIZE - 1, CHUNK_SIZE, 3 * CHUNK_SIZE + 7}) {
+            File file = encrypt(aes(CryptoOptions.CipherMode.CCM), size);
+            assertEquals("size " + size, VerifyResult.Status.VERIFIED, verify(file, PASSWORD).getStatus());
+        }
+    }
+
+    @Test
+    public void ccmDetectsTamperingInCiphertextAndTag() throws Exception {
+        File body = encrypt(aes(CryptoOptions.CipherMode.CCM), 3 * CHUNK_SIZE);
+        CryptoTestSupport.flipBit(body, CryptoTestSupport.headerSize(body) + 2 * CHUNK_SIZE + 5);
+        assertEquals(VerifyResult.Status.FAILED, verify(body, PASSWORD).getStatus());
+
+        File tag = encrypt(aes(CryptoOptions.CipherMode.CCM), 3 * CHUNK_SIZE);
+        CryptoTestSupport.flipBit(tag, -1);
+        assertEquals(VerifyResult.Status.FAILED, verify(tag, PASSWORD).getStatus());
+    }
+
+    @Test
+    public void gcmVerifiesAndDetectsTampering() throws Exception {
+        File file = encrypt(aes(CryptoOptions.CipherMode.GCM), 5 * CHUNK_SIZE + 3);
+        assertEquals(VerifyResult.Status.VERIFIED, verify(file, PASSWORD).getStatus());
+        CryptoTestSupport.flipBit(file, CryptoTestSupport.headerSize(file) + CHUNK_SIZE);
+        assertEquals(VerifyResult.Status.FAILED, verify(file, PASSWORD).getStatus());
+    }
+
+    @Test
+    public void merkleChunksAreCheckedOneByOne() throws Exception {
+        File file = encrypt(CryptoTestSupport.cbcWithMac(), 5 * CHUNK_SIZE);
+        assertEquals(VerifyResult.Status.VERIFIED, verify(file, PASSWORD).getStatus());
+
+        CryptoTestSupport.flipBit(file, CryptoTestSupport.headerSize(file) + 2 * CHUNK_SIZE + 1);
+        VerifyResult result = verify(file, PASSWORD);
+        assertEquals(VerifyResult.Status.FAILED, result.getStatus());
+        assertEquals(1, result.getChunkFailures().size());
+        assertEquals(2, result.getChunkFailures().get(0).getIndex());
+        assertEquals(VerifyResult.Status.VERIFIED, IntegrityVerifier.verifyChunk(file.getPath(), PASSWORD, 1).getStatus());
+        assertEquals(VerifyResult.Status.FAILED, IntegrityVerifier.verifyChunk(file.getPath(), PASSWORD, 2).getStatus());
+    }
+
+    @Test
+    public void unauthenticatedModesAreUnverifiable() throws Exception {
+        File file = encrypt(CryptoTestSupport.aes(CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, null), CHUNK_SIZE);
+        assertEquals(VerifyResult.Status.UNVERIFIABLE, verify(file, PASSWORD).getStatus());
+    }
+
+    @Test
+    public void wrongPasswordFails() throws Exception {
+        File file = encrypt(aes(CryptoOptions.CipherMode.CCM), CHUNK_SIZE);
+        assertEquals(VerifyResult.Status.FAILED, verify(file, WRONG_PASSWORD).getStatus());
+    }
+
+    private static CryptoOptions aes(CryptoOptions.CipherMode mode) {
+        return CryptoTestSupport.aes(mode, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128);
+    }
+
+    private File encrypt(CryptoOptions options, int size) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), CryptoTestSupport.randomBytes(size, size));
+        File dest = new File(temp.getRoot(), source.getName() + ".enc");
+        manager.encrypt(source.getPath(), dest.getPath(), PASSWORD, options, CHUNK_SIZE, 1, QUIET);
+        return dest;
+    }
+
+    private static VerifyResult verify(File file, char[] password) {
+        return new IntegrityVerifier(2).verify(Collections.singletonList(file.getPath()), password, CHUNK_SIZE, QUIET).get(0);
+    }
+}
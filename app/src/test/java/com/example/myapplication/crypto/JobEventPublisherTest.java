@@ -0,0 +1,147 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class JobEventPublisherTest {
+
+    // Signals are delivered on the calling thread, so every assertion sees them at once.
+    private final JobEventPublisher publisher = new JobEventPublisher(null, Runnable::run, new JobMetrics());
+
+    @Test
+    public void nothingIsDeliveredBeyondTheRequestedDemand() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        publisher.onStart(100);
+        for (int i = 0; i < 5; i++) {
+            publisher.onLog("log " + i);
+        }
+        assertEquals(0, recorder.events.size());
+
+        recorder.subscription.request(2);
+        assertEquals(2, recorder.events.size());
+        assertEquals(JobEvent.Type.STARTED, recorder.events.get(0).getType());
+        assertEquals("log 0", recorder.events.get(1).getMessage());
+
+        recorder.subscription.request(3);
+        assertEquals(5, recorder.events.size());
+
+        // Completion waits behind the event still queued, then follows it.
+        publisher.close(null);
+        assertEquals(0, recorder.completions);
+        recorder.subscription.request(1);
+        assertEquals("log 4", recorder.events.get(5).getMessage());
+        assertEquals(1, recorder.completions);
+    }
+
+    @Test
+    public void consecutiveProgressEventsCoalesce() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        publisher.onStart(100);
+        for (int i = 1; i <= 50; i++) {
+            publisher.onProgress(i, 100);
+        }
+        publisher.onLog("halfway");
+        publisher.onProgress(60, 100);
+        publisher.onProgress(70, 100);
+        recorder.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(4, recorder.events.size());
+        assertEquals(JobEvent.Type.STARTED, recorder.events.get(0).getType());
+        assertEquals(50, recorder.events.get(1).getCurrentBytes());
+        assertEquals("halfway", recorder.events.get(2).getMessage());
+        assertEquals(70, recorder.events.get(3).getCurrentBytes());
+
+        // With demand outstanding every update is delivered as it comes.
+        publisher.onProgress(80, 100);
+        publisher.onProgress(90, 100);
+        assertEquals(6, recorder.events.size());
+    }
+
+    @Test
+    public void overflowDropsTheOldestEvents() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        for (int i = 0; i < 300; i++) {
+            publisher.onLog("log " + i);
+        }
+        recorder.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(256, recorder.events.size());
+        assertEquals("log 44", recorder.events.get(0).getMessage());
+        assertEquals("log 299", recorder.events.get(255).getMessage());
+    }
+
+    @Test
+    public void completionIsSignalledExactlyOnce() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        recorder.subscription.request(10);
+        publisher.close(null);
+        publisher.close(null);
+        publisher.close(new IOException("Too late."));
+        publisher.onLog("after the end");
+        recorder.subscription.request(10);
+
+        assertEquals(1, recorder.completions);
+        assertEquals(0, recorder.errors.size());
+        assertEquals(0, recorder.events.size());
+
+        // A late subscriber still gets the one terminal signal.
+        CryptoTestSupport.EventRecorder late = subscribe();
+        assertEquals(1, late.completions);
+        assertEquals(0, late.errors.size());
+    }
+
+    @Test
+    public void errorIsSignalledExactlyOnce() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        recorder.subscription.request(10);
+        IOException failure = new IOException("Disk full.");
+        publisher.close(failure);
+        publisher.close(null);
+        recorder.subscription.request(10);
+
+        assertEquals(1, recorder.errors.size());
+        assertSame(failure, recorder.errors.get(0));
+        assertEquals(0, recorder.completions);
+
+        CryptoTestSupport.EventRecorder late = subscribe();
+        assertEquals(1, late.errors.size());
+        assertSame(failure, late.errors.get(0));
+    }
+
+    @Test
+    public void nonPositiveRequestIsAnError() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        publisher.onLog("queued");
+        recorder.subscription.request(0);
+        publisher.close(null);
+
+        assertEquals(1, recorder.errors.size());
+        assertTrue(recorder.errors.get(0) instanceof IllegalArgumentException);
+        assertEquals(0, recorder.completions);
+        assertEquals(0, recorder.events.size());
+    }
+
+    @Test
+    public void cancelledSubscriptionGetsNothingMore() {
+        CryptoTestSupport.EventRecorder recorder = subscribe();
+        recorder.subscription.request(Long.MAX_VALUE);
+        publisher.onLog("before");
+        recorder.subscription.cancel();
+        publisher.onLog("after");
+        publisher.close(null);
+
+        assertEquals(1, recorder.events.size());
+        assertEquals(0, recorder.completions);
+    }
+
+    private CryptoTestSupport.EventRecorder subscribe() {
+        CryptoTestSupport.EventRecorder recorder = new CryptoTestSupport.EventRecorder();
+        publisher.subscribe(recorder);
+        return recorder;
+    }
+}
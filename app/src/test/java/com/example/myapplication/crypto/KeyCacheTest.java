@@ -0,0 +1,162 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+public class KeyCacheTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128);
+
+    @After
+    public void uninstall() {
+        KeyDerivation.setCache(null);
+    }
+
+    @Test
+    public void secondLookupHitsAndReturnsTheSameKey() throws Exception {
+        KeyCache cache = new KeyCache(1, TimeUnit.HOURS, 4);
+        FileHeader header = header(1);
+        JobMetrics metrics = new JobMetrics();
+        SecretKey first = cache.fileKey(PASSWORD, header, options, metrics);
+        SecretKey second = cache.fileKey(PASSWORD, header, options, metrics);
+        assertArrayEquals(first.getEncoded(), second.getEncoded());
+        assertArrayEquals(KeyDerivation.deriveKey(PASSWORD, header.getSalt(), options).getEncoded(), second.getEncoded());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0);
+        assertEquals(1, metrics.getKeyCacheHits());
+        assertEquals(1, metrics.getKeyCacheMisses());
+    }
+
+    @Test
+    public void wrongPasswordIsNeverCached() throws Exception {
+        KeyCache cache = new KeyCache(1, TimeUnit.HOURS, 4);
+        FileHeader header = header(2);
+        cache.fileKey(WRONG_PASSWORD, header, options, null);
+        cache.fileKey(WRONG_PASSWORD, header, options, null);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void entriesExpireAfterTheTtl() throws Exception {
+        KeyCache cache = new KeyCache(50, TimeUnit.MILLISECONDS, 4);
+        FileHeader header = header(3);
+        cache.fileKey(PASSWORD, header, options, null);
+        byte[] key = storedKeys(cache)[0];
+        Thread.sleep(100);
+        cache.purgeExpired();
+        assertEquals(0, cache.size());
+        assertWiped(key);
+        cache.fileKey(PASSWORD, header, options, null);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedAndWiped() throws Exception {
+        KeyCache cache = new KeyCache(1, TimeUnit.HOURS, 2);
+        FileHeader a = header(4);
+        FileHeader b = header(5);
+        FileHeader c = header(6);
+        cache.fileKey(PASSWORD, a, options, null);
+        cache.fileKey(PASSWORD, b, options, null);
+        byte[] bKey = storedKeys(cache)[1];
+        cache.fileKey(PASSWORD, a, options, null); // a is now the most recently used
+        cache.fileKey(PASSWORD, c, options, null);
+        assertEquals(2, cache.size());
+        assertWiped(bKey);
+
+        long misses = cache.getMissCount();
+        cache.fileKey(PASSWORD, a, options, null);
+        assertEquals(misses, cache.getMissCount());
+        cache.fileKey(PASSWORD, b, options, null);
+        assertEquals(misses + 1, cache.getMissCount());
+    }
+
+    @Test
+    public void clearingOrReplacingTheInstalledCacheWipesIt() throws Exception {
+        KeyCache cache = new KeyCache(1, TimeUnit.HOURS, 4);
+        KeyDerivation.setCache(cache);
+        assertSame(cache, KeyDerivation.getCache());
+        KeyDerivation.fileKey(PASSWORD, header(7), options);
+        byte[] key = storedKeys(cache)[0];
+        KeyDerivation.setCache(new KeyCache(1, TimeUnit.HOURS, 4));
+        assertEquals(0, cache.size());
+        assertWiped(key);
+    }
+
+    @Test
+    public void decryptionRecordsCacheHitsInTheJobMetrics() throws Exception {
+        KeyDerivation.setCache(new KeyCache(1, TimeUnit.HOURS, 4));
+        File source = CryptoTestSupport.write(new File(temp.getRoot(), "plain"), CryptoTestSupport.randomBytes(5000, 8));
+        File encrypted = new File(temp.getRoot(), "plain.enc");
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, options, 4096, QUIET, new CryptoJob(QUIET, Runnable::run));
+
+        for (int run = 0; run < 2; run++) {
+            CryptoJob job = new CryptoJob(QUIET, Runnable::run);
+            File decrypted = new File(temp.getRoot(), "plain.out");
+            new SequentialProcessor().decrypt(encrypted.getPath(), decrypted.getPath(), PASSWORD, null, 4096, QUIET, job);
+            assertArrayEquals(CryptoTestSupport.read(source), CryptoTestSupport.read(decrypted));
+            assertEquals("run " + run, run, job.getMetrics().getKeyCacheHits());
+        }
+    }
+
+    @Test
+    public void limitsMustBePositive() {
+        for (int[] limits : new int[][]{{0, 1}, {1, 0}}) {
+            try {
+                new KeyCache(limits[0], TimeUnit.SECONDS, limits[1]);
+                fail("Accepted a TTL of " + limits[0] + " and a size of " + limits[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    private FileHeader header(long seed) throws Exception {
+        byte[] salt = CryptoTestSupport.randomBytes(16, seed);
+        FileHeader header = new FileHeader(options, CryptoTestSupport.randomBytes(12, seed), salt);
+        header.setKey(KeyDerivation.deriveKey(PASSWORD, salt, options));
+        return header;
+    }
+
+    /** The key arrays the cache holds, in access order; the test reads them to see that they get zeroed. */
+    private static byte[][] storedKeys(KeyCache cache) throws Exception {
+        Field entriesField = KeyCache.class.getDeclaredField("entries");
+        entriesField.setAccessible(true);
+        Map<?, ?> entries = (Map<?, ?>) entriesField.get(cache);
+        byte[][] keys = new byte[entries.size()][];
+        int i = 0;
+        for (Object entry : entries.values()) {
+            Field keyField = entry.getClass().getDeclaredField("key");
+            keyField.setAccessible(true);
+            keys[i++] = (byte[]) keyField.get(entry);
+        }
+        return keys;
+    }
+
+    private static void assertWiped(byte[] key) {
+        for (byte b : key) {
+            assertEquals("Key bytes were not zeroed.", 0, b);
+        }
+    }
+}
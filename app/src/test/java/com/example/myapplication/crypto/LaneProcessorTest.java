@@ -0,0 +1,153 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class LaneProcessorTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final int THREADS = 4;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void everyChainedModeRoundTripsAcrossLaneLayouts() throws Exception {
+        CryptoOptions[] modes = {
+                CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null),
+                CryptoTestSupport.aes(CryptoOptions.CipherMode.CFB, CryptoOptions.Padding.NoPadding, null),
+                CryptoTestSupport.aes(CryptoOptions.CipherMode.OFB, CryptoOptions.Padding.NoPadding, null),
+                CryptoTestSupport.cbcWithMac()};
+        for (CryptoOptions mode : modes) {
+            for (int lanes : new int[]{2, 3, 7}) {
+                CryptoOptions options = mode.withLanes(lanes);
+                for (int size : new int[]{0, 1, 16, 17, 3 * CHUNK_SIZE + 5, 100_003}) {
+                    String shape = options + " size " + size;
+                    byte[] data = CryptoTestSupport.randomBytes(size, size);
+                    File encrypted = encrypt(options, data);
+                    FileHeader header = FileHeader.peek(encrypted.getPath());
+                    assertTrue(shape, header.hasLanes());
+                    assertTrue(shape, header.getLaneCount() >= 1 && header.getLaneCount() <= lanes);
+                    assertEquals(shape, 0, header.getLaneSize() % 16);
+                    if (options.requiresChunkMac()) {
+                        assertEquals(shape, 0, header.getLaneSize() % CHUNK_SIZE);
+                    }
+                    assertArrayEquals(shape, data, CryptoTestSupport.read(decrypt(encrypted, THREADS)));
+                    assertArrayEquals(shape, data, CryptoTestSupport.read(decrypt(encrypted, 1)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void laneCountIsCappedAtWhatAHeaderMayDeclare() throws Exception {
+        CryptoOptions cbc = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null);
+        try {
+            cbc.withLanes(CryptoOptions.MAX_LANES + 1);
+            fail("Accepted more lanes than a header may declare.");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // The largest allowed count still gives a file that opens.
+        byte[] data = CryptoTestSupport.randomBytes(1 << 20, 1);
+        File encrypted = encrypt(cbc.withLanes(CryptoOptions.MAX_LANES), data);
+        assertEquals(CryptoOptions.MAX_LANES, FileHeader.peek(encrypted.getPath()).getLaneCount());
+        assertArrayEquals(data, CryptoTestSupport.read(decrypt(encrypted, THREADS)));
+    }
+
+    @Test
+    public void alteredLaneTableIsRejected() throws Exception {
+        CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null).withLanes(4);
+        File encrypted = encrypt(options, CryptoTestSupport.randomBytes(10 * CHUNK_SIZE, 2));
+        FileHeader header = FileHeader.peek(encrypted.getPath());
+        CryptoTestSupport.flipBit(encrypted, indexOf(encrypted, header.getLaneIv(2)));
+        assertDecryptFails(encrypted);
+    }
+
+    @Test
+    public void truncatedLastLaneIsRejected() throws Exception {
+        CryptoOptions options = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null).withLanes(4);
+        File encrypted = encrypt(options, CryptoTestSupport.randomBytes(10 * CHUNK_SIZE, 3));
+        // A whole block off the end still decrypts under CBC; only the lane tag notices.
+        CryptoTestSupport.truncate(encrypted, 16);
+        assertDecryptFails(encrypted);
+    }
+
+    @Test
+    public void tamperingAtALaneBoundaryIsCaughtByTheChunkMac() throws Exception {
+        CryptoOptions options = CryptoTestSupport.cbcWithMac().withLanes(4);
+        File flipped = encrypt(options, CryptoTestSupport.randomBytes(8 * CHUNK_SIZE, 4));
+        FileHeader header = FileHeader.peek(flipped.getPath());
+        CryptoTestSupport.flipBit(flipped, header.getHeaderSize() + 2 * header.getLaneSize());
+        assertDecryptFails(flipped);
+
+        // Two whole lanes swapped: each still a valid CBC chain under its own IV, but not in its place.
+        File swapped = encrypt(options, CryptoTestSupport.randomBytes(8 * CHUNK_SIZE, 5));
+        header = FileHeader.peek(swapped.getPath());
+        int laneSize = (int) header.getLaneSize();
+        try (RandomAccessFile raf = new RandomAccessFile(swapped, "rw")) {
+            byte[] first = new byte[laneSize];
+            byte[] second = new byte[laneSize];
+            raf.seek(header.getHeaderSize());
+            raf.readFully(first);
+            raf.readFully(second);
+            raf.seek(header.getHeaderSize());
+            raf.write(second);
+            raf.write(first);
+        }
+        assertDecryptFails(swapped);
+    }
+
+    private void assertDecryptFails(File encrypted) throws Exception {
+        File dest = new File(temp.getRoot(), encrypted.getName() + ".out");
+        try {
+            new LaneProcessor(THREADS).decrypt(encrypted.getPath(), dest.getPath(), PASSWORD, null, CHUNK_SIZE, QUIET,
+                    new CryptoJob(QUIET, Runnable::run));
+            fail("Damaged file was decrypted.");
+        } catch (IOException expected) {
+        }
+        assertFalse("Partial output was left behind.", dest.exists());
+    }
+
+    private File encrypt(CryptoOptions options, byte[] data) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = temp.newFile();
+        new LaneProcessor(THREADS).encrypt(source.getPath(), encrypted.getPath(), PASSWORD, options, CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        return encrypted;
+    }
+
+    private File decrypt(File encrypted, int threads) throws Exception {
+        File decrypted = temp.newFile();
+        new LaneProcessor(threads).decrypt(encrypted.getPath(), decrypted.getPath(), PASSWORD, null, CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        return decrypted;
+    }
+
+    private static long indexOf(File file, byte[] needle) throws IOException {
+        byte[] haystack = CryptoTestSupport.read(file);
+        for (int i = 0; i + needle.length <= haystack.length; i++) {
+            int j = 0;
+            while (j < needle.length && haystack[i + j] == needle[j]) {
+                j++;
+            }
+            if (j == needle.length) {
+                return i;
+            }
+        }
+        throw new IOException("Bytes not found in " + file);
+    }
+}
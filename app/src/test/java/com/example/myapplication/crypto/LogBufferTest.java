@@ -0,0 +1,79 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LogBufferTest {
+
+    private final List<String> copy = new ArrayList<>();
+
+    @Test
+    public void wrapsAroundKeepingTheNewestLinesInOrder() {
+        LogBuffer buffer = new LogBuffer(3);
+        for (int i = 0; i < 7; i++) {
+            buffer.append("line " + i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(7, buffer.getAppendedCount());
+
+        // The oldest copied line is line 4, so lines 0 to 3 have scrolled out.
+        assertEquals(4, buffer.copyTo(copy));
+        assertEquals(Arrays.asList("line 4", "line 5", "line 6"), copy);
+
+        buffer.append("line 7");
+        assertEquals(5, buffer.copyTo(copy));
+        assertEquals(Arrays.asList("line 5", "line 6", "line 7"), copy);
+    }
+
+    @Test
+    public void copyBeforeTheRingFillsStartsAtZero() {
+        LogBuffer buffer = new LogBuffer(3);
+        assertEquals(0, buffer.copyTo(copy));
+        assertTrue(copy.isEmpty());
+
+        buffer.append("a");
+        buffer.append("b");
+        assertEquals(0, buffer.copyTo(copy));
+        assertEquals(Arrays.asList("a", "b"), copy);
+    }
+
+    @Test
+    public void onlyTheFirstLineAfterACopyAsksForARender() {
+        LogBuffer buffer = new LogBuffer(3);
+        assertTrue(buffer.append("a"));
+        assertFalse(buffer.append("b"));
+        // Still only the first, even once the ring has wrapped.
+        for (int i = 0; i < 5; i++) {
+            assertFalse(buffer.append("x" + i));
+        }
+
+        buffer.copyTo(copy);
+        assertTrue(buffer.append("c"));
+        assertFalse(buffer.append("d"));
+    }
+
+    @Test
+    public void clearKeepsCountingSequenceNumbers() {
+        LogBuffer buffer = new LogBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.append("line " + i);
+        }
+        buffer.copyTo(copy);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(5, buffer.getAppendedCount());
+        assertEquals(5, buffer.copyTo(copy));
+        assertTrue(copy.isEmpty());
+
+        buffer.append("line 5");
+        assertEquals(5, buffer.copyTo(copy));
+        assertEquals(Arrays.asList("line 5"), copy);
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.BCPGInputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PacketTags;
+import org.bouncycastle.bcpg.S2K;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyEncSessionPacket;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPCompressedData;
+import org.bouncycastle.openpgp.PGPEncryptedDataList;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPPBEEncryptedData;
+import org.bouncycastle.openpgp.jcajce.JcaPGPObjectFactory;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBEDataDecryptorFactoryBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+public class OpenPgpProcessorTest {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final byte[] TEXT = String.join("\n", Collections.nCopies(5000, "All work and no play."))
+            .getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoJob job = new CryptoJob(QUIET, Runnable::run);
+
+    @Test
+    public void roundTripsWithAndWithoutCompression() throws Exception {
+        for (boolean compress : new boolean[]{false, true}) {
+            for (byte[] data : new byte[][]{new byte[0], {42}, CryptoTestSupport.randomBytes(5 * CHUNK_SIZE + 3, 1), TEXT}) {
+                String shape = (compress ? "compressed " : "") + data.length + " bytes";
+                File encrypted = encrypt(data, compress);
+                assertTrue(shape, OpenPgpProcessor.isOpenPgp(encrypted.getPath()));
+                assertArrayEquals(shape, data, CryptoTestSupport.read(decrypt(encrypted, PASSWORD)));
+            }
+        }
+        // Compression only pays off on compressible input, and must actually be applied there.
+        assertTrue(encrypt(TEXT, true).length() < TEXT.length / 10);
+    }
+
+    @Test
+    public void writesPasswordAndIntegrityProtectedPackets() throws Exception {
+        // Incompressible and longer than a chunk, so every packet body is streamed in partial lengths.
+        File source = CryptoTestSupport.write(new File(temp.getRoot(), "report.bin"), CryptoTestSupport.randomBytes(3 * CHUNK_SIZE, 6));
+        for (boolean compress : new boolean[]{false, true}) {
+            File encrypted = new File(temp.getRoot(), "report-" + compress + ".gpg");
+            new OpenPgpProcessor(compress).encrypt(source.getPath(), encrypted.getPath(), PASSWORD, CryptoOptions.getDefault(),
+                    CHUNK_SIZE, QUIET, job);
+            byte[] message = CryptoTestSupport.read(encrypted);
+
+            // New-format SKESK: version 4, AES-256, iterated and salted SHA-256 S2K.
+            assertEquals(0xC0 | PacketTags.SYMMETRIC_KEY_ENC_SESSION, message[0] & 0xFF);
+            SymmetricKeyEncSessionPacket skesk = (SymmetricKeyEncSessionPacket) new BCPGInputStream(new ByteArrayInputStream(message)).readPacket();
+            assertEquals(4, skesk.getVersion());
+            assertEquals(SymmetricKeyAlgorithmTags.AES_256, skesk.getEncAlgorithm());
+            assertEquals(S2K.SALTED_AND_ITERATED, skesk.getS2K().getType());
+            assertEquals(HashAlgorithmTags.SHA256, skesk.getS2K().getHashAlgorithm());
+            assertEquals(16L << 20, skesk.getS2K().getIterationCount());
+
+            // Then a SEIPD packet streamed in partial bodies of one chunk each (224 + log2 of the length).
+            int seipd = 2 + (message[1] & 0xFF);
+            assertEquals(0xC0 | PacketTags.SYM_ENC_INTEGRITY_PRO, message[seipd] & 0xFF);
+            assertEquals(224 + Integer.numberOfTrailingZeros(CHUNK_SIZE), message[seipd + 1] & 0xFF);
+
+            // Inside: an optional compressed packet around a binary literal packet named after the source.
+            Object inner = new JcaPGPObjectFactory(open(message, PASSWORD)).nextObject();
+            assertEquals(compress, inner instanceof PGPCompressedData);
+            if (compress) {
+                inner = new JcaPGPObjectFactory(((PGPCompressedData) inner).getDataStream()).nextObject();
+            }
+            PGPLiteralData literal = (PGPLiteralData) inner;
+            assertEquals(PGPLiteralData.BINARY, literal.getFormat());
+            assertEquals("report.bin", literal.getFileName());
+        }
+    }
+
+    @Test
+    public void armoredMessagesDecrypt() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(3 * CHUNK_SIZE, 2);
+        File binary = encrypt(data, false);
+        File armored = new File(temp.getRoot(), "armored.asc");
+        try (OutputStream out = new ArmoredOutputStream(new FileOutputStream(armored))) {
+            out.write(CryptoTestSupport.read(binary));
+        }
+        assertTrue(OpenPgpProcessor.isOpenPgp(armored.getPath()));
+        assertArrayEquals(data, CryptoTestSupport.read(decrypt(armored, PASSWORD)));
+    }
+
+    @Test
+    public void nativeFilesAreNotTakenForOpenPgp() throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), CryptoTestSupport.randomBytes(100, 3));
+        File encrypted = new File(temp.getRoot(), "native.enc");
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, CryptoOptions.getDefault(), CHUNK_SIZE, QUIET, job);
+        assertFalse(OpenPgpProcessor.isOpenPgp(encrypted.getPath()));
+        assertFalse(OpenPgpProcessor.isOpenPgp(source.getPath()));
+    }
+
+    @Test
+    public void tamperedMessageFailsTheMdcAndLeavesNoOutput() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(4 * CHUNK_SIZE, 4);
+        File middle = encrypt(data, false);
+        CryptoTestSupport.flipBit(middle, middle.length() / 2);
+        assertDecryptFails(middle, PASSWORD);
+
+        // The last bytes are the MDC packet itself.
+        File end = encrypt(data, false);
+        CryptoTestSupport.flipBit(end, -1);
+        assertDecryptFails(end, PASSWORD);
+
+        File truncated = encrypt(data, false);
+        CryptoTestSupport.truncate(truncated, 10);
+        assertDecryptFails(truncated, PASSWORD);
+    }
+
+    @Test
+    public void wrongPasswordIsRejected() throws Exception {
+        File encrypted = encrypt(CryptoTestSupport.randomBytes(10_000, 5), true);
+        // Caught by the session key's check bytes, before any output is written.
+        assertEquals("Wrong password or corrupt OpenPGP message.", assertDecryptFails(encrypted, WRONG_PASSWORD).getMessage());
+    }
+
+    @Test
+    public void onlyOpenPgpCiphersAreAccepted() throws Exception {
+        CryptoOptions serpent = new CryptoOptions(CryptoOptions.CryptoProtocol.SERPENT, CryptoOptions.KeyLength.BITS_256,
+                CryptoOptions.BlockSize.BITS_128, CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null,
+                CryptoOptions.Kdf.PBKDF2WithHmacSHA256);
+        File source = CryptoTestSupport.write(temp.newFile(), new byte[10]);
+        File dest = new File(temp.getRoot(), "serpent.gpg");
+        try {
+            new OpenPgpProcessor().encrypt(source.getPath(), dest.getPath(), PASSWORD, serpent, CHUNK_SIZE, QUIET, job);
+            fail("Encrypted OpenPGP with a cipher OpenPGP does not define.");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(dest.exists());
+    }
+
+    private File encrypt(byte[] data, boolean compress) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = new File(temp.getRoot(), source.getName() + ".gpg");
+        new OpenPgpProcessor(compress).encrypt(source.getPath(), encrypted.getPath(), PASSWORD, CryptoOptions.getDefault(), CHUNK_SIZE, QUIET, job);
+        return encrypted;
+    }
+
+    private File decrypt(File encrypted, char[] password) throws Exception {
+        File dest = new File(temp.getRoot(), encrypted.getName() + ".out");
+        new OpenPgpProcessor().decrypt(encrypted.getPath(), dest.getPath(), password, null, CHUNK_SIZE, QUIET, job);
+        return dest;
+    }
+
+    private IOException assertDecryptFails(File encrypted, char[] password) throws Exception {
+        File dest = new File(temp.getRoot(), encrypted.getName() + ".out");
+        IOException failure = null;
+        try {
+            decrypt(encrypted, password);
+            fail("Damaged message or wrong password was accepted: " + encrypted.getName());
+        } catch (IOException expected) {
+            failure = expected;
+        }
+        assertFalse("Partial output was left behind.", dest.exists());
+        return failure;
+    }
+
+    /**
+     * The decrypted contents of the SEIPD packet, read independently of the processor.
+     */
+    private static InputStream open(byte[] message, char[] password) throws Exception {
+        JcaPGPObjectFactory factory = new JcaPGPObjectFactory(new ByteArrayInputStream(message));
+        PGPPBEEncryptedData data = (PGPPBEEncryptedData) ((PGPEncryptedDataList) factory.nextObject()).get(0);
+        assertTrue(data.isIntegrityProtected());
+        return data.getDataStream(new JcePBEDataDecryptorFactoryBuilder(
+                new JcaPGPDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build())
+                .setProvider(BouncyCastleProvider.PROVIDER_NAME).build(password));
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.BadPaddingException;
+
+public class ParallelProcessorTest {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int THREADS = 4;
+    /** Not a block multiple, so decryption has to align its chunks itself (to 4992 bytes). */
+    private static final int UNALIGNED_CHUNK_SIZE = 5000;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void gcmAtFourThreadsWritesOneTagAndDecrypts() throws Exception {
+        CryptoOptions gcm = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding,
+                CryptoOptions.TagLength.BITS_128);
+        for (int size : new int[]{0, 70000}) {
+            byte[] data = CryptoTestSupport.randomBytes(size, size);
+            File encrypted = encrypt(gcm, data);
+            // One tag for the whole payload, not one per chunk.
+            assertEquals("size " + size, CryptoTestSupport.headerSize(encrypted) + size + 16, encrypted.length());
+            assertArrayEquals("size " + size, data, CryptoTestSupport.read(decrypt(encrypted, THREADS)));
+            assertArrayEquals("size " + size, data, CryptoTestSupport.read(decrypt(encrypted, 1)));
+        }
+    }
+
+    @Test
+    public void otherSingleTagModesRoundTripAtFourThreads() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(70000, 1);
+        for (CryptoOptions.CipherMode mode : new CryptoOptions.CipherMode[]{
+                CryptoOptions.CipherMode.CCM, CryptoOptions.CipherMode.OCB, CryptoOptions.CipherMode.EAX}) {
+            File encrypted = encrypt(CryptoTestSupport.aes(mode, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128), data);
+            assertArrayEquals(mode.name(), data, CryptoTestSupport.read(decrypt(encrypted, THREADS)));
+        }
+    }
+
+    @Test
+    public void ctrStillRunsInChunks() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(5 * CHUNK_SIZE + 17, 2);
+        File encrypted = encrypt(CryptoTestSupport.aes(CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, null), data);
+        assertEquals(CryptoTestSupport.headerSize(encrypted) + data.length, encrypted.length());
+        assertArrayEquals(data, CryptoTestSupport.read(decrypt(encrypted, 1)));
+    }
+
+    @Test
+    public void chainedModesDecryptInParallelChunks() throws Exception {
+        int[] anySize = {0, 1, 16_000, 50_001};
+        int[] blockMultiples = {0, 16_000};
+        Object[][] cases = {
+                {CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, anySize},
+                {CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.NoPadding, blockMultiples},
+                {CryptoOptions.CipherMode.CFB, CryptoOptions.Padding.PKCS5Padding, anySize},
+                {CryptoOptions.CipherMode.CFB, CryptoOptions.Padding.NoPadding, anySize}};
+        for (Object[] c : cases) {
+            CryptoOptions options = CryptoTestSupport.aes((CryptoOptions.CipherMode) c[0], (CryptoOptions.Padding) c[1], null);
+            for (int size : (int[]) c[2]) {
+                String shape = options + " size " + size;
+                byte[] data = CryptoTestSupport.randomBytes(size, size);
+                File encrypted = encryptSequentially(options, data);
+                File decrypted = new File(temp.getRoot(), encrypted.getName() + ".out");
+                decryptInChunks(encrypted, decrypted);
+                assertArrayEquals(shape, data, CryptoTestSupport.read(decrypted));
+            }
+        }
+    }
+
+    @Test
+    public void badPaddingInTheLastChunkFailsAndLeavesNoOutput() throws Exception {
+        CryptoOptions cbc = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null);
+        // A block-multiple plaintext ends in a whole block of 0x10 padding. Flipping the last bit of the block
+        // before it turns the final pad byte into 0x11, which no padding check accepts.
+        File encrypted = encryptSequentially(cbc, CryptoTestSupport.randomBytes(16_000, 3));
+        CryptoTestSupport.flipBit(encrypted, -17);
+
+        File dest = new File(temp.getRoot(), "padding.out");
+        try {
+            decryptInChunks(encrypted, dest);
+            fail("Damaged padding was accepted.");
+        } catch (Exception expected) {
+            Throwable cause = expected;
+            while (cause != null && !(cause instanceof BadPaddingException)) {
+                cause = cause.getCause();
+            }
+            assertFalse("Failed for another reason: " + expected, cause == null);
+        }
+        assertFalse("Partial output was left behind.", dest.exists());
+    }
+
+    private File encryptSequentially(CryptoOptions options, byte[] data) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = temp.newFile();
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, options, UNALIGNED_CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        return encrypted;
+    }
+
+    /**
+     * Decrypts with four threads at the unaligned chunk size, failing if the processor fell back to its
+     * sequential path instead.
+     */
+    private static void decryptInChunks(File encrypted, File dest) throws Exception {
+        List<String> logs = new ArrayList<>();
+        CryptoListener listener = new CryptoListener() {
+            @Override
+            public void onStart(long totalBytes) {
+            }
+
+            @Override
+            public void onProgress(long currentBytes, long totalBytes) {
+            }
+
+            @Override
+            public void onSuccess(String message, String outputPath) {
+            }
+
+            @Override
+            public void onError(String message, Exception e) {
+            }
+
+            @Override
+            public void onLog(String message) {
+                synchronized (logs) {
+                    logs.add(message);
+                }
+            }
+        };
+        try {
+            new ParallelProcessor(THREADS).decrypt(encrypted.getPath(), dest.getPath(), PASSWORD, null, UNALIGNED_CHUNK_SIZE,
+                    listener, new CryptoJob(QUIET, Runnable::run));
+        } finally {
+            for (String log : logs) {
+                assertFalse(log, log.contains("sequential"));
+            }
+        }
+    }
+
+    private File encrypt(CryptoOptions options, byte[] data) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = temp.newFile();
+        new ParallelProcessor(THREADS).encrypt(source.getPath(), encrypted.getPath(), PASSWORD, options, CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        return encrypted;
+    }
+
+    private File decrypt(File encrypted, int threads) throws Exception {
+        File decrypted = temp.newFile();
+        new ParallelProcessor(threads).decrypt(encrypted.getPath(), decrypted.getPath(), PASSWORD, null, CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        return decrypted;
+    }
+}
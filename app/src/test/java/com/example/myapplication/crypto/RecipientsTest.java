@@ -0,0 +1,107 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+public class RecipientsTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final String alice = Recipients.generateSecretKey();
+    private final String bob = Recipients.generateSecretKey();
+    private final String mallory = Recipients.generateSecretKey();
+
+    @Test
+    public void keysRoundTripAsText() {
+        String publicKey = Recipients.publicKeyOf(alice);
+        assertTrue(publicKey.startsWith("x25519-public-"));
+        assertEquals(Recipients.KEY_SIZE, Recipients.parsePublicKey(publicKey).length);
+        assertArrayEquals(Recipients.parsePublicKey(publicKey), Recipients.parsePublicKey("  " + publicKey.toUpperCase(Locale.US) + "\n"));
+        assertTrue(Recipients.isSecretKey(alice.toCharArray()));
+        assertFalse(Recipients.isSecretKey(PASSWORD));
+
+        for (String bad : new String[]{alice, publicKey.substring(0, publicKey.length() - 2), publicKey + "zz", "x25519-public-"}) {
+            try {
+                Recipients.parsePublicKey(bad);
+                fail("Parsed " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void everyRecipientCanDecryptAndNoOneElse() throws Exception {
+        CryptoOptions gcm = CryptoTestSupport.aes(CryptoOptions.CipherMode.GCM, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128);
+        byte[] data = CryptoTestSupport.randomBytes(3 * CHUNK_SIZE + 17, 1);
+        File encrypted = encrypt(data, gcm.withRecipients(Arrays.asList(
+                Recipients.parsePublicKey(Recipients.publicKeyOf(alice)), Recipients.parsePublicKey(Recipients.publicKeyOf(bob)))));
+
+        FileHeader header = FileHeader.peek(encrypted.getPath());
+        assertTrue(header.hasRecipients());
+        assertEquals(2, header.getRecipientCount());
+
+        assertArrayEquals(data, decrypt(encrypted, alice));
+        assertArrayEquals(data, decrypt(encrypted, bob.toUpperCase(Locale.US)));
+        assertDecryptFails(encrypted, mallory, "This file is not encrypted to that secret key.");
+        assertDecryptFails(encrypted, new String(PASSWORD), "This file is encrypted to public keys; give a recipient's secret key instead of a password.");
+    }
+
+    @Test
+    public void segmentedFilesTakeRecipientsToo() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(5 * CHUNK_SIZE, 2);
+        File encrypted = encrypt(data, CryptoOptions.getChaChaDefault().withRecipients(
+                Arrays.asList(Recipients.parsePublicKey(Recipients.publicKeyOf(alice)))));
+        assertArrayEquals(data, decrypt(encrypted, alice));
+        assertDecryptFails(encrypted, bob, "This file is not encrypted to that secret key.");
+    }
+
+    @Test
+    public void damagedWrappedKeyIsRejected() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(1000, 3);
+        File encrypted = encrypt(data, CryptoOptions.getChaChaDefault().withRecipients(
+                Arrays.asList(Recipients.parsePublicKey(Recipients.publicKeyOf(alice)))));
+        // The last bytes of the header are the wrapped key; damage one of them.
+        CryptoTestSupport.flipBit(encrypted, CryptoTestSupport.headerSize(encrypted) - 3);
+        assertDecryptFails(encrypted, alice, "This file is not encrypted to that secret key.");
+    }
+
+    private File encrypt(byte[] data, CryptoOptions options) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = new File(source.getPath() + ".enc");
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, options, CHUNK_SIZE, QUIET, new CryptoJob(QUIET, Runnable::run));
+        return encrypted;
+    }
+
+    private byte[] decrypt(File encrypted, String secretKey) throws Exception {
+        File decrypted = new File(temp.getRoot(), "decrypted");
+        new SequentialProcessor().decrypt(encrypted.getPath(), decrypted.getPath(), secretKey.toCharArray(), null, CHUNK_SIZE, QUIET,
+                new CryptoJob(QUIET, Runnable::run));
+        return CryptoTestSupport.read(decrypted);
+    }
+
+    private void assertDecryptFails(File encrypted, String secretKey, String message) throws Exception {
+        try {
+            decrypt(encrypted, secretKey);
+            fail("Decrypted with " + secretKey);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class SegmentProcessorTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int SEALED_SIZE = SEGMENT_SIZE + SegmentCipher.TAG_SIZE;
+    private static final int THREADS = 3;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoJob job = new CryptoJob(QUIET, Runnable::run);
+
+    @Test
+    public void roundTripsAndLaysOutSegmentsBackToBack() throws Exception {
+        for (int size : new int[]{0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 7 * SEGMENT_SIZE + 123}) {
+            byte[] data = CryptoTestSupport.randomBytes(size, size);
+            File encrypted = encrypt(data);
+            int segments = Math.max(1, (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            long expected = CryptoTestSupport.headerSize(encrypted) + size + (long) segments * SegmentCipher.TAG_SIZE;
+            assertEquals("size " + size, expected, encrypted.length());
+            assertArrayEquals("size " + size, data, CryptoTestSupport.read(decrypt(encrypted)));
+        }
+    }
+
+    @Test
+    public void tamperedSegmentFailsWithTheUnderlyingIOException() throws Exception {
+        File encrypted = encrypt(CryptoTestSupport.randomBytes(5 * SEGMENT_SIZE, 1));
+        CryptoTestSupport.flipBit(encrypted, CryptoTestSupport.headerSize(encrypted) + 3L * SEALED_SIZE + 10);
+        File dest = new File(temp.getRoot(), "tampered.out");
+        try {
+            new SegmentProcessor(THREADS).decrypt(encrypted.getPath(), dest.getPath(), PASSWORD, null, SEGMENT_SIZE, QUIET, job);
+            fail("Tampered segment was accepted.");
+        } catch (IOException expected) {
+            // Not wrapped in ExecutionException or RuntimeException.
+        }
+        assertFalse("Partial output was left behind.", dest.exists());
+    }
+
+    @Test
+    public void reorderedOrTruncatedSegmentsFail() throws Exception {
+        File swapped = encrypt(CryptoTestSupport.randomBytes(4 * SEGMENT_SIZE, 2));
+        long first = CryptoTestSupport.headerSize(swapped) + SEALED_SIZE;
+        try (RandomAccessFile raf = new RandomAccessFile(swapped, "rw")) {
+            byte[] a = new byte[SEALED_SIZE];
+            byte[] b = new byte[SEALED_SIZE];
+            raf.seek(first);
+            raf.readFully(a);
+            raf.readFully(b);
+            raf.seek(first);
+            raf.write(b);
+            raf.write(a);
+        }
+        assertDecryptFails(swapped);
+
+        // Dropping the final segment must not read as a shorter, valid file.
+        File truncated = encrypt(CryptoTestSupport.randomBytes(4 * SEGMENT_SIZE, 3));
+        CryptoTestSupport.truncate(truncated, SEALED_SIZE);
+        assertDecryptFails(truncated);
+    }
+
+    @Test
+    public void failureDoesNotPoisonASharedJob() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(6 * SEGMENT_SIZE, 4);
+        File good = encrypt(data);
+        File bad = encrypt(data);
+        CryptoTestSupport.flipBit(bad, -1);
+
+        assertDecryptFails(bad);
+        // The same job carries on with the next file, as FolderSync and the Transcoder do.
+        assertArrayEquals(data, CryptoTestSupport.read(decrypt(good)));
+        assertFalse(job.isCancelled());
+    }
+
+    @Test
+    public void sequentialProcessorDelegatesSegmentedModes() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(3 * SEGMENT_SIZE + 5, 5);
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File encrypted = new File(temp.getRoot(), "sequential.enc");
+        new SequentialProcessor().encrypt(source.getPath(), encrypted.getPath(), PASSWORD, CryptoOptions.getChaChaDefault(),
+                SEGMENT_SIZE, QUIET, job);
+        assertArrayEquals(data, CryptoTestSupport.read(decrypt(encrypted)));
+    }
+
+    private File encrypt(byte[] data) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File dest = new File(temp.getRoot(), source.getName() + ".enc");
+        new SegmentProcessor(THREADS).encrypt(source.getPath(), dest.getPath(), PASSWORD, CryptoOptions.getChaChaDefault(),
+                SEGMENT_SIZE, QUIET, job);
+        return dest;
+    }
+
+    private File decrypt(File encrypted) throws Exception {
+        File dest = new File(temp.getRoot(), encrypted.getName() + ".out");
+        new SegmentProcessor(THREADS).decrypt(encrypted.getPath(), dest.getPath(), PASSWORD, null, SEGMENT_SIZE, QUIET, job);
+        return dest;
+    }
+
+    private void assertDecryptFails(File encrypted) throws Exception {
+        try {
+            decrypt(encrypted);
+            fail("Damaged file was accepted: " + encrypted.getName());
+        } catch (IOException | java.security.GeneralSecurityException expected) {
+            // Authentication or framing failure.
+        }
+    }
+}
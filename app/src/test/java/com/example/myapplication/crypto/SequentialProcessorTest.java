@@ -0,0 +1,274 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+public class SequentialProcessorTest {
+
+    private static final int CHUNK_SIZE = 4096;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void prefetchAndWriteBehindDoNotChangeTheOutput() throws Exception {
+        CryptoOptions[] modes = {
+                CryptoOptions.getDefault(),
+                CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null),
+                CryptoTestSupport.cbcWithMac()};
+        byte[] salt = new byte[16];
+        Arrays.fill(salt, (byte) 7);
+        for (CryptoOptions options : modes) {
+            SecretKey key = KeyDerivation.newFileKey(PASSWORD, salt, options);
+            byte[] iv = new byte[options.getMode() == CryptoOptions.CipherMode.GCM ? 12 : 16];
+            Arrays.fill(iv, (byte) 3);
+            for (int size : new int[]{0, 1, CHUNK_SIZE, 5 * CHUNK_SIZE + 3}) {
+                String shape = options + " size " + size;
+                byte[] data = CryptoTestSupport.randomBytes(size, size);
+                byte[] unbuffered = encrypt(new SequentialProcessor(1), data, key, salt, iv, options);
+                byte[] buffered = encrypt(new SequentialProcessor(3), data, key, salt, iv, options);
+                assertArrayEquals(shape, unbuffered, buffered);
+
+                File encrypted = CryptoTestSupport.write(temp.newFile(), buffered);
+                File decrypted = new File(temp.getRoot(), encrypted.getName() + ".out");
+                new SequentialProcessor(3).decrypt(encrypted.getPath(), decrypted.getPath(), PASSWORD, null, CHUNK_SIZE, QUIET,
+                        new CryptoJob(QUIET, Runnable::run));
+                assertArrayEquals(shape, data, CryptoTestSupport.read(decrypted));
+            }
+        }
+    }
+
+    @Test
+    public void sourceThatFailsMidReadIsAnErrorNotTheEnd() throws Exception {
+        IOException ioFailure = new IOException("Disk went away.");
+        assertSame(ioFailure, readUntilFailure(new FailingInputStream(3 * CHUNK_SIZE + 10, ioFailure)));
+
+        // Unchecked failures, such as from a decrypting source, are wrapped rather than lost.
+        IllegalStateException unchecked = new IllegalStateException("Tag mismatch.");
+        assertSame(unchecked, readUntilFailure(new FailingInputStream(CHUNK_SIZE / 2, unchecked)).getCause());
+    }
+
+    @Test
+    public void sinkWriteErrorIsRethrownToTheProducer() throws Exception {
+        IOException diskFull = new IOException("No space left on device.");
+        OutputStream sink = new OutputStream() {
+            private long written;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (written + len > 2 * CHUNK_SIZE) {
+                    throw diskFull;
+                }
+                written += len;
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            WriteBehindOutputStream out = new WriteBehindOutputStream(sink, CHUNK_SIZE, 3, executor);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            try {
+                for (int i = 0; i < 100; i++) {
+                    out.write(chunk);
+                }
+                out.close();
+                fail("Write error was swallowed.");
+            } catch (IOException expected) {
+                assertSame(diskFull, expected);
+            }
+            // Closing after the error still ends the writer instead of waiting for it forever.
+            try {
+                out.close();
+            } catch (IOException expected) {
+                assertSame(diskFull, expected);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void closingBeforeTheEndDoesNotHang() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorService consumer = Executors.newSingleThreadExecutor();
+        try {
+            // The reader has filled every buffer and waits for a free one when the consumer gives up.
+            Future<?> closed = consumer.submit(() -> {
+                PrefetchInputStream in = new PrefetchInputStream(endless(), CHUNK_SIZE, 3, executor);
+                in.read();
+                in.close();
+                return null;
+            });
+            closed.get(5, TimeUnit.SECONDS);
+            // And the reader has let go of the pool's thread.
+            assertFalse(executor.submit(() -> Thread.currentThread().isInterrupted()).get(5, TimeUnit.SECONDS));
+        } finally {
+            consumer.shutdownNow();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void closeDoesNotLeaveTheReadersThreadInterrupted() throws Exception {
+        // A plain worker that, unlike ThreadPoolExecutor, does not clear interrupts between tasks.
+        BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        Thread worker = new Thread(() -> {
+            try {
+                while (true) {
+                    tasks.take().run();
+                }
+            } catch (InterruptedException stopped) {
+                // A leaked interrupt ends the worker here, so the check below never runs.
+            }
+        });
+        worker.setDaemon(true);
+        worker.start();
+
+        // The reader is inside read(), which ignores interrupts, when close() comes, and only then sees the end.
+        CountDownLatch sourceClosed = new CountDownLatch(1);
+        CountDownLatch reading = new CountDownLatch(1);
+        InputStream source = new InputStream() {
+            @Override
+            public int read() {
+                reading.countDown();
+                // Wait through the interrupt and keep it pending, as a blocking disk read would.
+                boolean interrupted = false;
+                while (sourceClosed.getCount() > 0) {
+                    try {
+                        sourceClosed.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() {
+                sourceClosed.countDown();
+            }
+        };
+        PrefetchInputStream in = new PrefetchInputStream(source, CHUNK_SIZE, 2, tasks::add);
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        in.close();
+
+        ArrayBlockingQueue<Boolean> interrupted = new ArrayBlockingQueue<>(1);
+        tasks.add(() -> interrupted.add(Thread.interrupted()));
+        assertEquals(Boolean.FALSE, interrupted.poll(5, TimeUnit.SECONDS));
+        assertTrue(worker.isAlive());
+    }
+
+    private byte[] encrypt(SequentialProcessor processor, byte[] data, SecretKey key, byte[] salt, byte[] iv, CryptoOptions options)
+            throws Exception {
+        File encrypted = temp.newFile();
+        try (FileOutputStream fos = new FileOutputStream(encrypted)) {
+            processor.encrypt(new ByteArrayInputStream(data), data.length, fos, key, salt, iv, options, CHUNK_SIZE, QUIET,
+                    new CryptoJob(QUIET, Runnable::run));
+        }
+        return CryptoTestSupport.read(encrypted);
+    }
+
+    private static IOException readUntilFailure(InputStream source) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (InputStream in = new PrefetchInputStream(source, CHUNK_SIZE, 3, executor)) {
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1000];
+            int n;
+            try {
+                while ((n = in.read(buffer)) != -1) {
+                    read.write(buffer, 0, n);
+                }
+            } catch (IOException expected) {
+                return expected;
+            }
+            fail("Failure was taken for the end of the stream after " + read.size() + " bytes.");
+            return null;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InputStream endless() {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return 0;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                Arrays.fill(b, off, off + len, (byte) 0);
+                return len;
+            }
+        };
+    }
+
+    /**
+     * Serves zeros up to a limit, then throws instead of reporting the end of the stream.
+     */
+    private static class FailingInputStream extends InputStream {
+        private final Exception failure;
+        private int remaining;
+
+        FailingInputStream(int length, Exception failure) {
+            this.remaining = length;
+            this.failure = failure;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            int n = Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 0);
+            remaining -= n;
+            return n;
+        }
+    }
+}
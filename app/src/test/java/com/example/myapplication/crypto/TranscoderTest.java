@@ -0,0 +1,148 @@
+package com.example.myapplication.crypto;
+
+import static com.example.myapplication.crypto.CryptoTestSupport.PASSWORD;
+import static com.example.myapplication.crypto.CryptoTestSupport.QUIET;
+import static com.example.myapplication.crypto.CryptoTestSupport.WRONG_PASSWORD;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TranscoderTest {
+
+    private static final int CHUNK_SIZE = 4096;
+    private static final char[] NEW_PASSWORD = "new password".toCharArray();
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final CryptoManager manager = new CryptoManager();
+    private final CryptoJob job = new CryptoJob(QUIET, Runnable::run);
+
+    @Test
+    public void transcodesBetweenChainedAndSegmentedFormats() throws Exception {
+        byte[] data = CryptoTestSupport.randomBytes(5 * CHUNK_SIZE + 17, 1);
+        File cbc = encrypt(data, CryptoTestSupport.cbcWithMac());
+
+        File chacha = transcode(cbc, PASSWORD, CryptoOptions.getChaChaDefault());
+        assertTrue(FileHeader.peek(chacha.getPath()).hasSegments());
+        assertArrayEquals(data, decrypt(chacha, NEW_PASSWORD));
+
+        File gcm = transcode(chacha, NEW_PASSWORD, CryptoOptions.getDefault());
+        assertArrayEquals(data, decrypt(gcm, NEW_PASSWORD));
+    }
+
+    @Test
+    public void transcodesLanesAndChunkedChainsIntoCtr() throws Exception {
+        CryptoOptions cbc = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null);
+        CryptoOptions ctr = CryptoTestSupport.aes(CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, null);
+        CryptoOptions[] sources = {
+                cbc.withLanes(4),
+                CryptoTestSupport.cbcWithMac().withLanes(3),
+                CryptoTestSupport.aes(CryptoOptions.CipherMode.CFB, CryptoOptions.Padding.NoPadding, null),
+                ctr.withChunkMac(true),
+                // OFB cannot be split into chunks, so its lanes still go one after another.
+                CryptoTestSupport.aes(CryptoOptions.CipherMode.OFB, CryptoOptions.Padding.NoPadding, null).withLanes(2)};
+        for (CryptoOptions options : sources) {
+            for (int size : new int[]{0, 1, 5 * CHUNK_SIZE + 17, 16 * CHUNK_SIZE}) {
+                String shape = options + " size " + size;
+                byte[] data = CryptoTestSupport.randomBytes(size, size);
+                File source = encrypt(data, options);
+                for (CryptoOptions target : new CryptoOptions[]{ctr, ctr.withChunkMac(true)}) {
+                    File transcoded = transcode(source, PASSWORD, target);
+                    assertEquals(shape, CryptoOptions.CipherMode.CTR, FileHeader.peek(transcoded.getPath()).getOptions().getMode());
+                    assertArrayEquals(shape, data, decrypt(transcoded, NEW_PASSWORD));
+                    transcoded.delete();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void tamperedChunkInALaneSurfacesAsItsOwnIOException() throws Exception {
+        // Four lanes of four chunks each, so chunk 9 is in the third lane.
+        File source = encrypt(CryptoTestSupport.randomBytes(16 * CHUNK_SIZE, 4), CryptoTestSupport.cbcWithMac().withLanes(4));
+        CryptoTestSupport.flipBit(source, CryptoTestSupport.headerSize(source) + 9L * CHUNK_SIZE + 1);
+        File dest = new File(temp.getRoot(), "tampered-lane.enc");
+        try {
+            new Transcoder(2).transcode(source.getPath(), dest.getPath(), PASSWORD, NEW_PASSWORD, CryptoOptions.getDefault(),
+                    CHUNK_SIZE, QUIET, job);
+            fail("Tampered chunk was accepted.");
+        } catch (IOException expected) {
+            assertEquals("Chunk 9 failed authentication.", expected.getMessage());
+        }
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void badPaddingInTheLastLaneWritesNothing() throws Exception {
+        CryptoOptions lanes = CryptoTestSupport.aes(CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, null).withLanes(4);
+        File source = encrypt(CryptoTestSupport.randomBytes(16 * CHUNK_SIZE, 5), lanes);
+        CryptoTestSupport.flipBit(source, -17);
+        File dest = new File(temp.getRoot(), "padding.enc");
+        try {
+            new Transcoder(2).transcode(source.getPath(), dest.getPath(), PASSWORD, NEW_PASSWORD,
+                    CryptoTestSupport.aes(CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, null), CHUNK_SIZE, QUIET, job);
+            fail("Bad padding was accepted.");
+        } catch (IOException expected) {
+            assertEquals("Decryption failed (wrong password or corrupted file).", expected.getMessage());
+        }
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void wrongOldPasswordWritesNothing() throws Exception {
+        File source = encrypt(CryptoTestSupport.randomBytes(CHUNK_SIZE, 2), CryptoOptions.getChaChaDefault());
+        File dest = new File(temp.getRoot(), "wrong.enc");
+        try {
+            new Transcoder(2).transcode(source.getPath(), dest.getPath(), WRONG_PASSWORD, NEW_PASSWORD, CryptoOptions.getDefault(),
+                    CHUNK_SIZE, QUIET, job);
+            fail("Wrong password was accepted.");
+        } catch (IOException expected) {
+            assertEquals("Wrong password (key check failed).", expected.getMessage());
+        }
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void tamperedSegmentSurfacesAsItsOwnIOException() throws Exception {
+        File source = encrypt(CryptoTestSupport.randomBytes(4 * CHUNK_SIZE, 3), CryptoOptions.getChaChaDefault());
+        CryptoTestSupport.flipBit(source, CryptoTestSupport.headerSize(source) + 2L * (CHUNK_SIZE + SegmentCipher.TAG_SIZE) + 1);
+        File dest = new File(temp.getRoot(), "tampered.enc");
+        try {
+            new Transcoder(2).transcode(source.getPath(), dest.getPath(), PASSWORD, NEW_PASSWORD, CryptoOptions.getDefault(),
+                    CHUNK_SIZE, QUIET, job);
+            fail("Tampered segment was accepted.");
+        } catch (IOException expected) {
+            assertEquals("Segment 2 failed authentication.", expected.getMessage());
+        }
+        assertFalse(dest.exists());
+    }
+
+    private File encrypt(byte[] data, CryptoOptions options) throws Exception {
+        File source = CryptoTestSupport.write(temp.newFile(), data);
+        File dest = new File(temp.getRoot(), source.getName() + ".enc");
+        manager.encrypt(source.getPath(), dest.getPath(), PASSWORD, options, CHUNK_SIZE, 1, QUIET);
+        return dest;
+    }
+
+    private File transcode(File source, char[] oldPassword, CryptoOptions newOptions) throws Exception {
+        File dest = new File(temp.getRoot(), source.getName() + ".t");
+        new Transcoder(2).transcode(source.getPath(), dest.getPath(), oldPassword, NEW_PASSWORD, newOptions, CHUNK_SIZE, QUIET, job);
+        return dest;
+    }
+
+    private byte[] decrypt(File encrypted, char[] password) throws Exception {
+        File dest = new File(temp.getRoot(), encrypted.getName() + ".out");
+        manager.decrypt(encrypted.getPath(), dest.getPath(), password, null, CHUNK_SIZE, 1, QUIET);
+        return CryptoTestSupport.read(dest);
+    }
+}
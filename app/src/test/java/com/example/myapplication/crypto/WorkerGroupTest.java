@@ -0,0 +1,133 @@
+package com.example.myapplication.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WorkerGroupTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+    @After
+    public void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void neverRunsMoreThanItsLimitAtOnce() throws Exception {
+        WorkerGroup group = new WorkerGroup(pool, 2);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(group.submit(() -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(5);
+                running.decrementAndGet();
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(2, peak.get());
+
+        group.shutdown();
+        assertTrue(group.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(group.isTerminated());
+        // The pool itself carries on for everyone else.
+        assertEquals("still running", pool.submit(() -> "still running").get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void taskQueuedAsTheLastOneFinishesStillRuns() throws Exception {
+        // Submitters race each task's hand-back of its slot; a task queued in between must still run.
+        WorkerGroup group = new WorkerGroup(pool, 1);
+        ExecutorService submitters = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> loops = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                loops.add(submitters.submit(() -> {
+                    for (int j = 0; j < 5000; j++) {
+                        group.submit(() -> { }).get(10, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> loop : loops) {
+                loop.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            submitters.shutdownNow();
+        }
+        group.shutdown();
+        assertTrue(group.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shutdownNowDropsQueuedTasksAndInterruptsRunningOnes() throws Exception {
+        WorkerGroup group = new WorkerGroup(pool, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        group.execute(() -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            group.execute(ran::incrementAndGet);
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertEquals(3, group.shutdownNow().size());
+        assertTrue(group.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+        assertEquals(0, ran.get());
+        try {
+            group.execute(ran::incrementAndGet);
+            fail("Shut down group took a task.");
+        } catch (RejectedExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void workersStartedFromAWorkerRunOnTheCaller() throws Exception {
+        // With every worker waiting on nested work queued behind it, this would never finish.
+        ExecutorService outer = CpuTopology.workers(Runtime.getRuntime().availableProcessors());
+        List<Future<Thread[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 2 * Runtime.getRuntime().availableProcessors(); i++) {
+            futures.add(outer.submit(() -> {
+                ExecutorService nested = CpuTopology.workers(2);
+                try {
+                    return new Thread[]{Thread.currentThread(), nested.submit(Thread::currentThread).get()};
+                } finally {
+                    nested.shutdown();
+                }
+            }));
+        }
+        for (Future<Thread[]> future : futures) {
+            Thread[] threads = future.get(10, TimeUnit.SECONDS);
+            assertSame(threads[0], threads[1]);
+        }
+        outer.shutdown();
+    }
+}
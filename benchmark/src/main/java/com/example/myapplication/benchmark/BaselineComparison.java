@@ -0,0 +1,120 @@
+package com.example.myapplication.benchmark;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two result files run by run. Throughput is a regression when it falls by more than the
+ * threshold, peak RSS and GC counts when they rise by more than it, output size when it grows at
+ * all (that is format overhead, not noise), and a run that fails always is, whether or not it
+ * failed in the baseline too. A baseline run that failed has no numbers worth comparing against.
+ * Runs present in only one of the files are listed but do not count, unless they fail.
+ */
+final class BaselineComparison {
+
+    static final double DEFAULT_THRESHOLD = 0.10;
+    // GC counts are small integers; a couple of extra collections is not a trend.
+    private static final double GC_SLACK = 2;
+
+    private BaselineComparison() {
+    }
+
+    /**
+     * Prints every notable change to out and returns the regressions, empty if there are none.
+     */
+    @SuppressWarnings("unchecked")
+    static List<String> compare(Map<String, Object> baseline, Map<String, Object> current, double threshold, PrintStream out) {
+        Map<String, Map<String, Object>> before = index((List<Object>) baseline.get("results"));
+        Map<String, Map<String, Object>> after = index((List<Object>) current.get("results"));
+        List<String> regressions = new ArrayList<>();
+
+        for (Map.Entry<String, Map<String, Object>> entry : after.entrySet()) {
+            String key = entry.getKey();
+            Map<String, Object> now = entry.getValue();
+            Map<String, Object> then = before.get(key);
+            if (!Boolean.TRUE.equals(now.get("ok"))) {
+                regressions.add(report(out, key, "fails: " + now.get("error")));
+                continue;
+            }
+            if (then == null) {
+                out.println("new        " + key);
+                continue;
+            }
+            if (!Boolean.TRUE.equals(then.get("ok"))) {
+                out.println("fixed      " + key + " (failed in the baseline, not compared)");
+                continue;
+            }
+            double mbps = number(now, "mbPerSecond");
+            double baseMbps = number(then, "mbPerSecond");
+            if (baseMbps > 0 && mbps < baseMbps * (1 - threshold)) {
+                regressions.add(report(out, key, change("MB/s", baseMbps, mbps)));
+            } else if (baseMbps > 0 && mbps > baseMbps * (1 + threshold)) {
+                out.println("improved   " + key + ": " + change("MB/s", baseMbps, mbps));
+            }
+            double rss = number(now, "peakRssKiB");
+            double baseRss = number(then, "peakRssKiB");
+            if (baseRss > 0 && rss > baseRss * (1 + threshold)) {
+                regressions.add(report(out, key, change("peak RSS KiB", baseRss, rss)));
+            }
+            double gc = number(now, "gcCount");
+            double baseGc = number(then, "gcCount");
+            if (gc > baseGc * (1 + threshold) + GC_SLACK) {
+                regressions.add(report(out, key, change("GC count", baseGc, gc)));
+            }
+            double size = number(now, "outputBytes");
+            double baseSize = number(then, "outputBytes");
+            if (baseSize >= 0 && size > baseSize) {
+                regressions.add(report(out, key, change("output bytes", baseSize, size)));
+            }
+        }
+        for (String key : before.keySet()) {
+            if (!after.containsKey(key)) {
+                out.println("missing    " + key);
+            }
+        }
+        out.println(regressions.isEmpty()
+                ? "No regressions beyond " + percent(threshold) + "."
+                : regressions.size() + " regression(s) beyond " + percent(threshold) + ".");
+        return regressions;
+    }
+
+    private static Map<String, Map<String, Object>> index(List<Object> results) {
+        Map<String, Map<String, Object>> byKey = new LinkedHashMap<>();
+        if (results != null) {
+            for (Object result : results) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> run = (Map<String, Object>) result;
+                byKey.put(key(run), run);
+            }
+        }
+        return byKey;
+    }
+
+    static String key(Map<String, Object> run) {
+        return run.get("profile") + "/" + run.get("input") + "/" + run.get("size") + " " + run.get("operation");
+    }
+
+    private static double number(Map<String, Object> run, String field) {
+        Object value = run.get(field);
+        return value instanceof Number ? ((Number) value).doubleValue() : -1;
+    }
+
+    private static String report(PrintStream out, String key, String what) {
+        String line = key + ": " + what;
+        out.println("REGRESSION " + line);
+        return line;
+    }
+
+    private static String change(String metric, double before, double after) {
+        String text = String.format(Locale.US, "%s %.1f -> %.1f", metric, before, after);
+        return before != 0 ? text + String.format(Locale.US, " (%+.1f%%)", (after - before) * 100 / before) : text;
+    }
+
+    private static String percent(double fraction) {
+        return String.format(Locale.US, "%.0f%%", fraction * 100);
+    }
+}
@@ -0,0 +1,494 @@
+package com.example.myapplication.benchmark;
+
+import com.example.myapplication.crypto.CpuTopology;
+import com.example.myapplication.crypto.CryptoJob;
+import com.example.myapplication.crypto.CryptoListener;
+import com.example.myapplication.crypto.CryptoManager;
+import com.example.myapplication.crypto.CryptoOptions;
+import com.example.myapplication.crypto.JobResult;
+import com.example.myapplication.crypto.VerifyResult;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * End-to-end benchmark: full {@link CryptoManager} encrypt, decrypt and verify round trips over
+ * synthetic files, per option profile, recording wall time, MB/s, peak RSS and heap, GC activity and
+ * output size as JSON. Unlike a cipher microbenchmark this includes key derivation, header and MAC
+ * I/O, chunking and the final write, which is what a user waits for.
+ * <pre>
+ *   ./gradlew :benchmark:run --args="--sizes 1K,1M,256M --inputs random,text --out bench.json"
+ *   ./gradlew :benchmark:run --args="--sizes 1M,256M --baseline bench.json"
+ *   ./gradlew :benchmark:run --args="compare bench.json current.json --threshold 0.05"
+ * </pre>
+ * With --baseline, or in compare mode, runs are matched by profile, input, size and operation, and
+ * the exit status is 2 if any regressed beyond the threshold or failed (see {@link BaselineComparison}).
+ * Without a baseline it is 1 if any run failed; the results are written either way.
+ * Each run is repeated and the repetition with the median wall time is reported. Peak RSS comes
+ * from VmHWM, reset before every run, so it is only measured on Linux; elsewhere it is -1.
+ */
+public final class MacroBenchmark {
+
+    private static final int SCHEMA_VERSION = 1;
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+    private static final CryptoListener SILENT = new CryptoListener() {
+        @Override public void onStart(long totalBytes) { }
+        @Override public void onProgress(long currentBytes, long totalBytes) { }
+        @Override public void onSuccess(String message, String outputPath) { }
+        @Override public void onError(String message, Exception e) { }
+        @Override public void onLog(String message) { }
+    };
+
+    enum Profile {
+        AES_GCM("aes-gcm"),
+        XCHACHA("xchacha"),
+        AES_CTR_HMAC("aes-ctr-hmac"),
+        AES_CBC_LANES("aes-cbc-lanes"),
+        ARGON2("argon2"),
+        OPENPGP("openpgp");
+
+        final String label;
+
+        Profile(String label) {
+            this.label = label;
+        }
+
+        CryptoOptions options() {
+            switch (this) {
+                case XCHACHA:
+                    return CryptoOptions.getChaChaDefault();
+                case AES_CTR_HMAC:
+                    return new CryptoOptions(CryptoOptions.CryptoProtocol.AES, CryptoOptions.KeyLength.BITS_256, CryptoOptions.BlockSize.BITS_128,
+                            CryptoOptions.CipherMode.CTR, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128, CryptoOptions.Kdf.PBKDF2WithHmacSHA256, true);
+                case AES_CBC_LANES:
+                    return new CryptoOptions(CryptoOptions.CryptoProtocol.AES, CryptoOptions.KeyLength.BITS_256, CryptoOptions.BlockSize.BITS_128,
+                            CryptoOptions.CipherMode.CBC, CryptoOptions.Padding.PKCS5Padding, CryptoOptions.TagLength.BITS_128, CryptoOptions.Kdf.PBKDF2WithHmacSHA256, true).withLanes(4);
+                case ARGON2:
+                    return new CryptoOptions(CryptoOptions.CryptoProtocol.XCHACHA20_POLY1305, CryptoOptions.KeyLength.BITS_256, null,
+                            CryptoOptions.CipherMode.POLY1305, CryptoOptions.Padding.NoPadding, CryptoOptions.TagLength.BITS_128, CryptoOptions.Kdf.Argon2id);
+                default:
+                    return CryptoOptions.getDefault();
+            }
+        }
+
+        static Profile parse(String label) {
+            for (Profile profile : values()) {
+                if (profile.label.equals(label.trim())) {
+                    return profile;
+                }
+            }
+            throw new IllegalArgumentException("Unknown profile " + label + "; expected one of " + labels() + ".");
+        }
+
+        static String labels() {
+            List<String> labels = new ArrayList<>();
+            for (Profile profile : values()) {
+                labels.add(profile.label);
+            }
+            return String.join(",", labels);
+        }
+    }
+
+    private final CryptoManager manager = new CryptoManager();
+    private final List<Long> sizes = new ArrayList<>();
+    private final List<SyntheticInput.Compressibility> inputs = new ArrayList<>();
+    private final List<Profile> profiles = new ArrayList<>();
+    private int repeat = 3;
+    private int chunkSize = 1024 * 1024;
+    private int threads = CpuTopology.system().getRecommendedThreads();
+    private long seed = 1;
+    private File dir = new File(System.getProperty("java.io.tmpdir"), "crypto-benchmark");
+    private File out = new File("benchmark-results.json");
+    private File baseline;
+    private double threshold = BaselineComparison.DEFAULT_THRESHOLD;
+
+    private MacroBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("compare")) {
+            System.exit(compare(args));
+        }
+        MacroBenchmark benchmark = new MacroBenchmark();
+        benchmark.parse(args);
+        Map<String, Object> results = benchmark.run();
+        benchmark.write(results);
+        boolean failed = !failures(results).isEmpty();
+        if (benchmark.baseline != null) {
+            System.exit(BaselineComparison.compare(read(benchmark.baseline), results, benchmark.threshold, System.out).isEmpty() ? 0 : 2);
+        }
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Prints and returns the runs that did not succeed, so a broken profile is never stored as a baseline unnoticed.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> failures(Map<String, Object> results) {
+        List<String> failures = new ArrayList<>();
+        for (Object result : (List<Object>) results.get("results")) {
+            Map<String, Object> run = (Map<String, Object>) result;
+            if (!Boolean.TRUE.equals(run.get("ok"))) {
+                String line = BaselineComparison.key(run) + ": " + run.get("error");
+                System.out.println("FAILED " + line);
+                failures.add(line);
+            }
+        }
+        return failures;
+    }
+
+    private static int compare(String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Usage: compare <baseline.json> <current.json> [--threshold 0.10]");
+        }
+        double threshold = BaselineComparison.DEFAULT_THRESHOLD;
+        if (args.length >= 5 && args[3].equals("--threshold")) {
+            threshold = Double.parseDouble(args[4]);
+        }
+        return BaselineComparison.compare(read(new File(args[1])), read(new File(args[2])), threshold, System.out).isEmpty() ? 0 : 2;
+    }
+
+    private void parse(String[] args) {
+        String sizeList = "1K,1M,64M";
+        String inputList = "random,text";
+        String profileList = Profile.labels();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name + ".");
+            }
+            String value = args[++i];
+            switch (name) {
+                case "--sizes": sizeList = value; break;
+                case "--inputs": inputList = value; break;
+                case "--profiles": profileList = value; break;
+                case "--repeat": repeat = Math.max(1, Integer.parseInt(value)); break;
+                case "--chunk": chunkSize = (int) SyntheticInput.parseSize(value); break;
+                case "--threads": threads = Math.max(1, Integer.parseInt(value)); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--dir": dir = new File(value); break;
+                case "--out": out = new File(value); break;
+                case "--baseline": baseline = new File(value); break;
+                case "--threshold": threshold = Double.parseDouble(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + name + ".");
+            }
+        }
+        for (String size : sizeList.split(",")) {
+            sizes.add(SyntheticInput.parseSize(size));
+        }
+        for (String input : inputList.split(",")) {
+            inputs.add(SyntheticInput.Compressibility.parse(input));
+        }
+        for (String profile : profileList.split(",")) {
+            profiles.add(Profile.parse(profile));
+        }
+    }
+
+    private Map<String, Object> run() throws Exception {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir + ".");
+        }
+        List<Object> results = new ArrayList<>();
+        for (long size : sizes) {
+            for (SyntheticInput.Compressibility input : inputs) {
+                File source = new File(dir, "input-" + SyntheticInput.formatSize(size) + "-" + input.label() + ".bin");
+                SyntheticInput.write(source, size, input, seed);
+                byte[] digest = digest(source);
+                try {
+                    for (Profile profile : profiles) {
+                        System.out.printf(Locale.US, "%s/%s/%s...%n", profile.label, input.label(), SyntheticInput.formatSize(size));
+                        results.addAll(runProfile(profile, input, source, digest));
+                    }
+                } finally {
+                    source.delete();
+                }
+            }
+        }
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("schema", SCHEMA_VERSION);
+        document.put("timestamp", Instant.now().toString());
+        document.put("environment", environment());
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("repeat", repeat);
+        config.put("chunkSize", chunkSize);
+        config.put("threads", threads);
+        config.put("seed", seed);
+        document.put("config", config);
+        document.put("results", results);
+        return document;
+    }
+
+    private List<Map<String, Object>> runProfile(Profile profile, SyntheticInput.Compressibility input, File source, byte[] digest) {
+        File encrypted = new File(dir, "output.enc");
+        File decrypted = new File(dir, "output.dec");
+        CryptoOptions options = profile.options();
+        String src = source.getPath();
+        String enc = encrypted.getPath();
+        String dec = decrypted.getPath();
+        List<Sample> encrypts = new ArrayList<>();
+        List<Sample> decrypts = new ArrayList<>();
+        List<Sample> verifies = new ArrayList<>();
+        try {
+            for (int i = 0; i < repeat; i++) {
+                Sample encrypt = measure(() -> {
+                    CryptoJob job = profile == Profile.OPENPGP
+                            ? manager.submitEncryptOpenPgp(src, enc, PASSWORD, options, chunkSize, true, SILENT)
+                            : manager.submitEncrypt(src, enc, PASSWORD, options, chunkSize, threads, SILENT);
+                    return outcome(job, encrypted);
+                });
+                encrypts.add(encrypt);
+                if (!encrypt.ok) {
+                    break;
+                }
+                Sample decrypt = measure(() -> outcome(manager.submitDecrypt(enc, dec, PASSWORD, null, chunkSize, threads, SILENT), decrypted));
+                // Checked outside the timed region.
+                if (decrypt.ok && !Arrays.equals(digest, digest(decrypted))) {
+                    decrypt.ok = false;
+                    decrypt.error = "Decrypted output differs from the input.";
+                }
+                decrypts.add(decrypt);
+                if (profile != Profile.OPENPGP) {
+                    verifies.add(measure(() -> {
+                        VerifyResult result = manager.verify(Collections.singletonList(enc), PASSWORD, chunkSize, threads, SILENT).get(0);
+                        Outcome outcome = new Outcome();
+                        outcome.ok = result.getStatus() != VerifyResult.Status.FAILED;
+                        outcome.error = outcome.ok ? null : result.getMessage();
+                        outcome.outputBytes = 0;
+                        return outcome;
+                    }));
+                }
+                encrypted.delete();
+                decrypted.delete();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            encrypted.delete();
+            decrypted.delete();
+        }
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        addRow(rows, profile, options, input, source.length(), "encrypt", encrypts);
+        addRow(rows, profile, options, input, source.length(), "decrypt", decrypts);
+        addRow(rows, profile, options, input, source.length(), "verify", verifies);
+        return rows;
+    }
+
+    private static void addRow(List<Map<String, Object>> rows, Profile profile, CryptoOptions options, SyntheticInput.Compressibility input,
+                               long size, String operation, List<Sample> samples) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        Sample failed = null;
+        List<Long> walls = new ArrayList<>();
+        for (Sample sample : samples) {
+            walls.add(sample.wallNanos / 1_000_000L);
+            if (!sample.ok && failed == null) {
+                failed = sample;
+            }
+        }
+        List<Sample> sorted = new ArrayList<>(samples);
+        sorted.sort(Comparator.comparingLong(s -> s.wallNanos));
+        Sample median = failed != null ? failed : sorted.get(sorted.size() / 2);
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("profile", profile.label);
+        row.put("options", profile == Profile.OPENPGP ? "OpenPGP " + options.getTransformation() + " + ZIP" : options.toString());
+        row.put("input", input.label());
+        row.put("size", SyntheticInput.formatSize(size));
+        row.put("sizeBytes", size);
+        row.put("operation", operation);
+        row.put("ok", median.ok);
+        if (median.error != null) {
+            row.put("error", median.error);
+        }
+        row.put("wallMillis", median.wallNanos / 1e6);
+        row.put("wallMillisRuns", walls);
+        row.put("setupMillis", median.setupMillis);
+        row.put("mbPerSecond", median.wallNanos > 0 ? size / (median.wallNanos / 1e9) / (1024 * 1024) : 0.0);
+        row.put("peakRssKiB", median.peakRssKiB);
+        row.put("peakHeapBytes", median.peakHeapBytes);
+        row.put("gcCount", median.gcCount);
+        row.put("gcMillis", median.gcMillis);
+        row.put("outputBytes", median.outputBytes);
+        rows.add(row);
+    }
+
+    /**
+     * Runs one operation from a collected heap and a reset RSS high-water mark.
+     */
+    private static Sample measure(Operation operation) {
+        System.gc();
+        resetPeakRss();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+
+        Sample sample = new Sample();
+        long start = System.nanoTime();
+        try {
+            Outcome outcome = operation.run();
+            sample.ok = outcome.ok;
+            sample.error = outcome.error;
+            sample.setupMillis = outcome.setupMillis;
+            sample.outputBytes = outcome.outputBytes;
+        } catch (Exception e) {
+            sample.ok = false;
+            sample.error = String.valueOf(e);
+        }
+        sample.wallNanos = System.nanoTime() - start;
+
+        sample.gcCount = gcCount() - gcCount;
+        sample.gcMillis = gcMillis() - gcMillis;
+        sample.peakRssKiB = peakRssKiB();
+        for (MemoryPoolMXBean pool : heapPools) {
+            sample.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        return sample;
+    }
+
+    private static Outcome outcome(CryptoJob job, File output) throws InterruptedException {
+        Outcome outcome = new Outcome();
+        try {
+            JobResult result = job.getResult().get();
+            outcome.ok = true;
+            outcome.setupMillis = result.getMetrics().getSetupMillis();
+            outcome.outputBytes = output.length();
+        } catch (ExecutionException e) {
+            outcome.ok = false;
+            outcome.error = String.valueOf(e.getCause());
+            outcome.outputBytes = -1;
+        }
+        return outcome;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static void resetPeakRss() {
+        // Writing 5 to clear_refs resets VmHWM to the current RSS (Linux 4.0 and later).
+        try (FileWriter writer = new FileWriter("/proc/self/clear_refs")) {
+            writer.write("5");
+        } catch (IOException ignored) {
+            // Not Linux, or not permitted: the peak then covers the whole process so far.
+        }
+    }
+
+    private static long peakRssKiB() {
+        try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("VmHWM:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+            // Fall through
+        }
+        return -1;
+    }
+
+    private static Map<String, Object> environment() {
+        Map<String, Object> environment = new LinkedHashMap<>();
+        environment.put("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        environment.put("os", System.getProperty("os.name") + " " + System.getProperty("os.version") + " " + System.getProperty("os.arch"));
+        environment.put("processors", Runtime.getRuntime().availableProcessors());
+        environment.put("cpuTopology", CpuTopology.system().toString());
+        environment.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+        return environment;
+    }
+
+    private static byte[] digest(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[1024 * 1024];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                sha.update(buffer, 0, n);
+            }
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(Map<String, Object> results) throws IOException {
+        File parent = out.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent + ".");
+        }
+        Files.write(out.toPath(), Json.write(results).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out.getPath());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> read(File file) throws IOException {
+        return (Map<String, Object>) Json.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private interface Operation {
+        Outcome run() throws Exception;
+    }
+
+    private static final class Outcome {
+        boolean ok;
+        String error;
+        long setupMillis;
+        long outputBytes;
+    }
+
+    private static final class Sample {
+        boolean ok;
+        String error;
+        long wallNanos;
+        long setupMillis;
+        long outputBytes;
+        long peakRssKiB;
+        long peakHeapBytes;
+        long gcCount;
+        long gcMillis;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.myapplication.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reproducible input files of any size. The content only matters to stages that compress (OpenPGP)
+ * and to the disk cache, but it is cheap to cover the range, so each file is one of a few levels of
+ * compressibility. The same size, level and seed always give the same bytes.
+ */
+final class SyntheticInput {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "in", "is", "that", "for", "it", "as", "was", "with", "be", "by",
+            "on", "not", "he", "this", "are", "or", "his", "from", "at", "which", "but", "have", "an",
+            "had", "they", "you", "were", "their", "one", "all", "we", "can", "her", "has", "there",
+            "been", "if", "more", "when", "will", "would", "who", "so", "no", "cipher", "chunk", "block",
+            "header", "segment", "password", "archive", "encrypted", "file", "stream", "thread", "key"
+    };
+
+    enum Compressibility {
+        RANDOM,  // Incompressible
+        TEXT,    // Word salad; deflate gets about 3:1
+        SPARSE,  // Random blocks alternating with runs of zeros; about 2:1
+        ZEROS;   // All zeros
+
+        static Compressibility parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.US));
+        }
+
+        String label() {
+            return name().toLowerCase(Locale.US);
+        }
+    }
+
+    private SyntheticInput() {
+    }
+
+    static void write(File file, long size, Compressibility compressibility, long seed) throws IOException {
+        Random random = new Random(seed ^ size ^ compressibility.ordinal());
+        byte[] block = new byte[BLOCK_SIZE];
+        byte[] text = compressibility == Compressibility.TEXT ? text(random) : null;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BLOCK_SIZE)) {
+            long written = 0;
+            while (written < size) {
+                int n = (int) Math.min(BLOCK_SIZE, size - written);
+                switch (compressibility) {
+                    case RANDOM:
+                        random.nextBytes(block);
+                        break;
+                    case TEXT:
+                        // Rotate so consecutive blocks differ; deflate's window is far smaller than a block anyway.
+                        int shift = random.nextInt(BLOCK_SIZE);
+                        System.arraycopy(text, shift, block, 0, BLOCK_SIZE - shift);
+                        System.arraycopy(text, 0, block, BLOCK_SIZE - shift, shift);
+                        break;
+                    case SPARSE:
+                        random.nextBytes(block);
+                        for (int i = 0; i < BLOCK_SIZE; i += 8192) {
+                            if ((i / 8192) % 2 == 1) {
+                                Arrays.fill(block, i, Math.min(BLOCK_SIZE, i + 8192), (byte) 0);
+                            }
+                        }
+                        break;
+                    default:
+                        Arrays.fill(block, (byte) 0);
+                        break;
+                }
+                out.write(block, 0, n);
+                written += n;
+            }
+        }
+    }
+
+    private static byte[] text(Random random) {
+        StringBuilder sb = new StringBuilder(BLOCK_SIZE + 16);
+        while (sb.length() < BLOCK_SIZE) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(random.nextInt(12) == 0 ? ".\n" : " ");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(StandardCharsets.US_ASCII), BLOCK_SIZE);
+    }
+
+    /**
+     * Parses 512, 4K, 64M or 2G (binary units) into bytes.
+     */
+    static long parseSize(String text) {
+        String s = text.trim().toUpperCase(Locale.US);
+        long unit = 1;
+        char last = s.charAt(s.length() - 1);
+        if (last == 'K' || last == 'M' || last == 'G') {
+            unit = last == 'K' ? 1L << 10 : last == 'M' ? 1L << 20 : 1L << 30;
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * unit;
+    }
+
+    static String formatSize(long bytes) {
+        if (bytes >= 1L << 30 && bytes % (1L << 30) == 0) return (bytes >> 30) + "G";
+        if (bytes >= 1L << 20 && bytes % (1L << 20) == 0) return (bytes >> 20) + "M";
+        if (bytes >= 1L << 10 && bytes % (1L << 10) == 0) return (bytes >> 10) + "K";
+        return Long.toString(bytes);
+    }
+}